@@ -62,6 +62,12 @@ public class GvrVideoPlayerTexture : MonoBehaviour
 
     private const string DLL_NAME = "gvrvideo";
 
+    /// <summary>The target of video textures copied into a chain of frames.</summary>
+    private const int GL_TEXTURE_2D = 0x0DE1;
+
+    /// <summary>The shader keyword to sample 2D video textures.</summary>
+    private const string TEXTURE_2D_KEYWORD = "VIDEO_TEXTURE_2D";
+
 #if !UNITY_ANDROID || UNITY_EDITOR
     private const string NOT_IMPLEMENTED_MSG = "Not implemented on this platform";
 #endif // !UNITY_ANDROID || UNITY_EDITOR
@@ -78,6 +84,7 @@ public class GvrVideoPlayerTexture : MonoBehaviour
     private Texture initialTexture;
     private Texture surfaceTexture;
     private float[] videoMatrixRaw;
+    private Color32[] previewPixels;
     private Matrix4x4 videoMatrix;
     private int videoMatrixPropertyId;
     private long lastVideoTimestamp;
@@ -513,6 +520,93 @@ public class GvrVideoPlayerTexture : MonoBehaviour
         SetCurrentVolume(videoPlayerPtr, val);
     }
 
+    /// <summary>Sets the direction the viewer is looking in.</summary>
+    /// <remarks>
+    /// Viewport dependent 360 streams use it to fetch the representation that emphasises where
+    /// the viewer will be looking. Call it every frame with the head rotation relative to the
+    /// video sphere.
+    /// </remarks>
+    /// <param name="headRotation">The head rotation relative to the video sphere.</param>
+    public void SetViewOrientation(Quaternion headRotation)
+    {
+        if (videoPlayerPtr == IntPtr.Zero)
+        {
+            return;
+        }
+
+        Vector3 angles = headRotation.eulerAngles;
+        float yaw = Mathf.DeltaAngle(0, angles.y);
+        float pitch = -Mathf.DeltaAngle(0, angles.x);
+        SetViewOrientation(videoPlayerPtr, yaw, pitch);
+    }
+
+    /// <summary>Marks the video as visible or not.</summary>
+    /// <remarks>
+    /// A video that is not visible, such as when the viewer looks away from its panel, stops
+    /// decoding and loading its video and keeps playing its audio, so several panels can play at
+    /// once. When it is visible again the video picks up from the current position.
+    /// </remarks>
+    /// <param name="visible">False while the video is not visible.</param>
+    public void SetVideoVisible(bool visible)
+    {
+        if (videoPlayerPtr == IntPtr.Zero)
+        {
+            return;
+        }
+
+        SetVideoVisible(videoPlayerPtr, visible);
+    }
+
+    /// <summary>Copies a low resolution preview of the video at a position into a texture.
+    /// </summary>
+    /// <remarks>
+    /// Previews come from the thumbnail or trick play tracks of the video, and are shown while
+    /// scrubbing instead of seeking the full video. One not loaded yet is loaded in the
+    /// background, so this can be called every frame while scrubbing until it returns `true`.
+    /// </remarks>
+    /// <param name="positionMs">The position to preview, in milliseconds.</param>
+    /// <param name="preview">An RGBA32 texture that the preview is scaled into.</param>
+    /// <returns>Returns `true` if the preview was copied, or `false` if it is not loaded yet or
+    /// the video has no previews.</returns>
+    public bool GetPreviewFrame(long positionMs, Texture2D preview)
+    {
+        if (videoPlayerPtr == IntPtr.Zero || preview == null)
+        {
+            return false;
+        }
+
+        if (preview.format != TextureFormat.RGBA32)
+        {
+            Debug.LogError("Preview texture must be RGBA32");
+            return false;
+        }
+
+        int size = preview.width * preview.height;
+        if (previewPixels == null || previewPixels.Length != size)
+        {
+            previewPixels = new Color32[size];
+        }
+
+        GCHandle handle = GCHandle.Alloc(previewPixels, GCHandleType.Pinned);
+        bool copied;
+        try
+        {
+            copied = GetPreviewFrame(videoPlayerPtr, positionMs, handle.AddrOfPinnedObject(),
+                                     preview.width, preview.height);
+        }
+        finally
+        {
+            handle.Free();
+        }
+
+        if (copied)
+        {
+            preview.SetPixels32(previewPixels);
+            preview.Apply();
+        }
+        return copied;
+    }
+
     /// <summary>Initialize the video player.</summary>
     /// <returns>Returns `true` if successful.</returns>
     public bool Init()
@@ -708,6 +802,9 @@ public class GvrVideoPlayerTexture : MonoBehaviour
     [DllImport(DLL_NAME)]
     private static extern int GetExternalSurfaceTextureId(IntPtr videoPlayerPtr);
 
+    [DllImport(DLL_NAME)]
+    private static extern int GetExternalSurfaceTextureTarget(IntPtr videoPlayerPtr);
+
     [DllImport(DLL_NAME)]
     private static extern void GetVideoMatrix(IntPtr videoPlayerPtr,
                                               float[] videoMatrix);
@@ -784,6 +881,22 @@ public class GvrVideoPlayerTexture : MonoBehaviour
     [DllImport(DLL_NAME)]
     private static extern bool HasProjectionData(IntPtr videoPlayerPtr);
 
+    [DllImport(DLL_NAME)]
+    private static extern void SetViewOrientation(IntPtr videoPlayerPtr,
+                                                  float yawDegrees,
+                                                  float pitchDegrees);
+
+    [DllImport(DLL_NAME)]
+    private static extern void SetVideoVisible(IntPtr videoPlayerPtr,
+                                               bool visible);
+
+    [DllImport(DLL_NAME)]
+    private static extern bool GetPreviewFrame(IntPtr videoPlayerPtr,
+                                               long positionMs,
+                                               IntPtr pixels,
+                                               int width,
+                                               int height);
+
     [DllImport(DLL_NAME)]
     private static extern bool SetVideoPlayerSupportClassname(
         IntPtr videoPlayerPtr,
@@ -830,6 +943,12 @@ public class GvrVideoPlayerTexture : MonoBehaviour
         return 0;
     }
 
+    private static int GetExternalSurfaceTextureTarget(IntPtr videoPlayerPtr)
+    {
+        Debug.Log(NOT_IMPLEMENTED_MSG);
+        return 0;
+    }
+
     private static void GetVideoMatrix(IntPtr videoPlayerPtr,
                                        float[] videoMatrix)
     {
@@ -968,6 +1087,28 @@ public class GvrVideoPlayerTexture : MonoBehaviour
         return false;
     }
 
+    private static void SetViewOrientation(IntPtr videoPlayerPtr,
+                                           float yawDegrees,
+                                           float pitchDegrees)
+    {
+        Debug.Log(NOT_IMPLEMENTED_MSG);
+    }
+
+    private static void SetVideoVisible(IntPtr videoPlayerPtr, bool visible)
+    {
+        Debug.Log(NOT_IMPLEMENTED_MSG);
+    }
+
+    private static bool GetPreviewFrame(IntPtr videoPlayerPtr,
+                                        long positionMs,
+                                        IntPtr pixels,
+                                        int width,
+                                        int height)
+    {
+        Debug.Log(NOT_IMPLEMENTED_MSG);
+        return false;
+    }
+
     private static bool SetVideoPlayerSupportClassname(IntPtr videoPlayerPtr,
                                                        string classname)
     {
@@ -1137,8 +1278,17 @@ public class GvrVideoPlayerTexture : MonoBehaviour
         if (surfaceTexture != null
             && surfaceTexture.GetNativeTexturePtr().ToInt32() != externalTextureId)
         {
-            Destroy(surfaceTexture);
-            surfaceTexture = null;
+            if (externalTextureId != 0)
+            {
+                // Chained frames are in a different texture every frame.
+                ((Texture2D)surfaceTexture).UpdateExternalTexture(
+                    new System.IntPtr(externalTextureId));
+            }
+            else
+            {
+                Destroy(surfaceTexture);
+                surfaceTexture = null;
+            }
         }
 
         if (surfaceTexture == null && externalTextureId != 0)
@@ -1181,6 +1331,19 @@ public class GvrVideoPlayerTexture : MonoBehaviour
             }
 
             screen.sharedMaterial.SetMatrix(videoMatrixPropertyId, videoMatrix);
+
+            bool texture2D = GetExternalSurfaceTextureTarget(videoPlayerPtr) == GL_TEXTURE_2D;
+            if (texture2D != screen.sharedMaterial.IsKeywordEnabled(TEXTURE_2D_KEYWORD))
+            {
+                if (texture2D)
+                {
+                    screen.sharedMaterial.EnableKeyword(TEXTURE_2D_KEYWORD);
+                }
+                else
+                {
+                    screen.sharedMaterial.DisableKeyword(TEXTURE_2D_KEYWORD);
+                }
+            }
         }
     }
 
@@ -16,7 +16,9 @@
 
 //
 // This shader renders from OES_external_image textures which require special
-// OpenGLES extensions and a special texture sampler.
+// OpenGLES extensions and a special texture sampler.  With VIDEO_TEXTURE_2D,
+// it renders from the 2D textures video frames are copied into when they are
+// chained.
 //
 Shader "GoogleVR/Video Unlit Shader" {
   Properties {
@@ -40,6 +42,7 @@ Shader "GoogleVR/Video Unlit Shader" {
 
         #pragma multi_compile ___ _STEREOMODE_TOPBOTTOM _STEREOMODE_LEFTRIGHT
         #pragma multi_compile ___ FLIP_X
+        #pragma multi_compile ___ VIDEO_TEXTURE_2D
 
         precision mediump int;
         precision mediump float;
@@ -85,7 +88,11 @@ Shader "GoogleVR/Video Unlit Shader" {
           }
 
           uniform float _Gamma;
-          uniform samplerExternalOES _MainTex;
+          #ifdef VIDEO_TEXTURE_2D
+            uniform sampler2D _MainTex;
+          #else
+            uniform samplerExternalOES _MainTex;
+          #endif  // VIDEO_TEXTURE_2D
           varying vec2 uv;
 
           void main() {
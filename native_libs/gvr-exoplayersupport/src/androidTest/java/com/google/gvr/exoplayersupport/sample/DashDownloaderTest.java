@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gvr.exoplayersupport.sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Downloads a small title from a {@link LocalHttpServer} standing in for the CDN. */
+@RunWith(AndroidJUnit4.class)
+public final class DashDownloaderTest {
+  private static final long TIMEOUT_MS = 10000;
+  private static final String MANIFEST_PATH = "/manifest.mpd";
+  private static final String[] REPRESENTATIONS = {"video", "audio"};
+  private static final int SEGMENT_COUNT = 3;
+  private static final String MANIFEST =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\""
+          + " mediaPresentationDuration=\"PT6S\" minBufferTime=\"PT2S\">\n"
+          + "  <Period>\n"
+          + "    <AdaptationSet mimeType=\"video/mp4\">\n"
+          + "      <SegmentTemplate timescale=\"1\" duration=\"2\" startNumber=\"1\""
+          + " initialization=\"$RepresentationID$/init.mp4\""
+          + " media=\"$RepresentationID$/$Number$.m4s\"/>\n"
+          + "      <Representation id=\"video\" codecs=\"avc1.42c01e\" bandwidth=\"500000\""
+          + " width=\"640\" height=\"360\"/>\n"
+          + "    </AdaptationSet>\n"
+          + "    <AdaptationSet mimeType=\"audio/mp4\">\n"
+          + "      <SegmentTemplate timescale=\"1\" duration=\"2\" startNumber=\"1\""
+          + " initialization=\"$RepresentationID$/init.mp4\""
+          + " media=\"$RepresentationID$/$Number$.m4s\"/>\n"
+          + "      <Representation id=\"audio\" codecs=\"mp4a.40.2\" bandwidth=\"64000\""
+          + " audioSamplingRate=\"44100\"/>\n"
+          + "    </AdaptationSet>\n"
+          + "  </Period>\n"
+          + "</MPD>\n";
+
+  private Context context;
+  private LocalHttpServer server;
+  private File outputDir;
+
+  @Before
+  public void setUp() throws IOException {
+    context = InstrumentationRegistry.getTargetContext();
+    server = new LocalHttpServer();
+    server.setContent(MANIFEST_PATH, MANIFEST.getBytes("UTF-8"));
+    for (String representation : REPRESENTATIONS) {
+      for (int i = 0; i <= SEGMENT_COUNT; i++) {
+        server.setContent(getPath(representation, i), getData(representation, i));
+      }
+    }
+    outputDir = new File(context.getCacheDir(), "DashDownloaderTest");
+    delete(outputDir);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.release();
+    delete(outputDir);
+  }
+
+  @Test
+  public void downloadsEverySegmentOnce() throws Exception {
+    RecordingListener listener = download(DashDownloader.DEFAULT_MAX_PARALLEL_DOWNLOADS);
+
+    assertNull(listener.error);
+    assertNotNull(listener.manifestFile);
+    assertEquals(REPRESENTATIONS.length * (SEGMENT_COUNT + 1), listener.segmentCount);
+    assertEquals(listener.segmentCount, listener.segmentsCompleted);
+    for (String representation : REPRESENTATIONS) {
+      for (int i = 0; i <= SEGMENT_COUNT; i++) {
+        assertEquals(1, server.getRequestCount(getPath(representation, i)));
+        assertDownloaded(representation, i);
+      }
+    }
+    InputStream inputStream = new FileInputStream(listener.manifestFile);
+    try {
+      MediaPresentationDescription manifest =
+          new MediaPresentationDescriptionParser()
+              .parse(listener.manifestFile.toURI().toString(), inputStream);
+      assertFalse(manifest.dynamic);
+      assertEquals(1, manifest.getPeriodCount());
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  @Test
+  public void resumesFromTheJournal() throws Exception {
+    String failingPath = getPath("video", 2);
+    server.setFailure(failingPath, 500);
+    RecordingListener listener = download(1);
+    assertNotNull(listener.error);
+    assertNull(listener.manifestFile);
+
+    server.setFailure(failingPath, 0);
+    listener = download(1);
+    assertNull(listener.error);
+    assertNotNull(listener.manifestFile);
+    // What completed before the error is not loaded again.
+    assertEquals(1, server.getRequestCount(getPath("video", 0)));
+    assertEquals(1, server.getRequestCount(getPath("video", 1)));
+    assertEquals(2, server.getRequestCount(failingPath));
+    for (int i = 0; i <= SEGMENT_COUNT; i++) {
+      assertDownloaded("video", i);
+    }
+
+    // A completed download only writes the manifest again.
+    listener = download(1);
+    assertNotNull(listener.manifestFile);
+    assertEquals(listener.segmentCount, listener.segmentsCompleted);
+    assertEquals(2, server.getRequestCount(failingPath));
+  }
+
+  @Test
+  public void cancelsWhileLoadingTheManifest() throws Exception {
+    CountDownLatch manifestHeld = server.hold(MANIFEST_PATH);
+    RecordingListener listener = new RecordingListener();
+    DashDownloader downloader = createDownloader(1, listener);
+    downloader.start();
+    long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (server.getRequestCount(MANIFEST_PATH) == 0) {
+      assertTrue(System.currentTimeMillis() < deadlineMs);
+      Thread.sleep(10);
+    }
+
+    downloader.cancel();
+    manifestHeld.countDown();
+    // Nothing is queued on the shut down executor, and nothing is reported.
+    assertFalse(listener.done.await(1, TimeUnit.SECONDS));
+    for (String representation : REPRESENTATIONS) {
+      assertEquals(0, server.getRequestCount(getPath(representation, 0)));
+    }
+  }
+
+  @Test
+  public void restartDoesNotShareTheCanceledRead() throws Exception {
+    String heldPath = getPath("video", 1);
+    CountDownLatch segmentHeld = server.hold(heldPath);
+    RecordingListener listener = new RecordingListener();
+    DashDownloader downloader = createDownloader(1, listener);
+    downloader.start();
+    awaitRequests(heldPath, 1);
+    downloader.cancel();
+    downloader.start();
+    awaitRequests(heldPath, 2);
+    // Both answers arrive, and only the one of the current start reaches the part.
+    segmentHeld.countDown();
+    assertTrue(listener.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertNull(listener.error);
+    assertDownloaded("video", 1);
+  }
+
+  @Test
+  public void discardsTheFilesOfAnotherManifest() throws Exception {
+    File journal = new File(outputDir, "journal");
+    File partFile = new File(outputDir, "p0/video/1.seg.part");
+    assertTrue(partFile.getParentFile().mkdirs());
+    write(journal, "http://localhost/other.mpd\np0/video/init.seg\n".getBytes("UTF-8"));
+    write(partFile, new byte[] {1, 2, 3});
+    write(new File(outputDir, "p0/video/init.seg"), new byte[] {4, 5, 6});
+
+    RecordingListener listener = download(1);
+    assertNull(listener.error);
+    for (int i = 0; i <= SEGMENT_COUNT; i++) {
+      assertEquals(1, server.getRequestCount(getPath("video", i)));
+      assertDownloaded("video", i);
+    }
+  }
+
+  private RecordingListener download(int maxParallelDownloads) throws InterruptedException {
+    RecordingListener listener = new RecordingListener();
+    createDownloader(maxParallelDownloads, listener).start();
+    assertTrue(listener.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    return listener;
+  }
+
+  private DashDownloader createDownloader(
+      int maxParallelDownloads, DashDownloader.Listener listener) {
+    return new DashDownloader(
+        context,
+        server.getUrl(MANIFEST_PATH),
+        outputDir,
+        0,
+        maxParallelDownloads,
+        new DashDownloader.DataSourceFactory() {
+          @Override
+          public DataSource createDataSource() {
+            return new DefaultHttpDataSource("DashDownloaderTest", null);
+          }
+        },
+        null,
+        listener);
+  }
+
+  private void awaitRequests(String path, int count) throws InterruptedException {
+    long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (server.getRequestCount(path) < count) {
+      assertTrue(System.currentTimeMillis() < deadlineMs);
+      Thread.sleep(10);
+    }
+  }
+
+  private void assertDownloaded(String representation, int index) throws IOException {
+    String name = index == 0 ? "init.seg" : index + ".seg";
+    File file = new File(outputDir, "p0/" + representation + "/" + name);
+    assertTrue(file.getPath(), file.exists());
+    assertArrayEquals(getData(representation, index), read(file));
+  }
+
+  /** @return the path of the initialization segment for an index of 0, else of a segment. */
+  private static String getPath(String representation, int index) {
+    return "/" + representation + "/" + (index == 0 ? "init.mp4" : index + ".m4s");
+  }
+
+  /** @return content that differs per segment, long enough to take several reads. */
+  private static byte[] getData(String representation, int index) {
+    byte[] data = new byte[40 * 1024 + index];
+    int seed = representation.hashCode() * 31 + index;
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (seed + i * 7);
+    }
+    return data;
+  }
+
+  private static byte[] read(File file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    InputStream inputStream = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = inputStream.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+    } finally {
+      inputStream.close();
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void write(File file, byte[] data) throws IOException {
+    OutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(data);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /** Records the last progress and the outcome of a download. */
+  private static final class RecordingListener implements DashDownloader.Listener {
+    public final CountDownLatch done = new CountDownLatch(1);
+    public volatile int segmentsCompleted;
+    public volatile int segmentCount;
+    public volatile File manifestFile;
+    public volatile IOException error;
+
+    @Override
+    public void onDownloadProgress(
+        DashDownloader downloader,
+        long bytesDownloaded,
+        int segmentsCompleted,
+        int segmentCount,
+        long throughputBps) {
+      // Reports from the download threads can arrive out of order.
+      this.segmentsCompleted = Math.max(this.segmentsCompleted, segmentsCompleted);
+      this.segmentCount = segmentCount;
+    }
+
+    @Override
+    public void onDownloadCompleted(DashDownloader downloader, File manifestFile) {
+      this.manifestFile = manifestFile;
+      done.countDown();
+    }
+
+    @Override
+    public void onDownloadError(DashDownloader downloader, IOException e) {
+      error = e;
+      done.countDown();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gvr.exoplayersupport.sample;
+
+import android.util.Base64;
+import com.google.android.exoplayer.drm.ExoMediaDrm;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Stands in for a ClearKey license server in tests. It answers every key request with the keys
+ * for the key ids asked for, derived from the ids, and counts the key requests.
+ */
+final class FakeLicenseCallback implements MediaDrmCallback {
+  static final UUID CLEARKEY_UUID = new UUID(0xE2719D58A985B3C9L, 0x781AB030AF78D30EL);
+
+  private static final UUID COMMON_PSSH_UUID = new UUID(0x1077EFECC0B24D02L, 0xACE33C1E52E2FB4BL);
+  private static final int BASE64_FLAGS = Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING;
+
+  private final AtomicInteger keyRequestCount = new AtomicInteger();
+
+  /** Returns the number of key requests answered. */
+  int getKeyRequestCount() {
+    return keyRequestCount.get();
+  }
+
+  @Override
+  public byte[] executeProvisionRequest(UUID uuid, ExoMediaDrm.ProvisionRequest request) {
+    throw new UnsupportedOperationException("ClearKey needs no provisioning");
+  }
+
+  @Override
+  public byte[] executeKeyRequest(UUID uuid, ExoMediaDrm.KeyRequest request) throws Exception {
+    JSONObject licenseRequest = new JSONObject(new String(request.getData(), "UTF-8"));
+    JSONArray kids = licenseRequest.getJSONArray("kids");
+    JSONArray keys = new JSONArray();
+    for (int i = 0; i < kids.length(); i++) {
+      String kid = kids.getString(i);
+      JSONObject key = new JSONObject();
+      key.put("kty", "oct");
+      key.put("kid", kid);
+      key.put("k", Base64.encodeToString(getKey(Base64.decode(kid, BASE64_FLAGS)), BASE64_FLAGS));
+      keys.put(key);
+    }
+    JSONObject license = new JSONObject();
+    license.put("keys", keys);
+    license.put("type", licenseRequest.optString("type", "temporary"));
+    keyRequestCount.incrementAndGet();
+    return license.toString().getBytes("UTF-8");
+  }
+
+  /** Returns a common encryption pssh box listing a key id, the init data ClearKey takes. */
+  static byte[] buildInitData(byte[] keyId) {
+    ByteBuffer pssh = ByteBuffer.allocate(36 + keyId.length);
+    pssh.putInt(pssh.capacity());
+    pssh.putInt(0x70737368); // pssh
+    pssh.putInt(0x01000000); // Version 1, no flags.
+    pssh.putLong(COMMON_PSSH_UUID.getMostSignificantBits());
+    pssh.putLong(COMMON_PSSH_UUID.getLeastSignificantBits());
+    pssh.putInt(1);
+    pssh.put(keyId);
+    pssh.putInt(0);
+    return pssh.array();
+  }
+
+  private static byte[] getKey(byte[] keyId) {
+    byte[] key = new byte[keyId.length];
+    for (int i = 0; i < key.length; i++) {
+      key[i] = (byte) (keyId[i] ^ 0x5A);
+    }
+    return key;
+  }
+}
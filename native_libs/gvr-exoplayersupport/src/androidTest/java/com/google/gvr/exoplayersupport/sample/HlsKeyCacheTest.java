@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gvr.exoplayersupport.sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Fetches keys from a {@link LocalHttpServer} that answers after a round trip time, for a stream
+ * that rotates its key every segment.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class HlsKeyCacheTest {
+  private static final String TAG = "HlsKeyCacheTest";
+
+  private static final long TIMEOUT_MS = 10000;
+  private static final long ROUND_TRIP_MS = 150;
+  private static final int KEY_COUNT = 20;
+
+  private LocalHttpServer server;
+  private ExecutorService executor;
+  private AtomicInteger dataSourceCount;
+  private HlsKeyCache keyCache;
+  private List<String> keyUris;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new LocalHttpServer();
+    server.setDelay(ROUND_TRIP_MS);
+    keyUris = new ArrayList<>();
+    for (int i = 0; i < KEY_COUNT; i++) {
+      server.setContent(getPath(i), getKey(i));
+      keyUris.add(server.getUrl(getPath(i)));
+    }
+    executor = Executors.newFixedThreadPool(2);
+    dataSourceCount = new AtomicInteger();
+    keyCache =
+        new HlsKeyCache(
+            new LivePlaylistDataSource.HttpDataSourceFactory() {
+              @Override
+              public HttpDataSource createDataSource() {
+                dataSourceCount.incrementAndGet();
+                return new DefaultHttpDataSource(TAG, null);
+              }
+            },
+            executor);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    executor.shutdownNow();
+    server.release();
+  }
+
+  @Test
+  public void prefetchedKeyIsReadyAtOnce() throws Exception {
+    keyCache.update("vod.m3u8", keyUris, false);
+    awaitRequested(0, 1, 2);
+    // Give the prefetches their round trip before playback asks for the keys.
+    Thread.sleep(2 * ROUND_TRIP_MS);
+
+    long prefetchedWaitMs = timeGet(0);
+    long inlineWaitMs = timeGet(10);
+    Log.i(
+        TAG,
+        "Waited "
+            + prefetchedWaitMs
+            + "ms for a prefetched key and "
+            + inlineWaitMs
+            + "ms for a key fetched inline, with a "
+            + ROUND_TRIP_MS
+            + "ms round trip");
+    assertTrue(inlineWaitMs >= ROUND_TRIP_MS);
+    assertTrue(prefetchedWaitMs < ROUND_TRIP_MS / 2);
+    assertEquals(1, keyCache.getPrefetchHits());
+    assertEquals(1, keyCache.getInlineFetches());
+  }
+
+  @Test
+  public void prefetchesAFewKeysPastThePlayhead() throws Exception {
+    keyCache.update("vod.m3u8", keyUris, false);
+    awaitRequested(0, 1, 2);
+    assertRequestCount(0, 3, KEY_COUNT);
+
+    // The window moves with the key in use.
+    timeGet(1);
+    awaitRequested(3);
+    assertRequestCount(0, 4, KEY_COUNT);
+
+    // A refresh keeps it there.
+    keyCache.update("vod.m3u8", keyUris, false);
+    assertRequestCount(0, 4, KEY_COUNT);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(1, server.getRequestCount(getPath(i)));
+    }
+  }
+
+  @Test
+  public void prefetchesWhereLivePlaybackStarts() throws Exception {
+    keyCache.update("live.m3u8", keyUris, true);
+    awaitRequested(KEY_COUNT - 3, KEY_COUNT - 2, KEY_COUNT - 1);
+    assertRequestCount(0, 0, KEY_COUNT - 3);
+  }
+
+  @Test
+  public void evictsRotatedKeys() throws Exception {
+    keyCache.update("live.m3u8", keyUris.subList(0, 10), false);
+    awaitRequested(0, 1, 2);
+    timeGet(0);
+
+    // Keys 0 to 2 are rotated out of the playlist, so key 0 is loaded again if asked for.
+    keyCache.update("live.m3u8", keyUris.subList(3, 13), false);
+    awaitRequested(3, 4, 5);
+    timeGet(0);
+    assertEquals(2, server.getRequestCount(getPath(0)));
+    assertEquals(1, keyCache.getPrefetchHits());
+    assertEquals(1, keyCache.getInlineFetches());
+  }
+
+  @Test
+  public void loadsKeysThroughTheFactory() throws Exception {
+    timeGet(0);
+    keyCache.update("vod.m3u8", keyUris.subList(5, 10), false);
+    awaitRequested(5, 6, 7);
+    // One data source per key load, the inline one and the three prefetches.
+    assertEquals(4, dataSourceCount.get());
+  }
+
+  /** Returns how long getting a key took, after checking its bytes. */
+  private long timeGet(int index) throws IOException {
+    long startNs = System.nanoTime();
+    byte[] key = keyCache.get(keyUris.get(index));
+    long waitMs = (System.nanoTime() - startNs) / 1000000;
+    assertArrayEquals(getKey(index), key);
+    return waitMs;
+  }
+
+  private void awaitRequested(int... indices) throws InterruptedException {
+    long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+    for (int index : indices) {
+      while (server.getRequestCount(getPath(index)) == 0) {
+        assertTrue("Key " + index + " not requested", System.currentTimeMillis() < deadlineMs);
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  /** Asserts how many of a range of keys were requested. */
+  private void assertRequestCount(int expected, int fromIndex, int toIndex) {
+    int count = 0;
+    for (int i = fromIndex; i < toIndex; i++) {
+      count += server.getRequestCount(getPath(i)) > 0 ? 1 : 0;
+    }
+    assertEquals(expected, count);
+  }
+
+  private static String getPath(int index) {
+    return "/keys/" + index + ".key";
+  }
+
+  private static byte[] getKey(int index) {
+    byte[] key = new byte[16];
+    for (int i = 0; i < key.length; i++) {
+      key[i] = (byte) (index * 16 + i);
+    }
+    return key;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gvr.exoplayersupport.sample;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal http server on the loopback interface, standing in for a CDN in tests. It serves fixed
+ * content by path, supports open ended byte ranges, counts the requests of every path and can hold,
+ * fail or delay responses.
+ */
+final class LocalHttpServer {
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+  private final ServerSocket serverSocket;
+  private final Map<String, byte[]> content;
+  private final Map<String, Integer> requestCounts;
+  private final Map<String, CountDownLatch> heldPaths;
+  private final Map<String, Integer> failingPaths;
+  private final Thread acceptThread;
+
+  private long delayMs;
+
+  LocalHttpServer() throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    content = new HashMap<>();
+    requestCounts = new HashMap<>();
+    heldPaths = new HashMap<>();
+    failingPaths = new HashMap<>();
+    acceptThread =
+        new Thread("LocalHttpServer") {
+          @Override
+          public void run() {
+            acceptConnections();
+          }
+        };
+    acceptThread.start();
+  }
+
+  /** @return the URL of a path, which starts with a slash. */
+  String getUrl(String path) {
+    return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+  }
+
+  synchronized void setContent(String path, byte[] data) {
+    content.put(path, data);
+  }
+
+  /** Holds the responses of a path until the returned latch is counted down. */
+  synchronized CountDownLatch hold(String path) {
+    CountDownLatch latch = new CountDownLatch(1);
+    heldPaths.put(path, latch);
+    return latch;
+  }
+
+  /** Answers the requests of a path with an error, or serves it again for a status of 0. */
+  synchronized void setFailure(String path, int status) {
+    if (status == 0) {
+      failingPaths.remove(path);
+    } else {
+      failingPaths.put(path, status);
+    }
+  }
+
+  /** Delays every response by a round trip time, as a CDN further away would. */
+  synchronized void setDelay(long delayMs) {
+    this.delayMs = delayMs;
+  }
+
+  synchronized int getRequestCount(String path) {
+    Integer count = requestCounts.get(path);
+    return count == null ? 0 : count;
+  }
+
+  void release() throws IOException {
+    serverSocket.close();
+    try {
+      acceptThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void acceptConnections() {
+    while (true) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        // Closed by release().
+        return;
+      }
+      new Thread("LocalHttpServer:connection") {
+        @Override
+        public void run() {
+          try {
+            serve(socket);
+          } catch (IOException e) {
+            // The client went away, which it does when a download is canceled.
+          } finally {
+            try {
+              socket.close();
+            } catch (IOException e) {
+              // Ignore.
+            }
+          }
+        }
+      }.start();
+    }
+  }
+
+  private void serve(Socket socket) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+    String requestLine = reader.readLine();
+    if (requestLine == null) {
+      return;
+    }
+    String path = requestLine.split(" ")[1];
+    String range = null;
+    String line;
+    while ((line = reader.readLine()) != null && !line.isEmpty()) {
+      if (line.toLowerCase().startsWith("range:")) {
+        range = line.substring("range:".length()).trim();
+      }
+    }
+
+    byte[] data;
+    Integer failure;
+    CountDownLatch held;
+    long delayMs;
+    synchronized (this) {
+      requestCounts.put(path, getRequestCount(path) + 1);
+      data = content.get(path);
+      failure = failingPaths.get(path);
+      held = heldPaths.get(path);
+      delayMs = this.delayMs;
+    }
+    try {
+      if (held != null) {
+        held.await();
+      }
+      Thread.sleep(delayMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    OutputStream outputStream = socket.getOutputStream();
+    if (failure != null || data == null) {
+      int status = failure != null ? failure : 404;
+      writeHeaders(outputStream, status + " Error", "Content-Length: 0\r\n");
+      return;
+    }
+    int start = 0;
+    int end = data.length - 1;
+    String status = "200 OK";
+    String headers = "";
+    Matcher matcher = range == null ? null : RANGE.matcher(range);
+    if (matcher != null && matcher.matches()) {
+      start = Integer.parseInt(matcher.group(1));
+      if (!matcher.group(2).isEmpty()) {
+        end = Math.min(end, Integer.parseInt(matcher.group(2)));
+      }
+      status = "206 Partial Content";
+      headers = "Content-Range: bytes " + start + "-" + end + "/" + data.length + "\r\n";
+    }
+    int length = end - start + 1;
+    writeHeaders(outputStream, status, headers + "Content-Length: " + length + "\r\n");
+    outputStream.write(data, start, length);
+    outputStream.flush();
+  }
+
+  private static void writeHeaders(OutputStream outputStream, String status, String headers)
+      throws IOException {
+    String response = "HTTP/1.1 " + status + "\r\n" + headers + "Connection: close\r\n\r\n";
+    outputStream.write(response.getBytes("US-ASCII"));
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gvr.exoplayersupport.sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.media.MediaDrm;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.google.android.exoplayer.drm.ExoMediaDrm;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Stores, restores and renews ClearKey licenses from a {@link FakeLicenseCallback} standing in
+ * for the license server. ClearKey has offline licenses from Android 9.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class OfflineLicenseMediaDrmTest {
+  private static final long TIMEOUT_MS = 10000;
+  private static final String MIME_TYPE = "video/mp4";
+  private static final String PROVIDER_ID = "OfflineLicenseMediaDrmTest";
+  private static final byte[] KEY_ID = {
+    0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15
+  };
+  private static final byte[] OTHER_KEY_ID = {
+    15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0
+  };
+
+  private OfflineLicenseStore store;
+  private FakeLicenseCallback callback;
+  private String contentId;
+  private List<String> licenseKeys;
+
+  @Before
+  public void setUp() {
+    assumeTrue(Build.VERSION.SDK_INT >= 28);
+    assumeTrue(MediaDrm.isCryptoSchemeSupported(FakeLicenseCallback.CLEARKEY_UUID));
+    store = OfflineLicenseStore.getInstance(InstrumentationRegistry.getTargetContext());
+    callback = new FakeLicenseCallback();
+    contentId = "content" + System.nanoTime();
+    licenseKeys = new ArrayList<>();
+  }
+
+  @After
+  public void tearDown() {
+    if (licenseKeys != null) {
+      for (String licenseKey : licenseKeys) {
+        store.remove(licenseKey);
+      }
+    }
+  }
+
+  @Test
+  public void storesTheLicense() throws Exception {
+    byte[] init = FakeLicenseCallback.buildInitData(KEY_ID);
+    OfflineLicenseMediaDrm mediaDrm = createMediaDrm(0);
+    try {
+      byte[] keySetId = play(mediaDrm, init);
+      assertNotNull(keySetId);
+      assertEquals(1, callback.getKeyRequestCount());
+      assertArrayEquals(keySetId, store.getKeySetId(getLicenseKey(mediaDrm, init)));
+    } finally {
+      mediaDrm.release();
+    }
+  }
+
+  @Test
+  public void restoresTheStoredLicense() throws Exception {
+    byte[] init = FakeLicenseCallback.buildInitData(KEY_ID);
+    playOnce(0, init);
+
+    // A later playback restores the keys without asking the license server.
+    OfflineLicenseMediaDrm mediaDrm = createMediaDrm(0);
+    try {
+      assertNull(play(mediaDrm, init));
+      assertEquals(1, callback.getKeyRequestCount());
+    } finally {
+      mediaDrm.release();
+    }
+  }
+
+  @Test
+  public void otherInitDataRestoresNothing() throws Exception {
+    playOnce(0, FakeLicenseCallback.buildInitData(KEY_ID));
+    byte[] otherInit = FakeLicenseCallback.buildInitData(OTHER_KEY_ID);
+    assertNotNull(playOnce(0, otherInit));
+    assertEquals(2, callback.getKeyRequestCount());
+  }
+
+  @Test
+  public void renewsALicenseCloseToExpiry() throws Exception {
+    byte[] init = FakeLicenseCallback.buildInitData(KEY_ID);
+    byte[] keySetId = playOnce(0, init);
+
+    // Every license is close to expiry with a window this long, so the restore renews it.
+    OfflineLicenseMediaDrm mediaDrm = createMediaDrm(OfflineLicenseStore.NO_EXPIRATION);
+    String licenseKey = getLicenseKey(mediaDrm, init);
+    try {
+      assertNull(play(mediaDrm, init));
+    } finally {
+      mediaDrm.release();
+    }
+    long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (Arrays.equals(keySetId, store.getKeySetId(licenseKey))) {
+      assertTrue(System.currentTimeMillis() < deadlineMs);
+      Thread.sleep(10);
+    }
+    assertEquals(2, callback.getKeyRequestCount());
+
+    // The renewed license is restored like the first one.
+    assertNull(playOnce(0, init));
+    assertEquals(2, callback.getKeyRequestCount());
+  }
+
+  @Test
+  public void keysLicensesByTheDigestOfTheInitData() throws Exception {
+    OfflineLicenseMediaDrm mediaDrm = createMediaDrm(0);
+    try {
+      byte[] init = FakeLicenseCallback.buildInitData(KEY_ID);
+      String licenseKey = mediaDrm.getLicenseKey(init);
+      assertTrue(licenseKey.startsWith(contentId + "|" + PROVIDER_ID + "|"));
+      assertEquals(licenseKey, mediaDrm.getLicenseKey(init.clone()));
+      assertFalse(
+          licenseKey.equals(
+              mediaDrm.getLicenseKey(FakeLicenseCallback.buildInitData(OTHER_KEY_ID))));
+    } finally {
+      mediaDrm.release();
+    }
+  }
+
+  private OfflineLicenseMediaDrm createMediaDrm(long renewalWindowMs) throws Exception {
+    return new OfflineLicenseMediaDrm(
+        FakeLicenseCallback.CLEARKEY_UUID,
+        callback,
+        store,
+        contentId,
+        PROVIDER_ID,
+        renewalWindowMs);
+  }
+
+  private String getLicenseKey(OfflineLicenseMediaDrm mediaDrm, byte[] init) {
+    String licenseKey = mediaDrm.getLicenseKey(init);
+    licenseKeys.add(licenseKey);
+    return licenseKey;
+  }
+
+  /** Plays on a media drm of its own, which is released after. */
+  private byte[] playOnce(long renewalWindowMs, byte[] init) throws Exception {
+    OfflineLicenseMediaDrm mediaDrm = createMediaDrm(renewalWindowMs);
+    try {
+      getLicenseKey(mediaDrm, init);
+      return play(mediaDrm, init);
+    } finally {
+      mediaDrm.release();
+    }
+  }
+
+  /**
+   * Gets the keys of a session the way the drm session manager does, and closes it.
+   *
+   * @return the key set id of a license from the server, or null if the keys were restored.
+   */
+  private static byte[] play(OfflineLicenseMediaDrm mediaDrm, byte[] init) throws Exception {
+    byte[] sessionId = mediaDrm.openSession();
+    try {
+      ExoMediaDrm.KeyRequest request =
+          mediaDrm.getKeyRequest(sessionId, init, MIME_TYPE, MediaDrm.KEY_TYPE_STREAMING, null);
+      byte[] response = mediaDrm.executeKeyRequest(FakeLicenseCallback.CLEARKEY_UUID, request);
+      return mediaDrm.provideKeyResponse(sessionId, response);
+    } finally {
+      mediaDrm.closeSession(sessionId);
+    }
+  }
+}
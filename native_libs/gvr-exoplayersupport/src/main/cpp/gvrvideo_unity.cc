@@ -132,6 +132,17 @@ int GetExternalSurfaceTextureId(void* ptr) {
   return pObj->GetVideoTextureId();
 }
 
+int GetExternalSurfaceTextureTarget(void* ptr) {
+  gvrvideo::VideoPlayerImpl *pObj =
+      reinterpret_cast<gvrvideo::VideoPlayerImpl *>(ptr);
+  if (!pObj) {
+    LOGE("gvrvideo:", "Calling with null player object!");
+    return GL_TEXTURE_EXTERNAL_OES;
+  }
+
+  return pObj->GetVideoTextureTarget();
+}
+
 void GetVideoMatrix(void* ptr, float* vMat) {
   gvrvideo::VideoPlayerImpl *pObj =
       reinterpret_cast<gvrvideo::VideoPlayerImpl *>(ptr);
@@ -420,6 +431,44 @@ bool HasProjectionData(void *ptr) {
   return false;
 }
 
+void SetViewOrientation(void *ptr, float yaw_degrees, float pitch_degrees) {
+  gvrvideo::VideoPlayerImpl *pObj =
+      reinterpret_cast<gvrvideo::VideoPlayerImpl *>(ptr);
+  if (!pObj) {
+    LOGE("gvrvideo:", "Calling with null player object!");
+    return;
+  }
+  if (pObj->GetVideoPlayer()) {
+    pObj->GetVideoPlayer()->SetViewOrientation(yaw_degrees, pitch_degrees);
+  }
+}
+
+void SetVideoVisible(void *ptr, bool visible) {
+  gvrvideo::VideoPlayerImpl *pObj =
+      reinterpret_cast<gvrvideo::VideoPlayerImpl *>(ptr);
+  if (!pObj) {
+    LOGE("gvrvideo:", "Calling with null player object!");
+    return;
+  }
+  if (pObj->GetVideoPlayer()) {
+    pObj->GetVideoPlayer()->SetVideoVisible(visible);
+  }
+}
+
+bool GetPreviewFrame(void *ptr, long long position_ms, void *pixels, int width,
+                     int height) {
+  gvrvideo::VideoPlayerImpl *pObj =
+      reinterpret_cast<gvrvideo::VideoPlayerImpl *>(ptr);
+  if (!pObj) {
+    LOGE("gvrvideo:", "Calling with null player object!");
+    return false;
+  }
+  if (pObj->GetVideoPlayer()) {
+    return pObj->GetVideoPlayer()->GetPreviewFrame(position_ms, pixels, width,
+                                                   height);
+  }
+  return false;
+}
 
 void ReleaseTrackInfo(void *ptr, ExoTrackInfo *info, int ct) {
   gvrvideo::VideoPlayerImpl *pObj =
@@ -115,6 +115,10 @@ void* GetRenderableTextureId(void *ptr);
 
 int GetExternalSurfaceTextureId(void* ptr);
 
+// Returns the target of the texture returned by GetExternalSurfaceTextureId:
+// GL_TEXTURE_EXTERNAL_OES, or GL_TEXTURE_2D when frames are chained.
+int GetExternalSurfaceTextureTarget(void* ptr);
+
 void GetVideoMatrix(void* ptr, float* vMat);
 
 long long GetVideoTimestampNs(void* ptr);
@@ -211,6 +215,22 @@ int GetStereoMode(void *ptr);
 // Returns true if the video contains projection data for 360/VR video.
 bool HasProjectionData(void *ptr);
 
+// Sets the direction the viewer is looking in, in degrees. Yaw is 0 at the
+// center of the video frame and grows to the right, pitch is 0 at the horizon
+// and grows upwards. Used to stream viewport dependent 360 video.
+void SetViewOrientation(void *ptr, float yaw_degrees, float pitch_degrees);
+
+// Marks the video as visible or not. A video that is not visible stops
+// decoding and loading its video and keeps playing its audio.
+void SetVideoVisible(void *ptr, bool visible);
+
+// Copies a low resolution preview of the video at a position, to show while
+// scrubbing, into an RGBA buffer of width x height pixels, bottom row first.
+// Previews come from the thumbnail or trick play tracks of the video. Returns
+// false if the preview is not loaded yet or the video has no previews.
+bool GetPreviewFrame(void *ptr, long long position_ms, void *pixels, int width,
+                     int height);
+
 // Releases the track info buffer returned by GetTrackInfo.  The ct parameter
 // should be the value returned by GetTrackCount for the renderer index that
 // matches this buffer.
@@ -15,12 +15,59 @@
  */
 
 #include "video_player_holder.h"
+#include <android/bitmap.h>
+#include <string.h>
 #include "jni_helper.h"
 #include "logger.h"
 #include "vecmath.h"
 
 namespace gvrvideo {
 
+namespace {
+
+// Copies a bitmap into an RGBA buffer of another size, taking the nearest
+// pixel. The rows are flipped, as Unity textures start with the bottom row.
+bool CopyBitmap(JNIEnv *env, jobject bitmap, uint8_t *pixels, int width,
+                int height) {
+  AndroidBitmapInfo info;
+  if (AndroidBitmap_getInfo(env, bitmap, &info) !=
+      ANDROID_BITMAP_RESULT_SUCCESS) {
+    return false;
+  }
+  if (info.format != ANDROID_BITMAP_FORMAT_RGBA_8888 &&
+      info.format != ANDROID_BITMAP_FORMAT_RGB_565) {
+    LOGW("videoplayerholder:", "Unsupported preview format %d", info.format);
+    return false;
+  }
+  void *source;
+  if (AndroidBitmap_lockPixels(env, bitmap, &source) !=
+      ANDROID_BITMAP_RESULT_SUCCESS) {
+    return false;
+  }
+  for (int y = 0; y < height; y++) {
+    uint32_t source_y = info.height - 1 - y * info.height / height;
+    const uint8_t *row =
+        static_cast<const uint8_t *>(source) + source_y * info.stride;
+    uint8_t *out = pixels + y * width * 4;
+    for (int x = 0; x < width; x++, out += 4) {
+      uint32_t source_x = x * info.width / width;
+      if (info.format == ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        memcpy(out, row + source_x * 4, 4);
+      } else {
+        uint16_t pixel = reinterpret_cast<const uint16_t *>(row)[source_x];
+        out[0] = ((pixel >> 11) & 0x1f) * 255 / 31;
+        out[1] = ((pixel >> 5) & 0x3f) * 255 / 63;
+        out[2] = (pixel & 0x1f) * 255 / 31;
+        out[3] = 255;
+      }
+    }
+  }
+  AndroidBitmap_unlockPixels(env, bitmap);
+  return true;
+}
+
+}  // namespace
+
 // Static member storage for the JNI method Ids.
 jmethodID VideoPlayerHolder::addListenerMethodID;
 jmethodID VideoPlayerHolder::removeListenerMethodID;
@@ -53,6 +100,9 @@ jmethodID VideoPlayerHolder::getFrameRateMethodID;
 jmethodID VideoPlayerHolder::getTrackWidthMethodID;
 jmethodID VideoPlayerHolder::getTrackHeightMethodID;
 jmethodID VideoPlayerHolder::getStereoModeMethodID;
+jmethodID VideoPlayerHolder::setViewOrientationMethodID;
+jmethodID VideoPlayerHolder::setVideoVisibleMethodID;
+jmethodID VideoPlayerHolder::getPreviewFrameMethodID;
 jmethodID VideoPlayerHolder::getProjectionDataMethodID;
 
 // Initialize the JNI values.
@@ -125,6 +175,12 @@ void VideoPlayerHolder::Initialize() {
   getTrackHeightMethodID = jni_env->GetMethodID(clz, "getTrackHeight", "(II)I");
   getStereoModeMethodID = jni_env->GetMethodID(clz, "getStereoMode", "()I");
   getProjectionDataMethodID = jni_env->GetMethodID(clz, "getProjectionData", "()[B");
+  setViewOrientationMethodID =
+      jni_env->GetMethodID(clz, "setViewOrientation", "(FF)V");
+  setVideoVisibleMethodID =
+      jni_env->GetMethodID(clz, "setVideoVisible", "(Z)V");
+  getPreviewFrameMethodID = jni_env->GetMethodID(
+      clz, "getPreviewFrame", "(J)Landroid/graphics/Bitmap;");
 
   assert(addListenerMethodID);
   assert(removeListenerMethodID);
@@ -158,6 +214,9 @@ void VideoPlayerHolder::Initialize() {
   assert(getTrackHeightMethodID);
   assert(getStereoModeMethodID);
   assert(getProjectionDataMethodID);
+  assert(setViewOrientationMethodID);
+  assert(setVideoVisibleMethodID);
+  assert(getPreviewFrameMethodID);
 
   // done with the local refs to the  class and instance
   jni_env->DeleteLocalRef(clz);
@@ -338,6 +397,38 @@ int VideoPlayerHolder::GetStereoMode() const {
   return -1;
 }
 
+void VideoPlayerHolder::SetViewOrientation(float yaw_degrees,
+                                           float pitch_degrees) const {
+  if (playerObj) {
+    JNIHelper::Get().CallVoidMethod(playerObj, setViewOrientationMethodID,
+                                    yaw_degrees, pitch_degrees);
+  }
+}
+
+void VideoPlayerHolder::SetVideoVisible(bool visible) const {
+  if (playerObj) {
+    JNIHelper::Get().CallVoidMethod(playerObj, setVideoVisibleMethodID,
+                                    static_cast<jboolean>(visible));
+  }
+}
+
+bool VideoPlayerHolder::GetPreviewFrame(long long position_ms, void *pixels,
+                                        int width, int height) const {
+  if (!playerObj || !pixels || width <= 0 || height <= 0) {
+    return false;
+  }
+  jobject bitmap = JNIHelper::Get().CallObjectMethod(
+      playerObj, getPreviewFrameMethodID, static_cast<jlong>(position_ms));
+  if (!bitmap) {
+    return false;
+  }
+  JNIEnv *env = JNIHelper::Get().Env();
+  bool copied =
+      CopyBitmap(env, bitmap, static_cast<uint8_t *>(pixels), width, height);
+  env->DeleteLocalRef(bitmap);
+  return copied;
+}
+
 bool VideoPlayerHolder::HasProjectionData() const {
   jbyte* projectionData = nullptr;
   int size = 0;
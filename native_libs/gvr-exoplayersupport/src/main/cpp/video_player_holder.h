@@ -88,6 +88,15 @@ class VideoPlayerHolder {
 
   bool HasProjectionData() const;
 
+  void SetViewOrientation(float yaw_degrees, float pitch_degrees) const;
+
+  void SetVideoVisible(bool visible) const;
+
+  // Copies the preview of the video at a position into an RGBA buffer of the
+  // given size, bottom row first. Returns false if there is no preview yet.
+  bool GetPreviewFrame(long long position_ms, void *pixels, int width,
+                       int height) const;
+
   void ReleaseTrackInfo(ExoTrackInfo *info, int ct) const;
 
  private:
@@ -126,6 +135,9 @@ class VideoPlayerHolder {
   static jmethodID getTrackHeightMethodID;
   static jmethodID getStereoModeMethodID;
   static jmethodID getProjectionDataMethodID;
+  static jmethodID setViewOrientationMethodID;
+  static jmethodID setVideoVisibleMethodID;
+  static jmethodID getPreviewFrameMethodID;
 };
 }  // namespace gvrvideo
 #endif  // VR_GVR_DEMOS_VIDEO_PLUGIN_VIDEO_VIDEO_PLAYER_HOLDER_H_
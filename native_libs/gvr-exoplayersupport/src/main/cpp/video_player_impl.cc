@@ -35,9 +35,11 @@ jobject VideoPlayerImpl::unity_player_activity;
 // VideoTexture methodIds.
 jmethodID VideoPlayerImpl::getSurfaceTextureMethodID;
 jmethodID VideoPlayerImpl::getVideoTextureIdMethodID;
+jmethodID VideoPlayerImpl::getVideoTextureTargetMethodID;
 jmethodID VideoPlayerImpl::updateTextureMethodID;
 jmethodID VideoPlayerImpl::getVideoMatrixMethodID;
 jmethodID VideoPlayerImpl::getVideoTimestampNsMethodID;
+jmethodID VideoPlayerImpl::prepareForNewMovieMethodID;
 jmethodID VideoPlayerImpl::releaseMethodID;
 jclass VideoPlayerImpl::video_texture_class;
 jclass VideoPlayerImpl::native_listener_class;
@@ -113,11 +115,15 @@ void VideoPlayerImpl::Initialize() {
         uclz, "getSurfaceTexture", "()Landroid/graphics/SurfaceTexture;");
     getVideoTextureIdMethodID =
         jni_env->GetMethodID(uclz, "getVideoTextureId", "()I");
+    getVideoTextureTargetMethodID =
+        jni_env->GetMethodID(uclz, "getVideoTextureTarget", "()I");
     updateTextureMethodID = jni_env->GetMethodID(uclz, "updateTexture", "()Z");
     getVideoMatrixMethodID =
         jni_env->GetMethodID(uclz, "getVideoMatrix", "()[F");
     getVideoTimestampNsMethodID =
         jni_env->GetMethodID(uclz, "getVideoTimestampNs", "()J");
+    prepareForNewMovieMethodID =
+        jni_env->GetMethodID(uclz, "prepareForNewMovie", "()V");
     releaseMethodID = jni_env->GetMethodID(uclz, "release", "()V");
     video_texture_class = (jclass)jni_env->NewGlobalRef(uclz);
     jni_env->DeleteLocalRef(uclz);
@@ -228,6 +234,12 @@ void *VideoPlayerImpl::CreateVideoPlayer(int videoType, const char *videoURL,
     SetVideoTexture();
   }
 
+  // The texture outlives the player, so it starts over with the new stream.
+  if (video_texture_obj) {
+    JNIHelper::Get().CallVoidMethod(video_texture_obj,
+                                    prepareForNewMovieMethodID);
+  }
+
   jobject rendererbuilder = fac->CreateRendererBuilder(
       videoType, videoURL, contentId, provider, useSecurePath);
   video_player_obj->Initialize(rendererbuilder, initial_resolution);
@@ -286,6 +298,11 @@ GLuint VideoPlayerImpl::GetVideoTextureId() {
                                                 getVideoTextureIdMethodID);
 }
 
+GLenum VideoPlayerImpl::GetVideoTextureTarget() {
+  return (GLenum)JNIHelper::Get().CallIntMethod(video_texture_obj,
+                                                getVideoTextureTargetMethodID);
+}
+
 float *VideoPlayerImpl::GetVideoMatrix() {
   return videoMatrix;
 }
@@ -371,7 +388,8 @@ int VideoPlayerImpl::EventOperation(int eventId) { return eventId % 100; }
 // Render the video in a quad.  This is usually called when using a framebuffer
 // to copy the video texture to an external texture.
 void VideoPlayerImpl::DrawVideo(float *mvpMatrix, int view) {
-  videoScreen.Draw(mvpMatrix, GetVideoTextureId(), videoMatrix, view);
+  videoScreen.Draw(mvpMatrix, GetVideoTextureId(), GetVideoTextureTarget(),
+                   videoMatrix, view);
 }
 
 // The external texture that should be attached to the framebuffer when
@@ -54,6 +54,10 @@ class VideoPlayerImpl {
   // Returns the texture ID used by the video player to draw the video.
   GLuint GetVideoTextureId();
 
+  // Returns the target of the video texture: GL_TEXTURE_EXTERNAL_OES, or
+  // GL_TEXTURE_2D when frames are copied into a chain of textures.
+  GLenum GetVideoTextureTarget();
+
   // Returns the video texture transformation matrix from the SurfaceTexture.
   float *GetVideoMatrix();
 
@@ -169,9 +173,11 @@ class VideoPlayerImpl {
   // From VideoTexture.
   static jmethodID getSurfaceTextureMethodID;
   static jmethodID getVideoTextureIdMethodID;
+  static jmethodID getVideoTextureTargetMethodID;
   static jmethodID updateTextureMethodID;
   static jmethodID getVideoMatrixMethodID;
   static jmethodID getVideoTimestampNsMethodID;
+  static jmethodID prepareForNewMovieMethodID;
   static jmethodID releaseMethodID;
   static jclass video_texture_class;
 
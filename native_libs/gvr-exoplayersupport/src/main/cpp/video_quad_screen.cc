@@ -18,11 +18,8 @@
 
 namespace gvrvideo {
 
-GLuint VideoQuadScreen::video_program_;
-GLuint VideoQuadScreen::video_modelview_projection_param_;
-GLuint VideoQuadScreen::video_st_param_;
-GLuint VideoQuadScreen::video_texcoord_param_;
-GLuint VideoQuadScreen::video_position_param_;
+VideoQuadScreen::VideoProgram VideoQuadScreen::external_program_;
+VideoQuadScreen::VideoProgram VideoQuadScreen::texture_2d_program_;
 GLuint VideoQuadScreen::array_buffers_[4] = {};
 
 // Vertices have a stride of 5 floats.
@@ -87,42 +84,60 @@ static const char *kVideoFragmentShader =
     "void main() {\n"
     "  gl_FragColor =  texture2D(sTexture, vTextureCoord);\n"
     "}\n";
+// Fragment shader for the 2D textures of a frame chain, which the video frames
+// are copied into.
+static const char *kVideo2DFragmentShader =
+    "precision mediump float;\n"
+    "varying vec2 vTextureCoord;\n"
+    "uniform sampler2D sTexture;\n"
+    "void main() {\n"
+    "  gl_FragColor =  texture2D(sTexture, vTextureCoord);\n"
+    "}\n";
 
 VideoQuadScreen::~VideoQuadScreen() { }
 
-void VideoQuadScreen::InitGL() {
-  GLuint video_vertex_shader =
-      CreateShader(GL_VERTEX_SHADER, kVideoVertexShader);
-  CheckGLError("video_vertex_shader");
-  assert(video_vertex_shader > 0);
-
+void VideoQuadScreen::InitProgram(GLuint vertex_shader,
+                                  const char *fragment_shader,
+                                  VideoProgram *video_program) {
   GLuint video_texture_shader =
-      CreateShader(GL_FRAGMENT_SHADER, kVideoFragmentShader);
+      CreateShader(GL_FRAGMENT_SHADER, fragment_shader);
   CheckGLError("video_texture_shader");
   assert(video_texture_shader > 0);
 
-  video_program_ = glCreateProgram();
-  glAttachShader(video_program_, video_vertex_shader);
-  glAttachShader(video_program_, video_texture_shader);
-  glLinkProgram(video_program_);
-  glUseProgram(video_program_);
+  GLuint program = glCreateProgram();
+  glAttachShader(program, vertex_shader);
+  glAttachShader(program, video_texture_shader);
+  glLinkProgram(program);
+  glUseProgram(program);
+  video_program->program = program;
 
-  video_modelview_projection_param_ =
-      (GLuint)glGetUniformLocation(video_program_, "uMVPMatrix");
-  assert(video_modelview_projection_param_ >= 0);
+  video_program->modelview_projection_param =
+      (GLuint)glGetUniformLocation(program, "uMVPMatrix");
+  assert(video_program->modelview_projection_param >= 0);
 
-  video_st_param_ = (GLuint)glGetUniformLocation(video_program_, "uSTMatrix");
-  assert(video_st_param_ >= 0);
+  video_program->st_param = (GLuint)glGetUniformLocation(program, "uSTMatrix");
+  assert(video_program->st_param >= 0);
 
-  video_texcoord_param_ = (GLuint)glGetAttribLocation(video_program_,
-                                                      "a_TexCoord");
-  assert(video_texcoord_param_ >= 0);
+  video_program->texcoord_param =
+      (GLuint)glGetAttribLocation(program, "a_TexCoord");
+  assert(video_program->texcoord_param >= 0);
 
-  video_position_param_ = (GLuint)glGetAttribLocation(video_program_,
-                                                      "aPosition");
-  assert(video_position_param_ >= 0);
+  video_program->position_param =
+      (GLuint)glGetAttribLocation(program, "aPosition");
+  assert(video_program->position_param >= 0);
 
   CheckGLError("video program params");
+}
+
+void VideoQuadScreen::InitGL() {
+  GLuint video_vertex_shader =
+      CreateShader(GL_VERTEX_SHADER, kVideoVertexShader);
+  CheckGLError("video_vertex_shader");
+  assert(video_vertex_shader > 0);
+
+  InitProgram(video_vertex_shader, kVideoFragmentShader, &external_program_);
+  InitProgram(video_vertex_shader, kVideo2DFragmentShader,
+              &texture_2d_program_);
 
   glGenBuffers(4, array_buffers_);
   glBindBuffer(GL_ARRAY_BUFFER, array_buffers_[MONO_VIEW]);
@@ -147,40 +162,46 @@ void VideoQuadScreen::InitGL() {
 }
 
 void VideoQuadScreen::Draw(float *mvp, GLuint videoTextureId,
+                           GLenum videoTextureTarget,
                            const float *videoTransformMatrix, int view) {
   if (videoTextureId <= 0) {
     LOGE("videoquadscreen:", "No texture id!");
     return;
   }
 
-  glUseProgram(video_program_);
+  const VideoProgram &video_program = videoTextureTarget == GL_TEXTURE_2D
+                                          ? texture_2d_program_
+                                          : external_program_;
+  glUseProgram(video_program.program);
   glActiveTexture(GL_TEXTURE0);
-  glBindTexture(GL_TEXTURE_EXTERNAL_OES, videoTextureId);
+  glBindTexture(videoTextureTarget, videoTextureId);
   CheckGLError("bind video texture");
 
-  glUniformMatrix4fv(video_st_param_, 1, GL_FALSE, videoTransformMatrix);
+  glUniformMatrix4fv(video_program.st_param, 1, GL_FALSE,
+                     videoTransformMatrix);
   CheckGLError("screen video mat");
 
   assert(view >= 0 && view < 4);
   glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
   glBindBuffer(GL_ARRAY_BUFFER, array_buffers_[view]);
 
-  glEnableVertexAttribArray(video_position_param_);
-  glVertexAttribPointer(video_position_param_, 3, GL_FLOAT, GL_FALSE,
+  glEnableVertexAttribArray(video_program.position_param);
+  glVertexAttribPointer(video_program.position_param, 3, GL_FLOAT, GL_FALSE,
                         kVertexStrideBytes, 0);
   CheckGLError("vertex attrib");
 
-  glEnableVertexAttribArray(video_texcoord_param_);
-  glVertexAttribPointer(video_texcoord_param_, 2, GL_FLOAT, GL_FALSE,
+  glEnableVertexAttribArray(video_program.texcoord_param);
+  glVertexAttribPointer(video_program.texcoord_param, 2, GL_FLOAT, GL_FALSE,
                         kVertexStrideBytes,
                         (const GLvoid *)kTexCoordOffsetBytes);
   CheckGLError("texcoord attrib");
 
   // Set the ModelViewProjection matrix in the shader.
-  glUniformMatrix4fv(video_modelview_projection_param_, 1, GL_FALSE, mvp);
+  glUniformMatrix4fv(video_program.modelview_projection_param, 1, GL_FALSE,
+                     mvp);
 
   glDrawArrays(GL_TRIANGLE_FAN, 0, kNumScreenVertices);
-  glBindTexture(GL_TEXTURE_EXTERNAL_OES, 0);
+  glBindTexture(videoTextureTarget, 0);
   CheckGLError("Drawing screen");
 }
 }  // namespace gvrvideo
@@ -32,15 +32,26 @@ class VideoQuadScreen {
 
   static void InitGL();
 
-  void Draw(float *mvp, GLuint videoTextureId,
+  // Draws the video texture, which is either an external texture or a 2D
+  // texture of a frame chain, as given by videoTextureTarget.
+  void Draw(float *mvp, GLuint videoTextureId, GLenum videoTextureTarget,
             const float *videoTransformMatrix, int view);
 
  private:
-  static GLuint video_program_;
-  static GLuint video_modelview_projection_param_;
-  static GLuint video_st_param_;
-  static GLuint video_texcoord_param_;
-  static GLuint video_position_param_;
+  // A program drawing the video and the locations of its parameters.
+  struct VideoProgram {
+    GLuint program;
+    GLuint modelview_projection_param;
+    GLuint st_param;
+    GLuint texcoord_param;
+    GLuint position_param;
+  };
+
+  static void InitProgram(GLuint vertex_shader, const char *fragment_shader,
+                          VideoProgram *video_program);
+
+  static VideoProgram external_program_;
+  static VideoProgram texture_2d_program_;
   static GLuint array_buffers_[4];
 };
 }  // namespace gvrvideo
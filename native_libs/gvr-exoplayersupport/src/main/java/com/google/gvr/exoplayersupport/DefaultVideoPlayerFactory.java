@@ -71,7 +71,20 @@ public class DefaultVideoPlayerFactory implements VideoPlayerFactory {
       String providerId,
       boolean requireSecurePlayback) {
     String userAgent = Util.getUserAgent(context, "VRSampleVideo");
-    return new DASHAsyncRendererBuilder(
-        context, userAgent, videoURL, contentId, providerId, requireSecurePlayback);
+    DASHAsyncRendererBuilder builder =
+        new DASHAsyncRendererBuilder(
+            context,
+            userAgent,
+            videoURL,
+            contentId,
+            providerId,
+            requireSecurePlayback,
+            null,
+            DefaultVideoSupport.isPersistentLicensesEnabled());
+    builder.setAdaptationAlgorithm(DefaultVideoSupport.getAdaptationAlgorithm());
+    builder.setLiveTargetLatency(DefaultVideoSupport.getLiveTargetLatency());
+    builder.setBackBufferDuration(DefaultVideoSupport.getBackBufferDuration());
+    builder.setTiledPlayback(DefaultVideoSupport.isTiledPlaybackEnabled());
+    return builder;
   }
 }
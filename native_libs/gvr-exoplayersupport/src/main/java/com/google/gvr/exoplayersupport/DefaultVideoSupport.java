@@ -20,6 +20,8 @@ import android.util.Log;
 
 import com.google.gvr.exoplayersupport.sample.HlsVideoFactory;
 import com.google.gvr.exoplayersupport.sample.LocalVideoFactory;
+import com.google.gvr.exoplayersupport.sample.QualityGovernor;
+import com.google.gvr.exoplayersupport.sample.SegmentCache;
 
 /**
  * Support class used to locate the default video player factory. If a custom video player is needed
@@ -28,9 +30,24 @@ import com.google.gvr.exoplayersupport.sample.LocalVideoFactory;
  */
 public final class DefaultVideoSupport {
   private static final String TAG = "DefaultVideoSupport";
+
+  /** How long playback is paused before loading stops, by default. */
+  public static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
   private static DefaultVideoPlayerFactory dashfactory;
   private static LocalVideoFactory localfactory;
   private static HlsVideoFactory hlsfactory;
+  private static boolean persistentLicenses;
+  private static int adaptationAlgorithm = VideoPlayerFactory.ThroughputAdaptation;
+  private static long liveTargetLatencyMs;
+  private static String videoMimeTypeHint;
+  private static long backBufferMs;
+  private static boolean tiledPlayback;
+  private static int seekMode = VideoPlayerFactory.SeekExact;
+  private static long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+  private static boolean releaseDecoderWhenIdle;
+  private static int frameChainSlots;
+  private static int renderPathBenchmarkFrames;
 
   /**
    * initializes the factory or factory provider. This method is called before the first time
@@ -77,4 +94,243 @@ public final class DefaultVideoSupport {
         return null;
     }
   }
+
+  /**
+   * Enables persistent DRM licenses for DASH playback. When enabled, licenses are requested as
+   * offline licenses and stored per content id and provider, so replaying protected content does
+   * not need a license request. The license server must allow offline licenses.
+   *
+   * @param enabled - true to request and restore persistent licenses.
+   */
+  public static void setPersistentLicensesEnabled(boolean enabled) {
+    persistentLicenses = enabled;
+  }
+
+  /** Returns true if persistent DRM licenses are enabled. */
+  static boolean isPersistentLicensesEnabled() {
+    return persistentLicenses;
+  }
+
+  /**
+   * Selects how DASH playback adapts the video quality. Takes effect for renderer builders created
+   * afterwards.
+   *
+   * @param algorithm - VideoPlayerFactory.ThroughputAdaptation or
+   *     VideoPlayerFactory.BufferAdaptation.
+   */
+  public static void setAdaptationAlgorithm(int algorithm) {
+    if (algorithm != VideoPlayerFactory.ThroughputAdaptation
+        && algorithm != VideoPlayerFactory.BufferAdaptation) {
+      Log.e(TAG, "Unknown adaptation algorithm: " + algorithm);
+      return;
+    }
+    adaptationAlgorithm = algorithm;
+  }
+
+  /** Returns the adaptation algorithm for DASH playback. */
+  static int getAdaptationAlgorithm() {
+    return adaptationAlgorithm;
+  }
+
+  /**
+   * Selects low latency playback of live DASH and HLS streams. Playback is kept the target latency
+   * behind the live edge by slightly changing the playback speed, which needs API 23 and a video
+   * with audio. Takes effect for renderer builders created afterwards.
+   *
+   * @param targetLatencyMs - how far behind the live edge to play, or 0 for regular live playback.
+   */
+  public static void setLiveTargetLatency(long targetLatencyMs) {
+    if (targetLatencyMs < 0) {
+      Log.e(TAG, "Invalid live target latency: " + targetLatencyMs);
+      return;
+    }
+    liveTargetLatencyMs = targetLatencyMs;
+  }
+
+  /** Returns the target latency of live playback, or 0 for regular live playback. */
+  public static long getLiveTargetLatency() {
+    return liveTargetLatencyMs;
+  }
+
+  /**
+   * Keeps the media of the last seconds played by DASH and HLS playback in memory, so seeking back
+   * into them does not load it again. The memory is taken from the buffer of the player. Takes
+   * effect for renderer builders created afterwards.
+   *
+   * @param durationMs - how far behind the playback position to keep media, or 0 to keep none.
+   */
+  public static void setBackBufferDuration(long durationMs) {
+    if (durationMs < 0) {
+      Log.e(TAG, "Invalid back buffer duration: " + durationMs);
+      return;
+    }
+    backBufferMs = durationMs;
+  }
+
+  /** Returns how far behind the playback position media is kept, or 0 if none is. */
+  public static long getBackBufferDuration() {
+    return backBufferMs;
+  }
+
+  /**
+   * Plays tiled 360 DASH videos tile by tile, with the tiles in view streamed at a higher quality
+   * than the others. Tiles are the video adaptation sets with a spatial relationship description.
+   * Without it, tiled videos play their full frame video adaptation set. Takes effect for renderer
+   * builders created afterwards.
+   *
+   * @param enabled - true to play tiled videos tile by tile.
+   */
+  public static void setTiledPlaybackEnabled(boolean enabled) {
+    tiledPlayback = enabled;
+  }
+
+  /** Returns true if tiled DASH videos are played tile by tile. */
+  public static boolean isTiledPlaybackEnabled() {
+    return tiledPlayback;
+  }
+
+  /**
+   * Selects where seeks of DASH and HLS playback land. Seeks can be moved to the start of the
+   * segment the position falls in, or the closest segment start, so playback resumes without
+   * decoding the frames before the position. Takes effect for videos initialized afterwards.
+   *
+   * @param mode - VideoPlayerFactory.SeekExact, SeekPreviousSync or SeekClosestSync.
+   */
+  public static void setSeekMode(int mode) {
+    if (mode != VideoPlayerFactory.SeekExact
+        && mode != VideoPlayerFactory.SeekPreviousSync
+        && mode != VideoPlayerFactory.SeekClosestSync) {
+      Log.e(TAG, "Unknown seek mode: " + mode);
+      return;
+    }
+    seekMode = mode;
+  }
+
+  /** Returns where seeks land. */
+  public static int getSeekMode() {
+    return seekMode;
+  }
+
+  /**
+   * Sets how long playback stays paused before players stop loading media, to save bandwidth and
+   * battery while the headset is off or the app is in the background. Players pausing while the
+   * app is in the background stop at once. The media already buffered is kept, so resuming does
+   * not rebuffer. Takes effect for videos initialized afterwards.
+   *
+   * @param timeoutMs - how long to keep loading while paused, or 0 to keep loading.
+   */
+  public static void setIdleTimeout(long timeoutMs) {
+    if (timeoutMs < 0) {
+      Log.e(TAG, "Invalid idle timeout: " + timeoutMs);
+      return;
+    }
+    idleTimeoutMs = timeoutMs;
+  }
+
+  /** Returns how long playback stays paused before loading stops, or 0 if it never does. */
+  public static long getIdleTimeout() {
+    return idleTimeoutMs;
+  }
+
+  /**
+   * Also releases the video decoder of players that stop loading while paused, keeping the audio
+   * and the position. The decoder is created again on resume, and the video picks up from the
+   * position after reloading the current segment, mostly from the segment cache. Takes effect for
+   * videos initialized afterwards.
+   *
+   * @param enabled - true to release the video decoder of idle players.
+   */
+  public static void setReleaseDecoderWhenIdle(boolean enabled) {
+    releaseDecoderWhenIdle = enabled;
+  }
+
+  /** Returns true if idle players release their video decoder. */
+  public static boolean isReleaseDecoderWhenIdleEnabled() {
+    return releaseDecoderWhenIdle;
+  }
+
+  /**
+   * Hints the video MIME type of the next videos, such as "video/hevc", so players create a
+   * decoder for it while the manifest loads. Without a hint, the decoder of the last session of
+   * the same URL is used.
+   *
+   * @param mimeType - the MIME type of the video samples, or null for no hint.
+   */
+  public static void setVideoMimeTypeHint(String mimeType) {
+    videoMimeTypeHint = mimeType;
+  }
+
+  /** Returns the hinted video MIME type, or null if there is none. */
+  public static String getVideoMimeTypeHint() {
+    return videoMimeTypeHint;
+  }
+
+  /**
+   * Enables the governor that lowers the highest video height and frame rate of DASH and HLS
+   * playback as the device heats up, the battery runs low or frames are dropped. It is enabled by
+   * default.
+   *
+   * @param enabled - false to always allow the highest quality the bandwidth allows.
+   */
+  public static void setQualityGovernorEnabled(boolean enabled) {
+    QualityGovernor.getInstance().setEnabled(enabled);
+  }
+
+  /**
+   * Copies decoded frames into a chain of textures on a separate thread, so the render thread
+   * never waits for a frame to be latched and shows the frame due at each display frame. The
+   * texture given to the renderer is then a 2D texture, sampled with the identity matrix, that
+   * changes with every frame. Needs an OpenGL ES 3 context; frames are latched as before when the
+   * context is older. Takes effect for video textures created afterwards.
+   *
+   * @param slots - the number of frames in the chain, at least 4, or 0 to latch frames on the
+   *     render thread.
+   */
+  public static void setFrameChainSlots(int slots) {
+    if (slots < 0) {
+      Log.e(TAG, "Invalid number of frame chain slots: " + slots);
+      return;
+    }
+    frameChainSlots = slots;
+  }
+
+  /** Returns the number of frames in the chain of video textures, or 0 if they are not chained. */
+  public static int getFrameChainSlots() {
+    return frameChainSlots;
+  }
+
+  /**
+   * Measures the time and the allocations of the per-frame render path of video textures, over a
+   * number of display frames once a video plays, and logs the result. The render path is expected
+   * to allocate nothing. Takes effect for video textures created afterwards.
+   *
+   * @param frames - the number of display frames to measure, or 0 not to measure.
+   */
+  public static void setRenderPathBenchmarkFrames(int frames) {
+    if (frames < 0) {
+      Log.e(TAG, "Invalid number of benchmark frames: " + frames);
+      return;
+    }
+    renderPathBenchmarkFrames = frames;
+  }
+
+  /** Returns the number of display frames to measure the render path for, or 0. */
+  public static int getRenderPathBenchmarkFrames() {
+    return renderPathBenchmarkFrames;
+  }
+
+  /**
+   * Sets the size of the on-disk cache of media segments used by DASH, HLS and progressive
+   * playback. Must be called before the first video is played; the cache keeps its size once
+   * opened.
+   *
+   * @param bytes - the most bytes of media kept on disk, or 0 to disable the cache.
+   */
+  public static void setSegmentCacheSize(long bytes) {
+    if (bytes < 0) {
+      Log.e(TAG, "Invalid segment cache size: " + bytes);
+      return;
+    }
+    SegmentCache.setCapacity(bytes);
+  }
 }
@@ -15,6 +15,7 @@
  */
 package com.google.gvr.exoplayersupport;
 
+import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 
 /**
@@ -205,6 +206,37 @@ public interface VideoPlayer {
 
   byte[] getProjectionData();
 
+  /**
+   * Sets the direction the viewer is looking in. Players streaming viewport dependent 360 video use
+   * it to fetch the representation that emphasises where the viewer will be looking; other players
+   * ignore it. This should be called every frame while the video is visible.
+   *
+   * @param yawDegrees - the yaw, 0 at the center of the video frame and growing to the right.
+   * @param pitchDegrees - the pitch, 0 at the horizon and growing upwards.
+   */
+  void setViewOrientation(float yawDegrees, float pitchDegrees);
+
+  /**
+   * Returns a low resolution preview of the video at a position, to show while scrubbing instead
+   * of seeking the full video. Previews come from the thumbnail or trick play tracks of the video.
+   * One not loaded yet is loaded in the background, so this can be called every frame while
+   * scrubbing until it returns the preview.
+   *
+   * @param positionMs - the position to preview.
+   * @return the preview, or null if it is not loaded yet or the video has no previews.
+   */
+  Bitmap getPreviewFrame(long positionMs);
+
+  /**
+   * Marks the video as visible or not, such as when the viewer looks away from its panel or it goes
+   * off screen. A video that is not visible stops decoding and loading its video and keeps playing
+   * its audio, which lets several panels play at once within the thermal budget. When it is
+   * visible again the video picks up from the current position.
+   *
+   * @param visible - false while the video is not visible.
+   */
+  void setVideoVisible(boolean visible);
+
   /**
    * The listener interface for the video player. Implementations of this interface can be added to
    * the videoPlayer instance by calling #addListener()
@@ -77,4 +77,28 @@ public interface VideoPlayerFactory {
    * value of the constant matches the constants in the Util class of the Exoplayer library.
    */
   int OtherType = 3;
+
+  /**
+   * Constant used when selecting the adaptation algorithm of adaptive streams. ThroughputAdaptation
+   * picks the format from the measured bandwidth. This is the default.
+   */
+  int ThroughputAdaptation = 0;
+  /**
+   * Constant used when selecting the adaptation algorithm of adaptive streams. BufferAdaptation
+   * picks the format from the buffer occupancy, which switches less on high bitrate ladders.
+   */
+  int BufferAdaptation = 1;
+
+  /** Constant used when selecting the seek mode. SeekExact seeks to the position asked for. */
+  int SeekExact = 0;
+  /**
+   * Constant used when selecting the seek mode. SeekPreviousSync seeks to the start of the segment
+   * the position is in, so no frames before the position are decoded.
+   */
+  int SeekPreviousSync = 1;
+  /**
+   * Constant used when selecting the seek mode. SeekClosestSync seeks to the segment start closest
+   * to the position, before or after it.
+   */
+  int SeekClosestSync = 2;
 }
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.net.Uri;
+import android.util.Log;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.MediaFormat;
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.ChunkOperationHolder;
+import com.google.android.exoplayer.chunk.ChunkSource;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the media chunks of a chunk source that were loaded recently, so a seek back a few seconds
+ * is served from memory instead of the network. The sample sources drop samples once they are
+ * read, and a seek drops the samples ahead too, so after a seek back every chunk from the new
+ * position on is requested again. Those requests are answered here while the chunks are within
+ * the window behind the playback position, or still ahead of it.
+ *
+ * <p>Chunks are stored in allocations of the allocator the sample sources share, so the load
+ * control counts them against the memory budget of the pipeline. When the back buffer is full, the
+ * chunks furthest behind are evicted first, so what is kept stays contiguous.
+ *
+ * <p>The chunk source is wrapped to learn the media times of the chunks it loads and the playback
+ * position, and its data source is wrapped to keep and serve the chunks.
+ */
+public final class BackBuffer {
+  private static final String TAG = "BackBuffer";
+
+  private final Allocator allocator;
+  private final long windowUs;
+  private final int maxBytes;
+  private final Map<String, long[]> chunkTimes;
+  private final Map<String, Entry> entries;
+
+  private int bytes;
+  private long playbackPositionUs;
+  private int hits;
+  private long hitBytes;
+
+  /**
+   * @param allocator - the allocator the sample sources share.
+   * @param windowMs - how far behind the playback position chunks are kept.
+   * @param maxBytes - the most bytes kept, behind and ahead of the playback position.
+   */
+  public BackBuffer(Allocator allocator, long windowMs, int maxBytes) {
+    this.allocator = allocator;
+    this.windowUs = windowMs * 1000;
+    this.maxBytes = maxBytes;
+    chunkTimes = new HashMap<>();
+    entries = new HashMap<>();
+  }
+
+  /**
+   * Returns the bytes a window of media takes, at most a given size.
+   *
+   * @param windowMs - the duration of the window.
+   * @param bitrate - the highest bitrate of the media, or 0 if unknown.
+   * @param maxBytes - the most bytes to return, which is also returned if the bitrate is unknown.
+   */
+  public static int getWindowBytes(long windowMs, int bitrate, int maxBytes) {
+    if (bitrate <= 0) {
+      return maxBytes;
+    }
+    return (int) Math.min(windowMs * bitrate / 8000, maxBytes);
+  }
+
+  /** Wraps the chunk source whose chunks are kept. */
+  public ChunkSource wrap(ChunkSource chunkSource) {
+    return new BackBufferChunkSource(chunkSource);
+  }
+
+  /** Wraps the data source of the chunk source, so kept chunks are served from memory. */
+  public DataSource wrap(DataSource upstream) {
+    return new BackBufferDataSource(upstream);
+  }
+
+  /**
+   * Records a chunk the chunk source is about to load, and the playback position it was chosen at.
+   * Chunk sources that are not wrapped call this themselves.
+   */
+  public synchronized void onChunkOperation(Chunk chunk, long playbackPositionUs) {
+    setPlaybackPosition(playbackPositionUs);
+    if (chunk instanceof MediaChunk) {
+      MediaChunk mediaChunk = (MediaChunk) chunk;
+      chunkTimes.put(
+          getKey(chunk.dataSpec), new long[] {mediaChunk.startTimeUs, mediaChunk.endTimeUs});
+    }
+  }
+
+  /** Returns the number of chunk requests served from memory. */
+  public synchronized int getHits() {
+    return hits;
+  }
+
+  /** Returns the number of bytes served from memory. */
+  public synchronized long getHitBytes() {
+    return hitBytes;
+  }
+
+  /** Evicts the chunks that fell out of the window behind the playback position. */
+  private void setPlaybackPosition(long positionUs) {
+    playbackPositionUs = positionUs;
+    long windowStartUs = positionUs - windowUs;
+    Iterator<long[]> times = chunkTimes.values().iterator();
+    while (times.hasNext()) {
+      if (times.next()[1] < windowStartUs) {
+        times.remove();
+      }
+    }
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.endTimeUs < windowStartUs) {
+        iterator.remove();
+        evict(entry);
+      }
+    }
+  }
+
+  private synchronized Entry acquire(DataSpec dataSpec) {
+    Entry entry = entries.get(getKey(dataSpec));
+    if (entry == null) {
+      return null;
+    }
+    entry.readers++;
+    hits++;
+    hitBytes += entry.length;
+    Log.d(
+        TAG,
+        "Serving "
+            + entry.length
+            + " bytes at "
+            + entry.startTimeUs / 1000
+            + "ms from memory, "
+            + hits
+            + " hits");
+    return entry;
+  }
+
+  private synchronized void releaseEntry(Entry entry) {
+    entry.readers--;
+    if (entry.evicted && entry.readers == 0) {
+      allocator.release(entry.allocations);
+    }
+  }
+
+  /** Returns whether the chunk of a request is worth keeping. */
+  private synchronized boolean shouldKeep(DataSpec dataSpec) {
+    long[] times = chunkTimes.get(getKey(dataSpec));
+    return times != null && times[1] >= playbackPositionUs - windowUs;
+  }
+
+  /** Keeps a chunk that was read in full, or releases it if it is no longer wanted. */
+  private synchronized void commit(DataSpec dataSpec, Allocation[] allocations, int length) {
+    String key = getKey(dataSpec);
+    long[] times = chunkTimes.remove(key);
+    if (times == null || entries.containsKey(key)) {
+      allocator.release(allocations);
+      return;
+    }
+    entries.put(key, new Entry(allocations, length, times[0], times[1]));
+    bytes += allocations.length * allocator.getIndividualAllocationLength();
+    while (bytes > maxBytes && !entries.isEmpty()) {
+      // The chunk furthest behind goes first, so the chunks kept stay contiguous.
+      String oldestKey = null;
+      Entry oldest = null;
+      for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+        if (oldest == null || candidate.getValue().startTimeUs < oldest.startTimeUs) {
+          oldestKey = candidate.getKey();
+          oldest = candidate.getValue();
+        }
+      }
+      entries.remove(oldestKey);
+      evict(oldest);
+    }
+  }
+
+  private void evict(Entry entry) {
+    bytes -= entry.allocations.length * allocator.getIndividualAllocationLength();
+    entry.evicted = true;
+    if (entry.readers == 0) {
+      allocator.release(entry.allocations);
+    }
+  }
+
+  private static String getKey(DataSpec dataSpec) {
+    return getKey(dataSpec.uri, dataSpec.position, dataSpec.length);
+  }
+
+  private static String getKey(Uri uri, long position, long length) {
+    return uri + "@" + position + "+" + length;
+  }
+
+  /** A kept chunk. */
+  private static final class Entry {
+    final Allocation[] allocations;
+    final int length;
+    final long startTimeUs;
+    final long endTimeUs;
+    int readers;
+    boolean evicted;
+
+    Entry(Allocation[] allocations, int length, long startTimeUs, long endTimeUs) {
+      this.allocations = allocations;
+      this.length = length;
+      this.startTimeUs = startTimeUs;
+      this.endTimeUs = endTimeUs;
+    }
+  }
+
+  /** Passes on the calls of the chunk source, recording the chunks it loads. */
+  private final class BackBufferChunkSource implements ChunkSource {
+    private final ChunkSource chunkSource;
+
+    BackBufferChunkSource(ChunkSource chunkSource) {
+      this.chunkSource = chunkSource;
+    }
+
+    @Override
+    public void maybeThrowError() throws IOException {
+      chunkSource.maybeThrowError();
+    }
+
+    @Override
+    public boolean prepare() {
+      return chunkSource.prepare();
+    }
+
+    @Override
+    public int getTrackCount() {
+      return chunkSource.getTrackCount();
+    }
+
+    @Override
+    public MediaFormat getFormat(int track) {
+      return chunkSource.getFormat(track);
+    }
+
+    @Override
+    public void enable(int track) {
+      chunkSource.enable(track);
+    }
+
+    @Override
+    public void continueBuffering(long playbackPositionUs) {
+      chunkSource.continueBuffering(playbackPositionUs);
+    }
+
+    @Override
+    public void getChunkOperation(
+        List<? extends MediaChunk> queue, long playbackPositionUs, ChunkOperationHolder out) {
+      chunkSource.getChunkOperation(queue, playbackPositionUs, out);
+      onChunkOperation(out.chunk, playbackPositionUs);
+    }
+
+    @Override
+    public void onChunkLoadCompleted(Chunk chunk) {
+      chunkSource.onChunkLoadCompleted(chunk);
+    }
+
+    @Override
+    public void onChunkLoadError(Chunk chunk, Exception e) {
+      chunkSource.onChunkLoadError(chunk, e);
+    }
+
+    @Override
+    public void disable(List<? extends MediaChunk> queue) {
+      chunkSource.disable(queue);
+    }
+  }
+
+  /** Serves kept chunks from memory, and keeps the chunks it reads from upstream. */
+  private final class BackBufferDataSource implements DataSource {
+    private final DataSource upstream;
+    private final int allocationLength;
+
+    private Entry entry;
+    private int readPosition;
+
+    private DataSpec keptDataSpec;
+    private List<Allocation> kept;
+    private long expectedLength;
+    private int keptLength;
+    private boolean ended;
+
+    BackBufferDataSource(DataSource upstream) {
+      this.upstream = upstream;
+      allocationLength = allocator.getIndividualAllocationLength();
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      entry = acquire(dataSpec);
+      if (entry != null) {
+        readPosition = 0;
+        return entry.length;
+      }
+      expectedLength = upstream.open(dataSpec);
+      if (shouldKeep(dataSpec)) {
+        keptDataSpec = dataSpec;
+        kept = new ArrayList<>();
+        keptLength = 0;
+        ended = false;
+      }
+      return expectedLength;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      if (entry != null) {
+        if (readPosition == entry.length) {
+          return C.RESULT_END_OF_INPUT;
+        }
+        int allocationOffset = readPosition % allocationLength;
+        Allocation allocation = entry.allocations[readPosition / allocationLength];
+        int length =
+            Math.min(
+                readLength,
+                Math.min(allocationLength - allocationOffset, entry.length - readPosition));
+        System.arraycopy(
+            allocation.data, allocation.translateOffset(allocationOffset), buffer, offset, length);
+        readPosition += length;
+        return length;
+      }
+      int bytesRead = upstream.read(buffer, offset, readLength);
+      if (kept != null) {
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+          ended = true;
+        } else {
+          keep(buffer, offset, bytesRead);
+        }
+      }
+      return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (entry != null) {
+        releaseEntry(entry);
+        entry = null;
+        return;
+      }
+      try {
+        upstream.close();
+      } finally {
+        if (kept != null) {
+          Allocation[] allocations = kept.toArray(new Allocation[kept.size()]);
+          boolean complete =
+              ended || (expectedLength != C.LENGTH_UNBOUNDED && keptLength == expectedLength);
+          if (complete) {
+            commit(keptDataSpec, allocations, keptLength);
+          } else {
+            allocator.release(allocations);
+          }
+          kept = null;
+          keptDataSpec = null;
+        }
+      }
+    }
+
+    private void keep(byte[] buffer, int offset, int length) {
+      if (keptLength + length > maxBytes) {
+        // Larger than the whole back buffer, so not worth keeping.
+        allocator.release(kept.toArray(new Allocation[kept.size()]));
+        kept = null;
+        return;
+      }
+      while (length > 0) {
+        int allocationOffset = keptLength % allocationLength;
+        if (allocationOffset == 0) {
+          kept.add(allocator.allocate());
+        }
+        Allocation allocation = kept.get(kept.size() - 1);
+        int copyLength = Math.min(length, allocationLength - allocationOffset);
+        System.arraycopy(
+            buffer,
+            offset,
+            allocation.data,
+            allocation.translateOffset(allocationOffset),
+            copyLength);
+        offset += copyLength;
+        length -= copyLength;
+        keptLength += copyLength;
+      }
+    }
+  }
+}
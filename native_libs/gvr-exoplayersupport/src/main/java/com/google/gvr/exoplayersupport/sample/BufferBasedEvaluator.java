@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import java.util.List;
+
+/**
+ * Selects formats from the buffer occupancy rather than the throughput estimate, following the
+ * BOLA algorithm. Each format is scored by the utility it adds relative to its size, discounted by
+ * how full the buffer already is; the format with the best score is picked. With a small buffer the
+ * lowest format wins and with a full buffer the highest does, so the quality follows the buffer
+ * level smoothly instead of every bandwidth sample.
+ *
+ * <p>Two dampers keep high-bitrate ladders from oscillating. An upswitch is capped at the highest
+ * format the measured throughput can sustain, unless the current format is already above it. And
+ * after a switch no other switch happens for a minimum amount of buffered media, except a
+ * downswitch when the buffer is about to run dry.
+ */
+public final class BufferBasedEvaluator implements FormatEvaluator {
+
+  /** Maps a bitrate to the utility of playing it. Must increase with the bitrate. */
+  public interface Utility {
+    double getUtility(int bitrate);
+  }
+
+  /** Utility growing with the logarithm of the bitrate, as in the BOLA paper. */
+  public static final Utility LOG_UTILITY =
+      new Utility() {
+        @Override
+        public double getUtility(int bitrate) {
+          return Math.log(bitrate);
+        }
+      };
+
+  /** Utility proportional to the bitrate. Favors the top of the ladder more than LOG_UTILITY. */
+  public static final Utility LINEAR_UTILITY =
+      new Utility() {
+        @Override
+        public double getUtility(int bitrate) {
+          return bitrate / 1000000.0;
+        }
+      };
+
+  public static final int DEFAULT_MAX_INITIAL_BITRATE = 800000;
+  public static final int DEFAULT_MIN_BUFFER_MS = 10000;
+  public static final int DEFAULT_STABLE_BUFFER_MS = 30000;
+  public static final int DEFAULT_MIN_SWITCH_INTERVAL_MS = 8000;
+  public static final float DEFAULT_BANDWIDTH_FRACTION = 0.9f;
+
+  private final BandwidthMeter bandwidthMeter;
+  private final int maxInitialBitrate;
+  private final Utility utility;
+  private final long minBufferUs;
+  private final long stableBufferUs;
+  private final long minSwitchIntervalUs;
+  private final float bandwidthFraction;
+
+  private long lastSwitchTimeUs;
+
+  /**
+   * @param bandwidthMeter - provides the throughput estimate used for startup and upswitch capping.
+   */
+  public BufferBasedEvaluator(BandwidthMeter bandwidthMeter) {
+    this(
+        bandwidthMeter,
+        DEFAULT_MAX_INITIAL_BITRATE,
+        LOG_UTILITY,
+        DEFAULT_MIN_BUFFER_MS,
+        DEFAULT_STABLE_BUFFER_MS,
+        DEFAULT_MIN_SWITCH_INTERVAL_MS,
+        DEFAULT_BANDWIDTH_FRACTION);
+  }
+
+  /**
+   * @param bandwidthMeter - provides the throughput estimate used for startup and upswitch capping.
+   * @param maxInitialBitrate - the highest bitrate picked before a throughput estimate exists.
+   * @param utility - the utility of each bitrate.
+   * @param minBufferMs - the buffer level at which the lowest format is picked. Below it, the
+   *     evaluator downswitches regardless of the switch interval.
+   * @param stableBufferMs - the buffer level at which the highest format is picked.
+   * @param minSwitchIntervalMs - the duration of media that must be buffered after a switch before
+   *     the next one.
+   * @param bandwidthFraction - the fraction of the throughput estimate an upswitch may use.
+   */
+  public BufferBasedEvaluator(
+      BandwidthMeter bandwidthMeter,
+      int maxInitialBitrate,
+      Utility utility,
+      int minBufferMs,
+      int stableBufferMs,
+      int minSwitchIntervalMs,
+      float bandwidthFraction) {
+    this.bandwidthMeter = bandwidthMeter;
+    this.maxInitialBitrate = maxInitialBitrate;
+    this.utility = utility;
+    this.minBufferUs = minBufferMs * 1000L;
+    this.stableBufferUs = Math.max(stableBufferMs, minBufferMs + 1) * 1000L;
+    this.minSwitchIntervalUs = minSwitchIntervalMs * 1000L;
+    this.bandwidthFraction = bandwidthFraction;
+  }
+
+  @Override
+  public void enable() {
+    lastSwitchTimeUs = -1;
+  }
+
+  @Override
+  public void disable() {
+    // Do nothing.
+  }
+
+  @Override
+  public void evaluate(
+      List<? extends MediaChunk> queue,
+      long playbackPositionUs,
+      Format[] formats,
+      Evaluation evaluation) {
+    long nextChunkStartUs =
+        queue.isEmpty() ? playbackPositionUs : queue.get(queue.size() - 1).endTimeUs;
+    long bufferedUs = nextChunkStartUs - playbackPositionUs;
+    Format current = evaluation.format;
+    long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+    long sustainableBitrate =
+        bitrateEstimate == BandwidthMeter.NO_ESTIMATE
+            ? maxInitialBitrate
+            : (long) (bitrateEstimate * bandwidthFraction);
+
+    Format ideal;
+    if (current == null || queue.isEmpty()) {
+      // Nothing is buffered to judge by, so start from the throughput.
+      ideal = getHighestFormatBelow(formats, sustainableBitrate);
+    } else {
+      ideal = getBufferBasedFormat(formats, bufferedUs);
+      if (ideal.bitrate > current.bitrate && ideal.bitrate > sustainableBitrate) {
+        Format sustainable = getHighestFormatBelow(formats, sustainableBitrate);
+        ideal = sustainable.bitrate > current.bitrate ? sustainable : current;
+      }
+      boolean switchAllowed =
+          lastSwitchTimeUs < 0
+              || nextChunkStartUs - lastSwitchTimeUs >= minSwitchIntervalUs
+              || (ideal.bitrate < current.bitrate && bufferedUs < minBufferUs);
+      if (!switchAllowed) {
+        ideal = current;
+      }
+    }
+
+    if (current != null && ideal != current) {
+      evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+      lastSwitchTimeUs = nextChunkStartUs;
+    }
+    evaluation.format = ideal;
+  }
+
+  /** Returns the format with the best BOLA score for the buffer level. */
+  private Format getBufferBasedFormat(Format[] formats, long bufferedUs) {
+    int minBitrate = Integer.MAX_VALUE;
+    int maxBitrate = 0;
+    for (Format format : formats) {
+      minBitrate = Math.min(minBitrate, format.bitrate);
+      maxBitrate = Math.max(maxBitrate, format.bitrate);
+    }
+    // Utilities are offset so the lowest format has a utility of 1. The control parameters are
+    // then chosen so the lowest format wins at the minimum buffer and the highest at the stable
+    // buffer level.
+    double baseUtility = utility.getUtility(minBitrate) - 1;
+    double maxUtility = utility.getUtility(maxBitrate) - baseUtility;
+    double bufferRatio = (double) stableBufferUs / minBufferUs;
+    double gamma = bufferRatio > 1 ? (maxUtility - 1) / (bufferRatio - 1) : 0;
+    double v = gamma > 0 ? minBufferUs / gamma : minBufferUs;
+
+    Format best = formats[0];
+    double bestScore = Double.NEGATIVE_INFINITY;
+    for (Format format : formats) {
+      double formatUtility = utility.getUtility(format.bitrate) - baseUtility;
+      double score = (v * (formatUtility + gamma) - bufferedUs) / format.bitrate;
+      if (score > bestScore) {
+        bestScore = score;
+        best = format;
+      }
+    }
+    return best;
+  }
+
+  /** Returns the highest format not above the bitrate, or the lowest format if none is. */
+  private static Format getHighestFormatBelow(Format[] formats, long bitrate) {
+    Format highest = null;
+    Format lowest = formats[0];
+    for (Format format : formats) {
+      if (format.bitrate <= bitrate && (highest == null || format.bitrate > highest.bitrate)) {
+        highest = format;
+      }
+      if (format.bitrate < lowest.bitrate) {
+        lowest = format;
+      }
+    }
+    return highest != null ? highest : lowest;
+  }
+}
@@ -17,26 +17,34 @@ package com.google.gvr.exoplayersupport.sample;
 
 import android.content.Context;
 import android.media.MediaCodec;
+import android.media.UnsupportedSchemeException;
+import android.os.AsyncTask;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
+import com.google.android.exoplayer.DecoderInfo;
 import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
+import com.google.android.exoplayer.MediaCodecUtil;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.ChunkSource;
+import com.google.android.exoplayer.chunk.Format;
 import com.google.android.exoplayer.chunk.FormatEvaluator;
 import com.google.android.exoplayer.dash.DashChunkSource;
+import com.google.android.exoplayer.dash.DashTrackSelector;
 import com.google.android.exoplayer.dash.DefaultDashTrackSelector;
 import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.ContentProtection;
 import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
-import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
 import com.google.android.exoplayer.dash.mpd.Period;
 import com.google.android.exoplayer.dash.mpd.Representation;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElement;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver;
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
 import com.google.android.exoplayer.drm.UnsupportedDrmException;
 import com.google.android.exoplayer.upstream.DataSource;
@@ -48,7 +56,16 @@ import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 import com.google.gvr.exoplayersupport.AsyncRendererBuilder;
 import com.google.gvr.exoplayersupport.VideoPlayer;
+import com.google.gvr.exoplayersupport.VideoPlayerFactory;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Builds the renderers for playing DASH videos. This also includes using the YouTube locator URL
@@ -56,19 +73,34 @@ import java.io.IOException;
  */
 public final class DASHAsyncRendererBuilder
     implements AsyncRendererBuilder,
+        DecoderWarmer.VideoSource,
         ManifestFetcher.ManifestCallback<MediaPresentationDescription>,
-        UtcTimingElementResolver.UtcTimingCallback {
+        UtcTimingElementResolver.UtcTimingCallback,
+        StreamingDrmSessionManager.EventListener {
   private static final String TAG = "AsyncRendererBuilder";
 
   private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
   private static final int VIDEO_BUFFER_SEGMENTS = 200;
-  private static final int LIVE_EDGE_LATENCY_MS = 30000;
   private static final int AUDIO_BUFFER_SEGMENTS = 54;
+  private static final int MAX_CACHED_MANIFESTS = 16;
+  private static final int MIN_TILE_BUFFER_SEGMENTS = 32;
+  private static final int MAX_TILED_FRAME_SIZE = 4096;
 
   private static final int SECURITY_LEVEL_UNKNOWN = -1;
   private static final int SECURITY_LEVEL_1 = 1;
   private static final int SECURITY_LEVEL_3 = 3;
 
+  private static final String PHASE_YOUTUBE_LOOKUP = "youtubeLookup";
+  private static final String PHASE_MANIFEST = "manifest";
+  private static final String PHASE_UTC_TIMING = "utcTiming";
+  private static final String PHASE_DRM_SETUP = "drmSetup";
+  private static final String PHASE_DRM_KEYS = "drmKeys";
+  private static final String PHASE_DECODER_WARMUP = "decoderWarmup";
+  private static final String PHASE_RENDERERS = "renderers";
+
+  private static ManifestCache<MediaPresentationDescription> manifestCache;
+  private static ManifestCache<MediaPresentationDescription> tiledManifestCache;
+
   private final Context context;
   private String userAgent;
   private String videoUrl;
@@ -77,12 +109,28 @@ public final class DASHAsyncRendererBuilder
   private boolean requiresSecurePlayback;
   private VideoExoPlayer player;
   private ManifestFetcher<MediaPresentationDescription> manifestFetcher;
+  private ViewportMpdParser manifestParser;
+  private String manifestUrl;
   private UriDataSource manifestDataSource;
-  private WidevineTestMediaDrmCallback drmCallback;
+  private MediaDrmCallback drmCallback;
+  private boolean persistentLicenses;
   private boolean canceled;
   private MediaPresentationDescription manifest;
   private long elapsedRealtimeOffset;
   private int targetResolution;
+  private StartupTrace startupTrace;
+  private int pendingStartupPhases;
+  private StreamingDrmSessionManager drmSessionManager;
+  private boolean drmSessionPreopened;
+  private boolean filterHdContent;
+  private InitSegmentPrefetcher initSegmentPrefetcher;
+  private int adaptationAlgorithm = VideoPlayerFactory.ThroughputAdaptation;
+  private boolean tiledPlayback;
+  private long liveTargetLatencyMs = LiveLatencyController.DEFAULT_TARGET_LATENCY_MS;
+  private boolean lowLatencyLive;
+  private long liveEdgeOffsetMs;
+  private long backBufferMs;
+  private DefaultAllocator allocator;
 
   /**
    * Construct the renderer builder. This is for DASH video, both secure and clear. It also handles
@@ -98,49 +146,177 @@ public final class DASHAsyncRendererBuilder
       String contentId,
       String providerId,
       boolean requiresSecurePlayback) {
+    this(
+        context, userAgent, videoURL, contentId, providerId, requiresSecurePlayback, null, false);
+  }
+
+  /**
+   * Construct the renderer builder with a specific DRM configuration.
+   *
+   * @param context - the context of the application
+   * @param userAgent - the user agent use use with network requests.
+   * @param drmCallback - the callback that performs license requests, or null to use the widevine
+   *     test server.
+   * @param persistentLicenses - true to request persistent licenses and restore them when the same
+   *     content is played again. The license server must allow offline licenses.
+   */
+  public DASHAsyncRendererBuilder(
+      Context context,
+      String userAgent,
+      String videoURL,
+      String contentId,
+      String providerId,
+      boolean requiresSecurePlayback,
+      MediaDrmCallback drmCallback,
+      boolean persistentLicenses) {
     this.context = context;
     this.userAgent = userAgent;
     this.videoUrl = videoURL;
     this.contentId = contentId;
     this.providerId = providerId;
     this.requiresSecurePlayback = requiresSecurePlayback;
+    this.drmCallback = drmCallback;
+    this.persistentLicenses = persistentLicenses;
+  }
+
+  /**
+   * Selects the algorithm that adapts the video quality. Must be called before init.
+   *
+   * @param adaptationAlgorithm - VideoPlayerFactory.ThroughputAdaptation or
+   *     VideoPlayerFactory.BufferAdaptation.
+   */
+  public void setAdaptationAlgorithm(int adaptationAlgorithm) {
+    this.adaptationAlgorithm = adaptationAlgorithm;
+  }
+
+  /**
+   * Plays tiled 360 videos by decoding each tile on its own and compositing the tiles, with the
+   * tiles in view streamed at a higher quality. Tiles are the video adaptation sets with a spatial
+   * relationship description. Videos with more tiles than can be decoded at once play the first
+   * other video adaptation set instead. Must be called before init.
+   *
+   * @param tiledPlayback - true to play tiled videos tile by tile.
+   */
+  public void setTiledPlayback(boolean tiledPlayback) {
+    this.tiledPlayback = tiledPlayback;
+  }
+
+  /**
+   * Plays live streams at a low latency. Playback starts the target latency behind the live edge
+   * and is kept there by changing the playback speed. Segments that the manifest announces early,
+   * with an availabilityTimeOffset, are loaded while they are still being encoded, and played as
+   * their chunks arrive. Must be called before init.
+   *
+   * @param targetLatencyMs - how far behind the live edge to play, or 0 for regular live playback.
+   */
+  public void setLiveTargetLatency(long targetLatencyMs) {
+    lowLatencyLive = targetLatencyMs > 0;
+    liveTargetLatencyMs =
+        lowLatencyLive ? targetLatencyMs : LiveLatencyController.DEFAULT_TARGET_LATENCY_MS;
+  }
+
+  /**
+   * Keeps the chunks of the last seconds played in memory, so seeking back into them does not
+   * load them again. The memory counts against the buffer of the player. Must be called before
+   * init.
+   *
+   * @param backBufferMs - how far behind the playback position to keep chunks, or 0 to keep none.
+   */
+  public void setBackBufferDuration(long backBufferMs) {
+    this.backBufferMs = Math.max(0, backBufferMs);
   }
 
   public void init(VideoPlayer videoPlayer, int targetResolution) {
     this.player = (VideoExoPlayer) videoPlayer;
     this.targetResolution = targetResolution;
-    final MediaPresentationDescriptionParser parser = new MediaPresentationDescriptionParser();
-    manifestDataSource = new DefaultUriDataSource(context, userAgent);
+    startupTrace = new StartupTrace(TAG);
+    final ManifestCache<MediaPresentationDescription> cache =
+        getManifestCache(context, tiledPlayback);
 
     // For DRM, use the widevine test server.  If you are using actual widevine DRM, this
     // class should be replaced with one that is correctly configured for your CDN environment.
-    drmCallback = new WidevineTestMediaDrmCallback(contentId, providerId);
+    if (drmCallback == null) {
+      drmCallback = new WidevineTestMediaDrmCallback(contentId, providerId);
+    }
 
     // If the provider is YouTube, then use the locator URL to find the actual DASH URL.
     // otherwise, use what was passed in directly.
     if (providerId.equalsIgnoreCase("YouTube")) {
-      final VideoExoPlayer thePlayer = player;
+      startupTrace.begin(PHASE_YOUTUBE_LOOKUP);
       YouTubeDashInfo info =
           new YouTubeDashInfo(contentId) {
             @Override
             protected void onPostExecute() {
+              startupTrace.end(PHASE_YOUTUBE_LOOKUP);
               if (!isCanceled()) {
-                manifestFetcher = new ManifestFetcher<>(getUrl(), manifestDataSource, parser);
-                manifestFetcher.singleLoad(
-                    thePlayer.getMainHandler().getLooper(), DASHAsyncRendererBuilder.this);
+                loadManifest(cache, getUrl());
               }
             }
           };
       info.execute();
     } else {
-      manifestFetcher = new ManifestFetcher<>(videoUrl, manifestDataSource, parser);
-      Log.d(TAG, "starting manifest fetcher");
-      manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+      loadManifest(cache, videoUrl);
+    }
+  }
+
+  private void loadManifest(ManifestCache<MediaPresentationDescription> cache, String url) {
+    manifestUrl = url;
+    manifestDataSource =
+        new DefaultUriDataSource(context, null, cache.createDataSource(userAgent, url));
+    startupTrace.begin(PHASE_MANIFEST);
+
+    // A cached VOD manifest is used as is, and revalidated in the background for next time.
+    final MediaPresentationDescription cachedManifest = cache.get(url);
+    if (cachedManifest != null && !cachedManifest.dynamic) {
+      Log.d(TAG, "using cached manifest for " + url);
+      cache.revalidate(url, userAgent);
+      player
+          .getMainHandler()
+          .post(
+              new Runnable() {
+                @Override
+                public void run() {
+                  if (!canceled) {
+                    manifest = cachedManifest;
+                    startupTrace.end(PHASE_MANIFEST);
+                    startPipeline();
+                  }
+                }
+              });
+      return;
     }
+
+    manifestParser = new IncrementalMpdParser(tiledPlayback);
+    manifestFetcher = new ManifestFetcher<>(url, manifestDataSource, manifestParser);
+    Log.d(TAG, "starting manifest fetcher");
+    manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+  }
+
+  @Override
+  public String getVideoUrl() {
+    return videoUrl;
   }
 
   public void cancel() {
     canceled = true;
+    if (initSegmentPrefetcher != null) {
+      initSegmentPrefetcher.release();
+      initSegmentPrefetcher = null;
+    }
+    if (drmSessionPreopened) {
+      // Balance the early open of the session. This is posted to the playback looper ahead of the
+      // player release, so the renderer still holds its own reference when it runs.
+      drmSessionPreopened = false;
+      final StreamingDrmSessionManager sessionManager = drmSessionManager;
+      new Handler(player.getPlaybackLooper())
+          .post(
+              new Runnable() {
+                @Override
+                public void run() {
+                  sessionManager.close();
+                }
+              });
+    }
   }
 
   @Override
@@ -150,15 +326,14 @@ public final class DASHAsyncRendererBuilder
     }
 
     this.manifest = manifest;
-    if (manifest.dynamic && manifest.utcTiming != null) {
-      UtcTimingElementResolver.resolveTimingElement(
-          manifestDataSource,
-          manifest.utcTiming,
-          manifestFetcher.getManifestLoadCompleteTimestamp(),
-          this);
+    ManifestCache<MediaPresentationDescription> cache = getManifestCache(context, tiledPlayback);
+    if (manifest.dynamic) {
+      cache.remove(manifestUrl);
     } else {
-      buildRenderers();
+      cache.put(manifestUrl, manifest);
     }
+    startupTrace.end(PHASE_MANIFEST);
+    startPipeline();
   }
 
   @Override
@@ -177,7 +352,8 @@ public final class DASHAsyncRendererBuilder
     }
 
     this.elapsedRealtimeOffset = elapsedRealtimeOffset;
-    buildRenderers();
+    startupTrace.end(PHASE_UTC_TIMING);
+    onStartupPhaseComplete();
   }
 
   @Override
@@ -188,33 +364,327 @@ public final class DASHAsyncRendererBuilder
 
     Log.e(TAG, "Failed to resolve UtcTiming element [" + utcTiming + "]", e);
     // Be optimistic and continue in the hope that the device clock is correct.
-    buildRenderers();
+    startupTrace.end(PHASE_UTC_TIMING);
+    onStartupPhaseComplete();
+  }
+
+  @Override
+  public void onDrmKeysLoaded() {
+    startupTrace.end(PHASE_DRM_KEYS);
+    player.onDrmKeysLoaded();
+  }
+
+  @Override
+  public void onDrmSessionManagerError(Exception e) {
+    // The renderer reports session errors to the player when it next reads the session state.
+    Log.e(TAG, "DRM session error during startup", e);
+  }
+
+  /**
+   * Starts the independent steps that need the manifest, so they overlap rather than run one after
+   * the other. The UTC timing element is resolved, and the codecs for the video representations are
+   * warmed up in the background, while the DRM session manager is created and the key request is
+   * issued on this thread. The renderers are built once the timing is resolved and DRM is ready.
+   */
+  private void startPipeline() {
+    pendingStartupPhases = 1;
+    if (manifest.dynamic && manifest.utcTiming != null) {
+      pendingStartupPhases++;
+      startupTrace.begin(PHASE_UTC_TIMING);
+      UtcTimingElementResolver.resolveTimingElement(
+          manifestDataSource,
+          manifest.utcTiming,
+          manifestFetcher.getManifestLoadCompleteTimestamp(),
+          this);
+    }
+
+    warmDecoders();
+    if (hasContentProtection(manifest)) {
+      startupTrace.begin(PHASE_DRM_SETUP);
+      boolean drmReady = prepareDrm();
+      startupTrace.end(PHASE_DRM_SETUP);
+      if (!drmReady) {
+        return;
+      }
+    }
+    onStartupPhaseComplete();
+  }
+
+  private void onStartupPhaseComplete() {
+    if (--pendingStartupPhases == 0 && !canceled) {
+      startupTrace.begin(PHASE_RENDERERS);
+      buildRenderers();
+      startupTrace.end(PHASE_RENDERERS);
+    }
+  }
+
+  /**
+   * Creates the DRM session manager and, when the manifest carries the Widevine PSSH, opens the
+   * session right away so provisioning and the key request run while the renderers are built.
+   *
+   * @return false if DRM is not supported, in which case the error has been reported to the player.
+   */
+  private boolean prepareDrm() {
+    if (Util.SDK_INT < 18) {
+      player.onRenderersError(
+          new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
+      return false;
+    }
+    try {
+      if (persistentLicenses) {
+        OfflineLicenseMediaDrm mediaDrm =
+            new OfflineLicenseMediaDrm(
+                StreamingDrmSessionManager.WIDEVINE_UUID,
+                drmCallback,
+                OfflineLicenseStore.getInstance(context),
+                contentId,
+                providerId);
+        drmSessionManager =
+            StreamingDrmSessionManager.newInstance(
+                StreamingDrmSessionManager.WIDEVINE_UUID,
+                player.getPlaybackLooper(),
+                mediaDrm,
+                null,
+                player.getMainHandler(),
+                this,
+                mediaDrm);
+      } else {
+        drmSessionManager =
+            StreamingDrmSessionManager.newWidevineInstance(
+                player.getPlaybackLooper(), drmCallback, null, player.getMainHandler(), this);
+      }
+
+      if (!requiresSecurePlayback) {
+        // Force to L3 to be able to direct to SurfaceTexture
+        drmSessionManager.setPropertyString("securityLevel", "L3");
+      }
+
+      filterHdContent = getWidevineSecurityLevel(drmSessionManager) != SECURITY_LEVEL_1;
+    } catch (UnsupportedSchemeException e) {
+      player.onRenderersError(
+          new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME, e));
+      return false;
+    } catch (UnsupportedDrmException e) {
+      player.onRenderersError(e);
+      return false;
+    }
+
+    final DrmInitData drmInitData = getWidevineInitData(manifest);
+    if (drmInitData != null) {
+      // The session manager is only used from the playback looper, so open it there.
+      drmSessionPreopened = true;
+      startupTrace.begin(PHASE_DRM_KEYS);
+      final StreamingDrmSessionManager sessionManager = drmSessionManager;
+      new Handler(player.getPlaybackLooper())
+          .post(
+              new Runnable() {
+                @Override
+                public void run() {
+                  sessionManager.open(drmInitData);
+                }
+              });
+    }
+    return true;
+  }
+
+  /**
+   * Queries the decoders for the video representations of every period off this thread, so they
+   * are cached.
+   */
+  private void warmDecoders() {
+    final Set<String> mimeTypes = new HashSet<>();
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      for (AdaptationSet adaptationSet : manifest.getPeriod(i).adaptationSets) {
+        if (adaptationSet.type == AdaptationSet.TYPE_VIDEO) {
+          for (Representation rep : adaptationSet.representations) {
+            mimeTypes.add(rep.format.mimeType);
+          }
+        }
+      }
+    }
+    startupTrace.begin(PHASE_DECODER_WARMUP);
+    AsyncTask.THREAD_POOL_EXECUTOR.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            for (String mimeType : mimeTypes) {
+              MediaCodecUtil.warmCodec(mimeType, false);
+            }
+            startupTrace.end(PHASE_DECODER_WARMUP);
+          }
+        });
+  }
+
+  /**
+   * Returns true if any period is protected. The DRM session manager is shared by all periods, so
+   * it is needed even when only a later period, such as an ad break or the main content, is
+   * encrypted.
+   */
+  private static boolean hasContentProtection(MediaPresentationDescription manifest) {
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      for (AdaptationSet adaptationSet : manifest.getPeriod(i).adaptationSets) {
+        if (adaptationSet.type != AdaptationSet.TYPE_UNKNOWN
+            && adaptationSet.hasContentProtection()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the Widevine init data declared in the manifest, or null if it is only in-band. The
+   * first period that declares it is used.
+   */
+  private static DrmInitData getWidevineInitData(MediaPresentationDescription manifest) {
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      for (AdaptationSet adaptationSet : manifest.getPeriod(i).adaptationSets) {
+        for (ContentProtection contentProtection : adaptationSet.contentProtections) {
+          if (StreamingDrmSessionManager.WIDEVINE_UUID.equals(contentProtection.uuid)
+              && contentProtection.data != null) {
+            DrmInitData.Mapped drmInitData = new DrmInitData.Mapped();
+            drmInitData.put(contentProtection.uuid, contentProtection.data);
+            return drmInitData;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static ViewportAdaptationSet getViewportAdaptationSet(Period period) {
+    for (AdaptationSet adaptationSet : period.adaptationSets) {
+      if (adaptationSet instanceof ViewportAdaptationSet) {
+        return (ViewportAdaptationSet) adaptationSet;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the viewports of the representations of all periods, keyed by format id. */
+  private static Map<String, Viewport> getViewports(MediaPresentationDescription manifest) {
+    Map<String, Viewport> viewports = new HashMap<>();
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      ViewportAdaptationSet viewportSet = getViewportAdaptationSet(manifest.getPeriod(i));
+      if (viewportSet != null) {
+        viewports.putAll(viewportSet.viewports);
+      }
+    }
+    return viewports;
+  }
+
+  private static List<TileAdaptationSet> getTileAdaptationSets(Period period) {
+    List<TileAdaptationSet> tileSets = new ArrayList<>();
+    for (AdaptationSet adaptationSet : period.adaptationSets) {
+      if (adaptationSet instanceof TileAdaptationSet) {
+        tileSets.add((TileAdaptationSet) adaptationSet);
+      }
+    }
+    return tileSets;
+  }
+
+  /**
+   * Returns how many tiles can be decoded at once. This is bounded by the renderers the player
+   * has room for and, where the platform reports it, by the instances the decoder supports.
+   */
+  private static int getMaxTileDecoders(String mimeType) {
+    int maxDecoders = VideoExoPlayer.MAX_TILE_RENDERERS;
+    if (Util.SDK_INT >= 23) {
+      try {
+        DecoderInfo decoderInfo = MediaCodecUtil.getDecoderInfo(mimeType, false);
+        if (decoderInfo != null && decoderInfo.capabilities != null) {
+          maxDecoders =
+              Math.min(maxDecoders, decoderInfo.capabilities.getMaxSupportedInstances());
+        }
+      } catch (MediaCodecUtil.DecoderQueryException e) {
+        Log.w(TAG, "Failed to query the decoder for " + mimeType, e);
+      }
+    }
+    return maxDecoders;
+  }
+
+  /**
+   * Returns the highest bitrate of the representations that are no taller than the target
+   * resolution, or 0 if they are all taller.
+   */
+  static int getTargetBitrate(List<Representation> representations, int targetResolution) {
+    int targetBitrate = 0;
+    for (Representation rep : representations) {
+      if (rep.format.height <= targetResolution && rep.format.bitrate > targetBitrate) {
+        targetBitrate = rep.format.bitrate;
+      }
+    }
+    return targetBitrate;
+  }
+
+  /**
+   * Returns the period playback starts in. Static presentations start at the beginning, live ones
+   * at the live edge, which is in the last period.
+   */
+  private int getStartPeriodIndex() {
+    return manifest.dynamic ? manifest.getPeriodCount() - 1 : 0;
   }
 
   private void buildRenderers() {
-    Period period = manifest.getPeriod(0);
+    int startPeriodIndex = getStartPeriodIndex();
+    Period period = manifest.getPeriod(startPeriodIndex);
     Handler mainHandler = player.getMainHandler();
-    LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
+    allocator = new DefaultAllocator(BUFFER_SEGMENT_SIZE);
+    // The player holds back loading while it has been paused for long.
+    PausableLoadControl loadControl = new PausableLoadControl(new DefaultLoadControl(allocator));
+    player.setLoadControl(loadControl);
     DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, null);
+
+    if (lowLatencyLive && manifest.dynamic && manifestParser != null) {
+      liveEdgeOffsetMs = manifestParser.getAvailabilityTimeOffsetMs();
+      Log.i(
+          TAG,
+          "Low latency live, target " + liveTargetLatencyMs + "ms, early by " + liveEdgeOffsetMs);
+      player.setLiveLatencyController(
+          new LiveLatencyController(
+              liveTargetLatencyMs,
+              LiveLatencyController.DEFAULT_TOLERANCE_MS,
+              LiveLatencyController.DEFAULT_MAX_DRIFT_MS),
+          liveEdgeOffsetMs);
+    }
+
+    player.setSyncIndex(new DashSyncIndex(manifestFetcher, manifest));
+    // Scrubbing previews come from the thumbnail or trick play sets, when the manifest has them.
+    PreviewFrameSource previewFrameSource =
+        PreviewFrameSource.newInstance(
+            context, manifestFetcher, manifest, newMediaDataSource(null));
+    player.setPreviewFrameSource(previewFrameSource);
+
+    if (tiledPlayback) {
+      List<TileAdaptationSet> tileSets = getTileAdaptationSets(period);
+      if (tileSets.size() > 1) {
+        int maxDecoders =
+            getMaxTileDecoders(tileSets.get(0).representations.get(0).format.mimeType);
+        if (tileSets.size() <= maxDecoders) {
+          buildTiledRenderers(tileSets, loadControl, bandwidthMeter);
+          return;
+        }
+        Log.w(
+            TAG,
+            tileSets.size() + " tiles but only " + maxDecoders + " decoders, not playing tiled");
+      }
+    }
+
     int maxInitialBitrate = 0;
     int minInitialBitrate = Integer.MAX_VALUE;
 
-    boolean hasContentProtection = false;
     for (int i = 0; i < period.adaptationSets.size(); i++) {
       AdaptationSet adaptationSet = period.adaptationSets.get(i);
-      if (adaptationSet.type != AdaptationSet.TYPE_UNKNOWN) {
-        hasContentProtection |= adaptationSet.hasContentProtection();
-      }
 
       // Determine the bitrate to target based on the target resolution.  This is used to
       // initialize the FormatEvaluator.
       if (targetResolution > 0 && adaptationSet.type == AdaptationSet.TYPE_VIDEO) {
+        maxInitialBitrate =
+            Math.max(
+                maxInitialBitrate,
+                getTargetBitrate(adaptationSet.representations, targetResolution));
         for (Representation rep : adaptationSet.representations) {
-          if (rep.format.height <= targetResolution && rep.format.bitrate > maxInitialBitrate) {
-            maxInitialBitrate = rep.format.bitrate;
-          } else if (rep.format.bitrate < minInitialBitrate) {
-            minInitialBitrate = rep.format.bitrate;
-          }
+          minInitialBitrate = Math.min(minInitialBitrate, rep.format.bitrate);
         }
       }
     }
@@ -226,110 +696,345 @@ public final class DASHAsyncRendererBuilder
               minInitialBitrate, FormatEvaluator.AdaptiveEvaluator.DEFAULT_MAX_INITIAL_BITRATE);
     }
 
-    // Check drm support if necessary.
-    boolean filterHdContent = false;
-    StreamingDrmSessionManager drmSessionManager = null;
-    if (hasContentProtection) {
-      if (Util.SDK_INT < 18) {
-        player.onRenderersError(
-            new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
-        return;
-      }
-      try {
-        drmSessionManager =
-            StreamingDrmSessionManager.newWidevineInstance(
-                player.getPlaybackLooper(), drmCallback, null, player.getMainHandler(), null);
-
-        if (!requiresSecurePlayback) {
-          // Force to L3 to be able to direct to SurfaceTexture
-          drmSessionManager.setPropertyString("securityLevel", "L3");
-        }
-
-        filterHdContent = getWidevineSecurityLevel(drmSessionManager) != SECURITY_LEVEL_1;
-      } catch (UnsupportedDrmException e) {
-        player.onRenderersError(e);
-        return;
-      }
+    FormatEvaluator evaluator;
+    if (adaptationAlgorithm == VideoPlayerFactory.BufferAdaptation) {
+      evaluator =
+          new BufferBasedEvaluator(
+              bandwidthMeter,
+              maxInitialBitrate,
+              BufferBasedEvaluator.LOG_UTILITY,
+              BufferBasedEvaluator.DEFAULT_MIN_BUFFER_MS,
+              BufferBasedEvaluator.DEFAULT_STABLE_BUFFER_MS,
+              BufferBasedEvaluator.DEFAULT_MIN_SWITCH_INTERVAL_MS,
+              BufferBasedEvaluator.DEFAULT_BANDWIDTH_FRACTION);
+    } else {
+      evaluator =
+          new FormatEvaluator.AdaptiveEvaluator(
+              bandwidthMeter,
+              maxInitialBitrate,
+              FormatEvaluator.AdaptiveEvaluator.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+              FormatEvaluator.AdaptiveEvaluator.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+              FormatEvaluator.AdaptiveEvaluator.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+              FormatEvaluator.AdaptiveEvaluator.DEFAULT_BANDWIDTH_FRACTION);
+    }
+    ViewportAdaptationSet viewportSet = getViewportAdaptationSet(period);
+    if (viewportSet != null) {
+      // The representations emphasise different viewports of a 360 video, so pick the viewport
+      // from the head orientation and leave the bitrate to the evaluator.
+      evaluator =
+          new ViewportEvaluator(
+              evaluator,
+              getViewports(manifest),
+              player.getViewportPredictor(),
+              ViewportEvaluator.DEFAULT_SWITCH_MARGIN_DEGREES);
     }
+    // The governor lowers the highest height and frame rate as the device heats up.
+    evaluator = new GovernedFormatEvaluator(evaluator, QualityGovernor.getInstance());
 
-    FormatEvaluator.AdaptiveEvaluator evaluator =
-        new FormatEvaluator.AdaptiveEvaluator(
-            bandwidthMeter,
-            maxInitialBitrate,
-            FormatEvaluator.AdaptiveEvaluator.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
-            FormatEvaluator.AdaptiveEvaluator.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
-            FormatEvaluator.AdaptiveEvaluator.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
-            FormatEvaluator.AdaptiveEvaluator.DEFAULT_BANDWIDTH_FRACTION);
+    // The initialization segments of the following period are loaded ahead of the boundary, so
+    // the transition does not stall on them.
+    if (!manifest.dynamic && manifest.getPeriodCount() > 1) {
+      initSegmentPrefetcher =
+          new InitSegmentPrefetcher(manifest, newMediaDataSource(null));
+    }
 
     // Build the video renderer.
-    DataSource videoDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+    int videoBufferSize = VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE;
+    int videoWindowBytes =
+        BackBuffer.getWindowBytes(
+            backBufferMs, getMaxBitrate(period, AdaptationSet.TYPE_VIDEO), videoBufferSize);
+    BackBuffer videoBackBuffer = newBackBuffer(videoBufferSize, videoWindowBytes);
+    DataSource videoDataSource =
+        wrapDataSource(newMediaDataSource(bandwidthMeter));
     ChunkSource videoChunkSource =
-        new DashChunkSource(
-            manifestFetcher,
-            DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent),
-            videoDataSource,
-            evaluator,
-            LIVE_EDGE_LATENCY_MS,
-            elapsedRealtimeOffset,
-            mainHandler,
-            player,
-            0);
+        newDashChunkSource(
+            new DecodableDashTrackSelector(
+                DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent),
+                HardwareCodecSelector.getInstance(context)),
+            videoBackBuffer != null ? videoBackBuffer.wrap(videoDataSource) : videoDataSource,
+            evaluator);
     ChunkSampleSource videoSampleSource =
         new ChunkSampleSource(
-            videoChunkSource,
+            videoBackBuffer != null ? videoBackBuffer.wrap(videoChunkSource) : videoChunkSource,
             loadControl,
-            VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE,
+            videoBufferSize + (videoBackBuffer != null ? videoWindowBytes : 0),
             mainHandler,
             player,
             VideoExoPlayer.TYPE_VIDEO);
     TrackRenderer videoRenderer =
-        new MediaCodecVideoTrackRenderer(
+        new MultiPeriodVideoTrackRenderer(
             context,
             videoSampleSource,
-            MediaCodecSelector.DEFAULT,
+            HardwareCodecSelector.getInstance(context),
             MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT,
             5000,
             drmSessionManager,
             true,
             mainHandler,
             player,
-            50);
+            50,
+            MultiPeriodVideoTrackRenderer.getMaxVideoSizes(manifest));
+
+    // Invoke the callback.
+    TrackRenderer[] renderers = new TrackRenderer[VideoExoPlayer.RENDERER_COUNT];
+    renderers[VideoExoPlayer.TYPE_VIDEO] = videoRenderer;
+    renderers[VideoExoPlayer.TYPE_AUDIO] = buildAudioRenderer(loadControl, bandwidthMeter);
+    player.onRenderers(renderers);
+    if (initSegmentPrefetcher != null) {
+      initSegmentPrefetcher.prefetch(startPeriodIndex + 1);
+    }
+  }
+
+  /**
+   * Builds a renderer for each tile and a compositor that puts the tiles back together. All the
+   * tiles share the load control and the bandwidth, which the tile scheduler divides between them
+   * from where the viewer is predicted to look.
+   */
+  private void buildTiledRenderers(
+      List<TileAdaptationSet> tileSets,
+      LoadControl loadControl,
+      DefaultBandwidthMeter bandwidthMeter) {
+    Handler mainHandler = player.getMainHandler();
+    List<Tile> tiles = new ArrayList<>();
+    int[][] bitrates = new int[tileSets.size()][];
+    int width = 0;
+    int height = 0;
+    for (TileAdaptationSet tileSet : tileSets) {
+      Tile tile = tileSet.tile;
+      tiles.add(tile);
+      int[] tileBitrates = new int[tileSet.representations.size()];
+      for (int i = 0; i < tileBitrates.length; i++) {
+        Format format = tileSet.representations.get(i).format;
+        tileBitrates[i] = format.bitrate;
+        // Size the frame so the largest representation of every tile fits at full resolution.
+        width = Math.max(width, (int) ((long) format.width * tile.totalWidth / tile.width));
+        height = Math.max(height, (int) ((long) format.height * tile.totalHeight / tile.height));
+      }
+      Arrays.sort(tileBitrates);
+      bitrates[tile.index] = tileBitrates;
+    }
+    width = Math.min(width, MAX_TILED_FRAME_SIZE);
+    height = Math.min(height, MAX_TILED_FRAME_SIZE);
+
+    TileScheduler scheduler =
+        new TileScheduler(
+            tiles,
+            bitrates,
+            TileScheduler.DEFAULT_FIELD_OF_VIEW_DEGREES,
+            TileScheduler.DEFAULT_MARGIN_DEGREES);
+    TileLoadControl tileLoadControl =
+        new TileLoadControl(
+            loadControl,
+            scheduler,
+            player.getViewportPredictor(),
+            bandwidthMeter,
+            FormatEvaluator.AdaptiveEvaluator.DEFAULT_MAX_INITIAL_BITRATE,
+            FormatEvaluator.AdaptiveEvaluator.DEFAULT_BANDWIDTH_FRACTION);
+
+    int tileBufferSegments =
+        Math.max(VIDEO_BUFFER_SEGMENTS / tiles.size(), MIN_TILE_BUFFER_SEGMENTS);
+    MediaCodecVideoTrackRenderer.EventListener tileListener = player.getTileRendererListener();
+    TrackRenderer[] tileRenderers = new TrackRenderer[tiles.size()];
+    for (Tile tile : tiles) {
+      ChunkSource chunkSource =
+          newDashChunkSource(
+              new TileTrackSelector(tile.index),
+              newMediaDataSource(bandwidthMeter),
+              new TileFormatEvaluator(scheduler, tile.index));
+      ChunkSampleSource sampleSource =
+          new ChunkSampleSource(
+              chunkSource,
+              tileLoadControl,
+              tileBufferSegments * BUFFER_SEGMENT_SIZE,
+              mainHandler,
+              player,
+              VideoExoPlayer.RENDERER_COUNT + tile.index);
+      tileLoadControl.setTile(sampleSource, tile.index);
+      tileRenderers[tile.index] =
+          new MediaCodecVideoTrackRenderer(
+              context,
+              sampleSource,
+              HardwareCodecSelector.getInstance(context),
+              MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT,
+              5000,
+              drmSessionManager,
+              true,
+              mainHandler,
+              tileListener,
+              50);
+    }
+    Log.d(TAG, "Playing " + tiles.size() + " tiles composited into " + width + "x" + height);
+
+    TrackRenderer[] renderers = new TrackRenderer[VideoExoPlayer.RENDERER_COUNT];
+    renderers[VideoExoPlayer.TYPE_AUDIO] = buildAudioRenderer(tileLoadControl, bandwidthMeter);
+    player.onTiledRenderers(renderers, tileRenderers, new TileCompositor(tiles, width, height));
+  }
 
-    // Build the audio renderer.
-    DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+  private TrackRenderer buildAudioRenderer(
+      LoadControl loadControl, DefaultBandwidthMeter bandwidthMeter) {
+    int audioBufferSize = AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE;
+    int audioWindowBytes =
+        BackBuffer.getWindowBytes(
+            backBufferMs,
+            getMaxBitrate(manifest.getPeriod(getStartPeriodIndex()), AdaptationSet.TYPE_AUDIO),
+            audioBufferSize);
+    BackBuffer audioBackBuffer = newBackBuffer(audioBufferSize, audioWindowBytes);
+    DataSource audioDataSource =
+        wrapDataSource(newMediaDataSource(bandwidthMeter));
+    if (audioBackBuffer != null) {
+      audioDataSource = audioBackBuffer.wrap(audioDataSource);
+    }
     ChunkSource audioChunkSource =
-        new DashChunkSource(
-            manifestFetcher,
-            DefaultDashTrackSelector.newAudioInstance(),
-            audioDataSource,
-            null,
-            LIVE_EDGE_LATENCY_MS,
-            elapsedRealtimeOffset,
-            mainHandler,
-            player,
-            0);
+        newDashChunkSource(DefaultDashTrackSelector.newAudioInstance(), audioDataSource, null);
     ChunkSampleSource audioSampleSource =
         new ChunkSampleSource(
-            audioChunkSource,
+            audioBackBuffer != null ? audioBackBuffer.wrap(audioChunkSource) : audioChunkSource,
             loadControl,
-            AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE,
-            mainHandler,
+            audioBufferSize + (audioBackBuffer != null ? audioWindowBytes : 0),
+            player.getMainHandler(),
             player,
             VideoExoPlayer.TYPE_AUDIO);
-    TrackRenderer audioRenderer =
-        new MediaCodecAudioTrackRenderer(
-            audioSampleSource,
-            MediaCodecSelector.DEFAULT,
-            drmSessionManager,
-            true,
-            mainHandler,
-            player);
+    return new MediaCodecAudioTrackRenderer(
+        audioSampleSource,
+        HardwareCodecSelector.getInstance(context),
+        drmSessionManager,
+        true,
+        player.getMainHandler(),
+        player);
+  }
 
-    // Invoke the callback.
-    TrackRenderer[] renderers = new TrackRenderer[VideoExoPlayer.RENDERER_COUNT];
-    renderers[VideoExoPlayer.TYPE_VIDEO] = videoRenderer;
-    renderers[VideoExoPlayer.TYPE_AUDIO] = audioRenderer;
-    player.onRenderers(renderers);
+  /**
+   * Creates the back buffer of a chunk source, or returns null if there is none. It holds the
+   * window behind the playback position, and the chunks ahead of it that a seek back loads again.
+   *
+   * @param bufferSize - the buffer of the sample source, ahead of the playback position.
+   * @param windowBytes - the bytes of the window behind the playback position.
+   */
+  private BackBuffer newBackBuffer(int bufferSize, int windowBytes) {
+    if (backBufferMs <= 0) {
+      return null;
+    }
+    return new BackBuffer(allocator, backBufferMs, bufferSize + windowBytes);
+  }
+
+  /** Returns the highest bitrate of the representations of a type in a period, or 0 if none. */
+  private static int getMaxBitrate(Period period, int type) {
+    int maxBitrate = 0;
+    for (AdaptationSet adaptationSet : period.adaptationSets) {
+      if (adaptationSet.type == type) {
+        for (Representation representation : adaptationSet.representations) {
+          maxBitrate = Math.max(maxBitrate, representation.format.bitrate);
+        }
+      }
+    }
+    return maxBitrate;
+  }
+
+  /** Creates a data source that loads media through the segment cache. */
+  private DataSource newMediaDataSource(DefaultBandwidthMeter bandwidthMeter) {
+    return SegmentCache.getInstance(context)
+        .createDataSource(new DefaultUriDataSource(context, bandwidthMeter, userAgent));
+  }
+
+  private DataSource wrapDataSource(DataSource dataSource) {
+    return initSegmentPrefetcher != null ? initSegmentPrefetcher.wrap(dataSource) : dataSource;
+  }
+
+  /**
+   * Creates a chunk source for the manifest. Manifests restored from the cache are static, so they
+   * are used directly rather than through the manifest fetcher.
+   *
+   * <p>Segments announced early are requested early by moving the clock of the chunk source ahead,
+   * which moves its live edge ahead too, so the latency it starts at is increased to match.
+   */
+  private ChunkSource newDashChunkSource(
+      DashTrackSelector trackSelector, DataSource dataSource, FormatEvaluator evaluator) {
+    if (manifestFetcher == null) {
+      return new DashChunkSource(manifest, trackSelector, dataSource, evaluator);
+    }
+    return new DashChunkSource(
+        manifestFetcher,
+        trackSelector,
+        dataSource,
+        evaluator,
+        liveTargetLatencyMs + liveEdgeOffsetMs,
+        getElapsedRealtimeOffset(),
+        player.getMainHandler(),
+        player,
+        0);
+  }
+
+  /**
+   * Returns the difference between the server clock and elapsedRealtime to give chunk sources,
+   * moved ahead by the time segments are announced early. An offset of 0 makes chunk sources use
+   * the device clock, so that is what is moved ahead when the server clock is unknown.
+   */
+  private long getElapsedRealtimeOffset() {
+    if (liveEdgeOffsetMs == 0) {
+      return elapsedRealtimeOffset;
+    }
+    long offset =
+        elapsedRealtimeOffset != 0
+            ? elapsedRealtimeOffset
+            : System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    return offset + liveEdgeOffsetMs;
+  }
+
+  /**
+   * Returns the manifest cache. Tiled playback parses manifests differently, so its manifests are
+   * cached apart.
+   */
+  private static synchronized ManifestCache<MediaPresentationDescription> getManifestCache(
+      Context context, boolean tiled) {
+    if (tiled) {
+      if (tiledManifestCache == null) {
+        tiledManifestCache =
+            new ManifestCache<>(
+                new File(context.getCacheDir(), "manifests/dash-tiled"),
+                MAX_CACHED_MANIFESTS,
+                new ViewportMpdParser(true));
+      }
+      return tiledManifestCache;
+    }
+    if (manifestCache == null) {
+      manifestCache =
+          new ManifestCache<>(
+              new File(context.getCacheDir(), "manifests/dash"),
+              MAX_CACHED_MANIFESTS,
+              new ViewportMpdParser());
+    }
+    return manifestCache;
+  }
+
+  /** Selects every representation of one tile of a tiled video. */
+  private static final class TileTrackSelector implements DashTrackSelector {
+    private final int tile;
+
+    TileTrackSelector(int tile) {
+      this.tile = tile;
+    }
+
+    @Override
+    public void selectTracks(MediaPresentationDescription manifest, int periodIndex, Output output)
+        throws IOException {
+      List<AdaptationSet> adaptationSets = manifest.getPeriod(periodIndex).adaptationSets;
+      for (int i = 0; i < adaptationSets.size(); i++) {
+        AdaptationSet adaptationSet = adaptationSets.get(i);
+        if (adaptationSet instanceof TileAdaptationSet
+            && ((TileAdaptationSet) adaptationSet).tile.index == tile) {
+          int[] representations = new int[adaptationSet.representations.size()];
+          for (int j = 0; j < representations.length; j++) {
+            representations[j] = j;
+          }
+          if (representations.length == 1) {
+            output.fixedTrack(manifest, periodIndex, i, 0);
+          } else {
+            output.adaptiveTrack(manifest, periodIndex, i, representations);
+          }
+          return;
+        }
+      }
+    }
   }
 
   private static int getWidevineSecurityLevel(StreamingDrmSessionManager sessionManager) {
@@ -0,0 +1,695 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.DashTrackSelector;
+import com.google.android.exoplayer.dash.DefaultDashTrackSelector;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a DASH title for playback without a network connection. The representations are
+ * selected with the rules the {@link DASHAsyncRendererBuilder} plays with: the track selector of
+ * the builder filters them, and the video is the highest bitrate no taller than the target
+ * resolution. The segments are fetched in parallel, up to a bounded number at a time.
+ *
+ * <p>Completed segments are recorded in a journal in the output directory, and partly downloaded
+ * segments are kept, so a download that is canceled or fails is resumed where it stopped by
+ * starting it again with the same output directory.
+ *
+ * <p>Once every segment is on disk a local manifest is written next to them. Its file URL plays
+ * through the default DASH video player factory like any other manifest. Protected titles also need
+ * persistent licenses, see {@link OfflineLicenseStore}, to play without a network.
+ *
+ * <p>All loading goes through the {@link DataSourceFactory}, so the downloader can be pointed at a
+ * local HTTP server standing in for the CDN.
+ */
+public final class DashDownloader {
+  private static final String TAG = "DashDownloader";
+
+  public static final int DEFAULT_MAX_PARALLEL_DOWNLOADS = 4;
+  public static final String MANIFEST_FILE_NAME = "manifest.mpd";
+
+  private static final String JOURNAL_FILE_NAME = "journal";
+  private static final String PART_SUFFIX = ".part";
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final long PROGRESS_INTERVAL_MS = 500;
+
+  /** Receives the progress of a download. Called on the event handler, if one was given. */
+  public interface Listener {
+
+    /**
+     * @param bytesDownloaded - the bytes downloaded since the download was started.
+     * @param segmentsCompleted - the segments on disk, including those from earlier attempts.
+     * @param segmentCount - the segments of the title.
+     * @param throughputBps - the average download rate since the download was started.
+     */
+    void onDownloadProgress(
+        DashDownloader downloader,
+        long bytesDownloaded,
+        int segmentsCompleted,
+        int segmentCount,
+        long throughputBps);
+
+    /** @param manifestFile - the local manifest to play the title from. */
+    void onDownloadCompleted(DashDownloader downloader, File manifestFile);
+
+    void onDownloadError(DashDownloader downloader, IOException e);
+  }
+
+  /** Creates the data sources the manifest and segments are loaded with. */
+  public interface DataSourceFactory {
+    DataSource createDataSource();
+  }
+
+  private final Context context;
+  private final String manifestUrl;
+  private final File outputDir;
+  private final int targetResolution;
+  private final int maxParallelDownloads;
+  private final DataSourceFactory dataSourceFactory;
+  private final Handler eventHandler;
+  private final Listener listener;
+  private final AtomicLong bytesDownloaded;
+  private final AtomicInteger segmentsCompleted;
+  private final AtomicInteger segmentsRemaining;
+  private final AtomicBoolean failed;
+
+  // Each start gets its own executor, which also tells the tasks of that start apart from those
+  // of an earlier one that was canceled.
+  private volatile ExecutorService executor;
+  private int segmentCount;
+  private long startTimeMs;
+  private long lastProgressMs;
+  private Journal journal;
+
+  /**
+   * Creates a downloader that loads over http.
+   *
+   * @param context - the context of the application.
+   * @param userAgent - the user agent to use with network requests.
+   * @param manifestUrl - the URL of the manifest of the title.
+   * @param outputDir - where to store the title. Reusing it resumes an earlier download.
+   * @param targetResolution - the height of the video to download, or 0 for the highest.
+   * @param eventHandler - the handler to call the listener on, or null to call it from the
+   *     download threads.
+   * @param listener - receives the progress of the download.
+   */
+  public DashDownloader(
+      final Context context,
+      final String userAgent,
+      String manifestUrl,
+      File outputDir,
+      int targetResolution,
+      Handler eventHandler,
+      Listener listener) {
+    this(
+        context,
+        manifestUrl,
+        outputDir,
+        targetResolution,
+        DEFAULT_MAX_PARALLEL_DOWNLOADS,
+        new DataSourceFactory() {
+          @Override
+          public DataSource createDataSource() {
+            return new DefaultUriDataSource(context, null, userAgent);
+          }
+        },
+        eventHandler,
+        listener);
+  }
+
+  /**
+   * Creates a downloader.
+   *
+   * @param context - the context of the application.
+   * @param manifestUrl - the URL of the manifest of the title.
+   * @param outputDir - where to store the title. Reusing it resumes an earlier download.
+   * @param targetResolution - the height of the video to download, or 0 for the highest.
+   * @param maxParallelDownloads - the most segments downloaded at once.
+   * @param dataSourceFactory - creates the data sources everything is loaded with.
+   * @param eventHandler - the handler to call the listener on, or null to call it from the
+   *     download threads.
+   * @param listener - receives the progress of the download.
+   */
+  public DashDownloader(
+      Context context,
+      String manifestUrl,
+      File outputDir,
+      int targetResolution,
+      int maxParallelDownloads,
+      DataSourceFactory dataSourceFactory,
+      Handler eventHandler,
+      Listener listener) {
+    this.context = context;
+    this.manifestUrl = manifestUrl;
+    this.outputDir = outputDir;
+    this.targetResolution = targetResolution;
+    this.maxParallelDownloads = maxParallelDownloads;
+    this.dataSourceFactory = dataSourceFactory;
+    this.eventHandler = eventHandler;
+    this.listener = listener;
+    bytesDownloaded = new AtomicLong();
+    segmentsCompleted = new AtomicInteger();
+    segmentsRemaining = new AtomicInteger();
+    failed = new AtomicBoolean();
+  }
+
+  /** Starts or resumes the download. */
+  public synchronized void start() {
+    if (executor != null) {
+      return;
+    }
+    failed.set(false);
+    bytesDownloaded.set(0);
+    segmentsCompleted.set(0);
+    startTimeMs = SystemClock.elapsedRealtime();
+    final ExecutorService executor = Executors.newFixedThreadPool(maxParallelDownloads);
+    this.executor = executor;
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              startSegments(executor);
+            } catch (IOException e) {
+              onError(executor, e);
+            }
+          }
+        });
+  }
+
+  /** Stops the download. What was downloaded is kept, and is used when the download is resumed. */
+  public synchronized void cancel() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Loads the manifest, plans the segments of the selected representations and queues them.
+   *
+   * @param executor - the executor the download was started with. Nothing is queued once the
+   *     download is canceled, since it is shut down then.
+   */
+  private void startSegments(ExecutorService executor) throws IOException {
+    if (!outputDir.exists() && !outputDir.mkdirs()) {
+      throw new IOException("Unable to create " + outputDir);
+    }
+    MediaPresentationDescription manifest = loadManifest();
+    if (manifest.dynamic) {
+      throw new IOException("Live presentations cannot be downloaded");
+    }
+    journal = new Journal(new File(outputDir, JOURNAL_FILE_NAME), manifestUrl);
+    if (!journal.resumed) {
+      // Whatever is left belongs to another title, or to no journal at all, and must not be
+      // resumed as part of this one.
+      deleteDownloadedFiles();
+    }
+
+    List<OfflineManifestWriter.Track> tracks = new ArrayList<>();
+    List<Segment> segments = new ArrayList<>();
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      OfflineManifestWriter.Track video =
+          selectTrack(
+              manifest,
+              i,
+              new DecodableDashTrackSelector(
+                  DefaultDashTrackSelector.newVideoInstance(context, true, false),
+                  HardwareCodecSelector.getInstance(context)),
+              true);
+      OfflineManifestWriter.Track audio =
+          selectTrack(manifest, i, DefaultDashTrackSelector.newAudioInstance(), false);
+      if (video != null) {
+        tracks.add(video);
+        planSegments(manifest, video, segments);
+      }
+      if (audio != null) {
+        tracks.add(audio);
+        planSegments(manifest, audio, segments);
+      }
+    }
+    if (tracks.isEmpty()) {
+      throw new IOException("No representation to download in " + manifestUrl);
+    }
+
+    segmentCount = segments.size();
+    List<Segment> pending = new ArrayList<>();
+    for (Segment segment : segments) {
+      if (journal.isCompleted(segment.path)) {
+        segmentsCompleted.incrementAndGet();
+      } else {
+        pending.add(segment);
+      }
+    }
+    Log.d(TAG, pending.size() + " of " + segmentCount + " segments to download");
+    segmentsRemaining.set(pending.size());
+    if (pending.isEmpty()) {
+      onSegmentsCompleted(manifest, tracks);
+      return;
+    }
+
+    synchronized (this) {
+      if (this.executor != executor) {
+        return;
+      }
+    }
+    for (Segment segment : pending) {
+      try {
+        queue(executor, segment, manifest, tracks);
+      } catch (RejectedExecutionException e) {
+        // Canceled while queuing, the segments queued so far return without loading.
+        Log.d(TAG, "Download of " + manifestUrl + " canceled");
+        return;
+      }
+    }
+  }
+
+  /** Queues the download of a segment, and the local manifest after the last segment. */
+  private void queue(
+      final ExecutorService executor,
+      final Segment segment,
+      final MediaPresentationDescription manifest,
+      final List<OfflineManifestWriter.Track> tracks) {
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (DashDownloader.this.executor != executor || failed.get()) {
+              return;
+            }
+            try {
+              if (!download(segment, executor)) {
+                return;
+              }
+              journal.markCompleted(segment.path);
+              segmentsCompleted.incrementAndGet();
+              reportProgress(false);
+              if (segmentsRemaining.decrementAndGet() == 0) {
+                onSegmentsCompleted(manifest, tracks);
+              }
+            } catch (IOException e) {
+              onError(executor, e);
+            }
+          }
+        });
+  }
+
+  private MediaPresentationDescription loadManifest() throws IOException {
+    DataSource dataSource = dataSourceFactory.createDataSource();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      dataSource.open(new DataSpec(Uri.parse(manifestUrl)));
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+        bytes.write(buffer, 0, read);
+      }
+    } finally {
+      dataSource.close();
+    }
+    return new MediaPresentationDescriptionParser()
+        .parse(manifestUrl, new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  /**
+   * Picks the representation of a period to download, from the first track the selector would
+   * give the player.
+   *
+   * @param video - true to pick by the target resolution, false to pick the highest bitrate.
+   * @return the track, or null if the selector picks nothing in the period.
+   */
+  private OfflineManifestWriter.Track selectTrack(
+      MediaPresentationDescription manifest,
+      int periodIndex,
+      DashTrackSelector trackSelector,
+      boolean video)
+      throws IOException {
+    FirstTrackOutput output = new FirstTrackOutput();
+    trackSelector.selectTracks(manifest, periodIndex, output);
+    if (output.adaptationSetIndex == -1) {
+      return null;
+    }
+    AdaptationSet adaptationSet =
+        manifest.getPeriod(periodIndex).adaptationSets.get(output.adaptationSetIndex);
+    List<Representation> representations = new ArrayList<>();
+    for (int index : output.representationIndices) {
+      representations.add(adaptationSet.representations.get(index));
+    }
+
+    // The highest bitrate within the target, or the lowest when nothing fits.
+    int targetBitrate = Integer.MAX_VALUE;
+    if (video && targetResolution > 0) {
+      targetBitrate = DASHAsyncRendererBuilder.getTargetBitrate(representations, targetResolution);
+    }
+    Representation selected = null;
+    for (Representation representation : representations) {
+      int bitrate = representation.format.bitrate;
+      if (selected == null) {
+        selected = representation;
+      } else if (bitrate <= targetBitrate) {
+        if (selected.format.bitrate > targetBitrate || bitrate > selected.format.bitrate) {
+          selected = representation;
+        }
+      } else if (selected.format.bitrate > targetBitrate && bitrate < selected.format.bitrate) {
+        selected = representation;
+      }
+    }
+    Log.d(TAG, "Period " + periodIndex + ": downloading " + selected.format.id);
+    return new OfflineManifestWriter.Track(periodIndex, adaptationSet, selected);
+  }
+
+  /** Adds the segments of a track and records their paths in the track. */
+  private static void planSegments(
+      MediaPresentationDescription manifest,
+      OfflineManifestWriter.Track track,
+      List<Segment> segments)
+      throws IOException {
+    Representation representation = track.representation;
+    String dir =
+        "p" + track.periodIndex + "/" + representation.format.id.replaceAll("[^\\w.-]", "_") + "/";
+    DashSegmentIndex index = representation.getIndex();
+    if (index == null) {
+      // A single file with its index inside. Store it whole so the ranges stay valid.
+      Representation.SingleSegmentRepresentation single =
+          (Representation.SingleSegmentRepresentation) representation;
+      track.mediaPath = dir + "media.seg";
+      segments.add(new Segment(track.mediaPath, single.uri, 0, single.contentLength));
+      return;
+    }
+
+    RangedUri initializationUri = representation.getInitializationUri();
+    if (initializationUri != null) {
+      track.initializationPath = dir + "init.seg";
+      segments.add(new Segment(track.initializationPath, initializationUri));
+    }
+    long periodDurationMs = manifest.getPeriodDuration(track.periodIndex);
+    long periodDurationUs = periodDurationMs == -1 ? C.UNKNOWN_TIME_US : periodDurationMs * 1000;
+    int firstSegmentNum = index.getFirstSegmentNum();
+    int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+    if (lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED) {
+      throw new IOException("Unknown number of segments for " + representation.format.id);
+    }
+    int count = lastSegmentNum - firstSegmentNum + 1;
+    track.segmentPaths = new String[count];
+    track.segmentStartTimesUs = new long[count];
+    track.segmentDurationsUs = new long[count];
+    for (int i = 0; i < count; i++) {
+      int segmentNum = firstSegmentNum + i;
+      track.segmentPaths[i] = dir + segmentNum + ".seg";
+      track.segmentStartTimesUs[i] = index.getTimeUs(segmentNum);
+      track.segmentDurationsUs[i] = index.getDurationUs(segmentNum, periodDurationUs);
+      segments.add(new Segment(track.segmentPaths[i], index.getSegmentUrl(segmentNum)));
+    }
+  }
+
+  /**
+   * Downloads a segment, continuing from the part left by an earlier attempt.
+   *
+   * @param executor - the executor the download was started with. Loading stops once it is no
+   *     longer the current one, so a canceled read does not append to the part of a later start.
+   * @return false if the download was canceled before the segment was complete.
+   */
+  private boolean download(Segment segment, ExecutorService executor) throws IOException {
+    File file = new File(outputDir, segment.path);
+    File partFile = new File(outputDir, segment.path + PART_SUFFIX);
+    File dir = file.getParentFile();
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Unable to create " + dir);
+    }
+
+    long offset = partFile.length();
+    if (segment.length == C.LENGTH_UNBOUNDED || offset < segment.length) {
+      long length =
+          segment.length == C.LENGTH_UNBOUNDED ? C.LENGTH_UNBOUNDED : segment.length - offset;
+      DataSource dataSource = dataSourceFactory.createDataSource();
+      OutputStream outputStream = new FileOutputStream(partFile, true);
+      try {
+        dataSource.open(new DataSpec(segment.uri, segment.start + offset, length, null));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+          if (this.executor != executor) {
+            return false;
+          }
+          outputStream.write(buffer, 0, read);
+          bytesDownloaded.addAndGet(read);
+        }
+      } finally {
+        outputStream.close();
+        dataSource.close();
+      }
+    }
+    if (!partFile.renameTo(file)) {
+      throw new IOException("Unable to move " + partFile + " to " + file);
+    }
+    return true;
+  }
+
+  /** Deletes the manifest and the segments, complete or partial, from the output directory. */
+  private void deleteDownloadedFiles() throws IOException {
+    File[] files = outputDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (name.equals(MANIFEST_FILE_NAME)
+          || name.equals(MANIFEST_FILE_NAME + PART_SUFFIX)
+          || (file.isDirectory() && name.matches("p\\d+"))) {
+        Log.d(TAG, "Deleting " + file + " left by another download");
+        delete(file);
+      }
+    }
+  }
+
+  private static void delete(File file) throws IOException {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    if (!file.delete()) {
+      throw new IOException("Unable to delete " + file);
+    }
+  }
+
+  private void onSegmentsCompleted(
+      MediaPresentationDescription manifest, List<OfflineManifestWriter.Track> tracks)
+      throws IOException {
+    final File manifestFile = new File(outputDir, MANIFEST_FILE_NAME);
+    File tempFile = new File(outputDir, MANIFEST_FILE_NAME + PART_SUFFIX);
+    OfflineManifestWriter.write(tempFile, manifest, tracks);
+    if (!tempFile.renameTo(manifestFile)) {
+      throw new IOException("Unable to move " + tempFile + " to " + manifestFile);
+    }
+    reportProgress(true);
+    Log.i(TAG, "Downloaded " + manifestUrl + " to " + manifestFile);
+    synchronized (this) {
+      if (executor != null) {
+        executor.shutdown();
+        executor = null;
+      }
+    }
+    post(
+        new Runnable() {
+          @Override
+          public void run() {
+            listener.onDownloadCompleted(DashDownloader.this, manifestFile);
+          }
+        });
+  }
+
+  private void onError(ExecutorService executor, final IOException e) {
+    if (this.executor != executor || !failed.compareAndSet(false, true)) {
+      return;
+    }
+    Log.e(TAG, "Download of " + manifestUrl + " failed", e);
+    cancel();
+    post(
+        new Runnable() {
+          @Override
+          public void run() {
+            listener.onDownloadError(DashDownloader.this, e);
+          }
+        });
+  }
+
+  private void reportProgress(boolean force) {
+    final long nowMs = SystemClock.elapsedRealtime();
+    synchronized (this) {
+      if (!force && nowMs - lastProgressMs < PROGRESS_INTERVAL_MS) {
+        return;
+      }
+      lastProgressMs = nowMs;
+    }
+    final long bytes = bytesDownloaded.get();
+    final int completed = segmentsCompleted.get();
+    long elapsedMs = Math.max(1, nowMs - startTimeMs);
+    final long throughputBps = bytes * 8000 / elapsedMs;
+    post(
+        new Runnable() {
+          @Override
+          public void run() {
+            listener.onDownloadProgress(
+                DashDownloader.this, bytes, completed, segmentCount, throughputBps);
+          }
+        });
+  }
+
+  private void post(Runnable runnable) {
+    if (eventHandler != null) {
+      eventHandler.post(runnable);
+    } else {
+      runnable.run();
+    }
+  }
+
+  /** A file to download: a segment, an initialization segment or a whole representation. */
+  private static final class Segment {
+    public final String path;
+    public final Uri uri;
+    public final long start;
+    public final long length;
+
+    Segment(String path, RangedUri rangedUri) {
+      this(path, rangedUri.getUri(), rangedUri.start, rangedUri.length);
+    }
+
+    Segment(String path, Uri uri, long start, long length) {
+      this.path = path;
+      this.uri = uri;
+      this.start = start;
+      this.length = length;
+    }
+  }
+
+  /** Keeps the first track the selector gives, which is the one the player starts with. */
+  private static final class FirstTrackOutput implements DashTrackSelector.Output {
+    public int adaptationSetIndex = -1;
+    public int[] representationIndices;
+
+    @Override
+    public void adaptiveTrack(
+        MediaPresentationDescription manifest,
+        int periodIndex,
+        int adaptationSetIndex,
+        int[] representationIndices) {
+      if (this.adaptationSetIndex == -1) {
+        this.adaptationSetIndex = adaptationSetIndex;
+        this.representationIndices = representationIndices;
+      }
+    }
+
+    @Override
+    public void fixedTrack(
+        MediaPresentationDescription manifest,
+        int periodIndex,
+        int adaptationSetIndex,
+        int representationIndex) {
+      adaptiveTrack(manifest, periodIndex, adaptationSetIndex, new int[] {representationIndex});
+    }
+  }
+
+  /**
+   * The segments that are completely downloaded, one path per line after the URL of the manifest.
+   * A journal for another manifest is discarded.
+   */
+  private static final class Journal {
+    /** Whether the journal was written for the same manifest, so its files can be resumed. */
+    public final boolean resumed;
+
+    private final File file;
+    private final Set<String> completed;
+
+    Journal(File file, String manifestUrl) throws IOException {
+      this.file = file;
+      completed = new HashSet<>();
+      boolean resumed = false;
+      if (file.exists()) {
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+          if (manifestUrl.equals(reader.readLine())) {
+            resumed = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+              completed.add(line);
+            }
+          }
+        } finally {
+          reader.close();
+        }
+      }
+      this.resumed = resumed;
+      if (!resumed) {
+        append(manifestUrl, false);
+      }
+    }
+
+    synchronized boolean isCompleted(String path) {
+      return completed.contains(path);
+    }
+
+    synchronized void markCompleted(String path) throws IOException {
+      completed.add(path);
+      append(path, true);
+    }
+
+    private void append(String line, boolean append) throws IOException {
+      OutputStream outputStream = new FileOutputStream(file, append);
+      try {
+        outputStream.write((line + "\n").getBytes("UTF-8"));
+      } finally {
+        outputStream.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.util.ManifestFetcher;
+
+/**
+ * Finds the sync points of a DASH presentation in the segment index of its video. The chunk
+ * source starts loading and decoding at the start of the segment a position falls in, so the
+ * segment starts are the sync points. The segments of all representations of an adaptation set
+ * are aligned, so the first representation stands for all of them.
+ *
+ * <p>Representations whose index is only known once their sidx box is loaded have no sync points
+ * here; seeks into them are exact.
+ */
+final class DashSyncIndex implements SeekScheduler.SyncIndex {
+
+  private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
+  private final MediaPresentationDescription manifest;
+
+  /**
+   * @param manifestFetcher - the fetcher of the manifest updates of a live presentation, or null.
+   * @param manifest - the manifest, used until the fetcher has one.
+   */
+  DashSyncIndex(
+      ManifestFetcher<MediaPresentationDescription> manifestFetcher,
+      MediaPresentationDescription manifest) {
+    this.manifestFetcher = manifestFetcher;
+    this.manifest = manifest;
+  }
+
+  @Override
+  public long getPreviousSyncMs(long positionMs) {
+    MediaPresentationDescription current = getManifest();
+    int periodIndex = getPeriodIndex(current, positionMs);
+    DashSegmentIndex index = getVideoIndex(current.getPeriod(periodIndex));
+    if (index == null) {
+      return -1;
+    }
+    long periodStartMs = current.getPeriod(periodIndex).startMs;
+    long periodDurationUs = getPeriodDurationUs(current, periodIndex);
+    int segmentNum = index.getSegmentNum((positionMs - periodStartMs) * 1000, periodDurationUs);
+    return periodStartMs + index.getTimeUs(segmentNum) / 1000;
+  }
+
+  @Override
+  public long getNextSyncMs(long positionMs) {
+    MediaPresentationDescription current = getManifest();
+    int periodIndex = getPeriodIndex(current, positionMs);
+    DashSegmentIndex index = getVideoIndex(current.getPeriod(periodIndex));
+    if (index == null) {
+      return -1;
+    }
+    long periodStartMs = current.getPeriod(periodIndex).startMs;
+    long periodDurationUs = getPeriodDurationUs(current, periodIndex);
+    int segmentNum = index.getSegmentNum((positionMs - periodStartMs) * 1000, periodDurationUs);
+    int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+    if (lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED || segmentNum < lastSegmentNum) {
+      return periodStartMs + index.getTimeUs(segmentNum + 1) / 1000;
+    }
+    // The next sync point is the start of the next period, if there is one.
+    return periodIndex + 1 < current.getPeriodCount()
+        ? current.getPeriod(periodIndex + 1).startMs
+        : -1;
+  }
+
+  private MediaPresentationDescription getManifest() {
+    MediaPresentationDescription fetched =
+        manifestFetcher != null ? manifestFetcher.getManifest() : null;
+    return fetched != null ? fetched : manifest;
+  }
+
+  /** Returns the index of the last period starting at or before a position. */
+  static int getPeriodIndex(MediaPresentationDescription manifest, long positionMs) {
+    int periodIndex = 0;
+    while (periodIndex + 1 < manifest.getPeriodCount()
+        && manifest.getPeriod(periodIndex + 1).startMs <= positionMs) {
+      periodIndex++;
+    }
+    return periodIndex;
+  }
+
+  static long getPeriodDurationUs(MediaPresentationDescription manifest, int periodIndex) {
+    long durationMs = manifest.getPeriodDuration(periodIndex);
+    return durationMs == -1 ? -1 : durationMs * 1000;
+  }
+
+  /** Returns the segment index of the video of a period, or null if it is not known yet. */
+  private static DashSegmentIndex getVideoIndex(Period period) {
+    for (AdaptationSet adaptationSet : period.adaptationSets) {
+      if (adaptationSet.type == AdaptationSet.TYPE_VIDEO
+          && !adaptationSet.representations.isEmpty()) {
+        return adaptationSet.representations.get(0).getIndex();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.util.Log;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.dash.DashTrackSelector;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Selects tracks with another {@link DashTrackSelector}, and then leaves out the video
+ * representations the preferred decoder cannot decode, by their codec, size and frame rate. If
+ * none can be decoded, the lowest bitrate representation is kept so playback can still start.
+ */
+public final class DecodableDashTrackSelector implements DashTrackSelector {
+  private static final String TAG = "DecodableDashTrackSelector";
+
+  private final DashTrackSelector selector;
+  private final HardwareCodecSelector codecSelector;
+
+  /**
+   * @param selector - the selector whose tracks are filtered.
+   * @param codecSelector - the selector that knows the capabilities of the decoders.
+   */
+  public DecodableDashTrackSelector(
+      DashTrackSelector selector, HardwareCodecSelector codecSelector) {
+    this.selector = selector;
+    this.codecSelector = codecSelector;
+  }
+
+  @Override
+  public void selectTracks(MediaPresentationDescription manifest, int periodIndex, Output output)
+      throws IOException {
+    selector.selectTracks(manifest, periodIndex, new FilteringOutput(output));
+  }
+
+  private boolean isDecodable(Format format) {
+    return format.width <= 0
+        || codecSelector.isVideoSupported(
+            format.codecs, format.width, format.height, Math.max(0, format.frameRate));
+  }
+
+  private static String describe(Format format) {
+    return format.id
+        + " "
+        + format.codecs
+        + " "
+        + format.width
+        + "x"
+        + format.height
+        + "@"
+        + format.frameRate;
+  }
+
+  /** Passes on the tracks of the wrapped selector, without the representations left out. */
+  private final class FilteringOutput implements Output {
+    private final Output output;
+
+    FilteringOutput(Output output) {
+      this.output = output;
+    }
+
+    @Override
+    public void adaptiveTrack(
+        MediaPresentationDescription manifest,
+        int periodIndex,
+        int adaptationSetIndex,
+        int[] representationIndices) {
+      AdaptationSet adaptationSet =
+          manifest.getPeriod(periodIndex).adaptationSets.get(adaptationSetIndex);
+      int[] kept = new int[representationIndices.length];
+      int keptCount = 0;
+      int lowest = -1;
+      for (int index : representationIndices) {
+        Format format = adaptationSet.representations.get(index).format;
+        if (isDecodable(format)) {
+          kept[keptCount++] = index;
+        } else {
+          Log.i(TAG, "Leaving out " + describe(format) + ", not decodable");
+        }
+        if (lowest == -1
+            || format.bitrate < adaptationSet.representations.get(lowest).format.bitrate) {
+          lowest = index;
+        }
+      }
+      if (keptCount == 0) {
+        Log.w(TAG, "No representation can be decoded, keeping the lowest bitrate one");
+        output.fixedTrack(manifest, periodIndex, adaptationSetIndex, lowest);
+      } else if (keptCount == 1) {
+        output.fixedTrack(manifest, periodIndex, adaptationSetIndex, kept[0]);
+      } else {
+        output.adaptiveTrack(
+            manifest, periodIndex, adaptationSetIndex, Arrays.copyOf(kept, keptCount));
+      }
+    }
+
+    @Override
+    public void fixedTrack(
+        MediaPresentationDescription manifest,
+        int periodIndex,
+        int adaptationSetIndex,
+        int representationIndex) {
+      Format format =
+          manifest
+              .getPeriod(periodIndex)
+              .adaptationSets
+              .get(adaptationSetIndex)
+              .representations
+              .get(representationIndex)
+              .format;
+      if (!isDecodable(format)) {
+        // A track of its own, such as one of several tracks to choose from, is left out entirely.
+        Log.i(TAG, "Leaving out track " + describe(format) + ", not decodable");
+        return;
+      }
+      output.fixedTrack(manifest, periodIndex, adaptationSetIndex, representationIndex);
+    }
+  }
+}
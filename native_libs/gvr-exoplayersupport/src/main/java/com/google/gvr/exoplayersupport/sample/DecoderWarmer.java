@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.exoplayer.DecoderInfo;
+import com.google.android.exoplayer.util.MimeTypes;
+
+/**
+ * Creates and configures the video decoder a player most likely needs while its manifest is still
+ * loading. The renderer only creates its decoder once the manifest is parsed and the renderers
+ * are prepared, so the first creation of a decoder, which loads the codec component and often
+ * takes a few hundred milliseconds, otherwise adds to the startup time.
+ *
+ * <p>The renderers of this ExoPlayer version always create their own decoder, so the warm decoder
+ * is released just before the renderers are prepared, and the renderer then creates an instance of
+ * a component that is already loaded. Only one instance is held at a time, so a device with a
+ * single hardware decoder can still play.
+ *
+ * <p>The MIME type comes from a hint, or else from the decoder used the last time the same URL was
+ * played. Nothing is warmed for a URL played for the first time without a hint.
+ */
+public final class DecoderWarmer {
+  private static final String TAG = "DecoderWarmer";
+
+  private static final String PREFS_NAME = "decoder_hints";
+  private static final String SEPARATOR = ",";
+  private static final int DEFAULT_WIDTH = 1920;
+  private static final int DEFAULT_HEIGHT = 1080;
+
+  /** Implemented by renderer builders that can tell the URL they play before building. */
+  public interface VideoSource {
+    /** Returns the URL of the video. */
+    String getVideoUrl();
+  }
+
+  private final HardwareCodecSelector codecSelector;
+  private final SharedPreferences prefs;
+
+  private MediaCodec codec;
+  private String warmDecoderName;
+  private long warmDurationMs;
+  private boolean released;
+  private int generation;
+
+  /** @param context - the context of the application. */
+  public DecoderWarmer(Context context) {
+    codecSelector = HardwareCodecSelector.getInstance(context);
+    prefs =
+        context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+  }
+
+  /**
+   * Starts creating the decoder a video most likely needs, in the background.
+   *
+   * @param url - the URL of the video, or null if unknown.
+   * @param mimeTypeHint - the MIME type of the video, or null to use the one of the last session
+   *     for the URL.
+   */
+  public void warm(String url, String mimeTypeHint) {
+    release();
+    String mimeType = mimeTypeHint;
+    int width = DEFAULT_WIDTH;
+    int height = DEFAULT_HEIGHT;
+    String stored = url != null ? prefs.getString(url, null) : null;
+    if (stored != null) {
+      String[] fields = stored.split(SEPARATOR);
+      if (fields.length == 3 && (mimeType == null || mimeType.equals(fields[0]))) {
+        mimeType = fields[0];
+        width = parseInt(fields[1], DEFAULT_WIDTH);
+        height = parseInt(fields[2], DEFAULT_HEIGHT);
+      }
+    }
+    if (mimeType == null) {
+      Log.d(TAG, "No decoder hint for " + url);
+      return;
+    }
+    final int warmGeneration;
+    synchronized (this) {
+      released = false;
+      warmDecoderName = null;
+      warmGeneration = ++generation;
+    }
+    final String warmMimeType = mimeType;
+    final int warmWidth = width;
+    final int warmHeight = height;
+    AsyncTask.THREAD_POOL_EXECUTOR.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            createCodec(warmGeneration, warmMimeType, warmWidth, warmHeight);
+          }
+        });
+  }
+
+  /**
+   * Releases the warm decoder, if any. Called before the renderers are prepared, and when the
+   * player is released. A decoder still being created is released once it is.
+   */
+  public synchronized void release() {
+    released = true;
+    if (codec != null) {
+      codec.release();
+      codec = null;
+      Log.d(TAG, "Released warm decoder " + warmDecoderName);
+    }
+  }
+
+  /**
+   * Records the video decoder the renderer created, as the hint for the next session of the URL,
+   * and logs whether it is the one that was warmed.
+   *
+   * @param url - the URL of the video.
+   * @param decoderName - the name of the decoder.
+   * @param initializationDurationMs - how long the renderer took to create the decoder.
+   * @param width - the width of the video, or 0 if not known yet.
+   * @param height - the height of the video, or 0 if not known yet.
+   */
+  public void onDecoderInitialized(
+      String url, String decoderName, long initializationDurationMs, int width, int height) {
+    String mimeType = codecSelector.getMimeType(decoderName);
+    if (mimeType == null || !MimeTypes.isVideo(mimeType)) {
+      // Audio decoders report through the same listener.
+      return;
+    }
+    String warmed;
+    long warmedMs;
+    synchronized (this) {
+      warmed = warmDecoderName;
+      warmedMs = warmDurationMs;
+    }
+    Log.i(
+        TAG,
+        "Decoder "
+            + decoderName
+            + " created in "
+            + initializationDurationMs
+            + "ms, "
+            + (decoderName.equals(warmed)
+                ? "warmed in " + warmedMs + "ms"
+                : "warm decoder " + warmed + " not used"));
+    if (url == null) {
+      return;
+    }
+    prefs
+        .edit()
+        .putString(
+            url,
+            mimeType
+                + SEPARATOR
+                + (width > 0 ? width : DEFAULT_WIDTH)
+                + SEPARATOR
+                + (height > 0 ? height : DEFAULT_HEIGHT))
+        .apply();
+  }
+
+  private void createCodec(int warmGeneration, String mimeType, int width, int height) {
+    long startMs = SystemClock.elapsedRealtime();
+    MediaCodec created = null;
+    try {
+      DecoderInfo info = codecSelector.getDecoderInfo(mimeType, false);
+      if (info == null) {
+        Log.w(TAG, "No decoder for " + mimeType);
+        return;
+      }
+      created = MediaCodec.createByCodecName(info.name);
+      created.configure(MediaFormat.createVideoFormat(mimeType, width, height), null, null, 0);
+    } catch (Exception e) {
+      // Warming is only an optimization, the renderer reports its own decoder errors.
+      Log.w(TAG, "Failed to warm a decoder for " + mimeType, e);
+      if (created != null) {
+        created.release();
+      }
+      return;
+    }
+    long durationMs = SystemClock.elapsedRealtime() - startMs;
+    synchronized (this) {
+      if (released || warmGeneration != generation) {
+        created.release();
+        Log.d(TAG, "Warm decoder no longer needed after " + durationMs + "ms");
+        return;
+      }
+      codec = created;
+      warmDecoderName = created.getName();
+      warmDurationMs = durationMs;
+    }
+    Log.d(
+        TAG,
+        "Warmed "
+            + created.getName()
+            + " for "
+            + mimeType
+            + " "
+            + width
+            + "x"
+            + height
+            + " in "
+            + durationMs
+            + "ms");
+  }
+
+  private static int parseInt(String value, int defaultValue) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+}
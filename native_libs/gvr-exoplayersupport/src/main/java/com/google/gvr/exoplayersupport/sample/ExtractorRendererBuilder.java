@@ -21,7 +21,6 @@ import android.media.MediaCodec;
 import android.net.Uri;
 import android.os.Handler;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioCapabilities;
@@ -36,7 +35,7 @@ import com.google.gvr.exoplayersupport.AsyncRendererBuilder;
 import com.google.gvr.exoplayersupport.VideoPlayer;
 
 /** Builder class for rendering video from a local source, such as the assets directory. */
-public class ExtractorRendererBuilder implements AsyncRendererBuilder {
+public class ExtractorRendererBuilder implements AsyncRendererBuilder, DecoderWarmer.VideoSource {
 
   private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
   private static final int BUFFER_SEGMENT_COUNT = 256;
@@ -71,7 +70,9 @@ public class ExtractorRendererBuilder implements AsyncRendererBuilder {
     if (uri.getScheme().startsWith("jar")) {
       dataSource = new ObbDataSource(bandwidthMeter);
     } else {
-      dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      dataSource =
+          SegmentCache.getInstance(context)
+              .createDataSource(new DefaultUriDataSource(context, bandwidthMeter, userAgent));
     }
     ExtractorSampleSource sampleSource =
         new ExtractorSampleSource(
@@ -86,7 +87,7 @@ public class ExtractorRendererBuilder implements AsyncRendererBuilder {
         new MediaCodecVideoTrackRenderer(
             context,
             sampleSource,
-            MediaCodecSelector.DEFAULT,
+            HardwareCodecSelector.getInstance(context),
             MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT,
             5000,
             mainHandler,
@@ -95,7 +96,7 @@ public class ExtractorRendererBuilder implements AsyncRendererBuilder {
     MediaCodecAudioTrackRenderer audioRenderer =
         new MediaCodecAudioTrackRenderer(
             sampleSource,
-            MediaCodecSelector.DEFAULT,
+            HardwareCodecSelector.getInstance(context),
             null,
             true,
             mainHandler,
@@ -113,6 +114,11 @@ public class ExtractorRendererBuilder implements AsyncRendererBuilder {
     player.onRenderers(renderers);
   }
 
+  @Override
+  public String getVideoUrl() {
+    return videoUrl;
+  }
+
   /** Cancel building the pipeline. */
   @Override
   public void cancel() {
@@ -0,0 +1,584 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ring of 2D textures that decoded video frames are copied into, so the render thread never
+ * latches a SurfaceTexture and can pick the frame that matches the time it will be displayed.
+ *
+ * <p>The SurfaceTexture the decoder renders into is moved to a thread of the chain, with an EGL
+ * context shared with the one of the render thread. Every frame is latched there and drawn into a
+ * free slot of the ring, then a fence is inserted. The render thread waits for that fence on the
+ * GPU, not on the CPU, before sampling the slot. When it releases a slot, one display frame after
+ * moving on to another, it inserts a fence of its own, which the chain waits for before drawing
+ * into the slot again.
+ *
+ * <p>The slots are handed over without a lock: each slot has an atomic state, which only the chain
+ * moves from free to written to ready, and only the render thread moves from ready to held and
+ * back to free. The other fields of a slot are published by the change of state.
+ *
+ * <p>The transform of the SurfaceTexture is applied by the copy, so the slots are sampled with the
+ * identity matrix. Fences need OpenGL ES 3.0 on both contexts: {@link #create} returns null when
+ * the context of the render thread is older.
+ */
+@TargetApi(18)
+public final class FrameChain implements SurfaceTexture.OnFrameAvailableListener {
+  private static final String TAG = "FrameChain";
+
+  /** Two slots held by the renderer, one ready and one being written. */
+  public static final int MIN_SLOTS = 4;
+
+  /** Frames further ahead of the display time than this follow a discontinuity, such as a seek. */
+  private static final long MAX_LEAD_NS = 200000000L;
+
+  private static final int STATE_FREE = 0;
+  private static final int STATE_WRITING = 1;
+  private static final int STATE_READY = 2;
+  private static final int STATE_HELD = 3;
+
+  private static final String[] VERTEX_SHADER = {
+    "uniform mat4 uSTMatrix;",
+    "attribute vec4 aPosition;",
+    "attribute vec4 aTexCoord;",
+    "varying vec2 vTexCoord;",
+    "void main() {",
+    "  gl_Position = aPosition;",
+    "  vTexCoord = (uSTMatrix * aTexCoord).xy;",
+    "}"
+  };
+
+  private static final String[] FRAGMENT_SHADER = {
+    "#extension GL_OES_EGL_image_external : require",
+    "precision mediump float;",
+    "uniform samplerExternalOES uTexture;",
+    "varying vec2 vTexCoord;",
+    "void main() {",
+    "  gl_FragColor = texture2D(uTexture, vTexCoord);",
+    "}"
+  };
+
+  /** Full viewport quad as a triangle strip: x, y, u, v. */
+  private static final float[] QUAD = {
+    -1, -1, 0, 0,
+    1, -1, 1, 0,
+    -1, 1, 0, 1,
+    1, 1, 1, 1
+  };
+
+  /** A texture of the chain and the frame it holds. */
+  public static final class Slot {
+    private final TextureHandle textureHandle;
+    private final AtomicInteger state = new AtomicInteger(STATE_FREE);
+    private volatile long timestampNs = -1;
+    private volatile long frameNumber = -1;
+    private long writeFence;
+    private long readFence;
+
+    private Slot(int textureId) {
+      textureHandle = new TextureHandle(textureId, TextureHandle.TextureType.TEXTURE_2D);
+    }
+
+    /** Returns the handle of the 2D texture, with the identity matrix. */
+    public TextureHandle getTextureHandle() {
+      return textureHandle;
+    }
+
+    /** Returns the SurfaceTexture timestamp of the frame in the slot. */
+    public long getTimestampNs() {
+      return timestampNs;
+    }
+
+    /** Returns the number of the frame in the slot, counting from 1 in the order of copy. */
+    public long getFrameNumber() {
+      return frameNumber;
+    }
+  }
+
+  private final Slot[] slots;
+  private final int[] slotTextureIds;
+  private final int width;
+  private final int height;
+  private final SurfaceTexture input;
+  private final SurfaceTexture.OnFrameAvailableListener listener;
+  private final EGLDisplay sharedDisplay;
+  private final EGLContext sharedContext;
+  private final float[] stMatrix = new float[16];
+  private final Runnable copyRunnable;
+
+  private HandlerThread thread;
+  private Handler handler;
+  private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+  private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+  private int inputTextureId;
+  private int framebuffer;
+  private int program;
+  private int positionHandle;
+  private int texCoordHandle;
+  private int stMatrixHandle;
+  private FloatBuffer quad;
+
+  // Render thread only.
+  private Slot heldSlot;
+  private Slot retiredSlot;
+
+  // Written by the thread of the chain.
+  private volatile long copiedFrames;
+  private volatile long overwrittenFrames;
+
+  // Written by the render thread.
+  private volatile long skippedFrames;
+
+  /**
+   * Creates a chain and moves a SurfaceTexture to it. Must be called from the render thread, with
+   * the SurfaceTexture attached to its current context. Blocks until the chain is ready.
+   *
+   * @param input - the SurfaceTexture the decoder renders into.
+   * @param listener - notified on the thread of the chain after each frame is copied.
+   * @param slotCount - the number of textures in the ring, at least {@link #MIN_SLOTS}.
+   * @param width - the width of the textures, in pixels.
+   * @param height - the height of the textures, in pixels.
+   * @return the chain, or null if the context of the render thread does not support fences.
+   */
+  public static FrameChain create(
+      SurfaceTexture input,
+      SurfaceTexture.OnFrameAvailableListener listener,
+      int slotCount,
+      int width,
+      int height) {
+    EGLDisplay display = EGL14.eglGetCurrentDisplay();
+    EGLContext context = EGL14.eglGetCurrentContext();
+    int[] clientVersion = new int[1];
+    if (context == EGL14.EGL_NO_CONTEXT
+        || !EGL14.eglQueryContext(
+            display, context, EGL14.EGL_CONTEXT_CLIENT_VERSION, clientVersion, 0)
+        || clientVersion[0] < 3) {
+      Log.w(TAG, "The render thread has no OpenGL ES 3 context, frames are not chained");
+      return null;
+    }
+    FrameChain chain =
+        new FrameChain(
+            input,
+            listener,
+            Math.max(MIN_SLOTS, slotCount),
+            width,
+            height,
+            display,
+            context);
+    chain.start();
+    return chain;
+  }
+
+  private FrameChain(
+      SurfaceTexture input,
+      SurfaceTexture.OnFrameAvailableListener listener,
+      int slotCount,
+      int width,
+      int height,
+      EGLDisplay sharedDisplay,
+      EGLContext sharedContext) {
+    this.input = input;
+    this.listener = listener;
+    this.width = width;
+    this.height = height;
+    this.sharedDisplay = sharedDisplay;
+    this.sharedContext = sharedContext;
+    copyRunnable =
+        new Runnable() {
+          @Override
+          public void run() {
+            copyFrame();
+          }
+        };
+
+    slotTextureIds = new int[slotCount];
+    GLES20.glGenTextures(slotCount, slotTextureIds, 0);
+    slots = new Slot[slotCount];
+    for (int i = 0; i < slotCount; i++) {
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, slotTextureIds[i]);
+      GLES20.glTexImage2D(
+          GLES20.GL_TEXTURE_2D,
+          0,
+          GLES20.GL_RGBA,
+          width,
+          height,
+          0,
+          GLES20.GL_RGBA,
+          GLES20.GL_UNSIGNED_BYTE,
+          null);
+      GLES20.glTexParameterf(
+          GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+      GLES20.glTexParameterf(
+          GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+      GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+      GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+      slots[i] = new Slot(slotTextureIds[i]);
+    }
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    GLUtil.checkGlError(TAG, "create slots");
+    input.detachFromGLContext();
+  }
+
+  private void start() {
+    thread = new HandlerThread(TAG);
+    thread.start();
+    handler = new Handler(thread.getLooper());
+    final CountDownLatch ready = new CountDownLatch(1);
+    handler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              setUp();
+            } finally {
+              ready.countDown();
+            }
+          }
+        });
+    await(ready);
+  }
+
+  /**
+   * Stops copying frames and gives the SurfaceTexture back. Must be called from the render thread,
+   * which the SurfaceTexture can then be attached to again. Blocks until the chain is stopped.
+   */
+  public void release() {
+    if (thread == null) {
+      return;
+    }
+    handler.removeCallbacks(copyRunnable);
+    final CountDownLatch stopped = new CountDownLatch(1);
+    handler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              tearDown();
+            } finally {
+              stopped.countDown();
+            }
+          }
+        });
+    await(stopped);
+    thread.quitSafely();
+    thread = null;
+    heldSlot = null;
+    retiredSlot = null;
+    GLES20.glDeleteTextures(slotTextureIds.length, slotTextureIds, 0);
+    Log.i(TAG, "Released: " + this);
+  }
+
+  /**
+   * Picks the frame to sample for a display frame: the newest frame due by the display time. The
+   * frame sampled before is kept if no newer frame is due yet, and older frames are skipped. Must
+   * be called from the render thread, once per display frame, before sampling the slot. It takes
+   * no lock, does not block on the copy and allocates nothing.
+   *
+   * @param displayTimeNs - when the display frame will be shown, in the timebase of the frame
+   *     timestamps.
+   * @return the slot to sample, or null if no frame was copied yet.
+   */
+  public Slot acquireFrame(long displayTimeNs) {
+    Slot previous = heldSlot;
+    Slot next = null;
+    // The chain may overwrite the picked frame before it is taken, then another one is picked.
+    for (int attempt = 0; attempt < slots.length && next == null; attempt++) {
+      Slot candidate = pickFrame(previous, displayTimeNs);
+      if (candidate == null) {
+        return previous;
+      }
+      if (candidate.state.compareAndSet(STATE_READY, STATE_HELD)) {
+        next = candidate;
+      }
+    }
+    if (next == null) {
+      return previous;
+    }
+    long frameNumber = next.frameNumber;
+    for (Slot slot : slots) {
+      if (slot.state.get() == STATE_READY
+          && slot.frameNumber < frameNumber
+          && slot.state.compareAndSet(STATE_READY, STATE_FREE)) {
+        skippedFrames++;
+      }
+    }
+
+    long writeFence = next.writeFence;
+    next.writeFence = 0;
+    if (writeFence != 0) {
+      GLES30.glWaitSync(writeFence, 0, GLES30.GL_TIMEOUT_IGNORED);
+      GLES30.glDeleteSync(writeFence);
+    }
+    // The slot shown before stays held for one more display frame: a renderer reading the texture
+    // ID on another thread, like Unity's main thread, may still draw it this frame.
+    if (retiredSlot != null) {
+      // Flushed with the frame; the chain waits for it before drawing into the slot again.
+      retiredSlot.readFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+      retiredSlot.state.set(STATE_FREE);
+    }
+    retiredSlot = previous;
+    heldSlot = next;
+    return next;
+  }
+
+  /** Returns the ready frame to show next, or null to keep the previous one. */
+  private Slot pickFrame(Slot previous, long displayTimeNs) {
+    Slot next = null;
+    Slot oldest = null;
+    for (Slot slot : slots) {
+      if (slot.state.get() != STATE_READY) {
+        continue;
+      }
+      if (slot.timestampNs <= displayTimeNs
+          && (next == null || slot.timestampNs > next.timestampNs)) {
+        next = slot;
+      }
+      if (oldest == null || slot.frameNumber < oldest.frameNumber) {
+        oldest = slot;
+      }
+    }
+    if (next == null
+        && oldest != null
+        && (previous == null || oldest.timestampNs - displayTimeNs > MAX_LEAD_NS)) {
+      // Nothing is due yet, but nothing is on screen or the timestamps jumped: show it early.
+      next = oldest;
+    }
+    return next;
+  }
+
+  /** Returns the width of the textures, in pixels. */
+  public int getWidth() {
+    return width;
+  }
+
+  /** Returns the height of the textures, in pixels. */
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+    handler.post(copyRunnable);
+  }
+
+  @Override
+  public String toString() {
+    return slots.length
+        + " slots of "
+        + width
+        + "x"
+        + height
+        + ", "
+        + copiedFrames
+        + " frames copied, "
+        + overwrittenFrames
+        + " overwritten before display, "
+        + skippedFrames
+        + " skipped";
+  }
+
+  private void setUp() {
+    int[] configAttributes = {
+      EGL14.EGL_RED_SIZE, 8,
+      EGL14.EGL_GREEN_SIZE, 8,
+      EGL14.EGL_BLUE_SIZE, 8,
+      EGL14.EGL_RENDERABLE_TYPE, EGLExt.EGL_OPENGL_ES3_BIT_KHR,
+      EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+      EGL14.EGL_NONE
+    };
+    EGLConfig[] configs = new EGLConfig[1];
+    int[] configCount = new int[1];
+    EGL14.eglChooseConfig(sharedDisplay, configAttributes, 0, configs, 0, 1, configCount, 0);
+    if (configCount[0] == 0) {
+      throw new IllegalStateException("No EGL config for the frame chain");
+    }
+    int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 3, EGL14.EGL_NONE};
+    eglContext =
+        EGL14.eglCreateContext(sharedDisplay, configs[0], sharedContext, contextAttributes, 0);
+    // Nothing is drawn to the surface, it only makes the context current.
+    int[] surfaceAttributes = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+    eglSurface = EGL14.eglCreatePbufferSurface(sharedDisplay, configs[0], surfaceAttributes, 0);
+    EGL14.eglMakeCurrent(sharedDisplay, eglSurface, eglSurface, eglContext);
+
+    program = GLUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+    positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+    texCoordHandle = GLES20.glGetAttribLocation(program, "aTexCoord");
+    stMatrixHandle = GLES20.glGetUniformLocation(program, "uSTMatrix");
+    quad =
+        ByteBuffer.allocateDirect(QUAD.length * GLUtil.FLOAT_SIZE_BYTES)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    quad.put(QUAD).position(0);
+
+    int[] ids = new int[1];
+    GLES20.glGenFramebuffers(1, ids, 0);
+    framebuffer = ids[0];
+    GLES20.glGenTextures(1, ids, 0);
+    inputTextureId = ids[0];
+    input.attachToGLContext(inputTextureId);
+    if (VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP) {
+      input.setOnFrameAvailableListener(this, handler);
+    } else {
+      input.setOnFrameAvailableListener(this);
+    }
+    GLUtil.checkGlError(TAG, "setUp");
+    Log.i(TAG, "Chaining frames through " + slots.length + " slots of " + width + "x" + height);
+  }
+
+  private void copyFrame() {
+    if (eglSurface == EGL14.EGL_NO_SURFACE) {
+      return;
+    }
+    input.updateTexImage();
+    input.getTransformMatrix(stMatrix);
+    long timestampNs = input.getTimestamp();
+
+    Slot slot = claimSlot();
+    if (slot == null) {
+      Log.w(TAG, "No slot to copy a frame into");
+      return;
+    }
+    long readFence = slot.readFence;
+    long staleWriteFence = slot.writeFence;
+    slot.readFence = 0;
+    slot.writeFence = 0;
+
+    if (readFence != 0) {
+      GLES30.glWaitSync(readFence, 0, GLES30.GL_TIMEOUT_IGNORED);
+      GLES30.glDeleteSync(readFence);
+    }
+    if (staleWriteFence != 0) {
+      GLES30.glDeleteSync(staleWriteFence);
+    }
+
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+    GLES20.glFramebufferTexture2D(
+        GLES20.GL_FRAMEBUFFER,
+        GLES20.GL_COLOR_ATTACHMENT0,
+        GLES20.GL_TEXTURE_2D,
+        slot.textureHandle.getId(),
+        0);
+    GLES20.glViewport(0, 0, width, height);
+    GLES20.glUseProgram(program);
+    quad.position(0);
+    GLES20.glVertexAttribPointer(
+        positionHandle, 2, GLES20.GL_FLOAT, false, 4 * GLUtil.FLOAT_SIZE_BYTES, quad);
+    GLES20.glEnableVertexAttribArray(positionHandle);
+    quad.position(2);
+    GLES20.glVertexAttribPointer(
+        texCoordHandle, 2, GLES20.GL_FLOAT, false, 4 * GLUtil.FLOAT_SIZE_BYTES, quad);
+    GLES20.glEnableVertexAttribArray(texCoordHandle);
+    GLES20.glUniformMatrix4fv(stMatrixHandle, 1, false, stMatrix, 0);
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(TextureHandle.GL_TEXTURE_EXTERNAL_OES, inputTextureId);
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+    long writeFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    // The render thread waits on the fence from its own context, so it must reach the GPU.
+    GLES20.glFlush();
+    slot.writeFence = writeFence;
+    slot.timestampNs = timestampNs;
+    slot.frameNumber = ++copiedFrames;
+    slot.state.set(STATE_READY);
+    if (listener != null) {
+      listener.onFrameAvailable(input);
+    }
+  }
+
+  /** Takes a free slot, or else the oldest frame that was not displayed, to write into. */
+  private Slot claimSlot() {
+    // The render thread may take the oldest frame first, then the slots are looked at again.
+    for (int attempt = 0; attempt < slots.length; attempt++) {
+      Slot oldest = null;
+      for (Slot slot : slots) {
+        int state = slot.state.get();
+        // Only the chain moves a slot out of the free state, so this cannot fail.
+        if (state == STATE_FREE && slot.state.compareAndSet(STATE_FREE, STATE_WRITING)) {
+          return slot;
+        }
+        if (state == STATE_READY && (oldest == null || slot.frameNumber < oldest.frameNumber)) {
+          oldest = slot;
+        }
+      }
+      if (oldest != null && oldest.state.compareAndSet(STATE_READY, STATE_WRITING)) {
+        overwrittenFrames++;
+        return oldest;
+      }
+    }
+    return null;
+  }
+
+  private void tearDown() {
+    if (eglContext == EGL14.EGL_NO_CONTEXT) {
+      return;
+    }
+    input.setOnFrameAvailableListener(null);
+    // Also deletes the input texture.
+    input.detachFromGLContext();
+    // The render thread is waiting in release(), so it does not touch the slots.
+    for (Slot slot : slots) {
+      if (slot.writeFence != 0) {
+        GLES30.glDeleteSync(slot.writeFence);
+      }
+      if (slot.readFence != 0) {
+        GLES30.glDeleteSync(slot.readFence);
+      }
+      slot.writeFence = 0;
+      slot.readFence = 0;
+      slot.state.set(STATE_FREE);
+    }
+    GLES20.glDeleteFramebuffers(1, new int[] {framebuffer}, 0);
+    GLES20.glDeleteProgram(program);
+    EGL14.eglMakeCurrent(
+        sharedDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+    EGL14.eglDestroySurface(sharedDisplay, eglSurface);
+    EGL14.eglDestroyContext(sharedDisplay, eglContext);
+    // The display is shared with the renderer of the app, so it is not terminated.
+    EGL14.eglReleaseThread();
+    eglSurface = EGL14.EGL_NO_SURFACE;
+    eglContext = EGL14.EGL_NO_CONTEXT;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Log.w(TAG, "Interrupted waiting for the frame chain");
+      Thread.currentThread().interrupt();
+    }
+  }
+}
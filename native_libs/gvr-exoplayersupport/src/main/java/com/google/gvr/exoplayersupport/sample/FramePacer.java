@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+/**
+ * Decides on which display frame each video frame is latched into the video texture, so the frames
+ * of 24, 30 or 50 fps video keep an even cadence on 60, 72 or 90 Hz displays. Decoders release
+ * frames up to tens of milliseconds ahead of their time, and latching every frame as soon as it is
+ * available shows some of them a display frame early, which is seen as judder.
+ *
+ * <p>The frame timestamps are mapped to the presentation clock by an offset measured when a frame
+ * is latched, and measured again after a seek or a stall. The display frame period is measured
+ * from the intervals between render calls, and the video frame period from the intervals between
+ * timestamps. A frame that is not due before the middle of the next display frame is held. When
+ * frames queue up, the older ones are dropped so the newest is shown.
+ *
+ * <p>The pacer also counts the frames shown for a number of display frames that is off the ideal
+ * cadence by a whole display frame or more, which is the judder that is seen.
+ *
+ * <p>The pacer has no dependency on Android, so it can be driven with synthetic frame timings. It
+ * runs on the GL thread on every frame, so it allocates nothing. It is not thread safe, except for
+ * {@link #setEnabled}.
+ */
+public final class FramePacer {
+
+  /** Timestamps further apart than this are a discontinuity, such as a seek. */
+  private static final long MAX_FRAME_PERIOD_NS = 200000000L;
+
+  /** Render calls further apart than this are a pause of the render loop, not a display frame. */
+  private static final long MAX_DISPLAY_PERIOD_NS = 100000000L;
+
+  /** The display frame period assumed until it is measured, 60 Hz. */
+  private static final long DEFAULT_DISPLAY_PERIOD_NS = 16666667L;
+
+  /** How far in display frames a latch can be from its due time before the offset is measured. */
+  private static final int MAX_DRIFT_DISPLAY_FRAMES = 2;
+
+  /** The weight of the last interval in the measured periods. */
+  private static final float PERIOD_SMOOTHING = 0.1f;
+
+  private volatile boolean enabled;
+
+  private long lastRenderNs;
+  private long displayPeriodNs;
+  private long framePeriodNs;
+  private long lastTimestampNs;
+  private long clockOffsetNs;
+  private int displayFramesSinceLatch;
+  private int framesToLatch;
+
+  private long latchedFrames;
+  private long heldDisplayFrames;
+  private long droppedFrames;
+  private long judderFrames;
+  private long discontinuities;
+
+  public FramePacer() {
+    enabled = true;
+    displayPeriodNs = DEFAULT_DISPLAY_PERIOD_NS;
+    reset();
+  }
+
+  /**
+   * Enables pacing, or disables it, in which case every available frame is latched at once. Can be
+   * called from any thread.
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /** Clears the counts of frames, so they start over. */
+  public void resetStatistics() {
+    latchedFrames = 0;
+    heldDisplayFrames = 0;
+    droppedFrames = 0;
+    judderFrames = 0;
+    discontinuities = 0;
+  }
+
+  /** Forgets the frames of the previous video. The measured display frame period is kept. */
+  public void reset() {
+    lastRenderNs = -1;
+    framePeriodNs = 0;
+    lastTimestampNs = -1;
+    displayFramesSinceLatch = 0;
+  }
+
+  /**
+   * Called on every render call, before the texture is updated.
+   *
+   * @param nowNs - the current time of the presentation clock, System.nanoTime().
+   * @param availableFrames - the number of frames available to latch.
+   * @return the number of frames to latch, the last of which is shown: 0 to hold, 1 to latch the
+   *     next frame, more to drop the older ones.
+   */
+  public int getFramesToLatch(long nowNs, int availableFrames) {
+    onDisplayFrame(nowNs);
+    if (availableFrames == 0) {
+      return 0;
+    }
+    if (availableFrames > 1) {
+      // The older frames are already late, only the newest is worth showing.
+      droppedFrames += availableFrames - 1;
+      framesToLatch = availableFrames;
+      return availableFrames;
+    }
+    // Content close to the display rate has no slack to hold a frame without delaying the next.
+    if (!enabled || lastTimestampNs == -1 || framePeriodNs < displayPeriodNs * 3 / 2) {
+      framesToLatch = 1;
+      return 1;
+    }
+    long dueNs = lastTimestampNs + framePeriodNs + clockOffsetNs;
+    if (dueNs > nowNs + displayPeriodNs / 2
+        && dueNs < nowNs + MAX_DRIFT_DISPLAY_FRAMES * displayPeriodNs) {
+      heldDisplayFrames++;
+      return 0;
+    }
+    framesToLatch = 1;
+    return 1;
+  }
+
+  /**
+   * Called on every render call when the frame to show is chosen elsewhere, such as from a {@link
+   * FrameChain}, instead of calling {@link #getFramesToLatch}.
+   *
+   * @param nowNs - the current time of the presentation clock, System.nanoTime().
+   */
+  public void onDisplayFrame(long nowNs) {
+    if (lastRenderNs != -1) {
+      long intervalNs = nowNs - lastRenderNs;
+      if (intervalNs > 0 && intervalNs < MAX_DISPLAY_PERIOD_NS) {
+        displayPeriodNs += (long) ((intervalNs - displayPeriodNs) * PERIOD_SMOOTHING);
+      }
+    }
+    lastRenderNs = nowNs;
+    displayFramesSinceLatch++;
+  }
+
+  /**
+   * Called after the frame to show was latched.
+   *
+   * @param nowNs - the current time of the presentation clock.
+   * @param timestampNs - the timestamp of the frame, SurfaceTexture.getTimestamp().
+   */
+  public void onFrameLatched(long nowNs, long timestampNs) {
+    latchedFrames++;
+    long deltaNs = lastTimestampNs == -1 ? -1 : timestampNs - lastTimestampNs;
+    if (deltaNs <= 0 || deltaNs > MAX_FRAME_PERIOD_NS) {
+      // A seek, a stall or the first frame: measure the offset to the presentation clock again.
+      discontinuities++;
+      clockOffsetNs = nowNs - timestampNs;
+    } else {
+      // Frames dropped on the way span more than one frame period.
+      long periodNs = deltaNs / Math.max(1, framesToLatch);
+      framePeriodNs =
+          framePeriodNs == 0
+              ? periodNs
+              : framePeriodNs + (long) ((periodNs - framePeriodNs) * PERIOD_SMOOTHING);
+      float idealDisplayFrames = (float) deltaNs / displayPeriodNs;
+      if (Math.abs(displayFramesSinceLatch - idealDisplayFrames) >= 1) {
+        judderFrames++;
+      }
+      long driftNs = nowNs - (timestampNs + clockOffsetNs);
+      if (Math.abs(driftNs) > MAX_DRIFT_DISPLAY_FRAMES * displayPeriodNs) {
+        clockOffsetNs = nowNs - timestampNs;
+      }
+    }
+    lastTimestampNs = timestampNs;
+    displayFramesSinceLatch = 0;
+    framesToLatch = 0;
+  }
+
+  /**
+   * Returns the offset from frame timestamps to the presentation clock: a frame is due at its
+   * timestamp plus this offset.
+   */
+  public long getClockOffsetNs() {
+    return clockOffsetNs;
+  }
+
+  /** Returns the measured display frame period. */
+  public long getDisplayPeriodNs() {
+    return displayPeriodNs;
+  }
+
+  /** Returns the measured video frame period, or 0 if not measured yet. */
+  public long getFramePeriodNs() {
+    return framePeriodNs;
+  }
+
+  /** Returns the number of frames shown. */
+  public long getLatchedFrames() {
+    return latchedFrames;
+  }
+
+  /** Returns the number of display frames a frame was held for, to keep the cadence. */
+  public long getHeldDisplayFrames() {
+    return heldDisplayFrames;
+  }
+
+  /** Returns the number of frames dropped because a newer one was available. */
+  public long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  /** Returns the number of frames shown for a whole display frame more or less than ideal. */
+  public long getJudderFrames() {
+    return judderFrames;
+  }
+
+  @Override
+  public String toString() {
+    return latchedFrames
+        + " frames of "
+        + framePeriodNs / 1000
+        + "us on "
+        + displayPeriodNs / 1000
+        + "us display frames, "
+        + judderFrames
+        + " juddered, "
+        + heldDisplayFrames
+        + " holds, "
+        + droppedFrames
+        + " dropped, "
+        + discontinuities
+        + " discontinuities";
+  }
+}
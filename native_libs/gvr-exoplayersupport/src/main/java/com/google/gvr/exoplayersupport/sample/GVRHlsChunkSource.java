@@ -15,23 +15,52 @@
  */
 package com.google.gvr.exoplayersupport.sample;
 
+import com.google.android.exoplayer.chunk.ChunkOperationHolder;
+import com.google.android.exoplayer.chunk.Format;
 import com.google.android.exoplayer.extractor.ts.PtsTimestampAdjuster;
 import com.google.android.exoplayer.hls.HlsChunkSource;
 import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylist;
 import com.google.android.exoplayer.hls.HlsTrackSelector;
 import com.google.android.exoplayer.hls.PtsTimestampAdjusterProvider;
+import com.google.android.exoplayer.hls.TsChunk;
 import com.google.android.exoplayer.hls.Variant;
 import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Extended Exoplayer HlsChunkSource. This accomodates selecting an initial resolution to attempt
- * playback with.
+ * playback with. It also asks for more buffer before switching up than the default, so bandwidth
+ * swings do not make it switch back and forth.
+ *
+ * <p>The variants above the height and frame rate limits of the {@link QualityGovernor} are not
+ * switched to. The bandwidth estimate the switches are based on is capped at what the highest
+ * variant within the limits needs.
+ *
+ * <p>It is also the sync index of its seeks: playback after a seek starts at the start of the
+ * segment the position falls in, so the segment starts of the playlist and of the chunks loaded are
+ * the sync points.
  */
-public class GVRHlsChunkSource extends HlsChunkSource {
+public class GVRHlsChunkSource extends HlsChunkSource implements SeekScheduler.SyncIndex {
+
+  /** The buffer needed to switch to a higher variant, twice the default. */
+  public static final long MIN_BUFFER_TO_SWITCH_UP_MS = 2 * DEFAULT_MIN_BUFFER_TO_SWITCH_UP_MS;
+
+  /** The most segments whose times are kept as sync points. */
+  private static final int MAX_SEGMENT_TIMES = 512;
+
+  /** The fraction of the bandwidth estimate HlsChunkSource picks variants within. */
+  private static final float BANDWIDTH_FRACTION = 0.8f;
 
   private int targetResolution;
+  private BackBuffer backBuffer;
+  private final GovernedBandwidthMeter governedBandwidthMeter;
+
+  /** The end of the segments loaded, by their start, in milliseconds. */
+  private final TreeMap<Long, Long> segmentTimesMs;
 
   /**
    * @param isMaster True if this is the master source for the playback. False otherwise. Each
@@ -39,7 +68,8 @@ public class GVRHlsChunkSource extends HlsChunkSource {
    *     chunks (or audio chunks for audio only playbacks).
    * @param dataSource A {@link DataSource} suitable for loading the media data.
    * @param playlist The HLS playlist.
-   * @param trackSelector Selects tracks to be exposed by this source.
+   * @param trackSelector Selects tracks to be exposed by this source, such as a {@link
+   *     HlsVariantPolicy}.
    * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
    * @param timestampAdjusterProvider A provider of {@link PtsTimestampAdjuster} instances.
    * @param targetResolution - the target height for the initial video stream. The stream selected
@@ -54,8 +84,96 @@ public class GVRHlsChunkSource extends HlsChunkSource {
       BandwidthMeter bandwidthMeter,
       PtsTimestampAdjusterProvider timestampAdjusterProvider,
       int targetResolution) {
-    super(isMaster, dataSource, playlist, trackSelector, bandwidthMeter, timestampAdjusterProvider);
+    this(
+        isMaster,
+        dataSource,
+        playlist,
+        trackSelector,
+        new GovernedBandwidthMeter(bandwidthMeter, QualityGovernor.getInstance()),
+        timestampAdjusterProvider,
+        targetResolution);
+  }
+
+  private GVRHlsChunkSource(
+      boolean isMaster,
+      DataSource dataSource,
+      HlsPlaylist playlist,
+      HlsTrackSelector trackSelector,
+      GovernedBandwidthMeter bandwidthMeter,
+      PtsTimestampAdjusterProvider timestampAdjusterProvider,
+      int targetResolution) {
+    super(
+        isMaster,
+        dataSource,
+        playlist,
+        trackSelector,
+        bandwidthMeter,
+        timestampAdjusterProvider,
+        MIN_BUFFER_TO_SWITCH_UP_MS,
+        DEFAULT_MAX_BUFFER_TO_SWITCH_DOWN_MS);
     this.targetResolution = targetResolution;
+    governedBandwidthMeter = bandwidthMeter;
+    segmentTimesMs = new TreeMap<>();
+    if (playlist instanceof HlsMediaPlaylist && !((HlsMediaPlaylist) playlist).live) {
+      for (HlsMediaPlaylist.Segment segment : ((HlsMediaPlaylist) playlist).segments) {
+        addSegmentTime(
+            segment.startTimeUs, segment.startTimeUs + (long) (segment.durationSecs * 1000000));
+      }
+    }
+  }
+
+  /**
+   * Reports the chunks loaded to a back buffer, which must also wrap the data source.
+   *
+   * @param backBuffer - the back buffer, or null for none.
+   */
+  public void setBackBuffer(BackBuffer backBuffer) {
+    this.backBuffer = backBuffer;
+  }
+
+  @Override
+  public void getChunkOperation(
+      TsChunk previousTsChunk, long playbackPositionUs, ChunkOperationHolder out) {
+    super.getChunkOperation(previousTsChunk, playbackPositionUs, out);
+    if (out.chunk instanceof TsChunk) {
+      TsChunk tsChunk = (TsChunk) out.chunk;
+      addSegmentTime(tsChunk.startTimeUs, tsChunk.endTimeUs);
+    }
+    if (backBuffer != null) {
+      backBuffer.onChunkOperation(out.chunk, playbackPositionUs);
+    }
+  }
+
+  @Override
+  public void adaptiveTrack(HlsMasterPlaylist playlist, Variant[] variants) {
+    governedBandwidthMeter.variants = variants;
+    super.adaptiveTrack(playlist, variants);
+  }
+
+  @Override
+  public long getPreviousSyncMs(long positionMs) {
+    synchronized (segmentTimesMs) {
+      Map.Entry<Long, Long> segment = segmentTimesMs.floorEntry(positionMs);
+      // Positions past the end of the known segments have no known sync point.
+      return segment != null && positionMs < segment.getValue() ? segment.getKey() : -1;
+    }
+  }
+
+  @Override
+  public long getNextSyncMs(long positionMs) {
+    synchronized (segmentTimesMs) {
+      Long start = segmentTimesMs.higherKey(positionMs);
+      return start != null ? start : -1;
+    }
+  }
+
+  private void addSegmentTime(long startTimeUs, long endTimeUs) {
+    synchronized (segmentTimesMs) {
+      segmentTimesMs.put(startTimeUs / 1000, endTimeUs / 1000);
+      if (segmentTimesMs.size() > MAX_SEGMENT_TIMES) {
+        segmentTimesMs.remove(segmentTimesMs.firstKey());
+      }
+    }
   }
 
   @Override
@@ -70,9 +188,10 @@ public class GVRHlsChunkSource extends HlsChunkSource {
     if (bandwidthMeter.getBitrateEstimate() == BandwidthMeter.NO_ESTIMATE) {
 
       if (targetResolution > 0) {
+        int maxHeight = Math.min(targetResolution, QualityGovernor.getInstance().getMaxHeight());
         for (int i = 0; i < variants.length; i++) {
           Variant variant = variants[i];
-          if (variant.format.height <= targetResolution && variant.format.bitrate > maxBitrate) {
+          if (variant.format.height <= maxHeight && variant.format.bitrate > maxBitrate) {
             maxBitrate = variant.format.bitrate;
             defaultIndex = i;
           }
@@ -92,4 +211,60 @@ public class GVRHlsChunkSource extends HlsChunkSource {
     }
     return super.computeDefaultVariantIndex(playlist, variants, bandwidthMeter);
   }
+
+  /**
+   * Caps the bandwidth estimate at what the highest variant within the limits of the governor
+   * needs, so the chunk source does not switch above it.
+   */
+  private static final class GovernedBandwidthMeter implements BandwidthMeter {
+    private final BandwidthMeter bandwidthMeter;
+    private final QualityGovernor governor;
+    private volatile Variant[] variants;
+
+    GovernedBandwidthMeter(BandwidthMeter bandwidthMeter, QualityGovernor governor) {
+      this.bandwidthMeter = bandwidthMeter;
+      this.governor = governor;
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+      long estimate = bandwidthMeter.getBitrateEstimate();
+      Variant[] currentVariants = variants;
+      if (estimate == NO_ESTIMATE || currentVariants == null) {
+        return estimate;
+      }
+      int maxHeight = governor.getMaxHeight();
+      int maxFrameRate = governor.getMaxFrameRate();
+      int maxBitrate = 0;
+      int minBitrate = Integer.MAX_VALUE;
+      for (Variant variant : currentVariants) {
+        Format format = variant.format;
+        if (format.height <= maxHeight
+            && format.frameRate <= maxFrameRate
+            && format.bitrate > maxBitrate) {
+          maxBitrate = format.bitrate;
+        }
+        minBitrate = Math.min(minBitrate, format.bitrate);
+      }
+      if (maxBitrate == 0) {
+        maxBitrate = minBitrate;
+      }
+      return Math.min(estimate, (long) (maxBitrate / BANDWIDTH_FRACTION) + 1);
+    }
+
+    @Override
+    public void onTransferStart() {
+      bandwidthMeter.onTransferStart();
+    }
+
+    @Override
+    public void onBytesTransferred(int bytes) {
+      bandwidthMeter.onBytesTransferred(bytes);
+    }
+
+    @Override
+    public void onTransferEnd() {
+      bandwidthMeter.onTransferEnd();
+    }
+  }
 }
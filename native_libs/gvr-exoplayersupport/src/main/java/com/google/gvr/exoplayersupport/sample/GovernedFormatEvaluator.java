@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.util.Log;
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hides the formats above the height and frame rate limits of a {@link QualityGovernor} from
+ * another evaluator. When the limits fall below every format, the smallest format is kept, so there
+ * is always one to play. The formats within the limits are only worked out again when the formats
+ * or the limits change.
+ */
+public final class GovernedFormatEvaluator implements FormatEvaluator {
+  private static final String TAG = "GovernedFormatEvaluator";
+
+  private final FormatEvaluator evaluator;
+  private final QualityGovernor governor;
+
+  private Format[] lastFormats;
+  private int lastMaxHeight;
+  private int lastMaxFrameRate;
+  private Format[] allowedFormats;
+
+  /**
+   * @param evaluator - picks the format among the ones within the limits.
+   * @param governor - sets the limits.
+   */
+  public GovernedFormatEvaluator(FormatEvaluator evaluator, QualityGovernor governor) {
+    this.evaluator = evaluator;
+    this.governor = governor;
+  }
+
+  @Override
+  public void enable() {
+    evaluator.enable();
+  }
+
+  @Override
+  public void disable() {
+    evaluator.disable();
+  }
+
+  @Override
+  public void evaluate(
+      List<? extends MediaChunk> queue,
+      long playbackPositionUs,
+      Format[] formats,
+      Evaluation evaluation) {
+    int maxHeight = governor.getMaxHeight();
+    int maxFrameRate = governor.getMaxFrameRate();
+    if (formats != lastFormats || maxHeight != lastMaxHeight || maxFrameRate != lastMaxFrameRate) {
+      lastFormats = formats;
+      lastMaxHeight = maxHeight;
+      lastMaxFrameRate = maxFrameRate;
+      allowedFormats = getAllowedFormats(formats, maxHeight, maxFrameRate);
+      if (allowedFormats.length < formats.length) {
+        Log.i(
+            TAG,
+            allowedFormats.length
+                + " of "
+                + formats.length
+                + " formats within "
+                + maxHeight
+                + "p "
+                + maxFrameRate
+                + "fps");
+      }
+    }
+    Format current = evaluation.format;
+    evaluator.evaluate(queue, playbackPositionUs, allowedFormats, evaluation);
+    if (current != null && evaluation.format != current) {
+      evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+    }
+  }
+
+  private static Format[] getAllowedFormats(Format[] formats, int maxHeight, int maxFrameRate) {
+    List<Format> allowed = new ArrayList<>();
+    Format smallest = null;
+    for (Format format : formats) {
+      if (format.height <= maxHeight && format.frameRate <= maxFrameRate) {
+        allowed.add(format);
+      }
+      if (smallest == null || format.height < smallest.height) {
+        smallest = format;
+      }
+    }
+    if (allowed.isEmpty() && smallest != null) {
+      allowed.add(smallest);
+    }
+    return allowed.size() == formats.length ? formats : allowed.toArray(new Format[0]);
+  }
+}
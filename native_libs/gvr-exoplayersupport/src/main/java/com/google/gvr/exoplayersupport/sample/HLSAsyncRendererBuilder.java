@@ -19,10 +19,9 @@ import android.content.Context;
 import android.media.AudioManager;
 import android.media.MediaCodec;
 import android.os.Handler;
+import android.util.Log;
 import com.google.android.exoplayer.DefaultLoadControl;
-import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.SampleSource;
 import com.google.android.exoplayer.TrackRenderer;
@@ -30,10 +29,12 @@ import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.hls.DefaultHlsTrackSelector;
 import com.google.android.exoplayer.hls.HlsChunkSource;
 import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylistParser;
 import com.google.android.exoplayer.hls.HlsSampleSource;
 import com.google.android.exoplayer.hls.PtsTimestampAdjusterProvider;
+import com.google.android.exoplayer.hls.Variant;
 import com.google.android.exoplayer.metadata.MetadataTrackRenderer;
 import com.google.android.exoplayer.metadata.id3.Id3Frame;
 import com.google.android.exoplayer.metadata.id3.Id3Parser;
@@ -42,27 +43,43 @@ import com.google.android.exoplayer.text.eia608.Eia608TrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
 import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
+import com.google.android.exoplayer.util.UriUtil;
 import com.google.gvr.exoplayersupport.AsyncRendererBuilder;
 import com.google.gvr.exoplayersupport.VideoPlayer;
+import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /** Builds the renderers for playing HLS videos. */
 public class HLSAsyncRendererBuilder
-    implements AsyncRendererBuilder, ManifestFetcher.ManifestCallback<HlsPlaylist> {
+    implements AsyncRendererBuilder,
+        DecoderWarmer.VideoSource,
+        ManifestFetcher.ManifestCallback<HlsPlaylist> {
+  private static final String TAG = "HLSAsyncRendererBuilder";
 
   private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
   private static final int MAIN_BUFFER_SEGMENTS = 254;
   private static final int AUDIO_BUFFER_SEGMENTS = 54;
   private static final int TEXT_BUFFER_SEGMENTS = 2;
+  private static final int MAX_CACHED_PLAYLISTS = 16;
+  /** Whether media and playlist requests follow redirects between http and https. */
+  private static final boolean ALLOW_CROSS_PROTOCOL_REDIRECTS = false;
+
+  private static ManifestCache<HlsPlaylist> playlistCache;
 
   private final Context context;
   private final String userAgent;
   private final String videoUrl;
   private VideoExoPlayer player;
   private int targetResolution;
+  private long liveTargetLatencyMs;
+  private long backBufferMs;
 
   private boolean canceled;
 
@@ -78,6 +95,30 @@ public class HLSAsyncRendererBuilder
     this.videoUrl = videoUrl;
   }
 
+  /**
+   * Plays live streams at a low latency, by changing the playback speed to keep the target latency
+   * behind the newest segment loaded. Live playback still starts three segments from the end of
+   * the playlist, so the target is reached by catching up. Must be called before init.
+   *
+   * @param targetLatencyMs - how far behind the newest segment to play, or 0 for regular live
+   *     playback.
+   */
+  public void setLiveTargetLatency(long targetLatencyMs) {
+    liveTargetLatencyMs = Math.max(0, targetLatencyMs);
+  }
+
+  /**
+   * Keeps the segments of the last seconds played in memory, so seeking back into them does not
+   * load them again. The memory counts against the buffer of the player. Must be called before
+   * init.
+   *
+   * @param backBufferMs - how far behind the playback position to keep segments, or 0 to keep
+   *     none.
+   */
+  public void setBackBufferDuration(long backBufferMs) {
+    this.backBufferMs = Math.max(0, backBufferMs);
+  }
+
   /**
    * Initialize the pipeline of renderers.
    *
@@ -87,12 +128,39 @@ public class HLSAsyncRendererBuilder
   public void init(VideoPlayer videoPlayer, int targetResolution) {
     this.player = (VideoExoPlayer) videoPlayer;
     this.targetResolution = targetResolution;
+    ManifestCache<HlsPlaylist> cache = getPlaylistCache(context);
+
+    // A cached VOD playlist is used as is, and revalidated in the background for next time.
+    final HlsPlaylist cachedPlaylist = cache.get(videoUrl);
+    if (cachedPlaylist != null && isCacheable(cachedPlaylist)) {
+      Log.d(TAG, "using cached playlist for " + videoUrl);
+      cache.revalidate(videoUrl, userAgent);
+      // Delivered like a loaded playlist, after init has returned.
+      player
+          .getMainHandler()
+          .post(
+              new Runnable() {
+                @Override
+                public void run() {
+                  onSingleManifest(cachedPlaylist);
+                }
+              });
+      return;
+    }
+
     ManifestFetcher<HlsPlaylist> playlistFetcher =
         new ManifestFetcher<>(
-            videoUrl, new DefaultUriDataSource(context, userAgent), new HlsPlaylistParser());
+            videoUrl,
+            new DefaultUriDataSource(context, null, cache.createDataSource(userAgent, videoUrl)),
+            new HlsPlaylistParser());
     playlistFetcher.singleLoad(player.getMainHandler().getLooper(), this);
   }
 
+  @Override
+  public String getVideoUrl() {
+    return videoUrl;
+  }
+
   public void cancel() {
     canceled = true;
   }
@@ -112,8 +180,17 @@ public class HLSAsyncRendererBuilder
       return;
     }
 
+    if (isCacheable(manifest)) {
+      playlistCache.put(videoUrl, manifest);
+    } else {
+      playlistCache.remove(videoUrl);
+    }
+
     Handler mainHandler = player.getMainHandler();
-    LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
+    DefaultAllocator allocator = new DefaultAllocator(BUFFER_SEGMENT_SIZE);
+    // The player holds back loading while it has been paused for long.
+    PausableLoadControl loadControl = new PausableLoadControl(new DefaultLoadControl(allocator));
+    player.setLoadControl(loadControl);
     DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
     PtsTimestampAdjusterProvider timestampAdjusterProvider = new PtsTimestampAdjusterProvider();
 
@@ -125,22 +202,42 @@ public class HLSAsyncRendererBuilder
       haveAudios = !masterPlaylist.audios.isEmpty();
     }
 
-    // Build the video/id3 renderers.
-    DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-    HlsChunkSource chunkSource =
+    // Keys are shared by the chunk sources. Those of a media playlist given directly are
+    // prefetched now, the others as the chunk sources load their playlists.
+    LivePlaylistDataSource.HttpDataSourceFactory httpDataSourceFactory =
+        newHttpDataSourceFactory(bandwidthMeter);
+    HlsKeyCache keyCache = new HlsKeyCache(httpDataSourceFactory);
+    if (manifest instanceof HlsMediaPlaylist) {
+      HlsMediaPlaylist mediaPlaylist = (HlsMediaPlaylist) manifest;
+      keyCache.update(videoUrl, getKeyUris(mediaPlaylist), mediaPlaylist.live);
+    }
+
+    // Build the video/id3 renderers. Seeks back are served from the back buffer, which the
+    // segments of the window behind the playback position are counted in the buffer for.
+    int bufferSize = MAIN_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE;
+    int windowBytes = BackBuffer.getWindowBytes(backBufferMs, getMaxBitrate(manifest), bufferSize);
+    BackBuffer backBuffer =
+        backBufferMs > 0 ? new BackBuffer(allocator, backBufferMs, bufferSize + windowBytes) : null;
+    DataSource dataSource = newMediaDataSource(bandwidthMeter, httpDataSourceFactory, keyCache);
+    if (backBuffer != null) {
+      dataSource = backBuffer.wrap(dataSource);
+    }
+    GVRHlsChunkSource chunkSource =
         new GVRHlsChunkSource(
             true /* isMaster */,
             dataSource,
             manifest,
-            DefaultHlsTrackSelector.newDefaultInstance(context),
+            HlsVariantPolicy.newInstance(context),
             bandwidthMeter,
             timestampAdjusterProvider,
             targetResolution);
+    chunkSource.setBackBuffer(backBuffer);
+    player.setSyncIndex(chunkSource);
     HlsSampleSource sampleSource =
         new HlsSampleSource(
             chunkSource,
             loadControl,
-            MAIN_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE,
+            bufferSize + (backBuffer != null ? windowBytes : 0),
             mainHandler,
             player,
             VideoExoPlayer.TYPE_VIDEO);
@@ -148,7 +245,7 @@ public class HLSAsyncRendererBuilder
         new MediaCodecVideoTrackRenderer(
             context,
             sampleSource,
-            MediaCodecSelector.DEFAULT,
+            HardwareCodecSelector.getInstance(context),
             MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT,
             5000,
             mainHandler,
@@ -160,7 +257,8 @@ public class HLSAsyncRendererBuilder
     // Build the audio renderer.
     MediaCodecAudioTrackRenderer audioRenderer;
     if (haveAudios) {
-      DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource audioDataSource =
+          newMediaDataSource(bandwidthMeter, httpDataSourceFactory, keyCache);
       HlsChunkSource audioChunkSource =
           new HlsChunkSource(
               false /* isMaster */,
@@ -180,7 +278,7 @@ public class HLSAsyncRendererBuilder
       audioRenderer =
           new MediaCodecAudioTrackRenderer(
               new SampleSource[] {sampleSource, audioSampleSource},
-              MediaCodecSelector.DEFAULT,
+              HardwareCodecSelector.getInstance(context),
               null,
               true,
               player.getMainHandler(),
@@ -191,7 +289,7 @@ public class HLSAsyncRendererBuilder
       audioRenderer =
           new MediaCodecAudioTrackRenderer(
               sampleSource,
-              MediaCodecSelector.DEFAULT,
+              HardwareCodecSelector.getInstance(context),
               null,
               true,
               player.getMainHandler(),
@@ -203,7 +301,8 @@ public class HLSAsyncRendererBuilder
     // Build the text renderer.
     TrackRenderer textRenderer;
     if (haveSubtitles) {
-      DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource textDataSource =
+          newMediaDataSource(bandwidthMeter, httpDataSourceFactory, keyCache);
       HlsChunkSource textChunkSource =
           new HlsChunkSource(
               false /* isMaster */,
@@ -225,6 +324,16 @@ public class HLSAsyncRendererBuilder
       textRenderer = new Eia608TrackRenderer(sampleSource, player, mainHandler.getLooper());
     }
 
+    // The player only controls the latency once it knows the stream is live.
+    if (liveTargetLatencyMs > 0) {
+      player.setLiveLatencyController(
+          new LiveLatencyController(
+              liveTargetLatencyMs,
+              LiveLatencyController.DEFAULT_TOLERANCE_MS,
+              LiveLatencyController.DEFAULT_MAX_DRIFT_MS),
+          0);
+    }
+
     TrackRenderer[] renderers = new TrackRenderer[VideoExoPlayer.RENDERER_COUNT];
     renderers[VideoExoPlayer.TYPE_VIDEO] = videoRenderer;
     renderers[VideoExoPlayer.TYPE_AUDIO] = audioRenderer;
@@ -232,4 +341,84 @@ public class HLSAsyncRendererBuilder
     renderers[VideoExoPlayer.TYPE_TEXT] = textRenderer;
     player.onRenderers(renderers);
   }
+
+  /**
+   * Creates a data source that loads media through the segment cache, live media playlists with
+   * conditional requests and delta updates, and keys from the key cache.
+   *
+   * @param playlistDataSourceFactory - creates the data sources live media playlists are loaded
+   *     with.
+   */
+  private DataSource newMediaDataSource(
+      DefaultBandwidthMeter bandwidthMeter,
+      LivePlaylistDataSource.HttpDataSourceFactory playlistDataSourceFactory,
+      HlsKeyCache keyCache) {
+    DataSource mediaDataSource =
+        SegmentCache.getInstance(context)
+            .createDataSource(
+                new DefaultUriDataSource(
+                    context, bandwidthMeter, userAgent, ALLOW_CROSS_PROTOCOL_REDIRECTS));
+    return new LivePlaylistDataSource(mediaDataSource, playlistDataSourceFactory, keyCache);
+  }
+
+  /**
+   * Creates the http data sources playlists and keys are loaded with. They are set up the same way
+   * as those of the media, so they count towards the bandwidth and follow the same redirects.
+   */
+  private LivePlaylistDataSource.HttpDataSourceFactory newHttpDataSourceFactory(
+      final DefaultBandwidthMeter bandwidthMeter) {
+    return new LivePlaylistDataSource.HttpDataSourceFactory() {
+      @Override
+      public HttpDataSource createDataSource() {
+        return new DefaultHttpDataSource(
+            userAgent,
+            null,
+            bandwidthMeter,
+            DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+            DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS,
+            ALLOW_CROSS_PROTOCOL_REDIRECTS);
+      }
+    };
+  }
+
+  /**
+   * Returns the absolute URIs of the keys the segments of a media playlist are encrypted with, in
+   * the order of the segments.
+   */
+  private static Set<String> getKeyUris(HlsMediaPlaylist playlist) {
+    Set<String> uris = new LinkedHashSet<>();
+    for (HlsMediaPlaylist.Segment segment : playlist.segments) {
+      if (segment.isEncrypted) {
+        uris.add(UriUtil.resolve(playlist.baseUri, segment.encryptionKeyUri));
+      }
+    }
+    return uris;
+  }
+
+  /** Returns the highest bitrate of the variants of a master playlist, or 0 if unknown. */
+  private static int getMaxBitrate(HlsPlaylist playlist) {
+    int maxBitrate = 0;
+    if (playlist instanceof HlsMasterPlaylist) {
+      for (Variant variant : ((HlsMasterPlaylist) playlist).variants) {
+        maxBitrate = Math.max(maxBitrate, variant.format.bitrate);
+      }
+    }
+    return maxBitrate;
+  }
+
+  /** Live media playlists change on every refresh, so only master and VOD playlists are kept. */
+  private static boolean isCacheable(HlsPlaylist playlist) {
+    return !(playlist instanceof HlsMediaPlaylist) || !((HlsMediaPlaylist) playlist).live;
+  }
+
+  private static synchronized ManifestCache<HlsPlaylist> getPlaylistCache(Context context) {
+    if (playlistCache == null) {
+      playlistCache =
+          new ManifestCache<>(
+              new File(context.getCacheDir(), "manifests/hls"),
+              MAX_CACHED_PLAYLISTS,
+              new HlsPlaylistParser());
+    }
+    return playlistCache;
+  }
 }
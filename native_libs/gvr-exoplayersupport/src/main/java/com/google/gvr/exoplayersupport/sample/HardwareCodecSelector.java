@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodecInfo;
+import android.os.Build;
+import android.util.Log;
+import com.google.android.exoplayer.DecoderInfo;
+import com.google.android.exoplayer.MediaCodecSelector;
+import com.google.android.exoplayer.MediaCodecUtil;
+import com.google.android.exoplayer.util.MimeTypes;
+import com.google.android.exoplayer.util.Util;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects decoders like {@link MediaCodecSelector#DEFAULT}, but prefers hardware decoders over
+ * software ones, which some devices list first for formats such as 4K HEVC.
+ *
+ * <p>The decoders are enumerated once per process, on a background thread as soon as the selector
+ * is created, so the renderers of later players find them ready. What each decoder supports is
+ * also stored per build fingerprint, so track selection can leave out the formats that cannot be
+ * decoded without enumerating the decoders again in the next process.
+ */
+public final class HardwareCodecSelector implements MediaCodecSelector {
+  private static final String TAG = "HardwareCodecSelector";
+
+  private static final String PREFS_NAME = "codec_capabilities";
+  private static final String KEY_FINGERPRINT = "fingerprint";
+  private static final String SEPARATOR = ",";
+  private static final String SECURE_SUFFIX = ".secure";
+
+  /** The MIME types enumerated in the background, in the order players usually need them. */
+  private static final String[] WARM_MIME_TYPES = {
+    MimeTypes.VIDEO_H264, MimeTypes.AUDIO_AAC, MimeTypes.VIDEO_H265, MimeTypes.VIDEO_VP9,
+  };
+
+  private static HardwareCodecSelector instance;
+
+  private final SharedPreferences prefs;
+  private final Map<String, DecoderInfo> decoders;
+  private final Map<String, Capabilities> capabilities;
+
+  /** What the preferred decoder of a MIME type supports. */
+  public static final class Capabilities {
+    /** The name of the decoder. */
+    public final String decoderName;
+    /** Whether the decoder is a hardware decoder. */
+    public final boolean hardware;
+    /** The widest video the decoder supports, or 0 if unknown. */
+    public final int maxWidth;
+    /** The tallest video the decoder supports, or 0 if unknown. */
+    public final int maxHeight;
+    /** The most pixels in a frame the decoder supports, or 0 if unknown. */
+    public final int maxPixels;
+    /** The highest frame rate the decoder supports, at any size, or 0 if unknown. */
+    public final float maxFrameRate;
+    /** The most pixels per second the decoder supports, or 0 if unknown. */
+    public final double maxPixelRate;
+
+    Capabilities(
+        String decoderName,
+        boolean hardware,
+        int maxWidth,
+        int maxHeight,
+        int maxPixels,
+        float maxFrameRate,
+        double maxPixelRate) {
+      this.decoderName = decoderName;
+      this.hardware = hardware;
+      this.maxWidth = maxWidth;
+      this.maxHeight = maxHeight;
+      this.maxPixels = maxPixels;
+      this.maxFrameRate = maxFrameRate;
+      this.maxPixelRate = maxPixelRate;
+    }
+
+    /**
+     * Returns whether a video can be decoded. Values that are unknown, on either side, pass.
+     *
+     * @param width - the width of the video, or 0 if unknown.
+     * @param height - the height of the video, or 0 if unknown.
+     * @param frameRate - the frame rate of the video, or 0 if unknown.
+     */
+    public boolean isSupported(int width, int height, float frameRate) {
+      // Decoders that handle a size usually handle it rotated too, so only the sides are compared.
+      int longSide = Math.max(width, height);
+      int shortSide = Math.min(width, height);
+      int maxLongSide = Math.max(maxWidth, maxHeight);
+      int maxShortSide = Math.min(maxWidth, maxHeight);
+      return (maxLongSide <= 0 || longSide <= maxLongSide)
+          && (maxShortSide <= 0 || shortSide <= maxShortSide)
+          && (maxPixels <= 0 || width * height <= maxPixels)
+          && (maxFrameRate <= 0 || frameRate <= maxFrameRate)
+          && (maxPixelRate <= 0 || (double) width * height * frameRate <= maxPixelRate);
+    }
+
+    @Override
+    public String toString() {
+      return decoderName
+          + (hardware ? " (hardware) " : " (software) ")
+          + maxWidth
+          + "x"
+          + maxHeight
+          + ", "
+          + maxPixels
+          + " pixels, "
+          + maxFrameRate
+          + " fps, "
+          + (long) maxPixelRate
+          + " pixels/s";
+    }
+
+    String serialize() {
+      return decoderName
+          + SEPARATOR
+          + hardware
+          + SEPARATOR
+          + maxWidth
+          + SEPARATOR
+          + maxHeight
+          + SEPARATOR
+          + maxPixels
+          + SEPARATOR
+          + maxFrameRate
+          + SEPARATOR
+          + maxPixelRate;
+    }
+
+    static Capabilities deserialize(String value) {
+      String[] fields = value.split(SEPARATOR);
+      if (fields.length != 7) {
+        return null;
+      }
+      try {
+        return new Capabilities(
+            fields[0],
+            Boolean.parseBoolean(fields[1]),
+            Integer.parseInt(fields[2]),
+            Integer.parseInt(fields[3]),
+            Integer.parseInt(fields[4]),
+            Float.parseFloat(fields[5]),
+            Double.parseDouble(fields[6]));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+
+  /** Returns the selector for the application, creating it the first time. */
+  public static synchronized HardwareCodecSelector getInstance(Context context) {
+    if (instance == null) {
+      instance = new HardwareCodecSelector(context.getApplicationContext());
+      instance.warm();
+    }
+    return instance;
+  }
+
+  private HardwareCodecSelector(Context context) {
+    prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    decoders = new HashMap<>();
+    capabilities = new HashMap<>();
+    if (!Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))) {
+      // A system update can change the decoders, so nothing stored before it is trusted.
+      Log.i(TAG, "New build, enumerating decoders again");
+      prefs.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+      return;
+    }
+    for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+      if (!KEY_FINGERPRINT.equals(entry.getKey()) && entry.getValue() instanceof String) {
+        Capabilities stored = Capabilities.deserialize((String) entry.getValue());
+        if (stored != null) {
+          capabilities.put(entry.getKey(), stored);
+        }
+      }
+    }
+    Log.d(TAG, "Loaded the capabilities of " + capabilities.size() + " MIME types");
+  }
+
+  /** Enumerates the decoders of the common MIME types in the background. */
+  private void warm() {
+    Thread thread =
+        new Thread(TAG) {
+          @Override
+          public void run() {
+            for (String mimeType : WARM_MIME_TYPES) {
+              try {
+                getDecoderInfo(mimeType, false);
+              } catch (MediaCodecUtil.DecoderQueryException e) {
+                Log.w(TAG, "Failed to query the decoders of " + mimeType, e);
+              }
+            }
+          }
+        };
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  @Override
+  public DecoderInfo getDecoderInfo(String mimeType, boolean requiresSecureDecoder)
+      throws MediaCodecUtil.DecoderQueryException {
+    String key = mimeType + (requiresSecureDecoder ? SECURE_SUFFIX : "");
+    synchronized (this) {
+      if (decoders.containsKey(key)) {
+        return decoders.get(key);
+      }
+    }
+    List<DecoderInfo> infos = MediaCodecUtil.getDecoderInfos(mimeType, requiresSecureDecoder);
+    DecoderInfo selected = null;
+    for (DecoderInfo info : infos) {
+      if (isHardware(info.name)) {
+        selected = info;
+        break;
+      }
+    }
+    if (selected == null && !infos.isEmpty()) {
+      selected = infos.get(0);
+    }
+    synchronized (this) {
+      decoders.put(key, selected);
+      if (selected != null && !requiresSecureDecoder) {
+        Capabilities found = readCapabilities(mimeType, selected);
+        Capabilities previous = capabilities.put(mimeType, found);
+        if (previous == null || !previous.serialize().equals(found.serialize())) {
+          prefs.edit().putString(mimeType, found.serialize()).apply();
+        }
+        Log.i(TAG, "Selected " + found + " of " + infos.size() + " for " + mimeType);
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Returns the MIME type a decoder was selected for, or null if it was not selected here.
+   *
+   * @param decoderName - the name of the decoder.
+   */
+  public synchronized String getMimeType(String decoderName) {
+    for (Map.Entry<String, DecoderInfo> entry : decoders.entrySet()) {
+      if (entry.getValue() != null && entry.getValue().name.equals(decoderName)) {
+        String key = entry.getKey();
+        return key.endsWith(SECURE_SUFFIX)
+            ? key.substring(0, key.length() - SECURE_SUFFIX.length())
+            : key;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public DecoderInfo getPassthroughDecoderInfo() throws MediaCodecUtil.DecoderQueryException {
+    return MediaCodecUtil.getPassthroughDecoderInfo();
+  }
+
+  /**
+   * Returns what the preferred decoder of a MIME type supports, from the store when the decoders
+   * were enumerated before on this build, or null if there is no decoder for it.
+   *
+   * @param mimeType - the MIME type of the samples, such as {@link MimeTypes#VIDEO_H265}.
+   */
+  public Capabilities getCapabilities(String mimeType) {
+    synchronized (this) {
+      Capabilities stored = capabilities.get(mimeType);
+      if (stored != null) {
+        return stored;
+      }
+    }
+    try {
+      getDecoderInfo(mimeType, false);
+    } catch (MediaCodecUtil.DecoderQueryException e) {
+      Log.w(TAG, "Failed to query the decoders of " + mimeType, e);
+    }
+    synchronized (this) {
+      return capabilities.get(mimeType);
+    }
+  }
+
+  /**
+   * Returns whether a video can be decoded, or true when nothing is known to rule it out.
+   *
+   * @param codecs - the codecs of the video, as given by the manifest.
+   * @param width - the width of the video, or 0 if unknown.
+   * @param height - the height of the video, or 0 if unknown.
+   * @param frameRate - the frame rate of the video, or 0 if unknown.
+   */
+  public boolean isVideoSupported(String codecs, int width, int height, float frameRate) {
+    String mimeType = getVideoMimeType(codecs);
+    if (mimeType == null) {
+      return true;
+    }
+    Capabilities found = getCapabilities(mimeType);
+    return found != null && found.isSupported(width, height, frameRate);
+  }
+
+  /**
+   * Returns the MIME type of the video codec in a codecs string, or null if it is not one of the
+   * codecs known here.
+   */
+  public static String getVideoMimeType(String codecs) {
+    if (codecs == null) {
+      return null;
+    }
+    if (codecs.contains("hvc1") || codecs.contains("hev1")) {
+      return MimeTypes.VIDEO_H265;
+    }
+    if (codecs.contains("avc1") || codecs.contains("avc3")) {
+      return MimeTypes.VIDEO_H264;
+    }
+    if (codecs.contains("vp09") || codecs.contains("vp9")) {
+      return MimeTypes.VIDEO_VP9;
+    }
+    return null;
+  }
+
+  /** Returns whether a decoder name is that of a hardware decoder, going by vendor prefixes. */
+  private static boolean isHardware(String name) {
+    String lowerName = name.toLowerCase();
+    return !lowerName.startsWith("omx.google.")
+        && !lowerName.startsWith("c2.android.")
+        && !lowerName.startsWith("c2.google.")
+        && !lowerName.startsWith("omx.ffmpeg.")
+        && !(lowerName.startsWith("omx.sec.") && lowerName.contains(".sw."))
+        && (lowerName.startsWith("omx.") || lowerName.startsWith("c2."));
+  }
+
+  private static Capabilities readCapabilities(String mimeType, DecoderInfo info) {
+    boolean hardware = isHardware(info.name);
+    if (!MimeTypes.isVideo(mimeType)) {
+      return new Capabilities(info.name, hardware, 0, 0, 0, 0, 0);
+    }
+    if (Util.SDK_INT >= 21 && info.capabilities != null) {
+      return getVideoCapabilitiesV21(info, hardware);
+    }
+    int maxPixels = 0;
+    if (MimeTypes.VIDEO_H264.equals(mimeType)) {
+      try {
+        maxPixels = MediaCodecUtil.maxH264DecodableFrameSize();
+      } catch (MediaCodecUtil.DecoderQueryException e) {
+        Log.w(TAG, "Failed to query the H.264 frame size", e);
+      }
+    }
+    return new Capabilities(info.name, hardware, 0, 0, maxPixels, 0, 0);
+  }
+
+  @TargetApi(21)
+  private static Capabilities getVideoCapabilitiesV21(DecoderInfo info, boolean hardware) {
+    MediaCodecInfo.VideoCapabilities video = info.capabilities.getVideoCapabilities();
+    if (video == null) {
+      return new Capabilities(info.name, hardware, 0, 0, 0, 0, 0);
+    }
+    int maxWidth = video.getSupportedWidths().getUpper();
+    int maxHeight = video.getSupportedHeights().getUpper();
+    // The widest and the tallest sizes are not always supported together.
+    int maxPixels =
+        Math.max(
+            maxWidth * video.getSupportedHeightsFor(maxWidth).getUpper(),
+            maxHeight * video.getSupportedWidthsFor(maxHeight).getUpper());
+    float maxFrameRate = video.getSupportedFrameRates().getUpper().floatValue();
+    // Decoders are bound by throughput, so the rate at the largest size bounds the smaller ones.
+    int largestWidth = maxWidth;
+    int largestHeight = video.getSupportedHeightsFor(maxWidth).getUpper();
+    if (largestWidth * largestHeight < maxPixels) {
+      largestHeight = maxHeight;
+      largestWidth = video.getSupportedWidthsFor(maxHeight).getUpper();
+    }
+    double maxPixelRate =
+        (double) maxPixels
+            * video.getSupportedFrameRatesFor(largestWidth, largestHeight).getUpper();
+    return new Capabilities(
+        info.name, hardware, maxWidth, maxHeight, maxPixels, maxFrameRate, maxPixelRate);
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the AES-128 keys of encrypted HLS streams in memory. The chunk source loads the key of a
+ * segment just before the segment itself, which costs a round trip at startup and at every key
+ * rotation. Keys are fetched here ahead of need instead, so the request of the chunk source is
+ * answered from memory.
+ *
+ * <p>Only a few keys past the one in use are fetched ahead, since a stream that rotates its key
+ * every segment lists as many keys as segments. The window starts where playback starts, and moves
+ * with the keys the chunk source asks for. Keys are fetched on executor threads of their own, so
+ * they do not hold up playlist loads.
+ *
+ * <p>Keys are kept by URI. The IV of a segment only changes how the key is applied, and the chunk
+ * source already reuses a key across IVs. A key is evicted once no playlist lists it any more,
+ * which is when it has been rotated out. Keys are never written to disk.
+ *
+ * <p>Keys are loaded through http data sources from the same factory as the playlists, so they
+ * count towards the bandwidth estimate and follow the same redirects.
+ */
+public final class HlsKeyCache {
+  private static final String TAG = "HlsKeyCache";
+
+  private static final int READ_BUFFER_SIZE = 1024;
+  private static final int FETCH_THREADS = 2;
+
+  /** How many keys past the one in use to fetch ahead. */
+  private static final int PREFETCH_AHEAD = 2;
+
+  /** The chunk source starts live playback this many segments from the end of the playlist. */
+  private static final int LIVE_START_SEGMENTS = 3;
+
+  private static ExecutorService fetchExecutor;
+
+  private final LivePlaylistDataSource.HttpDataSourceFactory dataSourceFactory;
+  private final ExecutorService executor;
+  private final Map<String, Future<byte[]>> keys;
+  private final Map<String, List<String>> playlistKeys;
+  private final Map<String, String> currentKeys;
+
+  private int prefetchHits;
+  private int inlineFetches;
+  private long waitTimeMs;
+
+  /** @param dataSourceFactory - creates the data sources keys are loaded with. */
+  public HlsKeyCache(LivePlaylistDataSource.HttpDataSourceFactory dataSourceFactory) {
+    this(dataSourceFactory, getFetchExecutor());
+  }
+
+  /**
+   * @param dataSourceFactory - creates the data sources keys are loaded with.
+   * @param executor - the executor the keys are fetched on.
+   */
+  public HlsKeyCache(
+      LivePlaylistDataSource.HttpDataSourceFactory dataSourceFactory, ExecutorService executor) {
+    this.dataSourceFactory = dataSourceFactory;
+    this.executor = executor;
+    keys = new HashMap<>();
+    playlistKeys = new HashMap<>();
+    currentKeys = new HashMap<>();
+  }
+
+  /**
+   * Records the keys a playlist lists now. The keys from the one in use, or from where playback
+   * starts, to a few past it are fetched in the background, and keys that no playlist lists any
+   * more are evicted.
+   *
+   * @param playlistUrl - the URL of the playlist.
+   * @param keyUris - the absolute URIs of the keys of the playlist, in the order of its segments.
+   * @param live - true if the playlist is live, which playback starts near the end of.
+   */
+  public synchronized void update(String playlistUrl, Collection<String> keyUris, boolean live) {
+    List<String> uris = new ArrayList<>(keyUris);
+    List<String> previous = playlistKeys.put(playlistUrl, uris);
+    int index = uris.indexOf(currentKeys.get(playlistUrl));
+    if (index == -1) {
+      index = live ? Math.max(0, uris.size() - LIVE_START_SEGMENTS) : 0;
+    }
+    prefetch(uris, index);
+    if (previous == null || new HashSet<>(uris).containsAll(previous)) {
+      return;
+    }
+    Set<String> referenced = new HashSet<>();
+    for (List<String> playlistUris : playlistKeys.values()) {
+      referenced.addAll(playlistUris);
+    }
+    Iterator<Map.Entry<String, Future<byte[]>>> iterator = keys.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Future<byte[]>> entry = iterator.next();
+      if (!referenced.contains(entry.getKey())) {
+        Log.d(TAG, "Evicting rotated key " + entry.getKey());
+        entry.getValue().cancel(true);
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns a key, waiting for its prefetch if it is still loading, or fetching it now if no
+   * playlist listed it yet.
+   *
+   * @param keyUri - the absolute URI of the key.
+   */
+  public byte[] get(String keyUri) throws IOException {
+    Future<byte[]> future;
+    boolean prefetched;
+    synchronized (this) {
+      future = keys.get(keyUri);
+      prefetched = future != null;
+      if (!prefetched) {
+        future = executor.submit(new KeyLoader(keyUri));
+        keys.put(keyUri, future);
+      }
+      // The keys after this one load while it is used.
+      for (Map.Entry<String, List<String>> playlist : playlistKeys.entrySet()) {
+        int index = playlist.getValue().indexOf(keyUri);
+        if (index != -1) {
+          currentKeys.put(playlist.getKey(), keyUri);
+          prefetch(playlist.getValue(), index);
+        }
+      }
+    }
+    long startMs = SystemClock.elapsedRealtime();
+    byte[] key;
+    try {
+      key = await(future);
+    } catch (IOException e) {
+      // Fetched again on the next request rather than failing from the cache.
+      synchronized (this) {
+        if (keys.get(keyUri) == future) {
+          keys.remove(keyUri);
+        }
+      }
+      throw e;
+    }
+    long waitMs = SystemClock.elapsedRealtime() - startMs;
+    synchronized (this) {
+      if (prefetched) {
+        prefetchHits++;
+      } else {
+        inlineFetches++;
+      }
+      waitTimeMs += waitMs;
+      Log.d(
+          TAG,
+          "Key "
+              + keyUri
+              + (prefetched ? " prefetched" : " fetched inline")
+              + ", waited "
+              + waitMs
+              + "ms, prefetch hits "
+              + prefetchHits
+              + ", inline fetches "
+              + inlineFetches);
+    }
+    return key;
+  }
+
+  /** Returns the number of key requests answered by a prefetch. */
+  public synchronized int getPrefetchHits() {
+    return prefetchHits;
+  }
+
+  /** Returns the number of key requests for keys no playlist had listed yet. */
+  public synchronized int getInlineFetches() {
+    return inlineFetches;
+  }
+
+  /** Returns the total time key requests waited for their key. */
+  public synchronized long getWaitTimeMs() {
+    return waitTimeMs;
+  }
+
+  /** Fetches the keys from an index of a playlist to a few past it, if not fetched yet. */
+  private void prefetch(List<String> keyUris, int index) {
+    int end = Math.min(keyUris.size(), index + 1 + PREFETCH_AHEAD);
+    for (int i = index; i < end; i++) {
+      String keyUri = keyUris.get(i);
+      if (!keys.containsKey(keyUri)) {
+        Log.d(TAG, "Prefetching key " + keyUri);
+        keys.put(keyUri, executor.submit(new KeyLoader(keyUri)));
+      }
+    }
+  }
+
+  private static synchronized ExecutorService getFetchExecutor() {
+    if (fetchExecutor == null) {
+      fetchExecutor = Executors.newFixedThreadPool(FETCH_THREADS);
+    }
+    return fetchExecutor;
+  }
+
+  private static byte[] await(Future<byte[]> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (CancellationException e) {
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /** Fetches one key. */
+  private final class KeyLoader implements Callable<byte[]> {
+    private final String keyUri;
+
+    KeyLoader(String keyUri) {
+      this.keyUri = keyUri;
+    }
+
+    @Override
+    public byte[] call() throws IOException {
+      HttpDataSource dataSource = dataSourceFactory.createDataSource();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+        dataSource.open(new DataSpec(Uri.parse(keyUri), DataSpec.FLAG_ALLOW_GZIP));
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int read;
+        while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+          out.write(buffer, 0, read);
+        }
+      } finally {
+        dataSource.close();
+      }
+      return out.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.util.Log;
+import android.view.Display;
+import android.view.WindowManager;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsTrackSelector;
+import com.google.android.exoplayer.hls.Variant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the HLS variants a chunk source may adapt between, leaving out the variants that would
+ * not play well on the device: those the decoder cannot decode at their frame rate, those with a
+ * frame rate above the refresh rate of the display, and those wider than a 360 video needs to
+ * match the pixel density of the headset. The chunk source never sees the excluded variants, so
+ * the caps hold for the whole session, and a variant the decoder cannot keep up with is never
+ * climbed to and dropped from over and over.
+ *
+ * <p>If no variant passes, the lowest bitrate variant is kept so playback can still start. Each
+ * decision is logged with the caps it was made against, for the playback stats.
+ */
+public final class HlsVariantPolicy implements HlsTrackSelector {
+  private static final String TAG = "HlsVariantPolicy";
+
+  /** The horizontal field of view of one eye of a headset. */
+  public static final float DEFAULT_EYE_FIELD_OF_VIEW_DEGREES = 90;
+
+  /** The frame rate a variant is checked at when its playlist does not give one. */
+  private static final float DEFAULT_FRAME_RATE = 30;
+
+  /** How far above the refresh rate a frame rate can be, for rates such as 60.2 and 59.94. */
+  private static final float FRAME_RATE_TOLERANCE = 1;
+
+  private final HardwareCodecSelector codecSelector;
+  private final int maxWidth;
+  private final float maxFrameRate;
+
+  /**
+   * Creates a policy with the caps of the display of the device.
+   *
+   * @param context - the context of the application.
+   */
+  public static HlsVariantPolicy newInstance(Context context) {
+    Display display =
+        ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
+    Point size = new Point();
+    display.getRealSize(size);
+    // The display is split between the eyes along its long side.
+    int eyeWidth = Math.max(size.x, size.y) / 2;
+    int maxWidth = (int) (eyeWidth * 360 / DEFAULT_EYE_FIELD_OF_VIEW_DEGREES);
+    return new HlsVariantPolicy(
+        HardwareCodecSelector.getInstance(context), maxWidth, display.getRefreshRate());
+  }
+
+  /**
+   * @param codecSelector - the selector that knows the capabilities of the decoders.
+   * @param maxWidth - the widest video to play, or 0 for no limit.
+   * @param maxFrameRate - the highest frame rate to play, or 0 for no limit.
+   */
+  public HlsVariantPolicy(HardwareCodecSelector codecSelector, int maxWidth, float maxFrameRate) {
+    this.codecSelector = codecSelector;
+    this.maxWidth = maxWidth;
+    this.maxFrameRate = maxFrameRate;
+  }
+
+  @Override
+  public void selectTracks(HlsMasterPlaylist playlist, Output output) {
+    boolean resolutionKnown = false;
+    for (Variant variant : playlist.variants) {
+      resolutionKnown |= variant.format.width > 0 && variant.format.height > 0;
+    }
+    List<Variant> allowed = new ArrayList<>();
+    Variant lowest = null;
+    for (Variant variant : playlist.variants) {
+      String reason = getExclusionReason(variant.format, resolutionKnown);
+      Log.i(TAG, "Variant " + describe(variant.format) + ": " + (reason == null ? "kept" : reason));
+      if (reason == null) {
+        allowed.add(variant);
+      }
+      if (lowest == null || variant.format.bitrate < lowest.format.bitrate) {
+        lowest = variant;
+      }
+    }
+    if (allowed.isEmpty() && lowest != null) {
+      Log.w(TAG, "No variant within the caps, keeping " + describe(lowest.format));
+      allowed.add(lowest);
+    }
+    Log.i(
+        TAG,
+        "Selected "
+            + allowed.size()
+            + " of "
+            + playlist.variants.size()
+            + " variants, max width "
+            + maxWidth
+            + ", max frame rate "
+            + maxFrameRate);
+    if (allowed.size() == 1) {
+      output.fixedTrack(playlist, allowed.get(0));
+    } else if (!allowed.isEmpty()) {
+      output.adaptiveTrack(playlist, allowed.toArray(new Variant[allowed.size()]));
+    }
+  }
+
+  /**
+   * Returns why a variant is left out, or null if it is kept.
+   *
+   * @param resolutionKnown - true if some variant of the playlist gives its resolution.
+   */
+  private String getExclusionReason(Format format, boolean resolutionKnown) {
+    if (format.width <= 0 || format.height <= 0) {
+      // Audio only variants are left out when there is video. Otherwise nothing is known to cap
+      // by, which is the case of media playlists without a master.
+      return resolutionKnown ? "no video resolution" : null;
+    }
+    float frameRate = format.frameRate > 0 ? format.frameRate : DEFAULT_FRAME_RATE;
+    if (maxFrameRate > 0 && frameRate > maxFrameRate + FRAME_RATE_TOLERANCE) {
+      return "frame rate above the display";
+    }
+    if (maxWidth > 0 && format.width > maxWidth) {
+      return "wider than the display needs";
+    }
+    // Variants that do not give their codecs are most likely H.264.
+    String codecs =
+        HardwareCodecSelector.getVideoMimeType(format.codecs) != null ? format.codecs : "avc1";
+    if (!codecSelector.isVideoSupported(codecs, format.width, format.height, frameRate)) {
+      return "not decodable at its frame rate";
+    }
+    return null;
+  }
+
+  private static String describe(Format format) {
+    return format.width
+        + "x"
+        + format.height
+        + "@"
+        + format.frameRate
+        + " "
+        + format.bitrate
+        + "bps";
+  }
+}
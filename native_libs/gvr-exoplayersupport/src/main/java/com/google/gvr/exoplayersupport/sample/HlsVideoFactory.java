@@ -19,6 +19,7 @@ import android.content.Context;
 
 import com.google.android.exoplayer.util.Util;
 import com.google.gvr.exoplayersupport.AsyncRendererBuilder;
+import com.google.gvr.exoplayersupport.DefaultVideoSupport;
 import com.google.gvr.exoplayersupport.VideoPlayer;
 import com.google.gvr.exoplayersupport.VideoPlayerFactory;
 
@@ -58,6 +59,9 @@ public class HlsVideoFactory implements VideoPlayerFactory {
       String providerId,
       boolean requireSecurePlayback) {
     String userAgent = Util.getUserAgent(context, "VRSampleVideo");
-    return new HLSAsyncRendererBuilder(context, userAgent, videoURL);
+    HLSAsyncRendererBuilder builder = new HLSAsyncRendererBuilder(context, userAgent, videoURL);
+    builder.setLiveTargetLatency(DefaultVideoSupport.getLiveTargetLatency());
+    builder.setBackBufferDuration(DefaultVideoSupport.getBackBufferDuration());
+    return builder;
   }
 }
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Pair;
+import com.google.android.exoplayer.ParserException;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.SegmentBase.SegmentTimelineElement;
+import com.google.android.exoplayer.util.ParserUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Parses refreshes of a dynamic manifest against the previous refresh, for live events whose
+ * segment timelines grow for hours. The manifest fetcher loads and parses on its loader thread,
+ * and the pull parser streams over the document. Each refresh still reads every entry of every
+ * timeline, but used to build a new element and new lists for every segment since the start.
+ *
+ * <p>Here the refreshes of a timeline share one storage, which the entries appended since the
+ * previous refresh are added to, and nothing is allocated for the entries already in it. Each
+ * timeline is published as an unmodifiable range of the storage, so a manifest stays an immutable
+ * snapshot while later refreshes append to the storage.
+ *
+ * <p>Timelines are matched by period id and by their order in the period. A timeline that changed
+ * in place is still parsed correctly, its entries are just copied to a new storage. Static
+ * manifests keep no state.
+ */
+public class IncrementalMpdParser extends ViewportMpdParser {
+  private static final String TAG = "IncrementalMpdParser";
+
+  private Map<String, Timeline> previousTimelines;
+  private Map<String, Timeline> timelines;
+  private String periodKey;
+  private int periodIndex;
+  private int timelineIndex;
+  private int reusedCount;
+  private int builtCount;
+
+  /** @param tiled - true to read spatial relationship descriptions as tiles. */
+  public IncrementalMpdParser(boolean tiled) {
+    super(tiled);
+    previousTimelines = new HashMap<>();
+  }
+
+  /** The first load and the refreshes of a fetcher run on different loader threads. */
+  @Override
+  public synchronized MediaPresentationDescription parse(String connectionUrl, InputStream input)
+      throws IOException, ParserException {
+    return super.parse(connectionUrl, input);
+  }
+
+  @Override
+  protected MediaPresentationDescription parseMediaPresentationDescription(
+      XmlPullParser xpp, String baseUrl)
+      throws XmlPullParserException, IOException, ParseException {
+    long startMs = SystemClock.elapsedRealtime();
+    timelines = new HashMap<>();
+    periodIndex = 0;
+    reusedCount = 0;
+    builtCount = 0;
+    MediaPresentationDescription manifest = super.parseMediaPresentationDescription(xpp, baseUrl);
+    if (manifest.dynamic) {
+      previousTimelines = timelines;
+      Log.d(
+          TAG,
+          "Parsed in "
+              + (SystemClock.elapsedRealtime() - startMs)
+              + "ms: "
+              + builtCount
+              + " new segments, "
+              + reusedCount
+              + " unchanged");
+    } else {
+      previousTimelines = new HashMap<>();
+    }
+    timelines = null;
+    return manifest;
+  }
+
+  @Override
+  protected Pair<Period, Long> parsePeriod(XmlPullParser xpp, String baseUrl, long defaultStartMs)
+      throws XmlPullParserException, IOException {
+    String id = xpp.getAttributeValue(null, "id");
+    periodKey = id != null ? "id:" + id : "index:" + periodIndex;
+    periodIndex++;
+    timelineIndex = 0;
+    return super.parsePeriod(xpp, baseUrl, defaultStartMs);
+  }
+
+  @Override
+  protected List<SegmentTimelineElement> parseSegmentTimeline(XmlPullParser xpp)
+      throws XmlPullParserException, IOException {
+    String key = periodKey + "/" + timelineIndex++;
+    TimelineBuilder builder = new TimelineBuilder(previousTimelines.get(key));
+    long elapsedTime = 0;
+    do {
+      xpp.next();
+      if (ParserUtil.isStartTag(xpp, "S")) {
+        elapsedTime = parseLong(xpp, "t", elapsedTime);
+        long duration = parseLong(xpp, "d");
+        int count = 1 + parseInt(xpp, "r", 0);
+        for (int i = 0; i < count; i++) {
+          if (builder.reuse(elapsedTime, duration)) {
+            reusedCount++;
+          } else {
+            builder.append(
+                buildSegmentTimelineElement(elapsedTime, duration), elapsedTime, duration);
+            builtCount++;
+          }
+          elapsedTime += duration;
+        }
+      }
+    } while (!ParserUtil.isEndTag(xpp, "SegmentTimeline"));
+    Timeline timeline = builder.build();
+    if (timelines != null) {
+      timelines.put(key, timeline);
+    }
+    return timeline;
+  }
+
+  /**
+   * The entries of the refreshes of a timeline, with their times, which the entries themselves do
+   * not expose. Entries are only ever appended, so the timelines of earlier refreshes, which cover
+   * a range of it, do not change.
+   */
+  private static final class Storage {
+    // Replaced when grown. Volatile so a timeline read on the playback thread sees the copy of its
+    // entries, which are not written again.
+    private volatile SegmentTimelineElement[] elements;
+    private long[] startTimes;
+    private long[] durations;
+    private int size;
+
+    Storage(int capacity) {
+      elements = new SegmentTimelineElement[capacity];
+      startTimes = new long[capacity];
+      durations = new long[capacity];
+    }
+
+    void append(SegmentTimelineElement element, long startTime, long duration) {
+      if (size == startTimes.length) {
+        startTimes = Arrays.copyOf(startTimes, size * 2);
+        durations = Arrays.copyOf(durations, size * 2);
+        elements = Arrays.copyOf(elements, size * 2);
+      }
+      startTimes[size] = startTime;
+      durations[size] = duration;
+      elements[size] = element;
+      size++;
+    }
+
+    /** Returns the index of the entry starting at a time within a range, or -1. */
+    int indexOf(long startTime, int fromIndex, int toIndex) {
+      int index = Arrays.binarySearch(startTimes, fromIndex, toIndex, startTime);
+      return index >= 0 ? index : -1;
+    }
+
+    boolean matches(int index, long startTime, long duration) {
+      return startTimes[index] == startTime && durations[index] == duration;
+    }
+  }
+
+  /** A timeline as published in a manifest: a range of the storage, which cannot be modified. */
+  private static final class Timeline extends AbstractList<SegmentTimelineElement>
+      implements RandomAccess {
+    public final Storage storage;
+    public final int start;
+    public final int end;
+
+    Timeline(Storage storage, int start, int end) {
+      this.storage = storage;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public SegmentTimelineElement get(int index) {
+      if (index < 0 || index >= end - start) {
+        throw new IndexOutOfBoundsException("Index " + index + ", size " + (end - start));
+      }
+      return storage.elements[start + index];
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+  }
+
+  /**
+   * Builds the timeline of a refresh. While its entries are those of the previous refresh,
+   * followed by new ones, it is a range of the same storage and only the new entries are stored.
+   * Otherwise the entries that matched are copied to a storage of its own.
+   */
+  private static final class TimelineBuilder {
+    private final Timeline previous;
+    private Storage storage;
+    private boolean shared;
+    private int start;
+    private int end;
+
+    TimelineBuilder(Timeline previous) {
+      this.previous = previous;
+      if (previous != null) {
+        storage = previous.storage;
+        shared = true;
+        start = -1;
+      } else {
+        storage = new Storage(16);
+      }
+    }
+
+    /** Returns whether the next entry is the next of the previous timeline, and takes it if so. */
+    boolean reuse(long startTime, long duration) {
+      if (!shared) {
+        return false;
+      }
+      if (start == -1) {
+        // Entries leave the start of a live window, so the timeline can start further in.
+        start = storage.indexOf(startTime, previous.start, previous.end);
+        end = start;
+        if (start == -1) {
+          unshare();
+          return false;
+        }
+      }
+      if (end < previous.end && storage.matches(end, startTime, duration)) {
+        end++;
+        return true;
+      }
+      if (end < previous.end || storage.size != end) {
+        // Changed in place, or the storage was appended to by a refresh that failed.
+        unshare();
+      }
+      return false;
+    }
+
+    void append(SegmentTimelineElement element, long startTime, long duration) {
+      storage.append(element, startTime, duration);
+      end++;
+    }
+
+    Timeline build() {
+      if (start == -1) {
+        start = end = 0;
+      }
+      if (shared && start > storage.size / 2) {
+        // Most of the storage has left the window, so it is not kept alive for the rest.
+        unshare();
+      }
+      return new Timeline(storage, start, end);
+    }
+
+    private void unshare() {
+      Storage previousStorage = storage;
+      int from = Math.max(start, 0);
+      storage = new Storage(Math.max(16, (end - from) * 2));
+      for (int i = from; i < end; i++) {
+        storage.append(
+            previousStorage.elements[i],
+            previousStorage.startTimes[i],
+            previousStorage.durations[i]);
+      }
+      start = 0;
+      end = storage.size;
+      shared = false;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.net.Uri;
+import android.util.Log;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the initialization segments of the next period of a multi-period DASH presentation ahead
+ * of time, and serves them from memory when the chunk sources request them. Crossing a period
+ * boundary then does not wait on a round trip per representation. When a prefetched segment of a
+ * period is used, the segments of the period after it are prefetched in turn.
+ */
+public final class InitSegmentPrefetcher {
+  private static final String TAG = "InitSegmentPrefetcher";
+
+  /** Initialization segments larger than this are left to the chunk source. */
+  private static final int MAX_SEGMENT_SIZE = 1024 * 1024;
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+  private final MediaPresentationDescription manifest;
+  private final DataSource dataSource;
+  private final ExecutorService executor;
+  private final Map<String, Segment> segments;
+  private int lastPrefetchedPeriod;
+
+  /**
+   * @param manifest - the multi-period manifest.
+   * @param dataSource - the data source used to load the segments.
+   */
+  public InitSegmentPrefetcher(MediaPresentationDescription manifest, DataSource dataSource) {
+    this.manifest = manifest;
+    this.dataSource = dataSource;
+    executor = Executors.newSingleThreadExecutor();
+    segments = new ConcurrentHashMap<>();
+    lastPrefetchedPeriod = -1;
+  }
+
+  /**
+   * Starts loading the initialization segments of the given period in the background. Does
+   * nothing if the period does not exist or has already been prefetched.
+   */
+  public synchronized void prefetch(final int periodIndex) {
+    if (periodIndex >= manifest.getPeriodCount() || periodIndex <= lastPrefetchedPeriod) {
+      return;
+    }
+    lastPrefetchedPeriod = periodIndex;
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            loadPeriod(periodIndex);
+          }
+        });
+  }
+
+  /** Stops prefetching and drops the segments that were not used. */
+  public void release() {
+    executor.shutdownNow();
+    segments.clear();
+  }
+
+  /**
+   * Wraps the data source used by a chunk source, so requests for prefetched segments are served
+   * from memory.
+   */
+  public DataSource wrap(DataSource upstream) {
+    return new PrefetchedDataSource(upstream);
+  }
+
+  private void loadPeriod(int periodIndex) {
+    Period period = manifest.getPeriod(periodIndex);
+    for (AdaptationSet adaptationSet : period.adaptationSets) {
+      if (adaptationSet.type != AdaptationSet.TYPE_VIDEO
+          && adaptationSet.type != AdaptationSet.TYPE_AUDIO) {
+        continue;
+      }
+      for (Representation representation : adaptationSet.representations) {
+        RangedUri requestUri = getInitializationRequestUri(representation);
+        if (requestUri == null) {
+          continue;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+          return;
+        }
+        DataSpec dataSpec =
+            new DataSpec(
+                requestUri.getUri(),
+                requestUri.start,
+                requestUri.length,
+                representation.getCacheKey());
+        try {
+          byte[] data = load(dataSpec);
+          if (data != null) {
+            segments.put(getKey(dataSpec), new Segment(periodIndex, data));
+          }
+        } catch (IOException e) {
+          Log.w(TAG, "Unable to prefetch " + dataSpec.uri, e);
+        }
+      }
+    }
+    Log.d(TAG, "Prefetched initialization segments of period " + periodIndex);
+  }
+
+  /** Returns the uri the chunk source will request to initialize the representation. */
+  private static RangedUri getInitializationRequestUri(Representation representation) {
+    RangedUri initializationUri = representation.getInitializationUri();
+    RangedUri indexUri = representation.getIndex() == null ? representation.getIndexUri() : null;
+    if (initializationUri == null) {
+      return indexUri;
+    }
+    RangedUri mergedUri = indexUri != null ? initializationUri.attemptMerge(indexUri) : null;
+    return mergedUri != null ? mergedUri : initializationUri;
+  }
+
+  private byte[] load(DataSpec dataSpec) throws IOException {
+    try {
+      long length = dataSource.open(dataSpec);
+      if (length > MAX_SEGMENT_SIZE) {
+        return null;
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[READ_BUFFER_SIZE];
+      int read;
+      while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+        out.write(buffer, 0, read);
+        if (out.size() > MAX_SEGMENT_SIZE) {
+          return null;
+        }
+      }
+      return out.toByteArray();
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  private static String getKey(DataSpec dataSpec) {
+    return getKey(dataSpec.uri, dataSpec.position, dataSpec.length);
+  }
+
+  private static String getKey(Uri uri, long position, long length) {
+    return uri + "@" + position + "+" + length;
+  }
+
+  /** A prefetched segment, along with the period it belongs to. */
+  private static final class Segment {
+    final int periodIndex;
+    final byte[] data;
+
+    Segment(int periodIndex, byte[] data) {
+      this.periodIndex = periodIndex;
+      this.data = data;
+    }
+  }
+
+  /** Serves prefetched segments from memory and passes all other requests upstream. */
+  private final class PrefetchedDataSource implements DataSource {
+    private final DataSource upstream;
+    private byte[] data;
+    private int readPosition;
+    private boolean upstreamOpened;
+
+    PrefetchedDataSource(DataSource upstream) {
+      this.upstream = upstream;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      Segment segment = segments.remove(getKey(dataSpec));
+      if (segment == null) {
+        upstreamOpened = true;
+        return upstream.open(dataSpec);
+      }
+      // The boundary into this period is being crossed, so get the period after it ready.
+      prefetch(segment.periodIndex + 1);
+      data = segment.data;
+      readPosition = 0;
+      return data.length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      if (data == null) {
+        return upstream.read(buffer, offset, readLength);
+      }
+      if (readPosition == data.length) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesToRead = Math.min(readLength, data.length - readPosition);
+      System.arraycopy(data, readPosition, buffer, offset, bytesToRead);
+      readPosition += bytesToRead;
+      return bytesToRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+      data = null;
+      if (upstreamOpened) {
+        upstreamOpened = false;
+        upstream.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+/**
+ * Keeps live playback at a target distance behind the live edge by nudging the playback speed.
+ * When playback drifts behind the target it is played slightly faster until it catches up, and
+ * when it gets too close to the live edge it is played slightly slower, so the buffer is not
+ * drained into a stall. The change of speed is proportional to the drift and small enough to go
+ * unnoticed. Drifting further behind than a speed change can recover in reasonable time, after a
+ * long stall for example, asks for a seek back to the target instead.
+ *
+ * <p>The controller also keeps the metrics of the drift, which are what the target latency is
+ * tuned from.
+ *
+ * <p>The controller has no dependency on Android or the player, so it can be driven with synthetic
+ * traces. It is updated from the playback thread and read from any thread, so all methods are
+ * synchronized.
+ */
+public final class LiveLatencyController {
+
+  /** The latency of live playback when no target is given, as a regular live player would. */
+  public static final long DEFAULT_TARGET_LATENCY_MS = 30000;
+
+  /** How far the latency can be from the target before the speed is changed. */
+  public static final long DEFAULT_TOLERANCE_MS = 250;
+
+  /** How far behind the target playback can fall before a seek is asked for. */
+  public static final long DEFAULT_MAX_DRIFT_MS = 10000;
+
+  /** The fastest catch-up speed, which is still hard to notice on voices and music. */
+  public static final float MAX_SPEED = 1.1f;
+
+  /** The slowest speed, used when playback is too close to the live edge. */
+  public static final float MIN_SPEED = 0.95f;
+
+  /** The change of speed per second of drift. */
+  private static final float SPEED_PER_DRIFT_SECOND = 0.05f;
+
+  /** Speeds are rounded to this step, so small drift changes do not send a new speed each time. */
+  private static final float SPEED_STEP = 0.01f;
+
+  private final long targetLatencyMs;
+  private final long toleranceMs;
+  private final long maxDriftMs;
+
+  private float speed;
+  private long latencyMs;
+  private long lastUpdateMs;
+  private long sampleCount;
+  private long totalAbsDriftMs;
+  private long maxObservedDriftMs;
+  private long adjustedTimeMs;
+  private int seekCount;
+
+  /**
+   * @param targetLatencyMs - how far behind the live edge to play.
+   * @param toleranceMs - how far the latency can be from the target before the speed is changed.
+   * @param maxDriftMs - how far behind the target playback can fall before a seek is asked for.
+   */
+  public LiveLatencyController(long targetLatencyMs, long toleranceMs, long maxDriftMs) {
+    this.targetLatencyMs = targetLatencyMs;
+    this.toleranceMs = toleranceMs;
+    this.maxDriftMs = maxDriftMs;
+    speed = 1;
+    latencyMs = -1;
+    lastUpdateMs = -1;
+  }
+
+  public long getTargetLatencyMs() {
+    return targetLatencyMs;
+  }
+
+  /**
+   * Updates the controller with the current position of playback.
+   *
+   * @param liveEdgeMs - the position of the newest media available.
+   * @param positionMs - the position being played.
+   * @param nowMs - the current time, on any monotonic clock.
+   * @return the speed to play at.
+   */
+  public synchronized float update(long liveEdgeMs, long positionMs, long nowMs) {
+    latencyMs = liveEdgeMs - positionMs;
+    long driftMs = latencyMs - targetLatencyMs;
+    if (lastUpdateMs != -1 && speed != 1) {
+      adjustedTimeMs += nowMs - lastUpdateMs;
+    }
+    lastUpdateMs = nowMs;
+    sampleCount++;
+    totalAbsDriftMs += Math.abs(driftMs);
+    maxObservedDriftMs = Math.max(maxObservedDriftMs, Math.abs(driftMs));
+
+    if (Math.abs(driftMs) <= toleranceMs) {
+      speed = 1;
+    } else {
+      float target = 1 + SPEED_PER_DRIFT_SECOND * driftMs / 1000f;
+      target = Math.max(MIN_SPEED, Math.min(MAX_SPEED, target));
+      speed = Math.round(target / SPEED_STEP) * SPEED_STEP;
+    }
+    return speed;
+  }
+
+  /**
+   * Returns the position to seek to when playback has fallen too far behind to catch up by speed,
+   * or -1 if no seek is needed. A seek resets the speed to normal.
+   *
+   * @param liveEdgeMs - the position of the newest media available.
+   */
+  public synchronized long getCatchUpSeekPositionMs(long liveEdgeMs) {
+    if (latencyMs == -1 || latencyMs - targetLatencyMs <= maxDriftMs) {
+      return -1;
+    }
+    seekCount++;
+    speed = 1;
+    latencyMs = targetLatencyMs;
+    return Math.max(0, liveEdgeMs - targetLatencyMs);
+  }
+
+  /** Forgets the last update, for when playback is paused or buffering. */
+  public synchronized void pause() {
+    lastUpdateMs = -1;
+    speed = 1;
+  }
+
+  /** Returns the speed to play at. */
+  public synchronized float getSpeed() {
+    return speed;
+  }
+
+  /** Returns the last measured distance to the live edge, or -1 if not measured yet. */
+  public synchronized long getLatencyMs() {
+    return latencyMs;
+  }
+
+  /** Returns how far the last measured latency is from the target. Positive when behind it. */
+  public synchronized long getDriftMs() {
+    return latencyMs == -1 ? 0 : latencyMs - targetLatencyMs;
+  }
+
+  /** Returns the average distance of the latency from the target since playback started. */
+  public synchronized long getAverageDriftMs() {
+    return sampleCount == 0 ? 0 : totalAbsDriftMs / sampleCount;
+  }
+
+  /** Returns the largest distance of the latency from the target since playback started. */
+  public synchronized long getMaxDriftMs() {
+    return maxObservedDriftMs;
+  }
+
+  /** Returns how long playback has run at a speed other than normal. */
+  public synchronized long getAdjustedTimeMs() {
+    return adjustedTimeMs;
+  }
+
+  /** Returns the number of seeks asked for to get back to the target. */
+  public synchronized int getSeekCount() {
+    return seekCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "latency "
+        + latencyMs
+        + "ms, target "
+        + targetLatencyMs
+        + "ms, speed "
+        + speed
+        + ", average drift "
+        + getAverageDriftMs()
+        + "ms, max drift "
+        + maxObservedDriftMs
+        + "ms";
+  }
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.util.UriUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the media playlists of live HLS streams for a chunk source, and everything else from
+ * upstream. The chunk source reloads the whole playlist every half target duration, which grows
+ * with the stream, so playlists are loaded here with the cheaper requests servers offer:
+ *
+ * <ul>
+ *   <li>Conditional requests, with the validators of the last response, so an unchanged playlist
+ *       is not sent again.
+ *   <li>Delta updates, when the playlist allows them with EXT-X-SERVER-CONTROL:CAN-SKIP-UNTIL. The
+ *       server then replaces the older segments with an EXT-X-SKIP tag, and the skipped segments
+ *       are merged back in from the previous playlist, so the chunk source sees a full playlist.
+ * </ul>
+ *
+ * <p>Loads and merges run on a background executor. The next load of a live playlist is started
+ * just before the chunk source asks for it, so the request of the chunk source, which holds up its
+ * segment loads, is usually answered from memory.
+ *
+ * <p>With an {@link HlsKeyCache}, the keys each playlist lists are handed to it as soon as it is
+ * loaded, to fetch those about to be used, and the key requests of the chunk source are answered
+ * from the cache.
+ *
+ * <p>Playlists are loaded through http data sources from a {@link HttpDataSourceFactory}, so they
+ * count towards the bandwidth estimate and follow redirects like the media requests do.
+ *
+ * <p>Playlists are recognised as http requests that allow gzip, which the chunk source asks for
+ * playlists and keys, for a path ending in .m3u8 or .m3u. The other such requests are keys.
+ */
+public final class LivePlaylistDataSource implements DataSource {
+  private static final String TAG = "LivePlaylistDataSource";
+
+  /** Creates the data sources media playlists are loaded with. */
+  public interface HttpDataSourceFactory {
+    /** Returns a new data source. Each playlist load uses one of its own. */
+    HttpDataSource createDataSource();
+  }
+
+  private static final String SKIP_PARAMETER = "_HLS_skip";
+  private static final String TAG_SERVER_CONTROL = "#EXT-X-SERVER-CONTROL:";
+  private static final String TAG_SKIP = "#EXT-X-SKIP:";
+  private static final String TAG_MEDIA_SEQUENCE = "#EXT-X-MEDIA-SEQUENCE:";
+  private static final String TAG_TARGET_DURATION = "#EXT-X-TARGETDURATION:";
+  private static final String TAG_KEY = "#EXT-X-KEY:";
+  private static final String TAG_ENDLIST = "#EXT-X-ENDLIST";
+  private static final String[] SEGMENT_TAGS = {
+    "#EXTINF:",
+    "#EXT-X-KEY:",
+    "#EXT-X-DISCONTINUITY",
+    "#EXT-X-BYTERANGE:",
+    "#EXT-X-PROGRAM-DATE-TIME:",
+    "#EXT-X-SKIP:",
+  };
+  private static final Pattern CAN_SKIP_UNTIL = Pattern.compile("CAN-SKIP-UNTIL=([\\d.]+)");
+  private static final Pattern SKIPPED_SEGMENTS = Pattern.compile("SKIPPED-SEGMENTS=(\\d+)");
+  private static final Pattern KEY_METHOD = Pattern.compile("METHOD=([^,]+)");
+  private static final Pattern KEY_URI = Pattern.compile("URI=\"([^\"]+)\"");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** How long before the chunk source is expected to ask for a playlist to start loading it. */
+  private static final long PREFETCH_LEAD_MS = 300;
+
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+  private static final int HTTP_NOT_MODIFIED = 304;
+  private static final int REFRESH_THREADS = 2;
+
+  private static ScheduledExecutorService refreshExecutor;
+
+  private final DataSource upstream;
+  private final HttpDataSourceFactory playlistDataSourceFactory;
+  private final HlsKeyCache keyCache;
+  private final Map<String, PlaylistLoader> loaders;
+
+  private DataSource currentDataSource;
+  private byte[] data;
+  private int readPosition;
+
+  /**
+   * @param upstream - the data source for everything other than media playlists.
+   * @param playlistDataSourceFactory - creates the data sources media playlists are loaded with.
+   */
+  public LivePlaylistDataSource(
+      DataSource upstream, HttpDataSourceFactory playlistDataSourceFactory) {
+    this(upstream, playlistDataSourceFactory, null);
+  }
+
+  /**
+   * @param upstream - the data source for everything other than media playlists and keys.
+   * @param playlistDataSourceFactory - creates the data sources media playlists are loaded with.
+   * @param keyCache - the cache to prefetch keys into and load keys from, or null to load keys
+   *     from upstream.
+   */
+  public LivePlaylistDataSource(
+      DataSource upstream, HttpDataSourceFactory playlistDataSourceFactory, HlsKeyCache keyCache) {
+    this.upstream = upstream;
+    this.playlistDataSourceFactory = playlistDataSourceFactory;
+    this.keyCache = keyCache;
+    loaders = new HashMap<>();
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    boolean playlist = isPlaylist(dataSpec);
+    if (!playlist && (keyCache == null || !isKey(dataSpec))) {
+      currentDataSource = upstream;
+      return upstream.open(dataSpec);
+    }
+    String url = dataSpec.uri.toString();
+    if (!playlist) {
+      data = keyCache.get(url);
+      readPosition = (int) Math.min(dataSpec.position, data.length);
+      return data.length - readPosition;
+    }
+    PlaylistLoader loader = loaders.get(url);
+    if (loader == null) {
+      loader = new PlaylistLoader(url);
+      loaders.put(url, loader);
+    }
+    data = loader.load().bytes;
+    readPosition = (int) Math.min(dataSpec.position, data.length);
+    return data.length - readPosition;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (currentDataSource != null) {
+      return currentDataSource.read(buffer, offset, readLength);
+    }
+    if (readPosition == data.length) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    int length = Math.min(readLength, data.length - readPosition);
+    System.arraycopy(data, readPosition, buffer, offset, length);
+    readPosition += length;
+    return length;
+  }
+
+  @Override
+  public void close() throws IOException {
+    data = null;
+    if (currentDataSource != null) {
+      try {
+        currentDataSource.close();
+      } finally {
+        currentDataSource = null;
+      }
+    }
+  }
+
+  private static boolean isPlaylist(DataSpec dataSpec) {
+    String scheme = dataSpec.uri.getScheme();
+    String path = dataSpec.uri.getPath();
+    return ("http".equals(scheme) || "https".equals(scheme))
+        && (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) != 0
+        && path != null
+        && (path.endsWith(".m3u8") || path.endsWith(".m3u"));
+  }
+
+  private static boolean isKey(DataSpec dataSpec) {
+    String scheme = dataSpec.uri.getScheme();
+    return ("http".equals(scheme) || "https".equals(scheme))
+        && (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) != 0
+        && !isPlaylist(dataSpec);
+  }
+
+  /** Returns the executor playlists are loaded on, which key caches can share. */
+  private static synchronized ScheduledExecutorService getRefreshExecutor() {
+    if (refreshExecutor == null) {
+      refreshExecutor = Executors.newScheduledThreadPool(REFRESH_THREADS);
+    }
+    return refreshExecutor;
+  }
+
+  /** Loads one playlist URL, keeping what the next load needs. */
+  private final class PlaylistLoader implements Callable<Playlist> {
+    private final String url;
+
+    // Only used by the loads, which never run at the same time for a URL.
+    private Playlist playlist;
+    private String validatorUrl;
+    private String etag;
+    private String lastModified;
+    private int fullLoads;
+    private int deltaLoads;
+    private int notModifiedLoads;
+
+    private ScheduledFuture<Playlist> prefetch;
+
+    PlaylistLoader(String url) {
+      this.url = url;
+    }
+
+    /** Returns the current playlist, from the prefetch when it is recent enough. */
+    Playlist load() throws IOException {
+      Playlist result = null;
+      if (prefetch != null) {
+        if (prefetch.getDelay(TimeUnit.MILLISECONDS) > 0) {
+          // Asked for early. Load now rather than wait for the scheduled load.
+          prefetch.cancel(false);
+        } else {
+          try {
+            result = await(prefetch);
+          } catch (IOException e) {
+            Log.w(TAG, "Prefetch of " + url + " failed, loading again", e);
+          }
+        }
+        prefetch = null;
+      }
+      long nowMs = SystemClock.elapsedRealtime();
+      if (result == null || nowMs - result.loadTimeMs > result.getReloadIntervalMs()) {
+        result = await(getRefreshExecutor().submit(this));
+      }
+      if (keyCache != null) {
+        keyCache.update(url, result.getKeyUris(url), !result.ended);
+      }
+      if (!result.ended) {
+        long delayMs = Math.max(0, result.getReloadIntervalMs() - PREFETCH_LEAD_MS);
+        prefetch = getRefreshExecutor().schedule(this, delayMs, TimeUnit.MILLISECONDS);
+      }
+      return result;
+    }
+
+    @Override
+    public synchronized Playlist call() throws IOException {
+      long nowMs = SystemClock.elapsedRealtime();
+      // Delta updates are only asked for with a playlist younger than half the skip boundary.
+      boolean skip =
+          playlist != null
+              && playlist.canSkipUntilMs > 0
+              && nowMs - playlist.loadTimeMs < playlist.canSkipUntilMs / 2;
+      Playlist result = skip ? request(true, nowMs) : null;
+      if (result == null) {
+        result = request(false, nowMs);
+      }
+      playlist = result;
+      return result;
+    }
+
+    /**
+     * Requests the playlist.
+     *
+     * @param skip - true to ask for a delta update.
+     * @return the full playlist, or null if a delta update could not be merged.
+     */
+    private Playlist request(boolean skip, long nowMs) throws IOException {
+      String requestUrl = skip ? addSkipParameter(url) : url;
+      HttpDataSource dataSource = playlistDataSourceFactory.createDataSource();
+      boolean conditional = playlist != null && requestUrl.equals(validatorUrl);
+      if (conditional && etag != null) {
+        dataSource.setRequestProperty("If-None-Match", etag);
+      }
+      if (conditional && lastModified != null) {
+        dataSource.setRequestProperty("If-Modified-Since", lastModified);
+      }
+      byte[] body;
+      Map<String, List<String>> headers;
+      try {
+        dataSource.open(new DataSpec(Uri.parse(requestUrl), DataSpec.FLAG_ALLOW_GZIP));
+        headers = dataSource.getResponseHeaders();
+        body = readFully(dataSource);
+      } catch (HttpDataSource.InvalidResponseCodeException e) {
+        if (conditional && e.responseCode == HTTP_NOT_MODIFIED) {
+          notModifiedLoads++;
+          logLoad("not modified", 0);
+          return playlist.reloadedAt(nowMs);
+        }
+        throw e;
+      } finally {
+        dataSource.close();
+      }
+      validatorUrl = requestUrl;
+      etag = getHeader(headers, "ETag");
+      lastModified = getHeader(headers, "Last-Modified");
+
+      Playlist result = Playlist.parse(new String(body, UTF_8), nowMs);
+      if (result.skippedSegments > 0) {
+        result = playlist != null ? result.merge(playlist) : null;
+        if (result == null) {
+          Log.w(TAG, "Delta update of " + url + " does not match, loading in full");
+          validatorUrl = null;
+          return null;
+        }
+        deltaLoads++;
+        logLoad("delta", body.length);
+      } else {
+        fullLoads++;
+        logLoad("full", body.length);
+      }
+      return result;
+    }
+
+    private void logLoad(String type, int length) {
+      Log.d(
+          TAG,
+          "Loaded "
+              + url
+              + " ("
+              + type
+              + ", "
+              + length
+              + " bytes), full "
+              + fullLoads
+              + ", delta "
+              + deltaLoads
+              + ", not modified "
+              + notModifiedLoads);
+    }
+  }
+
+  private static Playlist await(Future<Playlist> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (CancellationException e) {
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private static String addSkipParameter(String url) {
+    return Uri.parse(url).buildUpon().appendQueryParameter(SKIP_PARAMETER, "YES").toString();
+  }
+
+  private static byte[] readFully(DataSource dataSource) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    int read;
+    while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  private static String getHeader(Map<String, List<String>> headers, String name) {
+    if (headers == null) {
+      return null;
+    }
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      if (name.equalsIgnoreCase(header.getKey())
+          && header.getValue() != null
+          && !header.getValue().isEmpty()) {
+        return header.getValue().get(0);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The lines of a media playlist, split into the lines before the first segment, the lines of
+   * each segment ending with its URI, and the lines after the last segment.
+   */
+  private static final class Playlist {
+    public final List<String> header;
+    public final List<List<String>> segments;
+    public final List<String> footer;
+    /** The EXT-X-KEY line in effect for each segment, or null for none. */
+    public final List<String> keys;
+    public final long mediaSequence;
+    public final int skippedSegments;
+    public final long canSkipUntilMs;
+    public final int targetDurationSecs;
+    public final boolean ended;
+    public final long loadTimeMs;
+    public final byte[] bytes;
+
+    private Playlist(
+        List<String> header,
+        List<List<String>> segments,
+        List<String> footer,
+        List<String> keys,
+        int skippedSegments,
+        long loadTimeMs) {
+      this.header = header;
+      this.segments = segments;
+      this.footer = footer;
+      this.keys = keys;
+      this.skippedSegments = skippedSegments;
+      this.loadTimeMs = loadTimeMs;
+      long mediaSequence = 0;
+      long canSkipUntilMs = 0;
+      int targetDurationSecs = 0;
+      boolean ended = false;
+      StringBuilder text = new StringBuilder();
+      for (String line : header) {
+        if (line.startsWith(TAG_MEDIA_SEQUENCE)) {
+          mediaSequence = parseLong(line.substring(TAG_MEDIA_SEQUENCE.length()), 0);
+        } else if (line.startsWith(TAG_TARGET_DURATION)) {
+          targetDurationSecs = (int) parseLong(line.substring(TAG_TARGET_DURATION.length()), 0);
+        } else if (line.startsWith(TAG_SERVER_CONTROL)) {
+          Matcher matcher = CAN_SKIP_UNTIL.matcher(line);
+          if (matcher.find()) {
+            canSkipUntilMs = (long) (Double.parseDouble(matcher.group(1)) * 1000);
+          }
+        }
+        text.append(line).append('\n');
+      }
+      for (List<String> segment : segments) {
+        for (String line : segment) {
+          text.append(line).append('\n');
+        }
+      }
+      for (String line : footer) {
+        ended |= line.startsWith(TAG_ENDLIST);
+        text.append(line).append('\n');
+      }
+      this.mediaSequence = mediaSequence;
+      this.canSkipUntilMs = canSkipUntilMs;
+      this.targetDurationSecs = targetDurationSecs;
+      this.ended = ended;
+      bytes = text.toString().getBytes(UTF_8);
+    }
+
+    static Playlist parse(String text, long loadTimeMs) {
+      List<String> header = new ArrayList<>();
+      List<List<String>> segments = new ArrayList<>();
+      List<String> keys = new ArrayList<>();
+      List<String> pending = new ArrayList<>();
+      int skippedSegments = 0;
+      String key = null;
+      boolean inSegments = false;
+      for (String line : text.split("\r?\n")) {
+        line = line.trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        if (line.startsWith(TAG_SKIP)) {
+          Matcher matcher = SKIPPED_SEGMENTS.matcher(line);
+          skippedSegments = matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+          inSegments = true;
+          continue;
+        }
+        if (!inSegments && !line.startsWith("#")) {
+          inSegments = true;
+        }
+        if (!inSegments) {
+          for (String tag : SEGMENT_TAGS) {
+            inSegments |= line.startsWith(tag);
+          }
+        }
+        if (!inSegments) {
+          header.add(line);
+          continue;
+        }
+        if (line.startsWith(TAG_KEY)) {
+          key = line;
+        }
+        pending.add(line);
+        if (!line.startsWith("#")) {
+          segments.add(pending);
+          keys.add(key);
+          pending = new ArrayList<>();
+        }
+      }
+      return new Playlist(header, segments, pending, keys, skippedSegments, loadTimeMs);
+    }
+
+    /**
+     * Returns the full playlist of a delta update, with the skipped segments taken from the
+     * previous playlist, or null if the previous playlist does not have them all.
+     */
+    Playlist merge(Playlist previous) {
+      long offset = mediaSequence - previous.mediaSequence;
+      if (offset < 0 || offset + skippedSegments > previous.segments.size()) {
+        return null;
+      }
+      int first = (int) offset;
+      List<List<String>> merged = new ArrayList<>(skippedSegments + segments.size());
+      List<String> mergedKeys = new ArrayList<>(skippedSegments + segments.size());
+      for (int i = first; i < first + skippedSegments; i++) {
+        List<String> segment = previous.segments.get(i);
+        String key = previous.keys.get(i);
+        if (i == first && key != null && !segment.contains(key)) {
+          // The key was declared by a segment that is no longer listed.
+          List<String> withKey = new ArrayList<>(segment.size() + 1);
+          withKey.add(key);
+          withKey.addAll(segment);
+          segment = withKey;
+        }
+        merged.add(segment);
+        mergedKeys.add(key);
+      }
+      String key = skippedSegments > 0 ? mergedKeys.get(skippedSegments - 1) : null;
+      for (int i = 0; i < segments.size(); i++) {
+        merged.add(segments.get(i));
+        String segmentKey = keys.get(i);
+        key = segmentKey != null ? segmentKey : key;
+        mergedKeys.add(key);
+      }
+      return new Playlist(
+          header,
+          Collections.unmodifiableList(merged),
+          footer,
+          Collections.unmodifiableList(mergedKeys),
+          0,
+          loadTimeMs);
+    }
+
+    private Playlist(Playlist playlist, long loadTimeMs) {
+      header = playlist.header;
+      segments = playlist.segments;
+      footer = playlist.footer;
+      keys = playlist.keys;
+      mediaSequence = playlist.mediaSequence;
+      skippedSegments = playlist.skippedSegments;
+      canSkipUntilMs = playlist.canSkipUntilMs;
+      targetDurationSecs = playlist.targetDurationSecs;
+      ended = playlist.ended;
+      bytes = playlist.bytes;
+      this.loadTimeMs = loadTimeMs;
+    }
+
+    /** Returns this playlist, as confirmed unchanged by the server at a later time. */
+    Playlist reloadedAt(long timeMs) {
+      return new Playlist(this, timeMs);
+    }
+
+    /** Returns the absolute URIs of the keys the segments are encrypted with, in their order. */
+    Set<String> getKeyUris(String baseUrl) {
+      Set<String> uris = new LinkedHashSet<>();
+      for (String key : keys) {
+        if (key == null) {
+          continue;
+        }
+        Matcher method = KEY_METHOD.matcher(key);
+        Matcher uri = KEY_URI.matcher(key);
+        if (method.find() && !"NONE".equals(method.group(1)) && uri.find()) {
+          uris.add(UriUtil.resolve(baseUrl, uri.group(1)));
+        }
+      }
+      return uris;
+    }
+
+    /** Returns how long after a load the chunk source reloads the playlist. */
+    long getReloadIntervalMs() {
+      return targetDurationSecs * 1000L / 2;
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+      try {
+        return Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+        return defaultValue;
+      }
+    }
+  }
+}
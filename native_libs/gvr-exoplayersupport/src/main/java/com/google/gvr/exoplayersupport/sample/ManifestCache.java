@@ -0,0 +1,479 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.UriLoadable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache of parsed manifests keyed by URL. Entries are held in memory with LRU eviction and the raw
+ * manifest is persisted to disk along with the ETag and Last-Modified response headers. This lets a
+ * renderer builder start immediately from the cached copy of a VOD manifest when a title is
+ * reopened, while a conditional request revalidates the copy in the background for next time.
+ *
+ * @param <T> the type of the parsed manifest.
+ */
+public final class ManifestCache<T> {
+  private static final String TAG = "ManifestCache";
+
+  private static final String BODY_SUFFIX = ".body";
+  private static final String META_SUFFIX = ".meta";
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+  private static final int HTTP_NOT_MODIFIED = 304;
+
+  private final File cacheDir;
+  private final int maxEntries;
+  private final UriLoadable.Parser<T> parser;
+  private final LruCache<String, Entry<T>> memoryCache;
+  private final ExecutorService revalidationExecutor;
+  private final Set<String> pendingRevalidations;
+  private final Map<String, Response> recordedResponses;
+
+  /**
+   * Creates the cache.
+   *
+   * @param cacheDir - the directory to persist manifests in.
+   * @param maxEntries - the maximum number of manifests kept, both in memory and on disk.
+   * @param parser - the parser used to restore manifests from disk and to parse revalidated copies.
+   */
+  public ManifestCache(File cacheDir, int maxEntries, UriLoadable.Parser<T> parser) {
+    this.cacheDir = cacheDir;
+    this.maxEntries = maxEntries;
+    this.parser = parser;
+    memoryCache = new LruCache<>(maxEntries);
+    revalidationExecutor = Executors.newSingleThreadExecutor();
+    pendingRevalidations = new HashSet<>();
+    recordedResponses = new HashMap<>();
+    if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+      Log.w(TAG, "Unable to create manifest cache directory " + cacheDir);
+    }
+  }
+
+  /**
+   * Returns the cached manifest for the given URL, restoring it from disk if it is not in memory.
+   *
+   * @param url - the URL of the manifest.
+   * @return the parsed manifest, or null if the URL is not cached.
+   */
+  public T get(String url) {
+    Entry<T> entry = memoryCache.get(url);
+    if (entry != null) {
+      return entry.manifest;
+    }
+    entry = readEntry(url);
+    if (entry == null) {
+      return null;
+    }
+    memoryCache.put(url, entry);
+    return entry.manifest;
+  }
+
+  /**
+   * Stores a manifest that was loaded through a data source created by {@link
+   * #createDataSource(String, String)}. The raw bytes and validators the data source recorded are
+   * persisted along with it.
+   *
+   * @param url - the URL of the manifest.
+   * @param manifest - the parsed manifest.
+   */
+  public void put(String url, T manifest) {
+    Response response;
+    synchronized (this) {
+      response = recordedResponses.remove(url);
+    }
+    if (response != null) {
+      writeEntry(url, response.body, response.etag, response.lastModified);
+      memoryCache.put(url, new Entry<>(manifest, response.etag, response.lastModified));
+      return;
+    }
+    Entry<T> entry = memoryCache.get(url);
+    String etag = entry != null ? entry.etag : null;
+    String lastModified = entry != null ? entry.lastModified : null;
+    memoryCache.put(url, new Entry<>(manifest, etag, lastModified));
+  }
+
+  /**
+   * Removes a manifest from the cache. Used for manifests that must not be reused, such as live
+   * presentations.
+   *
+   * @param url - the URL of the manifest.
+   */
+  public synchronized void remove(String url) {
+    recordedResponses.remove(url);
+    memoryCache.remove(url);
+    String key = keyFor(url);
+    new File(cacheDir, key + BODY_SUFFIX).delete();
+    new File(cacheDir, key + META_SUFFIX).delete();
+  }
+
+  /**
+   * Creates a data source for loading a manifest over HTTP that records the first complete response
+   * for its URL. The recorded copy is persisted once the parsed manifest is passed to {@link
+   * #put(String, Object)}, and dropped by {@link #remove(String)}. Pass this as the http data
+   * source of a DefaultUriDataSource.
+   *
+   * <p>Only the initial load is recorded. Later requests through the same source, such as the
+   * refreshes of a live manifest or the resolution of its UTC timing element, pass through.
+   *
+   * @param userAgent - the user agent to use with network requests.
+   * @param url - the URL of the manifest to record.
+   */
+  public UriDataSource createDataSource(String userAgent, String url) {
+    return new RecordingDataSource(new DefaultHttpDataSource(userAgent, null), url);
+  }
+
+  /**
+   * Revalidates the cached copy of the manifest in the background using a conditional request. If
+   * the server reports the manifest as modified, the new copy replaces the cached one and is used
+   * the next time the URL is requested.
+   *
+   * @param url - the URL of the manifest.
+   * @param userAgent - the user agent to use with network requests.
+   */
+  public void revalidate(final String url, final String userAgent) {
+    synchronized (pendingRevalidations) {
+      if (!pendingRevalidations.add(url)) {
+        return;
+      }
+    }
+    revalidationExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              doRevalidate(url, userAgent);
+            } finally {
+              synchronized (pendingRevalidations) {
+                pendingRevalidations.remove(url);
+              }
+            }
+          }
+        });
+  }
+
+  private void doRevalidate(String url, String userAgent) {
+    Entry<T> entry = memoryCache.get(url);
+    HttpDataSource dataSource = new DefaultHttpDataSource(userAgent, null);
+    if (entry != null && entry.etag != null) {
+      dataSource.setRequestProperty("If-None-Match", entry.etag);
+    }
+    if (entry != null && entry.lastModified != null) {
+      dataSource.setRequestProperty("If-Modified-Since", entry.lastModified);
+    }
+    try {
+      dataSource.open(new DataSpec(Uri.parse(url)));
+      Map<String, List<String>> headers = dataSource.getResponseHeaders();
+      byte[] body = readFully(dataSource);
+      T manifest = parser.parse(url, new ByteArrayInputStream(body));
+      String etag = getHeader(headers, "ETag");
+      String lastModified = getHeader(headers, "Last-Modified");
+      writeEntry(url, body, etag, lastModified);
+      memoryCache.put(url, new Entry<>(manifest, etag, lastModified));
+      Log.d(TAG, "Manifest changed, cached copy updated: " + url);
+    } catch (HttpDataSource.InvalidResponseCodeException e) {
+      if (e.responseCode == HTTP_NOT_MODIFIED) {
+        touch(url);
+        Log.d(TAG, "Manifest not modified: " + url);
+      } else {
+        Log.w(TAG, "Manifest revalidation failed with " + e.responseCode + ": " + url);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Manifest revalidation failed: " + url, e);
+    } finally {
+      try {
+        dataSource.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Error closing revalidation request", e);
+      }
+    }
+  }
+
+  private synchronized Entry<T> readEntry(String url) {
+    String key = keyFor(url);
+    File bodyFile = new File(cacheDir, key + BODY_SUFFIX);
+    File metaFile = new File(cacheDir, key + META_SUFFIX);
+    if (!bodyFile.exists() || !metaFile.exists()) {
+      return null;
+    }
+    try {
+      DataInputStream meta = new DataInputStream(new FileInputStream(metaFile));
+      String cachedUrl;
+      String etag;
+      String lastModified;
+      try {
+        cachedUrl = meta.readUTF();
+        etag = emptyToNull(meta.readUTF());
+        lastModified = emptyToNull(meta.readUTF());
+      } finally {
+        meta.close();
+      }
+      if (!cachedUrl.equals(url)) {
+        return null;
+      }
+      FileInputStream body = new FileInputStream(bodyFile);
+      T manifest;
+      try {
+        manifest = parser.parse(url, body);
+      } finally {
+        body.close();
+      }
+      touch(url);
+      return new Entry<>(manifest, etag, lastModified);
+    } catch (IOException e) {
+      Log.w(TAG, "Discarding unreadable cached manifest for " + url, e);
+      bodyFile.delete();
+      metaFile.delete();
+      return null;
+    }
+  }
+
+  private synchronized void writeEntry(String url, byte[] body, String etag, String lastModified) {
+    String key = keyFor(url);
+    File bodyFile = new File(cacheDir, key + BODY_SUFFIX);
+    File metaFile = new File(cacheDir, key + META_SUFFIX);
+    try {
+      FileOutputStream bodyOut = new FileOutputStream(bodyFile);
+      try {
+        bodyOut.write(body);
+      } finally {
+        bodyOut.close();
+      }
+      DataOutputStream metaOut = new DataOutputStream(new FileOutputStream(metaFile));
+      try {
+        metaOut.writeUTF(url);
+        metaOut.writeUTF(etag != null ? etag : "");
+        metaOut.writeUTF(lastModified != null ? lastModified : "");
+      } finally {
+        metaOut.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to persist manifest for " + url, e);
+      bodyFile.delete();
+      metaFile.delete();
+      return;
+    }
+    trimDiskCache();
+  }
+
+  private synchronized void touch(String url) {
+    long now = System.currentTimeMillis();
+    String key = keyFor(url);
+    new File(cacheDir, key + BODY_SUFFIX).setLastModified(now);
+    new File(cacheDir, key + META_SUFFIX).setLastModified(now);
+  }
+
+  private void trimDiskCache() {
+    File[] bodies = cacheDir.listFiles();
+    if (bodies == null) {
+      return;
+    }
+    int count = 0;
+    for (File file : bodies) {
+      if (file.getName().endsWith(BODY_SUFFIX)) {
+        bodies[count++] = file;
+      }
+    }
+    if (count <= maxEntries) {
+      return;
+    }
+    bodies = Arrays.copyOf(bodies, count);
+    Arrays.sort(
+        bodies,
+        new Comparator<File>() {
+          @Override
+          public int compare(File lhs, File rhs) {
+            long l = lhs.lastModified();
+            long r = rhs.lastModified();
+            return l < r ? -1 : (l == r ? 0 : 1);
+          }
+        });
+    for (int i = 0; i < count - maxEntries; i++) {
+      String name = bodies[i].getName();
+      String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+      bodies[i].delete();
+      new File(cacheDir, key + META_SUFFIX).delete();
+    }
+  }
+
+  private static byte[] readFully(HttpDataSource dataSource) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    int read;
+    while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  private static String getHeader(Map<String, List<String>> headers, String name) {
+    if (headers == null) {
+      return null;
+    }
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      if (name.equalsIgnoreCase(header.getKey())
+          && header.getValue() != null
+          && !header.getValue().isEmpty()) {
+        return header.getValue().get(0);
+      }
+    }
+    return null;
+  }
+
+  private static String emptyToNull(String value) {
+    return value.isEmpty() ? null : value;
+  }
+
+  private static String keyFor(String url) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+      StringBuilder key = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        key.append(Character.forDigit((b >> 4) & 0xF, 16));
+        key.append(Character.forDigit(b & 0xF, 16));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException | IOException e) {
+      return Integer.toHexString(url.hashCode());
+    }
+  }
+
+  /** A cached manifest along with the validators used to revalidate it. */
+  private static final class Entry<T> {
+    final T manifest;
+    final String etag;
+    final String lastModified;
+
+    Entry(T manifest, String etag, String lastModified) {
+      this.manifest = manifest;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /** A recorded response, kept until the manifest parsed from it is stored or removed. */
+  private static final class Response {
+    final byte[] body;
+    final String etag;
+    final String lastModified;
+
+    Response(byte[] body, String etag, String lastModified) {
+      this.body = body;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * HTTP data source that keeps a copy of the first complete response for the URL of a manifest,
+   * along with its validators, and hands it to the cache when the source is closed.
+   */
+  private final class RecordingDataSource implements UriDataSource {
+    private final HttpDataSource upstream;
+    private final String url;
+    private boolean recorded;
+    private ByteArrayOutputStream body;
+    private String etag;
+    private String lastModified;
+    private long length;
+    private long bytesRead;
+    private boolean reachedEnd;
+
+    RecordingDataSource(HttpDataSource upstream, String url) {
+      this.upstream = upstream;
+      this.url = url;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      bytesRead = 0;
+      reachedEnd = false;
+      length = upstream.open(dataSpec);
+      if (recorded
+          || dataSpec.position != 0
+          || dataSpec.postBody != null
+          || !url.equals(dataSpec.uri.toString())) {
+        body = null;
+        return length;
+      }
+      Map<String, List<String>> headers = upstream.getResponseHeaders();
+      etag = getHeader(headers, "ETag");
+      lastModified = getHeader(headers, "Last-Modified");
+      body =
+          new ByteArrayOutputStream(
+              length != C.LENGTH_UNBOUNDED ? (int) length : READ_BUFFER_SIZE);
+      return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      int read = upstream.read(buffer, offset, readLength);
+      if (read == C.RESULT_END_OF_INPUT) {
+        reachedEnd = true;
+      } else if (body != null) {
+        body.write(buffer, offset, read);
+        bytesRead += read;
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        upstream.close();
+      } finally {
+        boolean complete = reachedEnd || (length != C.LENGTH_UNBOUNDED && bytesRead == length);
+        if (body != null && complete) {
+          recorded = true;
+          synchronized (ManifestCache.this) {
+            recordedResponses.put(url, new Response(body.toByteArray(), etag, lastModified));
+          }
+        }
+        body = null;
+      }
+    }
+
+    @Override
+    public String getUri() {
+      return upstream.getUri();
+    }
+  }
+}
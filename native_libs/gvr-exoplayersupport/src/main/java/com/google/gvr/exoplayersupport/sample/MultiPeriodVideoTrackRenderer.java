@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.media.MediaCodec;
+import android.media.MediaCrypto;
+import android.os.Handler;
+import android.util.Log;
+import com.google.android.exoplayer.ExoPlaybackException;
+import com.google.android.exoplayer.MediaCodecSelector;
+import com.google.android.exoplayer.MediaCodecUtil;
+import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
+import com.google.android.exoplayer.MediaFormat;
+import com.google.android.exoplayer.MediaFormatHolder;
+import com.google.android.exoplayer.SampleSource;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.drm.FrameworkMediaCrypto;
+import com.google.android.exoplayer.util.Util;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Video renderer that keeps its codec across the periods of a multi-period presentation. The codec
+ * is configured for the largest video size of any period, rather than only the first one, so an
+ * adaptive codec can be reconfigured at a period boundary instead of being released and created
+ * again. The codec is still recreated when the MIME type changes, when the new size does not fit,
+ * or when the content switches between clear and encrypted.
+ */
+public class MultiPeriodVideoTrackRenderer extends MediaCodecVideoTrackRenderer {
+  private static final String TAG = "MultiPeriodVideoTrack";
+
+  private static final String KEY_MAX_WIDTH = "max-width";
+  private static final String KEY_MAX_HEIGHT = "max-height";
+
+  private final Map<String, Point> maxVideoSizes;
+  private int codecMaxWidth;
+  private int codecMaxHeight;
+  private boolean codecIsEncrypted;
+  private boolean pendingFormatIsEncrypted;
+
+  /**
+   * @param context A context.
+   * @param source The upstream source from which the renderer obtains samples.
+   * @param mediaCodecSelector A decoder selector.
+   * @param videoScalingMode The scaling mode to pass to MediaCodec#setVideoScalingMode(int).
+   * @param allowedJoiningTimeMs The maximum duration in milliseconds for which this video renderer
+   *     can attempt to seamlessly join an ongoing playback.
+   * @param drmSessionManager For use with encrypted content. May be null if support for encrypted
+   *     content is not required.
+   * @param playClearSamplesWithoutKeys Whether clear samples may be played before keys are loaded.
+   * @param eventHandler A handler to use when delivering events to eventListener.
+   * @param eventListener A listener of events.
+   * @param maxDroppedFrameCountToNotify The maximum number of frames that can be dropped between
+   *     invocations of onDroppedFrames.
+   * @param maxVideoSizes The largest video size of each MIME type across all periods, as returned
+   *     by {@link #getMaxVideoSizes(MediaPresentationDescription)}.
+   */
+  public MultiPeriodVideoTrackRenderer(
+      Context context,
+      SampleSource source,
+      MediaCodecSelector mediaCodecSelector,
+      int videoScalingMode,
+      long allowedJoiningTimeMs,
+      DrmSessionManager<FrameworkMediaCrypto> drmSessionManager,
+      boolean playClearSamplesWithoutKeys,
+      Handler eventHandler,
+      EventListener eventListener,
+      int maxDroppedFrameCountToNotify,
+      Map<String, Point> maxVideoSizes) {
+    super(
+        context,
+        source,
+        mediaCodecSelector,
+        videoScalingMode,
+        allowedJoiningTimeMs,
+        drmSessionManager,
+        playClearSamplesWithoutKeys,
+        eventHandler,
+        eventListener,
+        maxDroppedFrameCountToNotify);
+    this.maxVideoSizes = maxVideoSizes;
+  }
+
+  /**
+   * Returns the largest decodable video size of each MIME type, across all the periods of the
+   * manifest.
+   */
+  public static Map<String, Point> getMaxVideoSizes(MediaPresentationDescription manifest) {
+    Map<String, Point> maxVideoSizes = new HashMap<>();
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      Period period = manifest.getPeriod(i);
+      for (AdaptationSet adaptationSet : period.adaptationSets) {
+        if (adaptationSet.type != AdaptationSet.TYPE_VIDEO) {
+          continue;
+        }
+        for (Representation rep : adaptationSet.representations) {
+          String mimeType = rep.format.mimeType;
+          if (!isSizeSupported(mimeType, rep.format.width, rep.format.height)) {
+            continue;
+          }
+          Point size = maxVideoSizes.get(mimeType);
+          if (size == null) {
+            size = new Point();
+            maxVideoSizes.put(mimeType, size);
+          }
+          size.x = Math.max(size.x, rep.format.width);
+          size.y = Math.max(size.y, rep.format.height);
+        }
+      }
+    }
+    return maxVideoSizes;
+  }
+
+  private static boolean isSizeSupported(String mimeType, int width, int height) {
+    if (Util.SDK_INT < 21 || width <= 0 || height <= 0) {
+      return true;
+    }
+    try {
+      return MediaCodecUtil.isSizeSupportedV21(mimeType, false, width, height);
+    } catch (MediaCodecUtil.DecoderQueryException e) {
+      Log.w(TAG, "Unable to query decoder for " + mimeType, e);
+      return false;
+    }
+  }
+
+  @Override
+  protected void onInputFormatChanged(MediaFormatHolder holder) throws ExoPlaybackException {
+    pendingFormatIsEncrypted = holder.drmInitData != null;
+    super.onInputFormatChanged(holder);
+  }
+
+  @Override
+  protected void configureCodec(
+      MediaCodec codec,
+      boolean codecIsAdaptive,
+      android.media.MediaFormat format,
+      MediaCrypto crypto) {
+    codecMaxWidth = getInteger(format, KEY_MAX_WIDTH, getInteger(format, "width", 0));
+    codecMaxHeight = getInteger(format, KEY_MAX_HEIGHT, getInteger(format, "height", 0));
+    Point maxSize = maxVideoSizes.get(format.getString(android.media.MediaFormat.KEY_MIME));
+    if (codecIsAdaptive && maxSize != null) {
+      codecMaxWidth = Math.max(codecMaxWidth, maxSize.x);
+      codecMaxHeight = Math.max(codecMaxHeight, maxSize.y);
+      format.setInteger(KEY_MAX_WIDTH, codecMaxWidth);
+      format.setInteger(KEY_MAX_HEIGHT, codecMaxHeight);
+    }
+    codecIsEncrypted = crypto != null;
+    super.configureCodec(codec, codecIsAdaptive, format, crypto);
+  }
+
+  @Override
+  protected boolean canReconfigureCodec(
+      MediaCodec codec, boolean codecIsAdaptive, MediaFormat oldFormat, MediaFormat newFormat) {
+    return super.canReconfigureCodec(codec, codecIsAdaptive, oldFormat, newFormat)
+        && pendingFormatIsEncrypted == codecIsEncrypted
+        && newFormat.width <= codecMaxWidth
+        && newFormat.height <= codecMaxHeight;
+  }
+
+  private static int getInteger(android.media.MediaFormat format, String key, int defaultValue) {
+    return format.containsKey(key) ? format.getInteger(key) : defaultValue;
+  }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.annotation.TargetApi;
+import android.media.DeniedByServerException;
+import android.media.MediaCryptoException;
+import android.media.MediaDrm;
+import android.media.NotProvisionedException;
+import android.media.ResourceBusyException;
+import android.media.UnsupportedSchemeException;
+import android.util.Base64;
+import android.util.Log;
+import com.google.android.exoplayer.drm.ExoMediaDrm;
+import com.google.android.exoplayer.drm.FrameworkMediaCrypto;
+import com.google.android.exoplayer.drm.FrameworkMediaDrm;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link ExoMediaDrm} that requests persistent licenses and restores them on later playbacks, so
+ * replayed protected content starts without a license round trip. Pass the same instance as both
+ * the media drm and the callback of a StreamingDrmSessionManager; it wraps the callback that
+ * actually talks to the license server.
+ *
+ * <p>When a stored license is close to expiry it is still restored for the current playback, and a
+ * renewed license is requested in the background for the next one.
+ */
+@TargetApi(18)
+public final class OfflineLicenseMediaDrm
+    implements ExoMediaDrm<FrameworkMediaCrypto>, MediaDrmCallback {
+  private static final String TAG = "OfflineLicenseMediaDrm";
+
+  /** Licenses expiring within this window are renewed in the background when restored. */
+  private static final long RENEWAL_WINDOW_MS = 24 * 60 * 60 * 1000L;
+
+  private static final String PROPERTY_SECURITY_LEVEL = "securityLevel";
+  private static final String KEY_STATUS_LICENSE_DURATION = "LicenseDurationRemaining";
+
+  /** Stands in for the key request of a session whose keys were restored from storage. */
+  private static final KeyRequest RESTORED_KEY_REQUEST =
+      new KeyRequest() {
+        @Override
+        public byte[] getData() {
+          return new byte[0];
+        }
+
+        @Override
+        public String getDefaultUrl() {
+          return "";
+        }
+      };
+
+  private static final ExecutorService renewalExecutor = Executors.newSingleThreadExecutor();
+
+  private final UUID uuid;
+  private final FrameworkMediaDrm mediaDrm;
+  private final MediaDrmCallback callback;
+  private final OfflineLicenseStore store;
+  private final String contentKey;
+  private final long renewalWindowMs;
+  private final Map<ByteBuffer, String> pendingLicenseKeys;
+  private final Set<ByteBuffer> restoredSessions;
+
+  /**
+   * Creates the media drm.
+   *
+   * @param uuid - the UUID of the DRM scheme.
+   * @param callback - performs the provisioning and key requests against the license server.
+   * @param store - where key set ids are persisted.
+   * @param contentId - the content id of the video.
+   * @param providerId - the provider id of the video.
+   * @throws UnsupportedSchemeException if the scheme is not supported by the device.
+   */
+  public OfflineLicenseMediaDrm(
+      UUID uuid,
+      MediaDrmCallback callback,
+      OfflineLicenseStore store,
+      String contentId,
+      String providerId)
+      throws UnsupportedSchemeException {
+    this(uuid, callback, store, contentId, providerId, RENEWAL_WINDOW_MS);
+  }
+
+  /**
+   * Creates the media drm with another renewal window.
+   *
+   * @param renewalWindowMs - licenses expiring within this time are renewed when restored.
+   */
+  OfflineLicenseMediaDrm(
+      UUID uuid,
+      MediaDrmCallback callback,
+      OfflineLicenseStore store,
+      String contentId,
+      String providerId,
+      long renewalWindowMs)
+      throws UnsupportedSchemeException {
+    this.uuid = uuid;
+    this.callback = callback;
+    this.store = store;
+    this.contentKey = contentId + "|" + providerId;
+    this.renewalWindowMs = renewalWindowMs;
+    mediaDrm = new FrameworkMediaDrm(uuid);
+    pendingLicenseKeys = new HashMap<>();
+    restoredSessions = new HashSet<>();
+  }
+
+  @Override
+  public KeyRequest getKeyRequest(
+      byte[] scope,
+      byte[] init,
+      String mimeType,
+      int keyType,
+      HashMap<String, String> optionalParameters)
+      throws NotProvisionedException {
+    String licenseKey = getLicenseKey(init);
+    if (restoreKeys(scope, licenseKey, init, mimeType, optionalParameters)) {
+      synchronized (this) {
+        restoredSessions.add(ByteBuffer.wrap(scope));
+      }
+      return RESTORED_KEY_REQUEST;
+    }
+    synchronized (this) {
+      pendingLicenseKeys.put(ByteBuffer.wrap(scope), licenseKey);
+    }
+    return mediaDrm.getKeyRequest(
+        scope, init, mimeType, MediaDrm.KEY_TYPE_OFFLINE, optionalParameters);
+  }
+
+  @Override
+  public byte[] provideKeyResponse(byte[] scope, byte[] response)
+      throws NotProvisionedException, DeniedByServerException {
+    String licenseKey;
+    synchronized (this) {
+      ByteBuffer session = ByteBuffer.wrap(scope);
+      if (restoredSessions.remove(session)) {
+        return null;
+      }
+      licenseKey = pendingLicenseKeys.remove(session);
+    }
+    byte[] keySetId = mediaDrm.provideKeyResponse(scope, response);
+    if (licenseKey != null && keySetId != null && keySetId.length > 0) {
+      store.put(licenseKey, keySetId, getExpirationTimeMs(mediaDrm, scope));
+      Log.d(TAG, "Stored offline license for " + licenseKey);
+    }
+    return keySetId;
+  }
+
+  @Override
+  public byte[] executeProvisionRequest(UUID uuid, ProvisionRequest request) throws Exception {
+    return callback.executeProvisionRequest(uuid, request);
+  }
+
+  @Override
+  public byte[] executeKeyRequest(UUID uuid, KeyRequest request) throws Exception {
+    if (request == RESTORED_KEY_REQUEST) {
+      return new byte[0];
+    }
+    return callback.executeKeyRequest(uuid, request);
+  }
+
+  private boolean restoreKeys(
+      byte[] sessionId,
+      String licenseKey,
+      byte[] init,
+      String mimeType,
+      HashMap<String, String> optionalParameters) {
+    byte[] keySetId = store.getKeySetId(licenseKey);
+    if (keySetId == null) {
+      return false;
+    }
+    long expirationTimeMs = store.getExpirationTimeMs(licenseKey);
+    if (expirationTimeMs <= System.currentTimeMillis()) {
+      Log.d(TAG, "Stored license expired for " + licenseKey);
+      store.remove(licenseKey);
+      return false;
+    }
+    try {
+      mediaDrm.restoreKeys(sessionId, keySetId);
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Unable to restore stored license for " + licenseKey, e);
+      store.remove(licenseKey);
+      return false;
+    }
+
+    // The stored expiration is only as good as the duration reported when the license was
+    // issued, so check what the restored session reports.
+    expirationTimeMs = getExpirationTimeMs(mediaDrm, sessionId);
+    if (expirationTimeMs <= System.currentTimeMillis()) {
+      Log.d(TAG, "Restored license has expired for " + licenseKey);
+      store.remove(licenseKey);
+      return false;
+    }
+    Log.d(TAG, "Restored offline license for " + licenseKey);
+    if (expirationTimeMs - System.currentTimeMillis() < renewalWindowMs) {
+      renewLicense(licenseKey, init, mimeType, optionalParameters);
+    }
+    return true;
+  }
+
+  /** Requests a new offline license on a separate MediaDrm, off the playback looper. */
+  private void renewLicense(
+      final String licenseKey,
+      final byte[] init,
+      final String mimeType,
+      final HashMap<String, String> optionalParameters) {
+    String level = null;
+    try {
+      level = mediaDrm.getPropertyString(PROPERTY_SECURITY_LEVEL);
+    } catch (RuntimeException e) {
+      // Not every scheme has security levels, ClearKey for one.
+    }
+    final String securityLevel = level;
+    renewalExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            FrameworkMediaDrm renewalDrm = null;
+            byte[] sessionId = null;
+            try {
+              renewalDrm = new FrameworkMediaDrm(uuid);
+              if (securityLevel != null) {
+                renewalDrm.setPropertyString(PROPERTY_SECURITY_LEVEL, securityLevel);
+              }
+              sessionId = renewalDrm.openSession();
+              KeyRequest request =
+                  renewalDrm.getKeyRequest(
+                      sessionId, init, mimeType, MediaDrm.KEY_TYPE_OFFLINE, optionalParameters);
+              byte[] response = callback.executeKeyRequest(uuid, request);
+              byte[] keySetId = renewalDrm.provideKeyResponse(sessionId, response);
+              if (keySetId != null && keySetId.length > 0) {
+                store.put(licenseKey, keySetId, getExpirationTimeMs(renewalDrm, sessionId));
+                Log.d(TAG, "Renewed offline license for " + licenseKey);
+              }
+            } catch (Exception e) {
+              Log.w(TAG, "Unable to renew offline license for " + licenseKey, e);
+            } finally {
+              if (renewalDrm != null) {
+                if (sessionId != null) {
+                  renewalDrm.closeSession(sessionId);
+                }
+                renewalDrm.release();
+              }
+            }
+          }
+        });
+  }
+
+  /**
+   * Returns the key the license for some init data is stored under. The init data is keyed by its
+   * digest, so init data that differs never restores the license of another.
+   */
+  String getLicenseKey(byte[] init) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform supports SHA-256.
+      throw new IllegalStateException(e);
+    }
+    return contentKey + "|" + Base64.encodeToString(digest.digest(init), Base64.NO_WRAP);
+  }
+
+  private static long getExpirationTimeMs(FrameworkMediaDrm drm, byte[] sessionId) {
+    Map<String, String> keyStatus = drm.queryKeyStatus(sessionId);
+    String remaining = keyStatus != null ? keyStatus.get(KEY_STATUS_LICENSE_DURATION) : null;
+    if (remaining == null) {
+      return OfflineLicenseStore.NO_EXPIRATION;
+    }
+    try {
+      long remainingSecs = Long.parseLong(remaining);
+      if (remainingSecs >= (Long.MAX_VALUE - System.currentTimeMillis()) / 1000) {
+        return OfflineLicenseStore.NO_EXPIRATION;
+      }
+      return System.currentTimeMillis() + remainingSecs * 1000;
+    } catch (NumberFormatException e) {
+      return OfflineLicenseStore.NO_EXPIRATION;
+    }
+  }
+
+  @Override
+  public void setOnEventListener(OnEventListener<? super FrameworkMediaCrypto> listener) {
+    mediaDrm.setOnEventListener(listener);
+  }
+
+  @Override
+  public byte[] openSession() throws NotProvisionedException, ResourceBusyException {
+    return mediaDrm.openSession();
+  }
+
+  @Override
+  public void closeSession(byte[] sessionId) {
+    synchronized (this) {
+      ByteBuffer session = ByteBuffer.wrap(sessionId);
+      restoredSessions.remove(session);
+      pendingLicenseKeys.remove(session);
+    }
+    mediaDrm.closeSession(sessionId);
+  }
+
+  @Override
+  public ProvisionRequest getProvisionRequest() {
+    return mediaDrm.getProvisionRequest();
+  }
+
+  @Override
+  public void provideProvisionResponse(byte[] response) throws DeniedByServerException {
+    mediaDrm.provideProvisionResponse(response);
+  }
+
+  @Override
+  public Map<String, String> queryKeyStatus(byte[] sessionId) {
+    return mediaDrm.queryKeyStatus(sessionId);
+  }
+
+  @Override
+  public void release() {
+    mediaDrm.release();
+  }
+
+  @Override
+  public void restoreKeys(byte[] sessionId, byte[] keySetId) {
+    mediaDrm.restoreKeys(sessionId, keySetId);
+  }
+
+  @Override
+  public String getPropertyString(String propertyName) {
+    return mediaDrm.getPropertyString(propertyName);
+  }
+
+  @Override
+  public byte[] getPropertyByteArray(String propertyName) {
+    return mediaDrm.getPropertyByteArray(propertyName);
+  }
+
+  @Override
+  public void setPropertyString(String propertyName, String value) {
+    mediaDrm.setPropertyString(propertyName, value);
+  }
+
+  @Override
+  public void setPropertyByteArray(String propertyName, byte[] value) {
+    mediaDrm.setPropertyByteArray(propertyName, value);
+  }
+
+  @Override
+  public FrameworkMediaCrypto createMediaCrypto(UUID uuid, byte[] initData)
+      throws MediaCryptoException {
+    return mediaDrm.createMediaCrypto(uuid, initData);
+  }
+}
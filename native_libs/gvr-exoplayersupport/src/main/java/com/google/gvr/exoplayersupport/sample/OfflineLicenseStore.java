@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+/**
+ * Persists the key set ids of offline DRM licenses, along with when each license expires. Licenses
+ * are stored under a key built from the content id, provider and DRM init data, so the same title
+ * played with a different key restores nothing.
+ */
+public final class OfflineLicenseStore {
+  private static final String PREFS_NAME = "gvr_offline_licenses";
+  private static final char SEPARATOR = ':';
+
+  /** Expiration time used for licenses that do not report a duration. */
+  public static final long NO_EXPIRATION = Long.MAX_VALUE;
+
+  private static OfflineLicenseStore instance;
+
+  private final SharedPreferences prefs;
+
+  /** Returns the store for the application. */
+  public static synchronized OfflineLicenseStore getInstance(Context context) {
+    if (instance == null) {
+      instance = new OfflineLicenseStore(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private OfflineLicenseStore(Context context) {
+    prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+  }
+
+  /**
+   * Returns the key set id stored for the license, or null if there is none.
+   *
+   * @param licenseKey - the key the license was stored under.
+   */
+  public synchronized byte[] getKeySetId(String licenseKey) {
+    String value = prefs.getString(licenseKey, null);
+    if (value == null) {
+      return null;
+    }
+    return Base64.decode(value.substring(value.indexOf(SEPARATOR) + 1), Base64.NO_WRAP);
+  }
+
+  /**
+   * Returns when the license expires, in milliseconds since the epoch, or {@link #NO_EXPIRATION}.
+   *
+   * @param licenseKey - the key the license was stored under.
+   */
+  public synchronized long getExpirationTimeMs(String licenseKey) {
+    String value = prefs.getString(licenseKey, null);
+    if (value == null) {
+      return NO_EXPIRATION;
+    }
+    return Long.parseLong(value.substring(0, value.indexOf(SEPARATOR)));
+  }
+
+  /**
+   * Stores the key set id of a license.
+   *
+   * @param licenseKey - the key to store the license under.
+   * @param keySetId - the key set id returned by MediaDrm for the offline license.
+   * @param expirationTimeMs - when the license expires, in milliseconds since the epoch.
+   */
+  public synchronized void put(String licenseKey, byte[] keySetId, long expirationTimeMs) {
+    prefs
+        .edit()
+        .putString(
+            licenseKey,
+            Long.toString(expirationTimeMs)
+                + SEPARATOR
+                + Base64.encodeToString(keySetId, Base64.NO_WRAP))
+        .apply();
+  }
+
+  /**
+   * Removes a license, for example because it has expired or could not be restored.
+   *
+   * @param licenseKey - the key the license was stored under.
+   */
+  public synchronized void remove(String licenseKey) {
+    prefs.edit().remove(licenseKey).apply();
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.util.Base64;
+import android.util.Xml;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.ContentProtection;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * Writes the manifest of a downloaded DASH title. Each downloaded representation is described with
+ * an explicit segment list that points at the files on disk, relative to the manifest, whatever
+ * addressing the original manifest used. Representations that were a single file keep their
+ * index and initialization ranges, since the file is stored whole.
+ */
+final class OfflineManifestWriter {
+
+  private static final String NAMESPACE_MPD = "urn:mpeg:dash:schema:mpd:2011";
+  private static final String NAMESPACE_CENC = "urn:mpeg:cenc:2013";
+  private static final String SCHEME_AUDIO_CHANNELS =
+      "urn:mpeg:dash:23003:3:audio_channel_configuration:2011";
+
+  /** Segment times are written in microseconds, like the representation index reports them. */
+  private static final long TIMESCALE = 1000000;
+
+  /** A downloaded representation and where its data was stored. */
+  static final class Track {
+    public final int periodIndex;
+    public final AdaptationSet adaptationSet;
+    public final Representation representation;
+    /** The initialization segment, or null if there is none or it is part of the media file. */
+    public String initializationPath;
+    /** The media file of a single segment representation, or null for segmented ones. */
+    public String mediaPath;
+    public String[] segmentPaths;
+    public long[] segmentStartTimesUs;
+    public long[] segmentDurationsUs;
+
+    Track(int periodIndex, AdaptationSet adaptationSet, Representation representation) {
+      this.periodIndex = periodIndex;
+      this.adaptationSet = adaptationSet;
+      this.representation = representation;
+    }
+  }
+
+  private OfflineManifestWriter() {}
+
+  /**
+   * Writes the manifest.
+   *
+   * @param file - where to write the manifest. Track paths are relative to its directory.
+   * @param manifest - the manifest the title was downloaded from.
+   * @param tracks - the downloaded representations.
+   */
+  static void write(File file, MediaPresentationDescription manifest, List<Track> tracks)
+      throws IOException {
+    OutputStream outputStream = new FileOutputStream(file);
+    try {
+      XmlSerializer xml = Xml.newSerializer();
+      xml.setOutput(outputStream, "UTF-8");
+      xml.startDocument("UTF-8", null);
+      xml.setPrefix("", NAMESPACE_MPD);
+      xml.setPrefix("cenc", NAMESPACE_CENC);
+      xml.startTag(NAMESPACE_MPD, "MPD");
+      xml.attribute(null, "type", "static");
+      xml.attribute(null, "profiles", "urn:mpeg:dash:profile:full:2011");
+      xml.attribute(null, "minBufferTime", formatDuration(manifest.minBufferTime));
+      if (manifest.duration != -1) {
+        xml.attribute(null, "mediaPresentationDuration", formatDuration(manifest.duration));
+      }
+      for (int i = 0; i < manifest.getPeriodCount(); i++) {
+        writePeriod(xml, manifest, i, tracks);
+      }
+      xml.endTag(NAMESPACE_MPD, "MPD");
+      xml.endDocument();
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  private static void writePeriod(
+      XmlSerializer xml, MediaPresentationDescription manifest, int periodIndex, List<Track> tracks)
+      throws IOException {
+    Period period = manifest.getPeriod(periodIndex);
+    xml.startTag(NAMESPACE_MPD, "Period");
+    if (period.id != null) {
+      xml.attribute(null, "id", period.id);
+    }
+    xml.attribute(null, "start", formatDuration(period.startMs));
+    long durationMs = manifest.getPeriodDuration(periodIndex);
+    if (durationMs != -1) {
+      xml.attribute(null, "duration", formatDuration(durationMs));
+    }
+    for (Track track : tracks) {
+      if (track.periodIndex == periodIndex) {
+        writeAdaptationSet(xml, track);
+      }
+    }
+    xml.endTag(NAMESPACE_MPD, "Period");
+  }
+
+  private static void writeAdaptationSet(XmlSerializer xml, Track track) throws IOException {
+    Format format = track.representation.format;
+    xml.startTag(NAMESPACE_MPD, "AdaptationSet");
+    xml.attribute(null, "id", Integer.toString(track.adaptationSet.id));
+    if (format.language != null) {
+      xml.attribute(null, "lang", format.language);
+    }
+    for (ContentProtection contentProtection : track.adaptationSet.contentProtections) {
+      writeContentProtection(xml, contentProtection);
+    }
+
+    xml.startTag(NAMESPACE_MPD, "Representation");
+    xml.attribute(null, "id", format.id);
+    xml.attribute(null, "mimeType", format.mimeType);
+    if (format.codecs != null) {
+      xml.attribute(null, "codecs", format.codecs);
+    }
+    xml.attribute(null, "bandwidth", Integer.toString(format.bitrate));
+    if (format.width > 0 && format.height > 0) {
+      xml.attribute(null, "width", Integer.toString(format.width));
+      xml.attribute(null, "height", Integer.toString(format.height));
+    }
+    if (format.frameRate > 0) {
+      xml.attribute(null, "frameRate", String.format(Locale.US, "%.3f", format.frameRate));
+    }
+    if (format.audioSamplingRate > 0) {
+      xml.attribute(null, "audioSamplingRate", Integer.toString(format.audioSamplingRate));
+    }
+    if (format.audioChannels > 0) {
+      xml.startTag(NAMESPACE_MPD, "AudioChannelConfiguration");
+      xml.attribute(null, "schemeIdUri", SCHEME_AUDIO_CHANNELS);
+      xml.attribute(null, "value", Integer.toString(format.audioChannels));
+      xml.endTag(NAMESPACE_MPD, "AudioChannelConfiguration");
+    }
+
+    if (track.mediaPath != null) {
+      writeSegmentBase(xml, track);
+    } else {
+      writeSegmentList(xml, track);
+    }
+    xml.endTag(NAMESPACE_MPD, "Representation");
+    xml.endTag(NAMESPACE_MPD, "AdaptationSet");
+  }
+
+  private static void writeContentProtection(
+      XmlSerializer xml, ContentProtection contentProtection) throws IOException {
+    xml.startTag(NAMESPACE_MPD, "ContentProtection");
+    xml.attribute(null, "schemeIdUri", contentProtection.schemeUriId);
+    if (contentProtection.data != null) {
+      xml.startTag(NAMESPACE_CENC, "pssh");
+      xml.text(Base64.encodeToString(contentProtection.data.data, Base64.NO_WRAP));
+      xml.endTag(NAMESPACE_CENC, "pssh");
+    }
+    xml.endTag(NAMESPACE_MPD, "ContentProtection");
+  }
+
+  private static void writeSegmentBase(XmlSerializer xml, Track track) throws IOException {
+    Representation representation = track.representation;
+    xml.startTag(NAMESPACE_MPD, "BaseURL");
+    xml.text(track.mediaPath);
+    xml.endTag(NAMESPACE_MPD, "BaseURL");
+    xml.startTag(NAMESPACE_MPD, "SegmentBase");
+    xml.attribute(null, "timescale", Long.toString(TIMESCALE));
+    xml.attribute(
+        null, "presentationTimeOffset", Long.toString(representation.presentationTimeOffsetUs));
+    RangedUri indexUri = representation.getIndexUri();
+    if (indexUri != null && indexUri.length != -1) {
+      xml.attribute(null, "indexRange", formatRange(indexUri));
+    }
+    RangedUri initializationUri = representation.getInitializationUri();
+    if (initializationUri != null && initializationUri.length != -1) {
+      xml.startTag(NAMESPACE_MPD, "Initialization");
+      xml.attribute(null, "range", formatRange(initializationUri));
+      xml.endTag(NAMESPACE_MPD, "Initialization");
+    }
+    xml.endTag(NAMESPACE_MPD, "SegmentBase");
+  }
+
+  private static void writeSegmentList(XmlSerializer xml, Track track) throws IOException {
+    xml.startTag(NAMESPACE_MPD, "SegmentList");
+    xml.attribute(null, "timescale", Long.toString(TIMESCALE));
+    long presentationTimeOffsetUs = track.representation.presentationTimeOffsetUs;
+    xml.attribute(null, "presentationTimeOffset", Long.toString(presentationTimeOffsetUs));
+    if (track.initializationPath != null) {
+      xml.startTag(NAMESPACE_MPD, "Initialization");
+      xml.attribute(null, "sourceURL", track.initializationPath);
+      xml.endTag(NAMESPACE_MPD, "Initialization");
+    }
+    // The index reports segment times relative to the period, while the timeline is in media time.
+    xml.startTag(NAMESPACE_MPD, "SegmentTimeline");
+    for (int i = 0; i < track.segmentPaths.length; i++) {
+      xml.startTag(NAMESPACE_MPD, "S");
+      xml.attribute(
+          null, "t", Long.toString(track.segmentStartTimesUs[i] + presentationTimeOffsetUs));
+      xml.attribute(null, "d", Long.toString(track.segmentDurationsUs[i]));
+      xml.endTag(NAMESPACE_MPD, "S");
+    }
+    xml.endTag(NAMESPACE_MPD, "SegmentTimeline");
+    for (String segmentPath : track.segmentPaths) {
+      xml.startTag(NAMESPACE_MPD, "SegmentURL");
+      xml.attribute(null, "media", segmentPath);
+      xml.endTag(NAMESPACE_MPD, "SegmentURL");
+    }
+    xml.endTag(NAMESPACE_MPD, "SegmentList");
+  }
+
+  private static String formatRange(RangedUri rangedUri) {
+    return rangedUri.start + "-" + (rangedUri.start + rangedUri.length - 1);
+  }
+
+  private static String formatDuration(long durationMs) {
+    return String.format(Locale.US, "PT%.3fS", durationMs / 1000.0);
+  }
+}
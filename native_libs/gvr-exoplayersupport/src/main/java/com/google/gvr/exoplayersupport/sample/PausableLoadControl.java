@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+
+/**
+ * Load control that can hold back all loading, such as while playback has been paused for a long
+ * time. The underlying load control keeps tracking the loaders, so loading picks up where it left
+ * off once allowed again. The media already buffered is kept, so playback resumes without
+ * rebuffering.
+ */
+public final class PausableLoadControl implements LoadControl {
+
+  private final LoadControl loadControl;
+  private volatile boolean loadingAllowed;
+
+  /** @param loadControl - decides how much media is buffered while loading is allowed. */
+  public PausableLoadControl(LoadControl loadControl) {
+    this.loadControl = loadControl;
+    loadingAllowed = true;
+  }
+
+  /**
+   * Allows or holds back loading. Loads in progress complete, but no new ones start while loading
+   * is held back. Takes effect the next time the sample sources update, on the playback thread.
+   */
+  public void setLoadingAllowed(boolean loadingAllowed) {
+    this.loadingAllowed = loadingAllowed;
+  }
+
+  /** Returns whether loading is allowed. */
+  public boolean isLoadingAllowed() {
+    return loadingAllowed;
+  }
+
+  @Override
+  public void register(Object loader, int bufferSizeContribution) {
+    loadControl.register(loader, bufferSizeContribution);
+  }
+
+  @Override
+  public void unregister(Object loader) {
+    loadControl.unregister(loader);
+  }
+
+  @Override
+  public Allocator getAllocator() {
+    return loadControl.getAllocator();
+  }
+
+  @Override
+  public void trimAllocator() {
+    loadControl.trimAllocator();
+  }
+
+  @Override
+  public boolean update(
+      Object loader, long playbackPositionUs, long nextLoadPositionUs, boolean loading) {
+    boolean shouldLoad =
+        loadControl.update(loader, playbackPositionUs, nextLoadPositionUs, loading);
+    return shouldLoad && loadingAllowed;
+  }
+}
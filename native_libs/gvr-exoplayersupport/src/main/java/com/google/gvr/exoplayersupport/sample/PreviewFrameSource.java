@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.util.Log;
+import android.util.LruCache;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.util.ManifestFetcher;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides the preview frames shown while scrubbing, from the thumbnail or trick play adaptation
+ * sets of a DASH presentation. A thumbnail sheet or a trick play segment is a few kilobytes, where
+ * seeking the full resolution 360 video loads megabytes and flushes the decoder.
+ *
+ * <p>Frames are loaded in the background, one at a time. Only the last position asked for is
+ * loaded next, so the positions scrubbed over in between are skipped. The frames loaded are kept in
+ * a small LRU cache, so scrubbing back and forth over the same range loads nothing more.
+ *
+ * <p>Thumbnails are preferred when a period has both. Trick play segments are decoded with {@link
+ * MediaMetadataRetriever}, which gives the first key frame of each segment.
+ */
+public final class PreviewFrameSource {
+  private static final String TAG = "PreviewFrameSource";
+
+  /** The most bytes of frames kept in memory. */
+  private static final int MAX_CACHE_BYTES = 4 * 1024 * 1024;
+  /** Segments larger than this are not loaded for previews. */
+  private static final int MAX_SEGMENT_SIZE = 2 * 1024 * 1024;
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+  private static final String TRICK_PLAY_FILE_PREFIX = "trick_play_preview";
+  private static final String TRICK_PLAY_FILE_SUFFIX = ".mp4";
+
+  private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
+  private final MediaPresentationDescription manifest;
+  private final DataSource dataSource;
+  private final File cacheDir;
+  private final ExecutorService executor;
+  private final LruCache<String, Bitmap> frames;
+  private final Set<String> failedSegments;
+  private final Runnable loader;
+
+  private Frame pendingFrame;
+  private boolean loading;
+  private boolean released;
+  private long bytesLoaded;
+  private int segmentsLoaded;
+
+  /**
+   * Creates a preview source for a presentation, or returns null if its periods have no thumbnail
+   * or trick play adaptation sets.
+   *
+   * @param context - the context of the application.
+   * @param manifestFetcher - the fetcher of the manifest updates of a live presentation, or null.
+   * @param manifest - the manifest, used until the fetcher has one.
+   * @param dataSource - the data source used to load the previews.
+   */
+  public static PreviewFrameSource newInstance(
+      Context context,
+      ManifestFetcher<MediaPresentationDescription> manifestFetcher,
+      MediaPresentationDescription manifest,
+      DataSource dataSource) {
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      if (getPreviewSet(manifest.getPeriod(i)) != null) {
+        return new PreviewFrameSource(context, manifestFetcher, manifest, dataSource);
+      }
+    }
+    return null;
+  }
+
+  private PreviewFrameSource(
+      Context context,
+      ManifestFetcher<MediaPresentationDescription> manifestFetcher,
+      MediaPresentationDescription manifest,
+      DataSource dataSource) {
+    this.manifestFetcher = manifestFetcher;
+    this.manifest = manifest;
+    this.dataSource = dataSource;
+    cacheDir = context.getCacheDir();
+    executor = Executors.newSingleThreadExecutor();
+    frames =
+        new LruCache<String, Bitmap>(MAX_CACHE_BYTES) {
+          @Override
+          protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+          }
+        };
+    failedSegments = new HashSet<>();
+    loader =
+        new Runnable() {
+          @Override
+          public void run() {
+            loadPendingFrames();
+          }
+        };
+  }
+
+  /**
+   * Returns the preview frame of a position. A frame that is not loaded yet is loaded in the
+   * background, so this is called again, such as on every frame drawn while scrubbing, until it
+   * returns the frame.
+   *
+   * @param positionMs - the position of the frame.
+   * @return the frame, or null if it is not loaded yet or the position has no preview.
+   */
+  public Bitmap getPreviewFrame(long positionMs) {
+    Frame frame = getFrame(positionMs);
+    if (frame == null) {
+      return null;
+    }
+    Bitmap bitmap = frames.get(frame.getKey());
+    if (bitmap == null) {
+      request(frame);
+    }
+    return bitmap;
+  }
+
+  /** Stops loading and drops the frames. Frames already returned stay valid. */
+  public synchronized void release() {
+    released = true;
+    pendingFrame = null;
+    executor.shutdownNow();
+    frames.evictAll();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return segmentsLoaded + " preview segments, " + bytesLoaded / 1024 + "KB";
+  }
+
+  private synchronized void request(Frame frame) {
+    if (released || failedSegments.contains(frame.segmentKey)) {
+      return;
+    }
+    pendingFrame = frame;
+    if (!loading) {
+      loading = true;
+      executor.execute(loader);
+    }
+  }
+
+  private void loadPendingFrames() {
+    while (true) {
+      Frame frame;
+      synchronized (this) {
+        frame = pendingFrame;
+        pendingFrame = null;
+        if (frame == null || released) {
+          loading = false;
+          return;
+        }
+      }
+      if (frames.get(frame.getKey()) != null) {
+        continue;
+      }
+      try {
+        if (frame.columns > 0) {
+          loadThumbnails(frame);
+        } else {
+          loadTrickPlayFrame(frame);
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Unable to load the preview " + frame.segmentKey, e);
+        synchronized (this) {
+          failedSegments.add(frame.segmentKey);
+        }
+      }
+    }
+  }
+
+  /** Loads a thumbnail sheet and cuts it into the frames it holds. */
+  private void loadThumbnails(Frame frame) throws IOException {
+    byte[] data = load(frame.segmentUri, frame.representation);
+    Bitmap sheet = BitmapFactory.decodeByteArray(data, 0, data.length);
+    if (sheet == null) {
+      throw new IOException("Undecodable thumbnail sheet");
+    }
+    int count = frame.columns * frame.rows;
+    int width = sheet.getWidth() / frame.columns;
+    int height = sheet.getHeight() / frame.rows;
+    for (int i = 0; i < count; i++) {
+      Bitmap thumbnail =
+          Bitmap.createBitmap(
+              sheet, (i % frame.columns) * width, (i / frame.columns) * height, width, height);
+      frames.put(frame.segmentKey + "#" + i, thumbnail);
+    }
+    if (count > 1) {
+      sheet.recycle();
+    }
+  }
+
+  /**
+   * Loads a trick play segment and decodes its first frame. The segment is written to a file of
+   * its own, since other players may be decoding previews at the same time.
+   */
+  private void loadTrickPlayFrame(Frame frame) throws IOException {
+    RangedUri initializationUri = frame.representation.getInitializationUri();
+    File trickPlayFile =
+        File.createTempFile(TRICK_PLAY_FILE_PREFIX, TRICK_PLAY_FILE_SUFFIX, cacheDir);
+    try {
+      FileOutputStream out = new FileOutputStream(trickPlayFile);
+      try {
+        if (initializationUri != null) {
+          out.write(load(initializationUri, frame.representation));
+        }
+        out.write(load(frame.segmentUri, frame.representation));
+      } finally {
+        out.close();
+      }
+      MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+      try {
+        retriever.setDataSource(trickPlayFile.getAbsolutePath());
+        Bitmap bitmap = retriever.getFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        if (bitmap == null) {
+          throw new IOException("Undecodable trick play segment");
+        }
+        frames.put(frame.getKey(), bitmap);
+      } catch (RuntimeException e) {
+        throw new IOException("Unable to decode the trick play segment", e);
+      } finally {
+        retriever.release();
+      }
+    } finally {
+      trickPlayFile.delete();
+    }
+  }
+
+  private byte[] load(RangedUri uri, Representation representation) throws IOException {
+    DataSpec dataSpec =
+        new DataSpec(uri.getUri(), uri.start, uri.length, representation.getCacheKey());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      long length = dataSource.open(dataSpec);
+      if (length > MAX_SEGMENT_SIZE) {
+        throw new IOException("Preview segment too large: " + length);
+      }
+      byte[] buffer = new byte[READ_BUFFER_SIZE];
+      int read;
+      while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+        out.write(buffer, 0, read);
+        if (out.size() > MAX_SEGMENT_SIZE) {
+          throw new IOException("Preview segment too large");
+        }
+      }
+    } finally {
+      dataSource.close();
+    }
+    synchronized (this) {
+      bytesLoaded += out.size();
+      segmentsLoaded++;
+    }
+    return out.toByteArray();
+  }
+
+  /** Returns the frame that previews a position, or null if there is none. */
+  private Frame getFrame(long positionMs) {
+    MediaPresentationDescription current = getManifest();
+    int periodIndex = DashSyncIndex.getPeriodIndex(current, positionMs);
+    Period period = current.getPeriod(periodIndex);
+    AdaptationSet previewSet = getPreviewSet(period);
+    if (previewSet == null) {
+      return null;
+    }
+    Representation representation = getLowestBitrate(previewSet.representations);
+    DashSegmentIndex index = representation != null ? representation.getIndex() : null;
+    if (index == null) {
+      return null;
+    }
+    long periodDurationUs = DashSyncIndex.getPeriodDurationUs(current, periodIndex);
+    long timeUs = Math.max(0, (positionMs - period.startMs) * 1000);
+    int segmentNum = index.getSegmentNum(timeUs, periodDurationUs);
+    RangedUri segmentUri = index.getSegmentUrl(segmentNum);
+    String segmentKey = segmentUri.getUriString() + "@" + segmentUri.start;
+    if (!(previewSet instanceof ThumbnailAdaptationSet)) {
+      return new Frame(representation, segmentUri, segmentKey, 0, 0, 0);
+    }
+
+    // The thumbnails of a sheet evenly split the duration of its segment.
+    ThumbnailAdaptationSet thumbnailSet = (ThumbnailAdaptationSet) previewSet;
+    int count = thumbnailSet.columns * thumbnailSet.rows;
+    long durationUs = index.getDurationUs(segmentNum, periodDurationUs);
+    long offsetUs = timeUs - index.getTimeUs(segmentNum);
+    int thumbnailIndex =
+        durationUs > 0 ? (int) Math.max(0, Math.min(count - 1, offsetUs * count / durationUs)) : 0;
+    return new Frame(
+        representation,
+        segmentUri,
+        segmentKey,
+        thumbnailSet.columns,
+        thumbnailSet.rows,
+        thumbnailIndex);
+  }
+
+  private MediaPresentationDescription getManifest() {
+    MediaPresentationDescription fetched =
+        manifestFetcher != null ? manifestFetcher.getManifest() : null;
+    return fetched != null ? fetched : manifest;
+  }
+
+  /** Returns the thumbnail set of a period, or else its trick play set, or null if it has none. */
+  private static AdaptationSet getPreviewSet(Period period) {
+    AdaptationSet trickPlaySet = null;
+    for (AdaptationSet adaptationSet : period.adaptationSets) {
+      if (adaptationSet.representations.isEmpty()) {
+        continue;
+      }
+      if (adaptationSet instanceof ThumbnailAdaptationSet) {
+        return adaptationSet;
+      }
+      if (adaptationSet instanceof TrickPlayAdaptationSet && trickPlaySet == null) {
+        trickPlaySet = adaptationSet;
+      }
+    }
+    return trickPlaySet;
+  }
+
+  private static Representation getLowestBitrate(List<Representation> representations) {
+    Representation lowest = null;
+    for (Representation representation : representations) {
+      if (lowest == null || representation.format.bitrate < lowest.format.bitrate) {
+        lowest = representation;
+      }
+    }
+    return lowest;
+  }
+
+  /**
+   * A preview frame: a thumbnail of a thumbnail sheet, or the first frame of a trick play segment,
+   * for which columns and rows are 0.
+   */
+  private static final class Frame {
+    final Representation representation;
+    final RangedUri segmentUri;
+    final String segmentKey;
+    final int columns;
+    final int rows;
+    final int index;
+
+    Frame(
+        Representation representation,
+        RangedUri segmentUri,
+        String segmentKey,
+        int columns,
+        int rows,
+        int index) {
+      this.representation = representation;
+      this.segmentUri = segmentUri;
+      this.segmentKey = segmentKey;
+      this.columns = columns;
+      this.rows = rows;
+      this.index = index;
+    }
+
+    String getKey() {
+      return columns > 0 ? segmentKey + "#" + index : segmentKey;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+/**
+ * Lowers the highest video height and frame rate that adaptive playback picks, before the device
+ * gets hot enough for the system to throttle the CPU and GPU. Throttling drops frames, which in VR
+ * is far worse than a lower resolution. The limits follow a ladder of levels, from no limit to
+ * 720p at 30 fps.
+ *
+ * <p>Each input asks for a level:
+ *
+ * <ul>
+ *   <li>The battery temperature, which follows the temperature of the device, asks for a higher
+ *       level every 2 degrees Celsius from 38. It has to fall a degree below a threshold before
+ *       the level drops.
+ *   <li>A low battery that is not charging asks for 1080p at 60 fps, and a very low one for 30 fps.
+ *   <li>Dropping more than a few frames a second asks for one level above the current one. The
+ *       request is withdrawn one level at a time, after a minute without drops each.
+ * </ul>
+ *
+ * <p>The governor moves one level at a time towards the highest level asked for. It moves up at
+ * most every 10 seconds, to react before throttling, and down at most every minute, so it does
+ * not oscillate between levels.
+ *
+ * <p>The governor has no dependency on Android or the player, so it can be driven with synthetic
+ * sensor traces. One instance is shared by all the players, as they all heat the same device. It
+ * is updated from the video thread and read from the playback threads, so all methods are
+ * synchronized.
+ */
+public final class QualityGovernor {
+
+  /** The limit of a level that does not limit. */
+  public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+  /** The highest video height of each level. */
+  private static final int[] MAX_HEIGHTS = {NO_LIMIT, 1440, 1080, 1080, 720};
+
+  /** The highest video frame rate of each level. */
+  private static final int[] MAX_FRAME_RATES = {NO_LIMIT, 60, 60, 30, 30};
+
+  /** The highest level. */
+  public static final int MAX_LEVEL = MAX_HEIGHTS.length - 1;
+
+  /** The battery temperatures from which each level above the first is asked for. */
+  private static final float[] TEMPERATURE_THRESHOLDS_C = {38, 40, 42, 44};
+
+  /** How far below a threshold the temperature has to fall to withdraw its level. */
+  private static final float TEMPERATURE_HYSTERESIS_C = 1;
+
+  /** The battery level that asks for 1080p at 60 fps when not charging. */
+  private static final int LOW_BATTERY_PERCENT = 20;
+
+  /** The battery level that asks for 1080p at 30 fps when not charging. */
+  private static final int CRITICAL_BATTERY_PERCENT = 10;
+
+  /** The dropped frames per second that ask for a higher level. */
+  private static final float MAX_DROPPED_FRAMES_PER_SECOND = 3;
+
+  /** The window the dropped frames are counted over. */
+  private static final long DROPPED_FRAMES_WINDOW_MS = 5000;
+
+  /** How long without drops before the level asked for by drops is lowered. */
+  private static final long DROPPED_FRAMES_RECOVERY_MS = 60000;
+
+  /** The shortest time between two moves to a higher level. */
+  private static final long MIN_UP_INTERVAL_MS = 10000;
+
+  /** The shortest time after any move before a move to a lower level. */
+  private static final long MIN_DOWN_INTERVAL_MS = 60000;
+
+  private static QualityGovernor instance;
+
+  private boolean enabled;
+  private int level;
+  private long lastChangeMs;
+  private int changeCount;
+
+  private int temperatureLevel;
+  private float temperatureC;
+  private int batteryLevel;
+
+  private int droppedFramesLevel;
+  private long droppedFramesWindowStartMs;
+  private int droppedFramesInWindow;
+  private long lastExcessiveDropsMs;
+
+  /** Returns the governor shared by all the players. */
+  public static synchronized QualityGovernor getInstance() {
+    if (instance == null) {
+      instance = new QualityGovernor();
+    }
+    return instance;
+  }
+
+  public QualityGovernor() {
+    enabled = true;
+    lastChangeMs = -1;
+    droppedFramesWindowStartMs = -1;
+    temperatureC = Float.NaN;
+  }
+
+  /** Enables the governor, or disables it, which removes the limits. */
+  public synchronized void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /** Returns whether the governor limits the video. */
+  public synchronized boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Reports frames the video renderer dropped.
+   *
+   * @param count - the number of frames dropped.
+   * @param nowMs - the current time.
+   */
+  public synchronized void onDroppedFrames(int count, long nowMs) {
+    if (droppedFramesWindowStartMs == -1) {
+      droppedFramesWindowStartMs = nowMs;
+    }
+    droppedFramesInWindow += count;
+  }
+
+  /**
+   * Reports the state of the battery.
+   *
+   * @param temperatureC - the temperature of the battery, in degrees Celsius.
+   * @param levelPercent - the charge of the battery, from 0 to 100.
+   * @param charging - true if the battery is charging.
+   */
+  public synchronized void onBatteryChanged(
+      float temperatureC, int levelPercent, boolean charging) {
+    this.temperatureC = temperatureC;
+    int newTemperatureLevel = 0;
+    for (int i = 0; i < TEMPERATURE_THRESHOLDS_C.length; i++) {
+      // Going down a level needs the temperature to fall below the threshold by the hysteresis.
+      float threshold =
+          i < temperatureLevel
+              ? TEMPERATURE_THRESHOLDS_C[i] - TEMPERATURE_HYSTERESIS_C
+              : TEMPERATURE_THRESHOLDS_C[i];
+      if (temperatureC >= threshold) {
+        newTemperatureLevel = i + 1;
+      }
+    }
+    temperatureLevel = newTemperatureLevel;
+    if (charging) {
+      batteryLevel = 0;
+    } else if (levelPercent <= CRITICAL_BATTERY_PERCENT) {
+      batteryLevel = 3;
+    } else if (levelPercent <= LOW_BATTERY_PERCENT) {
+      batteryLevel = 2;
+    } else {
+      batteryLevel = 0;
+    }
+  }
+
+  /**
+   * Moves the level one step towards the highest level the inputs ask for, when the time since the
+   * last move allows it. Called periodically.
+   *
+   * @param nowMs - the current time.
+   * @return true if the level changed.
+   */
+  public synchronized boolean update(long nowMs) {
+    updateDroppedFramesLevel(nowMs);
+    int target = Math.max(temperatureLevel, Math.max(batteryLevel, droppedFramesLevel));
+    long sinceChangeMs = lastChangeMs == -1 ? Long.MAX_VALUE : nowMs - lastChangeMs;
+    if (target > level && sinceChangeMs >= MIN_UP_INTERVAL_MS) {
+      level++;
+    } else if (target < level && sinceChangeMs >= MIN_DOWN_INTERVAL_MS) {
+      level--;
+    } else {
+      return false;
+    }
+    lastChangeMs = nowMs;
+    changeCount++;
+    return true;
+  }
+
+  /** Returns the current level, from 0 for no limit to MAX_LEVEL. */
+  public synchronized int getLevel() {
+    return level;
+  }
+
+  /** Returns the highest video height to play, or NO_LIMIT. */
+  public synchronized int getMaxHeight() {
+    return enabled ? MAX_HEIGHTS[level] : NO_LIMIT;
+  }
+
+  /** Returns the highest video frame rate to play, or NO_LIMIT. */
+  public synchronized int getMaxFrameRate() {
+    return enabled ? MAX_FRAME_RATES[level] : NO_LIMIT;
+  }
+
+  /** Returns how many times the level changed. */
+  public synchronized int getChangeCount() {
+    return changeCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "level "
+        + level
+        + " (temperature "
+        + temperatureC
+        + "C asks "
+        + temperatureLevel
+        + ", battery asks "
+        + batteryLevel
+        + ", dropped frames ask "
+        + droppedFramesLevel
+        + "), "
+        + changeCount
+        + " changes";
+  }
+
+  private void updateDroppedFramesLevel(long nowMs) {
+    if (droppedFramesWindowStartMs != -1
+        && nowMs - droppedFramesWindowStartMs >= DROPPED_FRAMES_WINDOW_MS) {
+      float droppedPerSecond =
+          droppedFramesInWindow * 1000f / (nowMs - droppedFramesWindowStartMs);
+      if (droppedPerSecond > MAX_DROPPED_FRAMES_PER_SECOND) {
+        droppedFramesLevel = Math.min(MAX_LEVEL, level + 1);
+        lastExcessiveDropsMs = nowMs;
+      }
+      droppedFramesWindowStartMs = -1;
+      droppedFramesInWindow = 0;
+    }
+    if (droppedFramesLevel > 0 && nowMs - lastExcessiveDropsMs >= DROPPED_FRAMES_RECOVERY_MS) {
+      droppedFramesLevel--;
+      lastExcessiveDropsMs = nowMs;
+    }
+  }
+}
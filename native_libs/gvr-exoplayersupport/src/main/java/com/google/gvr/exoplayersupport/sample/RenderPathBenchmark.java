@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Measures the per-frame render path of a {@link VideoTexture} on the display frames the renderer
+ * draws, as enabled by {@link
+ * com.google.gvr.exoplayersupport.DefaultVideoSupport#setRenderPathBenchmarkFrames}. The texture
+ * brackets each update with {@link #beginFrame} and {@link #endFrame}, so the frames measured are
+ * real display frames at the display rate, with and without a new video frame to latch, and the
+ * frame pacer sees the same timings as without the benchmark.
+ *
+ * <p>Allocations are counted with the runtime's per-thread allocation counter, which is on while
+ * the frames are measured. Only its change across each update is added up, so the objects the
+ * renderer allocates on the GL thread between updates are not counted. The render path is
+ * expected to allocate nothing, so any allocation per frame is a regression.
+ *
+ * <p>Only called on the GL thread, except for {@link #getResult}.
+ */
+public final class RenderPathBenchmark {
+
+  private static final String TAG = "RenderPathBenchmark";
+
+  /** Frames rendered before measuring, so class loading and compilation are not counted. */
+  private static final int WARMUP_FRAMES = 60;
+
+  /** The result of a run. */
+  public static final class Result {
+    public final int frames;
+    public final int latchedFrames;
+    public final int allocations;
+    public final int allocatedBytes;
+    public final long elapsedNs;
+
+    private Result(
+        int frames, int latchedFrames, int allocations, int allocatedBytes, long elapsedNs) {
+      this.frames = frames;
+      this.latchedFrames = latchedFrames;
+      this.allocations = allocations;
+      this.allocatedBytes = allocatedBytes;
+      this.elapsedNs = elapsedNs;
+    }
+
+    /** Returns the number of objects allocated per frame. */
+    public float getAllocationsPerFrame() {
+      return frames == 0 ? 0 : (float) allocations / frames;
+    }
+
+    /** Returns the number of bytes allocated per frame. */
+    public int getAllocatedBytesPerFrame() {
+      return frames == 0 ? 0 : allocatedBytes / frames;
+    }
+
+    /** Returns the average time spent in the render path per frame. */
+    public long getNanosPerFrame() {
+      return frames == 0 ? 0 : elapsedNs / frames;
+    }
+
+    @Override
+    public String toString() {
+      return frames
+          + " frames, "
+          + latchedFrames
+          + " with a new video frame, "
+          + getAllocationsPerFrame()
+          + " allocations ("
+          + getAllocatedBytesPerFrame()
+          + " bytes) per frame, "
+          + getNanosPerFrame() / 1000
+          + "us per frame";
+    }
+  }
+
+  private final int frames;
+  private int warmupFrames;
+  private int measuredFrames;
+  private int latchedFrames;
+  private int allocations;
+  private int allocatedBytes;
+  private long elapsedNs;
+  private int frameStartAllocations;
+  private int frameStartAllocatedBytes;
+  private long frameStartNs;
+  private volatile Result result;
+
+  /** @param frames - the number of display frames to measure, after a warmup. */
+  public RenderPathBenchmark(int frames) {
+    this.frames = frames;
+  }
+
+  /** Returns whether all the frames were measured. */
+  public boolean isDone() {
+    return result != null;
+  }
+
+  /** Returns the result once all the frames were measured, or null. Can be called on any thread. */
+  public Result getResult() {
+    return result;
+  }
+
+  /** Called before the texture is updated on a display frame of a playing video. */
+  @SuppressWarnings("deprecation")
+  void beginFrame() {
+    if (result != null || warmupFrames++ < WARMUP_FRAMES) {
+      return;
+    }
+    if (measuredFrames == 0) {
+      Debug.startAllocCounting();
+    }
+    frameStartAllocations = Debug.getThreadAllocCount();
+    frameStartAllocatedBytes = Debug.getThreadAllocSize();
+    frameStartNs = System.nanoTime();
+  }
+
+  /**
+   * Called after the texture was updated on the display frame.
+   *
+   * @param latched - whether a new video frame was latched.
+   */
+  @SuppressWarnings("deprecation")
+  void endFrame(boolean latched) {
+    if (result != null || warmupFrames <= WARMUP_FRAMES) {
+      return;
+    }
+    elapsedNs += System.nanoTime() - frameStartNs;
+    allocations += Debug.getThreadAllocCount() - frameStartAllocations;
+    allocatedBytes += Debug.getThreadAllocSize() - frameStartAllocatedBytes;
+    measuredFrames++;
+    if (latched) {
+      latchedFrames++;
+    }
+    if (measuredFrames < frames) {
+      return;
+    }
+    Debug.stopAllocCounting();
+    Result result =
+        new Result(measuredFrames, latchedFrames, allocations, allocatedBytes, elapsedNs);
+    if (result.allocations > 0) {
+      Log.w(TAG, "The render path allocates: " + result);
+    } else {
+      Log.i(TAG, result.toString());
+    }
+    this.result = result;
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import com.google.gvr.exoplayersupport.VideoPlayerFactory;
+
+/**
+ * Coalesces the seeks of a player. Scrubbing with a controller asks for dozens of seeks a second,
+ * and each one the player carries out flushes the decoders and cancels the loads in progress.
+ * Only one seek is let through at a time: the seeks asked for while it is in flight replace each
+ * other, and only the latest is carried out once the player is ready again.
+ *
+ * <p>Seek targets can also be moved to a sync point, the start of the segment they fall in or
+ * the closest segment start. Segments start with a key frame, so the decoder then does not have to
+ * decode and drop the frames from the start of the segment up to the target.
+ *
+ * <p>The scheduler has no dependency on Android or the player, so it can be driven with synthetic
+ * traces. Seeks are asked for from the application thread and completed from the player thread,
+ * so all methods are synchronized.
+ */
+public final class SeekScheduler {
+
+  /** How long a seek can be in flight before the next one is let through anyway. */
+  public static final long MAX_IN_FLIGHT_MS = 1000;
+
+  /** Finds the sync points around a position. */
+  public interface SyncIndex {
+    /** Returns the last sync point at or before a position, or -1 if it is not known. */
+    long getPreviousSyncMs(long positionMs);
+
+    /** Returns the first sync point after a position, or -1 if it is not known. */
+    long getNextSyncMs(long positionMs);
+  }
+
+  /** Carries out a seek. */
+  public interface Seeker {
+    /** Seeks the player to a position. */
+    void seekTo(long positionMs);
+  }
+
+  private final Seeker seeker;
+  private int mode;
+  private SyncIndex syncIndex;
+
+  private boolean inFlight;
+  private long inFlightSinceMs;
+  private long pendingPositionMs;
+  private int requestCount;
+  private int seekCount;
+
+  /** @param seeker - carries out the seeks let through. */
+  public SeekScheduler(Seeker seeker) {
+    this.seeker = seeker;
+    mode = VideoPlayerFactory.SeekExact;
+    pendingPositionMs = -1;
+  }
+
+  /**
+   * Sets how seek targets are moved to sync points.
+   *
+   * @param mode - VideoPlayerFactory.SeekExact, SeekPreviousSync or SeekClosestSync.
+   */
+  public synchronized void setMode(int mode) {
+    this.mode = mode;
+  }
+
+  /**
+   * Sets the index of the sync points of the content, or null if they are not known, in which case
+   * all seeks are exact.
+   */
+  public synchronized void setSyncIndex(SyncIndex syncIndex) {
+    this.syncIndex = syncIndex;
+  }
+
+  /**
+   * Asks for a seek. It is carried out now if no seek is in flight, and otherwise replaces the
+   * seek waiting for the one in flight.
+   *
+   * @param positionMs - the position to seek to.
+   * @param nowMs - the current time.
+   */
+  public synchronized void seekTo(long positionMs, long nowMs) {
+    requestCount++;
+    long targetMs = getTargetPositionMs(positionMs);
+    if (inFlight && nowMs - inFlightSinceMs < MAX_IN_FLIGHT_MS) {
+      pendingPositionMs = targetMs;
+      return;
+    }
+    issue(targetMs, nowMs);
+  }
+
+  /**
+   * Reports that the seek in flight completed, which lets the seek waiting for it through.
+   *
+   * @param nowMs - the current time.
+   */
+  public synchronized void onSeekProcessed(long nowMs) {
+    if (!inFlight) {
+      return;
+    }
+    inFlight = false;
+    if (pendingPositionMs >= 0) {
+      long targetMs = pendingPositionMs;
+      pendingPositionMs = -1;
+      issue(targetMs, nowMs);
+    }
+  }
+
+  /**
+   * Returns the position of the seek waiting for the one in flight, or -1 if there is none. The
+   * player reports it as the current position, so a scrub bar does not jump back.
+   */
+  public synchronized long getPendingPositionMs() {
+    return pendingPositionMs;
+  }
+
+  /** Returns whether a seek is in flight. */
+  public synchronized boolean isSeekInFlight() {
+    return inFlight;
+  }
+
+  /** Forgets the seeks and the sync index of the previous content. */
+  public synchronized void reset() {
+    inFlight = false;
+    pendingPositionMs = -1;
+    syncIndex = null;
+    requestCount = 0;
+    seekCount = 0;
+  }
+
+  /** Returns the number of seeks asked for. */
+  public synchronized int getRequestCount() {
+    return requestCount;
+  }
+
+  /** Returns the number of seeks carried out. */
+  public synchronized int getSeekCount() {
+    return seekCount;
+  }
+
+  /** Returns the position a seek to a position is carried out at, under the current mode. */
+  public synchronized long getTargetPositionMs(long positionMs) {
+    if (mode == VideoPlayerFactory.SeekExact || syncIndex == null) {
+      return positionMs;
+    }
+    long previousMs = syncIndex.getPreviousSyncMs(positionMs);
+    if (previousMs < 0) {
+      return positionMs;
+    }
+    if (mode == VideoPlayerFactory.SeekClosestSync) {
+      long nextMs = syncIndex.getNextSyncMs(positionMs);
+      if (nextMs >= 0 && nextMs - positionMs < positionMs - previousMs) {
+        return nextMs;
+      }
+    }
+    return previousMs;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "seeks " + seekCount + " of " + requestCount + " asked for";
+  }
+
+  private void issue(long positionMs, long nowMs) {
+    inFlight = true;
+    inFlightSinceMs = nowMs;
+    seekCount++;
+    seeker.seekTo(positionMs);
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.content.Context;
+import android.util.Log;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.FileDataSource;
+import com.google.android.exoplayer.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer.upstream.cache.SimpleCache;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * On-disk cache of media segments shared by the renderer builders, so rewatching a clip, seeking
+ * back past the buffer or looping does not download the media again. The least recently used
+ * segments are evicted once the cache is full.
+ *
+ * <p>Segments are keyed by their cache key, or their URL when they have none, and the byte range
+ * they cover, so ranges of the same file are cached independently. Any number of readers can read
+ * what is cached, but only one data source writes a given key at a time. A reader that finds the
+ * range it needs being written reads it from the network rather than waiting.
+ *
+ * <p>Only media is cached. Manifests, playlists and HLS keys are requested with gzip allowed and
+ * are always loaded from the network, as are sources that are not http, such as local files.
+ */
+public final class SegmentCache implements CacheDataSource.EventListener {
+  private static final String TAG = "SegmentCache";
+
+  public static final long DEFAULT_CAPACITY_BYTES = 100 * 1024 * 1024;
+
+  /** Segments are split into files of at most this size. */
+  private static final long MAX_CACHE_FILE_SIZE = 2 * 1024 * 1024;
+
+  private static long capacityBytes = DEFAULT_CAPACITY_BYTES;
+  private static SegmentCache instance;
+
+  private final SimpleCache cache;
+  private long hitBytes;
+  private long missBytes;
+
+  private SegmentCache(SimpleCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Sets the size of the cache. Only takes effect if the cache has not been opened yet in this
+   * process.
+   *
+   * @param bytes - the most bytes kept on disk, or 0 to disable caching.
+   */
+  public static synchronized void setCapacity(long bytes) {
+    if (instance != null) {
+      Log.w(TAG, "Segment cache already open, capacity stays " + capacityBytes);
+      return;
+    }
+    capacityBytes = bytes;
+  }
+
+  /** Returns the segment cache, opening it the first time. */
+  public static synchronized SegmentCache getInstance(Context context) {
+    if (instance == null) {
+      SimpleCache cache = null;
+      if (capacityBytes > 0) {
+        cache =
+            new SimpleCache(
+                new File(context.getCacheDir(), "segments"),
+                new LeastRecentlyUsedCacheEvictor(capacityBytes));
+      }
+      instance = new SegmentCache(cache);
+    }
+    return instance;
+  }
+
+  /**
+   * Returns a data source that reads media through the cache.
+   *
+   * @param upstream - the data source that loads from the network on a cache miss.
+   */
+  public DataSource createDataSource(DataSource upstream) {
+    if (cache == null) {
+      return upstream;
+    }
+    CacheDataSource cacheDataSource =
+        new CacheDataSource(
+            cache,
+            new CountingDataSource(upstream),
+            new FileDataSource(),
+            new CacheDataSink(cache, MAX_CACHE_FILE_SIZE),
+            false,
+            true,
+            this);
+    return new SegmentDataSource(upstream, cacheDataSource);
+  }
+
+  /** Returns the number of bytes served from the cache. */
+  public synchronized long getHitBytes() {
+    return hitBytes;
+  }
+
+  /** Returns the number of cacheable bytes that had to be loaded from the network. */
+  public synchronized long getMissBytes() {
+    return missBytes;
+  }
+
+  /** Returns the fraction of the cacheable bytes served from the cache, or 0 before any read. */
+  public synchronized float getHitRatio() {
+    long total = hitBytes + missBytes;
+    return total == 0 ? 0 : (float) hitBytes / total;
+  }
+
+  /** Returns the number of bytes on disk. */
+  public long getCacheSpace() {
+    return cache != null ? cache.getCacheSpace() : 0;
+  }
+
+  @Override
+  public synchronized void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+    hitBytes += cachedBytesRead;
+    Log.d(TAG, "Read " + cachedBytesRead + " bytes from cache, hit ratio " + getHitRatio());
+  }
+
+  private synchronized void onMissBytesRead(int bytesRead) {
+    missBytes += bytesRead;
+  }
+
+  private static boolean isCacheable(DataSpec dataSpec) {
+    String scheme = dataSpec.uri.getScheme();
+    return ("http".equals(scheme) || "https".equals(scheme))
+        && (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) == 0;
+  }
+
+  /** Reads cacheable data through the cache and everything else from upstream. */
+  private static final class SegmentDataSource implements DataSource {
+    private final DataSource upstream;
+    private final DataSource cacheDataSource;
+    private DataSource currentDataSource;
+
+    SegmentDataSource(DataSource upstream, DataSource cacheDataSource) {
+      this.upstream = upstream;
+      this.cacheDataSource = cacheDataSource;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      currentDataSource = isCacheable(dataSpec) ? cacheDataSource : upstream;
+      return currentDataSource.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      return currentDataSource.read(buffer, offset, readLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (currentDataSource != null) {
+        try {
+          currentDataSource.close();
+        } finally {
+          currentDataSource = null;
+        }
+      }
+    }
+  }
+
+  /** Counts the bytes the cache had to load from the network. */
+  private final class CountingDataSource implements DataSource {
+    private final DataSource upstream;
+
+    CountingDataSource(DataSource upstream) {
+      this.upstream = upstream;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      return upstream.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      int bytesRead = upstream.read(buffer, offset, readLength);
+      if (bytesRead > 0) {
+        onMissBytesRead(bytesRead);
+      }
+      return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+      upstream.close();
+    }
+  }
+}
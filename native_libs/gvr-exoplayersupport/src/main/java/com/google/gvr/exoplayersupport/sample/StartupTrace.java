@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records how long each phase of player startup takes. Phases may overlap and may begin and end on
+ * different threads. The duration of each phase is logged when it ends, along with the time since
+ * the trace was created.
+ */
+final class StartupTrace {
+  private static final String TAG = "StartupTrace";
+
+  private final String name;
+  private final long startMs;
+  private final Map<String, Long> phaseStartMs;
+
+  StartupTrace(String name) {
+    this.name = name;
+    startMs = SystemClock.elapsedRealtime();
+    phaseStartMs = new HashMap<>();
+  }
+
+  /** Marks the beginning of a phase. */
+  synchronized void begin(String phase) {
+    phaseStartMs.put(phase, SystemClock.elapsedRealtime());
+  }
+
+  /**
+   * Marks the end of a phase and reports its duration. Ending a phase that was not begun, or was
+   * already ended, does nothing.
+   */
+  synchronized void end(String phase) {
+    Long phaseStart = phaseStartMs.remove(phase);
+    if (phaseStart == null) {
+      return;
+    }
+    long now = SystemClock.elapsedRealtime();
+    Log.i(
+        TAG,
+        name
+            + " phase "
+            + phase
+            + " took "
+            + (now - phaseStart)
+            + " ms, "
+            + (now - startMs)
+            + " ms since startup began");
+  }
+}
@@ -32,6 +32,8 @@ public class TextureHandle {
     TEXTURE_EXTERNAL
   }
 
+  private static volatile boolean glErrorCheckingEnabled = false;
+
   private final int textureId;
   private final TextureType type;
   private final float[] textureMatrix = new float[16];
@@ -108,7 +110,9 @@ public class TextureHandle {
     int glTextureType =
         type == TextureType.TEXTURE_EXTERNAL ? GL_TEXTURE_EXTERNAL_OES : GLES20.GL_TEXTURE_2D;
     GLES20.glBindTexture(glTextureType, textureId);
-    checkGlError(TAG, "bind texture, layer " + bindPoint);
+    if (glErrorCheckingEnabled) {
+      checkGlError(TAG, "bind texture, layer " + bindPoint);
+    }
   }
 
   /**
@@ -138,6 +142,21 @@ public class TextureHandle {
     return type;
   }
 
+  /**
+   * Enables checking for GL errors after binding a texture. glGetError stalls the GL pipeline, so
+   * it is off by default and meant for debugging.
+   *
+   * @param enabled - whether to check for GL errors.
+   */
+  public static void setGlErrorCheckingEnabled(boolean enabled) {
+    glErrorCheckingEnabled = enabled;
+  }
+
+  /** Returns whether GL errors are checked after binding a texture. */
+  public static boolean isGlErrorCheckingEnabled() {
+    return glErrorCheckingEnabled;
+  }
+
   /**
    * Checks GL state for errors and logs a message then throw a RuntimeExecption when one is
    * encountered. Should be called regularly after calls to GL functions to help with debugging.
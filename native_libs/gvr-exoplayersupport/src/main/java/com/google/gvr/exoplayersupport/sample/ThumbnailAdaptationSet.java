@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.ContentProtection;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import java.util.List;
+
+/**
+ * Image adaptation set whose segments are sheets of thumbnails, laid out in a grid of columns by
+ * rows. The thumbnails of a sheet evenly split the duration of its segment, row by row. The set is
+ * of unknown type, so chunk sources never select it for playback.
+ */
+public final class ThumbnailAdaptationSet extends AdaptationSet {
+
+  public final int columns;
+  public final int rows;
+
+  public ThumbnailAdaptationSet(
+      int id,
+      List<Representation> representations,
+      List<ContentProtection> contentProtections,
+      int columns,
+      int rows) {
+    super(id, TYPE_UNKNOWN, representations, contentProtections);
+    this.columns = columns;
+    this.rows = rows;
+  }
+
+  /**
+   * Creates a thumbnail set from the "columnsxrows" value of a thumbnail tile property, or returns
+   * null if the value is malformed.
+   */
+  static ThumbnailAdaptationSet fromGrid(
+      int id,
+      List<Representation> representations,
+      List<ContentProtection> contentProtections,
+      String grid) {
+    String[] size = grid != null ? grid.split("x") : new String[0];
+    if (size.length != 2) {
+      return null;
+    }
+    try {
+      int columns = Integer.parseInt(size[0].trim());
+      int rows = Integer.parseInt(size[1].trim());
+      return columns > 0 && rows > 0
+          ? new ThumbnailAdaptationSet(id, representations, contentProtections, columns, rows)
+          : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
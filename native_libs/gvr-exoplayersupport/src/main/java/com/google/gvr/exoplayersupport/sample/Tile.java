@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+/**
+ * A region of a tiled equirectangular 360 video, as given by the spatial relationship description
+ * of its adaptation set. Positions are in the units of the description, with the origin at the top
+ * left of the full frame.
+ */
+public final class Tile {
+
+  /** The position of the tile among the tiles of its period. */
+  public final int index;
+
+  public final int x;
+  public final int y;
+  public final int width;
+  public final int height;
+  public final int totalWidth;
+  public final int totalHeight;
+
+  public Tile(int index, int x, int y, int width, int height, int totalWidth, int totalHeight) {
+    this.index = index;
+    this.x = x;
+    this.y = y;
+    this.width = width;
+    this.height = height;
+    this.totalWidth = totalWidth;
+    this.totalHeight = totalHeight;
+  }
+
+  /**
+   * Returns the tile described by a spatial relationship description, or null if the value is
+   * malformed or covers the whole frame.
+   *
+   * @param index - the position of the tile among the tiles of its period.
+   * @param value - the value of an SRD property: "source_id,x,y,w,h,W,H".
+   */
+  static Tile fromSpatialRelationship(int index, String value) {
+    int[] fields = Viewport.parseInts(value, 7);
+    if (fields == null) {
+      return null;
+    }
+    Tile tile = new Tile(index, fields[1], fields[2], fields[3], fields[4], fields[5], fields[6]);
+    if (tile.width <= 0
+        || tile.height <= 0
+        || tile.totalWidth <= 0
+        || tile.totalHeight <= 0
+        || (tile.width >= tile.totalWidth && tile.height >= tile.totalHeight)) {
+      return null;
+    }
+    return tile;
+  }
+
+  /** Returns the yaw of the left edge of the tile, in degrees. */
+  public float getLeftYaw() {
+    return (float) x / totalWidth * 360 - 180;
+  }
+
+  /** Returns the yaw of the right edge of the tile, in degrees. */
+  public float getRightYaw() {
+    return (float) (x + width) / totalWidth * 360 - 180;
+  }
+
+  /** Returns the pitch of the top edge of the tile, in degrees. */
+  public float getTopPitch() {
+    return 90 - (float) y / totalHeight * 180;
+  }
+
+  /** Returns the pitch of the bottom edge of the tile, in degrees. */
+  public float getBottomPitch() {
+    return 90 - (float) (y + height) / totalHeight * 180;
+  }
+
+  /**
+   * Returns the angle between a direction and the closest point of the tile, in degrees. This is 0
+   * when the direction falls inside the tile.
+   */
+  public float getAngularDistance(float yawDegrees, float pitchDegrees) {
+    float halfWidth = (getRightYaw() - getLeftYaw()) / 2;
+    float centerYaw = getLeftYaw() + halfWidth;
+    float yawOffset = Viewport.wrapYaw(yawDegrees - centerYaw);
+    float closestYaw = centerYaw + Math.max(-halfWidth, Math.min(halfWidth, yawOffset));
+    float closestPitch = Math.max(getBottomPitch(), Math.min(getTopPitch(), pitchDegrees));
+    return new Viewport(closestYaw, closestPitch).getAngularDistance(yawDegrees, pitchDegrees);
+  }
+
+  @Override
+  public String toString() {
+    return "Tile[" + index + ": " + x + "," + y + " " + width + "x" + height + "]";
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Composites the tiles of a tiled 360 video into a single frame. Each tile decoder renders into
+ * its own SurfaceTexture, and the tiles are drawn at their place in the full frame onto the
+ * SurfaceTexture of the {@link VideoTexture}, so the rest of the pipeline sees an ordinary video.
+ *
+ * <p>The compositor runs on its own thread with its own EGL context. The decoders render their
+ * tiles for the same playback position at about the same time, so a frame is composited once
+ * every tile has a new image, or shortly after the first one arrived if some tiles lag behind.
+ */
+@TargetApi(18)
+public final class TileCompositor implements SurfaceTexture.OnFrameAvailableListener {
+  private static final String TAG = "TileCompositor";
+
+  /** How long to wait for the other tiles once one tile has a new image. */
+  private static final long MAX_TILE_SKEW_MS = 8;
+
+  private static final String[] VERTEX_SHADER = {
+    "uniform mat4 uSTMatrix;",
+    "attribute vec4 aPosition;",
+    "attribute vec4 aTexCoord;",
+    "varying vec2 vTexCoord;",
+    "void main() {",
+    "  gl_Position = aPosition;",
+    "  vTexCoord = (uSTMatrix * aTexCoord).xy;",
+    "}"
+  };
+
+  private static final String[] FRAGMENT_SHADER = {
+    "#extension GL_OES_EGL_image_external : require",
+    "precision mediump float;",
+    "uniform samplerExternalOES uTexture;",
+    "varying vec2 vTexCoord;",
+    "void main() {",
+    "  gl_FragColor = texture2D(uTexture, vTexCoord);",
+    "}"
+  };
+
+  /** Full viewport quad as a triangle strip: x, y, u, v. */
+  private static final float[] QUAD = {
+    -1, -1, 0, 0,
+    1, -1, 1, 0,
+    -1, 1, 0, 1,
+    1, 1, 1, 1
+  };
+
+  private final Tile[] tiles;
+  private final int width;
+  private final int height;
+  private final SurfaceTexture[] tileTextures;
+  private final Surface[] tileSurfaces;
+  private final boolean[] tileUpdated;
+  private final float[] stMatrix = new float[16];
+  private final Runnable compositeRunnable;
+
+  private HandlerThread thread;
+  private Handler handler;
+  private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+  private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+  private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+  private int[] textureIds;
+  private int program;
+  private int positionHandle;
+  private int texCoordHandle;
+  private int stMatrixHandle;
+  private FloatBuffer quad;
+  private int updatedCount;
+
+  /**
+   * @param tiles - the tiles, indexed by {@link Tile#index}.
+   * @param width - the width of the composited frame, in pixels.
+   * @param height - the height of the composited frame, in pixels.
+   */
+  public TileCompositor(List<Tile> tiles, int width, int height) {
+    this.tiles = tiles.toArray(new Tile[tiles.size()]);
+    this.width = width;
+    this.height = height;
+    tileTextures = new SurfaceTexture[this.tiles.length];
+    tileSurfaces = new Surface[this.tiles.length];
+    tileUpdated = new boolean[this.tiles.length];
+    compositeRunnable =
+        new Runnable() {
+          @Override
+          public void run() {
+            composite();
+          }
+        };
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Starts compositing onto a SurfaceTexture. Blocks until the tile surfaces are ready.
+   *
+   * @param output - the SurfaceTexture that receives the composited frames.
+   */
+  public void start(final SurfaceTexture output) {
+    thread = new HandlerThread(TAG);
+    thread.start();
+    handler = new Handler(thread.getLooper());
+    final CountDownLatch ready = new CountDownLatch(1);
+    handler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              setUp(output);
+            } finally {
+              ready.countDown();
+            }
+          }
+        });
+    try {
+      ready.await();
+    } catch (InterruptedException e) {
+      Log.w(TAG, "Interrupted waiting for the compositor to start");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Returns the surface the decoder of a tile renders into. Only valid once started. */
+  public Surface getTileSurface(int tile) {
+    return tileSurfaces[tile];
+  }
+
+  /** Stops compositing and releases the tile surfaces. */
+  public void release() {
+    if (thread == null) {
+      return;
+    }
+    handler.removeCallbacks(compositeRunnable);
+    handler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            tearDown();
+          }
+        });
+    thread.quitSafely();
+    thread = null;
+  }
+
+  @Override
+  public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+    for (int i = 0; i < tileTextures.length; i++) {
+      if (tileTextures[i] == surfaceTexture && !tileUpdated[i]) {
+        tileUpdated[i] = true;
+        updatedCount++;
+      }
+    }
+    if (updatedCount == tileTextures.length) {
+      handler.removeCallbacks(compositeRunnable);
+      composite();
+    } else if (updatedCount == 1) {
+      handler.postDelayed(compositeRunnable, MAX_TILE_SKEW_MS);
+    }
+  }
+
+  private void setUp(SurfaceTexture output) {
+    eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+    int[] version = new int[2];
+    EGL14.eglInitialize(eglDisplay, version, 0, version, 1);
+    int[] configAttributes = {
+      EGL14.EGL_RED_SIZE, 8,
+      EGL14.EGL_GREEN_SIZE, 8,
+      EGL14.EGL_BLUE_SIZE, 8,
+      EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+      EGL14.EGL_NONE
+    };
+    EGLConfig[] configs = new EGLConfig[1];
+    int[] configCount = new int[1];
+    EGL14.eglChooseConfig(eglDisplay, configAttributes, 0, configs, 0, 1, configCount, 0);
+    if (configCount[0] == 0) {
+      throw new IllegalStateException("No EGL config for the tile compositor");
+    }
+    int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+    eglContext =
+        EGL14.eglCreateContext(eglDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+    output.setDefaultBufferSize(width, height);
+    eglSurface =
+        EGL14.eglCreateWindowSurface(
+            eglDisplay, configs[0], output, new int[] {EGL14.EGL_NONE}, 0);
+    EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+
+    program = GLUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+    positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+    texCoordHandle = GLES20.glGetAttribLocation(program, "aTexCoord");
+    stMatrixHandle = GLES20.glGetUniformLocation(program, "uSTMatrix");
+    quad =
+        ByteBuffer.allocateDirect(QUAD.length * GLUtil.FLOAT_SIZE_BYTES)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    quad.put(QUAD).position(0);
+
+    textureIds = new int[tiles.length];
+    GLES20.glGenTextures(textureIds.length, textureIds, 0);
+    for (int i = 0; i < tiles.length; i++) {
+      GLES20.glBindTexture(TextureHandle.GL_TEXTURE_EXTERNAL_OES, textureIds[i]);
+      GLES20.glTexParameterf(
+          TextureHandle.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+      GLES20.glTexParameterf(
+          TextureHandle.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+      GLES20.glTexParameterf(
+          TextureHandle.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+      GLES20.glTexParameterf(
+          TextureHandle.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+      tileTextures[i] = new SurfaceTexture(textureIds[i]);
+      if (VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP) {
+        tileTextures[i].setOnFrameAvailableListener(this, handler);
+      } else {
+        // Delivered on the looper of this thread, which created the SurfaceTexture.
+        tileTextures[i].setOnFrameAvailableListener(this);
+      }
+      tileSurfaces[i] = new Surface(tileTextures[i]);
+    }
+    GLUtil.checkGlError(TAG, "setUp");
+    Log.i(TAG, "Compositing " + tiles.length + " tiles into " + width + "x" + height);
+  }
+
+  private void composite() {
+    if (eglSurface == EGL14.EGL_NO_SURFACE) {
+      return;
+    }
+    long timestampNs = 0;
+    GLES20.glUseProgram(program);
+    quad.position(0);
+    GLES20.glVertexAttribPointer(
+        positionHandle, 2, GLES20.GL_FLOAT, false, 4 * GLUtil.FLOAT_SIZE_BYTES, quad);
+    GLES20.glEnableVertexAttribArray(positionHandle);
+    quad.position(2);
+    GLES20.glVertexAttribPointer(
+        texCoordHandle, 2, GLES20.GL_FLOAT, false, 4 * GLUtil.FLOAT_SIZE_BYTES, quad);
+    GLES20.glEnableVertexAttribArray(texCoordHandle);
+
+    for (int i = 0; i < tiles.length; i++) {
+      if (tileUpdated[i]) {
+        tileTextures[i].updateTexImage();
+        tileUpdated[i] = false;
+        timestampNs = Math.max(timestampNs, tileTextures[i].getTimestamp());
+      }
+      tileTextures[i].getTransformMatrix(stMatrix);
+      GLES20.glUniformMatrix4fv(stMatrixHandle, 1, false, stMatrix, 0);
+      GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+      GLES20.glBindTexture(TextureHandle.GL_TEXTURE_EXTERNAL_OES, textureIds[i]);
+
+      // Tile positions are from the top of the frame, GL viewports from the bottom.
+      Tile tile = tiles[i];
+      int left = (int) ((long) tile.x * width / tile.totalWidth);
+      int right = (int) ((long) (tile.x + tile.width) * width / tile.totalWidth);
+      int top = (int) ((long) tile.y * height / tile.totalHeight);
+      int bottom = (int) ((long) (tile.y + tile.height) * height / tile.totalHeight);
+      GLES20.glViewport(left, height - bottom, right - left, bottom - top);
+      GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    }
+    updatedCount = 0;
+
+    EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, timestampNs);
+    EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+  }
+
+  private void tearDown() {
+    for (int i = 0; i < tiles.length; i++) {
+      if (tileSurfaces[i] != null) {
+        tileSurfaces[i].release();
+        tileTextures[i].release();
+      }
+    }
+    if (textureIds != null) {
+      GLES20.glDeleteTextures(textureIds.length, textureIds, 0);
+      GLES20.glDeleteProgram(program);
+    }
+    if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+      EGL14.eglMakeCurrent(
+          eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+      EGL14.eglDestroySurface(eglDisplay, eglSurface);
+      EGL14.eglDestroyContext(eglDisplay, eglContext);
+      // The display is shared with the renderer of the app, so it is not terminated.
+      EGL14.eglReleaseThread();
+    }
+    eglSurface = EGL14.EGL_NO_SURFACE;
+    eglDisplay = EGL14.EGL_NO_DISPLAY;
+  }
+}
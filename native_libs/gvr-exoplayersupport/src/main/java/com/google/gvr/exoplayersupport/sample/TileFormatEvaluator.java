@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import java.util.List;
+
+/**
+ * Picks the representation of one tile of a tiled 360 video at the bitrate the {@link
+ * TileScheduler} assigned to it. The bandwidth is shared between the tiles, so the bitrate is
+ * decided for all of them at once by the scheduler rather than by each tile on its own.
+ */
+public final class TileFormatEvaluator implements FormatEvaluator {
+
+  private final TileScheduler scheduler;
+  private final int tile;
+
+  /**
+   * @param scheduler - assigns the bitrate of every tile.
+   * @param tile - the index of the tile this evaluator picks for.
+   */
+  public TileFormatEvaluator(TileScheduler scheduler, int tile) {
+    this.scheduler = scheduler;
+    this.tile = tile;
+  }
+
+  @Override
+  public void enable() {
+    // Do nothing.
+  }
+
+  @Override
+  public void disable() {
+    // Do nothing.
+  }
+
+  @Override
+  public void evaluate(
+      List<? extends MediaChunk> queue,
+      long playbackPositionUs,
+      Format[] formats,
+      Evaluation evaluation) {
+    // The formats are in decreasing bandwidth order, so take the first that fits.
+    int bitrate = scheduler.getSelectedBitrate(tile);
+    Format selected = formats[formats.length - 1];
+    for (Format format : formats) {
+      if (format.bitrate <= bitrate) {
+        selected = format;
+        break;
+      }
+    }
+    Format current = evaluation.format;
+    if (current != null && selected != current) {
+      evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+    }
+    evaluation.queueSize = queue.size();
+    evaluation.format = selected;
+  }
+}
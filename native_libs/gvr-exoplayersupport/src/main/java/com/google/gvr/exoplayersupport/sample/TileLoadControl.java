@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.os.SystemClock;
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Load control shared by the sample sources of a tiled 360 video. The underlying load control
+ * decides how much is buffered in total, and the {@link TileScheduler} decides which tiles load
+ * first. The scheduler is refreshed from the predicted head orientation and the bandwidth estimate
+ * as the sample sources report their progress, which they do on the playback thread.
+ */
+public final class TileLoadControl implements LoadControl {
+
+  /** How often the tiles are rescheduled. */
+  private static final long SCHEDULE_INTERVAL_MS = 200;
+
+  private final LoadControl loadControl;
+  private final TileScheduler scheduler;
+  private final ViewportPredictor predictor;
+  private final BandwidthMeter bandwidthMeter;
+  private final long initialBandwidthBps;
+  private final float bandwidthFraction;
+  private final Map<Object, Integer> tileIndices;
+  private final long[] nextLoadPositionsUs;
+  private long lastScheduleMs;
+
+  /**
+   * @param loadControl - decides how much media is buffered across all the sample sources.
+   * @param scheduler - prioritizes the tiles.
+   * @param predictor - predicts the direction of the viewer.
+   * @param bandwidthMeter - measures the bandwidth shared by the tiles.
+   * @param initialBandwidthBps - the bandwidth to assume until there is an estimate.
+   * @param bandwidthFraction - the fraction of the estimated bandwidth the tiles may use.
+   */
+  public TileLoadControl(
+      LoadControl loadControl,
+      TileScheduler scheduler,
+      ViewportPredictor predictor,
+      BandwidthMeter bandwidthMeter,
+      long initialBandwidthBps,
+      float bandwidthFraction) {
+    this.loadControl = loadControl;
+    this.scheduler = scheduler;
+    this.predictor = predictor;
+    this.bandwidthMeter = bandwidthMeter;
+    this.initialBandwidthBps = initialBandwidthBps;
+    this.bandwidthFraction = bandwidthFraction;
+    tileIndices = new HashMap<>();
+    nextLoadPositionsUs = new long[scheduler.getTileCount()];
+    Arrays.fill(nextLoadPositionsUs, -1);
+    lastScheduleMs = -SCHEDULE_INTERVAL_MS;
+  }
+
+  /**
+   * Marks a loader as the one of a tile. Loaders that are not tiles, like the audio, are never held
+   * back.
+   */
+  public synchronized void setTile(Object loader, int tile) {
+    tileIndices.put(loader, tile);
+  }
+
+  @Override
+  public void register(Object loader, int bufferSizeContribution) {
+    loadControl.register(loader, bufferSizeContribution);
+  }
+
+  @Override
+  public void unregister(Object loader) {
+    loadControl.unregister(loader);
+  }
+
+  @Override
+  public Allocator getAllocator() {
+    return loadControl.getAllocator();
+  }
+
+  @Override
+  public void trimAllocator() {
+    loadControl.trimAllocator();
+  }
+
+  @Override
+  public synchronized boolean update(
+      Object loader, long playbackPositionUs, long nextLoadPositionUs, boolean loading) {
+    boolean shouldLoad =
+        loadControl.update(loader, playbackPositionUs, nextLoadPositionUs, loading);
+    Integer tile = tileIndices.get(loader);
+    if (tile == null) {
+      return shouldLoad;
+    }
+    nextLoadPositionsUs[tile] = nextLoadPositionUs;
+
+    long nowMs = SystemClock.elapsedRealtime();
+    if (nowMs - lastScheduleMs >= SCHEDULE_INTERVAL_MS) {
+      lastScheduleMs = nowMs;
+      long bufferedMs =
+          nextLoadPositionUs == -1 ? 0 : (nextLoadPositionUs - playbackPositionUs) / 1000;
+      long bandwidthBps = bandwidthMeter.getBitrateEstimate();
+      if (bandwidthBps == BandwidthMeter.NO_ESTIMATE) {
+        bandwidthBps = initialBandwidthBps;
+      }
+      scheduler.update(
+          predictor.predict(nowMs, bufferedMs), (long) (bandwidthBps * bandwidthFraction));
+    }
+    return shouldLoad && !scheduler.shouldDeferLoad(tile, nextLoadPositionsUs);
+  }
+}
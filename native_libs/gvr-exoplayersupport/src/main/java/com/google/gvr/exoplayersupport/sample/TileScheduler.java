@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides how each tile of a tiled 360 video is streamed, from the direction the viewer is
+ * predicted to look at. Tiles are ranked by their angular distance to that direction: tiles in the
+ * field of view come first, then the tiles within a margin around it, then the rest.
+ *
+ * <p>Every tile is always streamed at its lowest bitrate at least, so turning the head never
+ * shows a hole. The bandwidth left over is spent one bitrate step at a time, going round the
+ * visible tiles closest first, then round the adjacent ones. Hidden tiles stay at the lowest
+ * bitrate.
+ *
+ * <p>Loads are ordered the same way: a tile does not load media past the point that a tile of a
+ * higher priority has loaded up to, so the visible tiles are buffered first when the network is
+ * short.
+ *
+ * <p>The scheduler has no dependency on Android or the player, so it can be driven with synthetic
+ * pose traces. Orientations are updated from the playback thread and read from the loading
+ * callbacks, so all methods are synchronized.
+ */
+public final class TileScheduler {
+
+  public static final int PRIORITY_VISIBLE = 0;
+  public static final int PRIORITY_ADJACENT = 1;
+  public static final int PRIORITY_HIDDEN = 2;
+
+  public static final float DEFAULT_FIELD_OF_VIEW_DEGREES = 100;
+  public static final float DEFAULT_MARGIN_DEGREES = 30;
+
+  private final Tile[] tiles;
+  private final int[][] bitrates;
+  private final float fieldOfViewDegrees;
+  private final float marginDegrees;
+
+  private final float[] distances;
+  private final int[] priorities;
+  private final int[] bitrateIndices;
+  private final Integer[] order;
+
+  /**
+   * @param tiles - the tiles, indexed by {@link Tile#index}.
+   * @param bitrates - the bitrates each tile is available at, in ascending order, indexed like the
+   *     tiles.
+   * @param fieldOfViewDegrees - the angle the viewer can see.
+   * @param marginDegrees - how far outside the field of view a tile is still adjacent.
+   */
+  public TileScheduler(
+      List<Tile> tiles, int[][] bitrates, float fieldOfViewDegrees, float marginDegrees) {
+    this.tiles = tiles.toArray(new Tile[tiles.size()]);
+    this.bitrates = bitrates;
+    this.fieldOfViewDegrees = fieldOfViewDegrees;
+    this.marginDegrees = marginDegrees;
+    distances = new float[this.tiles.length];
+    priorities = new int[this.tiles.length];
+    bitrateIndices = new int[this.tiles.length];
+    order = new Integer[this.tiles.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+      priorities[i] = PRIORITY_HIDDEN;
+    }
+  }
+
+  public int getTileCount() {
+    return tiles.length;
+  }
+
+  /**
+   * Reassigns the priorities and bitrates of the tiles.
+   *
+   * @param gaze - the direction the viewer is predicted to look at.
+   * @param bandwidthBps - the bandwidth that the tiles can share, in bits per second.
+   */
+  public synchronized void update(Viewport gaze, long bandwidthBps) {
+    float visibleDistance = fieldOfViewDegrees / 2;
+    for (int i = 0; i < tiles.length; i++) {
+      distances[i] = tiles[i].getAngularDistance(gaze.yawDegrees, gaze.pitchDegrees);
+      priorities[i] =
+          distances[i] <= visibleDistance
+              ? PRIORITY_VISIBLE
+              : distances[i] <= visibleDistance + marginDegrees
+                  ? PRIORITY_ADJACENT
+                  : PRIORITY_HIDDEN;
+    }
+    Arrays.sort(
+        order,
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer a, Integer b) {
+            return Float.compare(distances[a], distances[b]);
+          }
+        });
+
+    long remaining = bandwidthBps;
+    for (int i = 0; i < tiles.length; i++) {
+      bitrateIndices[i] = 0;
+      remaining -= bitrates[i][0];
+    }
+    allocate(remaining);
+  }
+
+  /** Spends the remaining bandwidth one bitrate step at a time, visible tiles first. */
+  private void allocate(long remaining) {
+    for (int priority = PRIORITY_VISIBLE; priority < PRIORITY_HIDDEN; priority++) {
+      boolean upgraded;
+      do {
+        upgraded = false;
+        for (int tile : order) {
+          if (priorities[tile] != priority || bitrateIndices[tile] + 1 >= bitrates[tile].length) {
+            continue;
+          }
+          int index = bitrateIndices[tile];
+          int cost = bitrates[tile][index + 1] - bitrates[tile][index];
+          if (cost <= remaining) {
+            bitrateIndices[tile]++;
+            remaining -= cost;
+            upgraded = true;
+          }
+        }
+      } while (upgraded);
+    }
+  }
+
+  /** Returns the PRIORITY_* constant of a tile. */
+  public synchronized int getPriority(int tile) {
+    return priorities[tile];
+  }
+
+  /** Returns the bitrate a tile should be streamed at. */
+  public synchronized int getSelectedBitrate(int tile) {
+    return bitrates[tile][bitrateIndices[tile]];
+  }
+
+  /**
+   * Returns whether a tile should hold off loading so tiles of a higher priority load first.
+   *
+   * @param tile - the tile that wants to load.
+   * @param nextLoadPositionsUs - the position each tile would load from next, indexed like the
+   *     tiles, or -1 for tiles that have nothing to load.
+   */
+  public synchronized boolean shouldDeferLoad(int tile, long[] nextLoadPositionsUs) {
+    long position = nextLoadPositionsUs[tile];
+    if (position == -1) {
+      return false;
+    }
+    for (int i = 0; i < tiles.length; i++) {
+      if (priorities[i] < priorities[tile]
+          && nextLoadPositionsUs[i] != -1
+          && nextLoadPositionsUs[i] < position) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.ContentProtection;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import java.util.List;
+
+/**
+ * Video adaptation set of trick play representations, which hold only key frames. It is of unknown
+ * type, so chunk sources never select it for playback, but single frames of it can be decoded as
+ * previews.
+ */
+public final class TrickPlayAdaptationSet extends AdaptationSet {
+
+  /** The id of the adaptation set the trick play representations belong to, or -1 if unknown. */
+  public final int mainAdaptationSetId;
+
+  public TrickPlayAdaptationSet(
+      int id,
+      List<Representation> representations,
+      List<ContentProtection> contentProtections,
+      int mainAdaptationSetId) {
+    super(id, TYPE_UNKNOWN, representations, contentProtections);
+    this.mainAdaptationSetId = mainAdaptationSetId;
+  }
+}
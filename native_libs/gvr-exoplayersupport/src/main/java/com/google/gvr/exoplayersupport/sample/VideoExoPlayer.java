@@ -15,12 +15,24 @@
  */
 package com.google.gvr.exoplayersupport.sample;
 
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 import android.media.AudioManager;
 import android.media.MediaCodec;
+import android.media.PlaybackParams;
+import android.os.BatteryManager;
+import android.os.Bundle;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import com.google.android.exoplayer.DummyTrackRenderer;
@@ -44,6 +56,7 @@ import com.google.android.exoplayer.metadata.id3.Id3Frame;
 import com.google.android.exoplayer.text.Cue;
 import com.google.android.exoplayer.text.TextRenderer;
 import com.google.gvr.exoplayersupport.AsyncRendererBuilder;
+import com.google.gvr.exoplayersupport.DefaultVideoSupport;
 import com.google.gvr.exoplayersupport.VideoPlayer;
 import java.io.IOException;
 import java.util.List;
@@ -64,6 +77,19 @@ public class VideoExoPlayer
         ExtractorSampleSource.EventListener {
 
   private static final String TAG = "VideoExoPlayer";
+
+  /**
+   * The most tiles of a tiled video that are decoded at once. Each tile has its own decoder and
+   * renderer, placed after the RENDERER_COUNT renderers.
+   */
+  static final int MAX_TILE_RENDERERS = 8;
+
+  /** How often the distance to the live edge is checked when live latency is controlled. */
+  private static final long LIVE_LATENCY_UPDATE_INTERVAL_MS = 500;
+
+  /** How often the quality governor reads the battery and updates its limits. */
+  private static final long GOVERNOR_UPDATE_INTERVAL_MS = 5000;
+
   private ExoPlayer player;
   private final Handler mainHandler;
   private final CopyOnWriteArrayList<VideoPlayer.Listener> listeners;
@@ -77,12 +103,46 @@ public class VideoExoPlayer
   private boolean paused;
   private TrackRenderer audioRenderer;
   private TrackRenderer videoRenderer;
+  private TrackRenderer[] tileRenderers;
+  private TileCompositor tileCompositor;
   private int videoWidth;
   private int videoHeight;
 
   private Format audioFormat;
   private Format videoFormat;
 
+  private final ViewportPredictor viewportPredictor;
+
+  private LiveLatencyController liveLatencyController;
+  private long liveEdgeOffsetMs;
+  private TimeRange liveRange;
+  private float playbackSpeed;
+  private final long[] liveRangeBoundsMs;
+  private final Runnable liveLatencyUpdater;
+
+  private final DecoderWarmer decoderWarmer;
+  private String videoUrl;
+
+  private final SeekScheduler seekScheduler;
+  private final Runnable seekTimeout;
+  private PreviewFrameSource previewFrameSource;
+
+  private final Application application;
+  private final LifecycleListener lifecycleListener;
+  private final Runnable idleUpdater;
+  private PausableLoadControl loadControl;
+  private long idleTimeoutMs;
+  private boolean releaseDecoderWhenIdle;
+  private long lastActiveMs;
+  private boolean backgrounded;
+  private boolean idle;
+
+  private final Runnable videoTrackUpdater;
+  private final Runnable governorUpdater;
+  private boolean videoVisible;
+  private boolean videoTrackDisabled;
+  private int videoTrackBeforeDisable;
+
   private static VideoLooperThread videoThread = null;
 
   /**
@@ -92,7 +152,7 @@ public class VideoExoPlayer
    */
   public VideoExoPlayer(Context context) {
     audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-    player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, 1000, 5000);
+    player = ExoPlayer.Factory.newInstance(RENDERER_COUNT + MAX_TILE_RENDERERS, 1000, 5000);
 
     if (videoThread == null) {
       videoThread = new VideoLooperThread("VideoLooperThread");
@@ -113,6 +173,58 @@ public class VideoExoPlayer
     videoWidth = 0;
 
     mediaAudioVolume = 100;
+    viewportPredictor = new ViewportPredictor();
+    playbackSpeed = 1;
+    liveRangeBoundsMs = new long[2];
+    decoderWarmer = new DecoderWarmer(context);
+    seekScheduler =
+        new SeekScheduler(
+            new SeekScheduler.Seeker() {
+              @Override
+              public void seekTo(long positionMs) {
+                if (player != null) {
+                  player.seekTo(positionMs);
+                }
+              }
+            });
+    seekTimeout =
+        new Runnable() {
+          @Override
+          public void run() {
+            onSeekProcessed();
+          }
+        };
+    idleUpdater =
+        new Runnable() {
+          @Override
+          public void run() {
+            updateIdle();
+          }
+        };
+    videoTrackUpdater =
+        new Runnable() {
+          @Override
+          public void run() {
+            updateVideoTrack();
+          }
+        };
+    videoVisible = true;
+    governorUpdater =
+        new Runnable() {
+          @Override
+          public void run() {
+            updateGovernor();
+          }
+        };
+    application = (Application) context.getApplicationContext();
+    lifecycleListener = new LifecycleListener();
+    liveLatencyUpdater =
+        new Runnable() {
+          @Override
+          public void run() {
+            updateLiveLatency();
+          }
+        };
   }
 
   /**
@@ -137,6 +249,27 @@ public class VideoExoPlayer
   public boolean initialize(AsyncRendererBuilder rendererBuilder, final int targetResolution) {
 
     currentAsyncBuilder = rendererBuilder;
+    liveLatencyController = null;
+    liveRange = null;
+    seekScheduler.reset();
+    seekScheduler.setMode(DefaultVideoSupport.getSeekMode());
+    setPreviewFrameSource(null);
+    loadControl = null;
+    idle = false;
+    idleTimeoutMs = DefaultVideoSupport.getIdleTimeout();
+    releaseDecoderWhenIdle = DefaultVideoSupport.isReleaseDecoderWhenIdleEnabled();
+    // Registered until the player is released. Videos are initialized from the foreground, and
+    // unregistering first keeps a single registration if initialize is called without a stop.
+    backgrounded = false;
+    application.unregisterActivityLifecycleCallbacks(lifecycleListener);
+    application.registerActivityLifecycleCallbacks(lifecycleListener);
+
+    // The decoder is created while the builder loads the manifest.
+    videoUrl =
+        rendererBuilder instanceof DecoderWarmer.VideoSource
+            ? ((DecoderWarmer.VideoSource) rendererBuilder).getVideoUrl()
+            : null;
+    decoderWarmer.warm(videoUrl, DefaultVideoSupport.getVideoMimeTypeHint());
 
     Log.d(TAG, "initializing player rendererBuilder: " + rendererBuilder);
     mainHandler.post(
@@ -385,6 +518,13 @@ public class VideoExoPlayer
         player.setPlayWhenReady(false);
       }
       paused = !paused;
+      lastActiveMs = SystemClock.elapsedRealtime();
+      mainHandler.post(idleUpdater);
+      if (!paused) {
+        // The governor stops updating while paused.
+        mainHandler.removeCallbacks(governorUpdater);
+        mainHandler.post(governorUpdater);
+      }
     }
   }
 
@@ -412,15 +552,217 @@ public class VideoExoPlayer
   }
 
   public long getCurrentPosition() {
-    return player.getCurrentPosition();
+    // While seeks are coalesced, the position is the one asked for last, so scrubbing is smooth.
+    long pendingPositionMs = seekScheduler.getPendingPositionMs();
+    return pendingPositionMs != -1 ? pendingPositionMs : player.getCurrentPosition();
   }
 
   public void setCurrentPosition(long pos) {
     seek(pos);
   }
 
+  /**
+   * Seeks to a position. Seeks asked for while another is in flight are coalesced, and only the
+   * last is carried out once the player is ready.
+   *
+   * @param pos - the position to seek to, in milliseconds.
+   */
   public void seek(long pos) {
-    player.seekTo(pos);
+    // A seek while paused needs the media of the new position, so it counts as activity.
+    lastActiveMs = SystemClock.elapsedRealtime();
+    mainHandler.post(idleUpdater);
+    seekScheduler.seekTo(pos, lastActiveMs);
+    mainHandler.removeCallbacks(seekTimeout);
+    if (seekScheduler.isSeekInFlight()) {
+      mainHandler.postDelayed(seekTimeout, SeekScheduler.MAX_IN_FLIGHT_MS);
+    }
+  }
+
+  /**
+   * Selects where seeks land.
+   *
+   * @param mode - VideoPlayerFactory.SeekExact, SeekPreviousSync or SeekClosestSync.
+   */
+  public void setSeekMode(int mode) {
+    seekScheduler.setMode(mode);
+  }
+
+  /** Returns the scheduler of the seeks, which holds the count of seeks coalesced. */
+  public SeekScheduler getSeekScheduler() {
+    return seekScheduler;
+  }
+
+  /**
+   * Sets the index of the sync points of the video, which seeks are moved to depending on the seek
+   * mode. Called by a renderer builder before the renderers are passed on.
+   *
+   * @param syncIndex - the sync index, or null if the sync points are not known.
+   */
+  void setSyncIndex(SeekScheduler.SyncIndex syncIndex) {
+    seekScheduler.setSyncIndex(syncIndex);
+  }
+
+  @Override
+  public Bitmap getPreviewFrame(long positionMs) {
+    PreviewFrameSource source = previewFrameSource;
+    return source != null ? source.getPreviewFrame(positionMs) : null;
+  }
+
+  /**
+   * Sets the source of the previews shown while scrubbing, releasing the previous one. Called by a
+   * renderer builder before the renderers are passed on.
+   *
+   * @param source - the preview source, or null if the video has no previews.
+   */
+  void setPreviewFrameSource(PreviewFrameSource source) {
+    PreviewFrameSource previous = previewFrameSource;
+    previewFrameSource = source;
+    if (previous != null) {
+      Log.i(TAG, "Previews: " + previous);
+      previous.release();
+    }
+  }
+
+  /**
+   * Sets the load control of the video, which loading is held back through while the player is
+   * idle. Called by a renderer builder before the renderers are passed on.
+   */
+  void setLoadControl(PausableLoadControl loadControl) {
+    this.loadControl = loadControl;
+  }
+
+  /** Returns true if the player stopped loading because it has been paused for long. */
+  public boolean isIdle() {
+    return idle;
+  }
+
+  /**
+   * Stops loading once playback has been paused for the idle timeout, or at once while the app is
+   * in the background, and resumes loading when playback resumes or seeks. Runs on the video
+   * thread.
+   */
+  private void updateIdle() {
+    mainHandler.removeCallbacks(idleUpdater);
+    if (player == null) {
+      return;
+    }
+    long idleInMs =
+        backgrounded ? 0 : lastActiveMs + idleTimeoutMs - SystemClock.elapsedRealtime();
+    boolean shouldIdle = paused && idleTimeoutMs != 0 && idleInMs <= 0;
+    if (shouldIdle == idle) {
+      if (paused && !idle && idleTimeoutMs != 0) {
+        mainHandler.postDelayed(idleUpdater, idleInMs);
+      }
+      return;
+    }
+    if (shouldIdle) {
+      enterIdle();
+    } else {
+      exitIdle();
+    }
+  }
+
+  private void enterIdle() {
+    idle = true;
+    if (loadControl != null) {
+      loadControl.setLoadingAllowed(false);
+    }
+    updateVideoTrack();
+    Log.i(TAG, "Idle" + (backgrounded ? " in the background" : "") + ", stopped loading");
+  }
+
+  private void exitIdle() {
+    idle = false;
+    if (loadControl != null) {
+      loadControl.setLoadingAllowed(true);
+    }
+    updateVideoTrack();
+    Log.i(TAG, "No longer idle, resumed loading");
+  }
+
+  @Override
+  public void setVideoVisible(final boolean visible) {
+    mainHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            videoVisible = visible;
+            updateVideoTrack();
+          }
+        });
+  }
+
+  /** Returns false if the video was marked as not visible. */
+  public boolean isVideoVisible() {
+    return videoVisible;
+  }
+
+  /**
+   * Disables the video track while the video is not visible, or while the player is idle and
+   * releases its decoder when idle, and enables it again afterwards. Disabling the track releases
+   * the decoder and stops loading the video, while the audio keeps playing and keeps the position.
+   * Videos without audio keep their video track, as the player would end without an enabled
+   * track. Runs on the video thread.
+   */
+  private void updateVideoTrack() {
+    if (player == null || tileRenderers != null || player.getTrackCount(TYPE_AUDIO) == 0) {
+      return;
+    }
+    boolean enabled = videoVisible && !(idle && releaseDecoderWhenIdle);
+    if (!enabled && !videoTrackDisabled) {
+      videoTrackBeforeDisable = player.getSelectedTrack(TYPE_VIDEO);
+      if (videoTrackBeforeDisable == ExoPlayer.TRACK_DISABLED) {
+        return;
+      }
+      videoTrackDisabled = true;
+      player.setSelectedTrack(TYPE_VIDEO, ExoPlayer.TRACK_DISABLED);
+      Log.i(TAG, "Video track disabled, playing audio only");
+    } else if (enabled && videoTrackDisabled) {
+      videoTrackDisabled = false;
+      player.setSelectedTrack(TYPE_VIDEO, videoTrackBeforeDisable);
+      Log.i(TAG, "Video track enabled again");
+    }
+  }
+
+  /**
+   * Reports the battery to the quality governor and lets it update its limits, which the chunk
+   * sources apply to their next chunks. Runs on the video thread while the player plays, and
+   * stops when it pauses, idles or ends, until playback resumes.
+   */
+  private void updateGovernor() {
+    if (player == null
+        || paused
+        || idle
+        || player.getPlaybackState() == ExoPlayer.STATE_IDLE
+        || player.getPlaybackState() == ExoPlayer.STATE_ENDED) {
+      return;
+    }
+    mainHandler.postDelayed(governorUpdater, GOVERNOR_UPDATE_INTERVAL_MS);
+    QualityGovernor governor = QualityGovernor.getInstance();
+    // The battery state is a sticky broadcast, so it is read without registering a receiver.
+    Intent battery =
+        application.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    if (battery != null) {
+      int temperature = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, -1);
+      int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+      int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+      boolean charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+      if (temperature != -1 && level != -1 && scale > 0) {
+        // The temperature is reported in tenths of a degree.
+        governor.onBatteryChanged(temperature / 10f, level * 100 / scale, charging);
+      }
+    }
+    if (governor.update(SystemClock.elapsedRealtime())) {
+      Log.i(TAG, "Quality governor: " + governor);
+    }
+  }
+
+  private void onSeekProcessed() {
+    mainHandler.removeCallbacks(seekTimeout);
+    seekScheduler.onSeekProcessed(SystemClock.elapsedRealtime());
+    if (seekScheduler.isSeekInFlight()) {
+      mainHandler.postDelayed(seekTimeout, SeekScheduler.MAX_IN_FLIGHT_MS);
+    }
   }
 
   public int getBufferedPercentage() {
@@ -437,11 +779,29 @@ public class VideoExoPlayer
 
   private void beginPlayback(boolean paused) {
 
-    player.sendMessage(
-        videoRenderer, MediaCodecVideoTrackRenderer.MSG_SET_SURFACE, new Surface(surfaceTexture));
+    if (tileCompositor != null) {
+      tileCompositor.start(surfaceTexture);
+      for (int i = 0; i < tileRenderers.length; i++) {
+        player.sendMessage(
+            tileRenderers[i],
+            MediaCodecVideoTrackRenderer.MSG_SET_SURFACE,
+            tileCompositor.getTileSurface(i));
+      }
+    } else {
+      player.sendMessage(
+          videoRenderer, MediaCodecVideoTrackRenderer.MSG_SET_SURFACE, new Surface(surfaceTexture));
+    }
     player.seekTo(0);
     player.setPlayWhenReady(!paused);
     this.paused = paused;
+    lastActiveMs = SystemClock.elapsedRealtime();
+    updateIdle();
+    if (liveLatencyController != null) {
+      mainHandler.removeCallbacks(liveLatencyUpdater);
+      mainHandler.postDelayed(liveLatencyUpdater, LIVE_LATENCY_UPDATE_INTERVAL_MS);
+    }
+    mainHandler.removeCallbacks(governorUpdater);
+    mainHandler.post(governorUpdater);
     videoReadyFlag = true;
     sendVideoEvent(VideoPlayer.VIDEO_EVENT_READY);
   }
@@ -495,11 +855,36 @@ public class VideoExoPlayer
       currentAsyncBuilder = null;
     }
     surfaceTexture = null;
+    decoderWarmer.release();
+    mainHandler.removeCallbacks(liveLatencyUpdater);
+    mainHandler.removeCallbacks(governorUpdater);
+    mainHandler.removeCallbacks(seekTimeout);
+    if (seekScheduler.getRequestCount() > 0) {
+      Log.i(TAG, "Seeks: " + seekScheduler);
+    }
+    seekScheduler.reset();
+    setPreviewFrameSource(null);
+    mainHandler.removeCallbacks(idleUpdater);
+    application.unregisterActivityLifecycleCallbacks(lifecycleListener);
+    loadControl = null;
+    idle = false;
+    videoTrackDisabled = false;
+    if (liveLatencyController != null) {
+      Log.i(TAG, "Live latency: " + liveLatencyController);
+      liveLatencyController = null;
+    }
+    liveRange = null;
+    playbackSpeed = 1;
     if (player != null) {
       paused = false;
       player.release();
       player = null;
     }
+    if (tileCompositor != null) {
+      tileCompositor.release();
+      tileCompositor = null;
+      tileRenderers = null;
+    }
   }
 
   /**
@@ -509,6 +894,24 @@ public class VideoExoPlayer
    *     element may be null if there do not exist tracks of the corresponding type.
    */
   void onRenderers(TrackRenderer[] renderers) {
+    onRenderers(renderers, null, null);
+  }
+
+  /**
+   * Invoked with the results from a RendererBuilder that plays a tiled video. The tiles are decoded
+   * by renderers of their own and composited onto the SurfaceTexture, in place of a video renderer.
+   *
+   * @param renderers Renderers indexed by {@link VideoExoPlayer} TYPE_* constants.
+   * @param tileRenderers The video renderer of each tile, at most MAX_TILE_RENDERERS of them.
+   * @param tileCompositor Composites the frames of the tile renderers.
+   */
+  void onTiledRenderers(
+      TrackRenderer[] renderers, TrackRenderer[] tileRenderers, TileCompositor tileCompositor) {
+    onRenderers(renderers, tileRenderers, tileCompositor);
+  }
+
+  private void onRenderers(
+      TrackRenderer[] renderers, TrackRenderer[] tileRenderers, TileCompositor tileCompositor) {
     Log.d(TAG, "renderers set!");
     for (int i = 0; i < RENDERER_COUNT; i++) {
       if (renderers[i] == null) {
@@ -527,7 +930,19 @@ public class VideoExoPlayer
       return;
     }
     player.addListener(new VideoLooperListener());
-    player.prepare(videoRenderer, audioRenderer);
+    // The renderer creates its own decoder once prepared, so the warm one makes way for it.
+    decoderWarmer.release();
+    if (tileRenderers != null) {
+      this.tileRenderers = tileRenderers;
+      this.tileCompositor = tileCompositor;
+      TrackRenderer[] allRenderers = new TrackRenderer[RENDERER_COUNT + tileRenderers.length];
+      System.arraycopy(renderers, 0, allRenderers, 0, RENDERER_COUNT);
+      System.arraycopy(tileRenderers, 0, allRenderers, RENDERER_COUNT, tileRenderers.length);
+      player.prepare(allRenderers);
+      onVideoSizeChanged(tileCompositor.getWidth(), tileCompositor.getHeight(), 0, 1);
+    } else {
+      player.prepare(videoRenderer, audioRenderer);
+    }
 
     // Set current media volume on new audio renderer.
     setCurrentVolume(mediaAudioVolume);
@@ -552,6 +967,107 @@ public class VideoExoPlayer
     return mainHandler;
   }
 
+  @Override
+  public void setViewOrientation(float yawDegrees, float pitchDegrees) {
+    viewportPredictor.addSample(yawDegrees, pitchDegrees, SystemClock.elapsedRealtime());
+  }
+
+  ViewportPredictor getViewportPredictor() {
+    return viewportPredictor;
+  }
+
+  /**
+   * Keeps live playback at the target latency of a controller, by changing the playback speed.
+   * Called by a renderer builder before the renderers are passed on.
+   *
+   * @param controller - decides the playback speed from the distance to the live edge.
+   * @param liveEdgeOffsetMs - how far ahead of the actual live edge the available range of the
+   *     stream is reported, when segments are requested before they are complete.
+   */
+  void setLiveLatencyController(LiveLatencyController controller, long liveEdgeOffsetMs) {
+    this.liveLatencyController = controller;
+    this.liveEdgeOffsetMs = liveEdgeOffsetMs;
+  }
+
+  /**
+   * Returns the controller of the latency of live playback, which holds the drift metrics, or null
+   * if the latency of the current video is not controlled.
+   */
+  public LiveLatencyController getLiveLatencyController() {
+    return liveLatencyController;
+  }
+
+  private void updateLiveLatency() {
+    LiveLatencyController controller = liveLatencyController;
+    if (player == null || controller == null) {
+      return;
+    }
+    mainHandler.postDelayed(liveLatencyUpdater, LIVE_LATENCY_UPDATE_INTERVAL_MS);
+    long liveEdgeMs = getLiveEdgeMs();
+    if (liveEdgeMs == -1
+        || player.getPlaybackState() != ExoPlayer.STATE_READY
+        || !player.getPlayWhenReady()) {
+      controller.pause();
+      setPlaybackSpeed(1);
+      return;
+    }
+    float speed =
+        controller.update(
+            liveEdgeMs, player.getCurrentPosition(), SystemClock.elapsedRealtime());
+    long seekPositionMs = controller.getCatchUpSeekPositionMs(liveEdgeMs);
+    if (seekPositionMs != -1) {
+      Log.i(TAG, "Too far behind the live edge, seeking to " + seekPositionMs);
+      // Through the scheduler, so the seek follows the seek mode and coalesces with user seeks.
+      seek(seekPositionMs);
+      speed = 1;
+    }
+    setPlaybackSpeed(speed);
+  }
+
+  /**
+   * Returns the position of the live edge, or -1 if the video is not live. DASH streams report it
+   * through their available range. HLS streams do not, so the newest media loaded stands in for
+   * it, which is behind the actual edge by about the time a segment takes to be listed.
+   */
+  private long getLiveEdgeMs() {
+    if (liveRange != null) {
+      if (liveRange.isStatic()) {
+        return -1;
+      }
+      liveRange.getCurrentBoundsMs(liveRangeBoundsMs);
+      return liveRangeBoundsMs[1] - liveEdgeOffsetMs;
+    }
+    if (player.getDuration() != ExoPlayer.UNKNOWN_TIME) {
+      return -1;
+    }
+    long bufferedPositionMs = player.getBufferedPosition();
+    return bufferedPositionMs == ExoPlayer.UNKNOWN_TIME ? -1 : bufferedPositionMs;
+  }
+
+  /**
+   * Sets the playback speed. The audio renderer is the clock of playback, so the speed only
+   * changes for videos with audio, on API 23 and up.
+   */
+  @TargetApi(23)
+  private void setPlaybackSpeed(float speed) {
+    if (speed == playbackSpeed || VERSION.SDK_INT < VERSION_CODES.M || audioRenderer == null) {
+      return;
+    }
+    playbackSpeed = speed;
+    player.sendMessage(
+        audioRenderer,
+        MediaCodecAudioTrackRenderer.MSG_SET_PLAYBACK_PARAMS,
+        new PlaybackParams().setSpeed(speed));
+  }
+
+  /**
+   * Returns the listener for the renderers of the tiles of a tiled video. Errors are reported like
+   * those of the video renderer, but the size of each tile is not the size of the video.
+   */
+  MediaCodecVideoTrackRenderer.EventListener getTileRendererListener() {
+    return new TileRendererListener();
+  }
+
   public int getWidth() {
     return videoWidth;
   }
@@ -587,6 +1103,7 @@ public class VideoExoPlayer
   @Override
   public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
     Log.d(TAG, "onAvailableRangeChanged: " + sourceId);
+    liveRange = availableRange;
   }
 
   /**
@@ -705,7 +1222,7 @@ public class VideoExoPlayer
             + mediaTimeMs);
     if (sourceId == TYPE_AUDIO) {
       audioFormat = format;
-    } else if (sourceId == TYPE_VIDEO) {
+    } else if (sourceId == TYPE_VIDEO || sourceId >= RENDERER_COUNT) {
       videoFormat = format;
     }
 
@@ -726,8 +1243,8 @@ public class VideoExoPlayer
    */
   @Override
   public void onDroppedFrames(int count, long elapsed) {
-
-    Log.d(TAG, "onDroppedFrames");
+    Log.d(TAG, "onDroppedFrames " + count);
+    QualityGovernor.getInstance().onDroppedFrames(count, SystemClock.elapsedRealtime());
   }
 
   /**
@@ -799,6 +1316,12 @@ public class VideoExoPlayer
   public void onDecoderInitialized(
       String decoderName, long elapsedRealtimeMs, long initializationDurationMs) {
     Log.d(TAG, "onDecoderInitialized");
+    decoderWarmer.onDecoderInitialized(
+        videoUrl,
+        decoderName,
+        initializationDurationMs,
+        videoFormat != null ? videoFormat.width : 0,
+        videoFormat != null ? videoFormat.height : 0);
   }
 
   /**
@@ -863,6 +1386,20 @@ public class VideoExoPlayer
     @Override
     public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
       Log.i(TAG, "ExoPlayer state changed " + playWhenReady + " : " + playbackState);
+      if (playbackState == ExoPlayer.STATE_READY
+          || playbackState == ExoPlayer.STATE_ENDED
+          || playbackState == ExoPlayer.STATE_IDLE) {
+        onSeekProcessed();
+      }
+      if (playbackState == ExoPlayer.STATE_READY) {
+        // The tracks are only known once prepared, so a visibility set earlier applies now.
+        mainHandler.post(videoTrackUpdater);
+        if (playWhenReady) {
+          // Playback may resume after it ended, which stopped the governor updates.
+          mainHandler.removeCallbacks(governorUpdater);
+          mainHandler.post(governorUpdater);
+        }
+      }
     }
 
     @Override
@@ -877,6 +1414,87 @@ public class VideoExoPlayer
     }
   }
 
+  /**
+   * Tracks whether the app is in the background, where a paused player stops loading at once. The
+   * app is in the background from the pause of its activity to the resume of one.
+   */
+  private final class LifecycleListener implements Application.ActivityLifecycleCallbacks {
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+      setBackgrounded(true);
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+      setBackgrounded(false);
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+    @Override
+    public void onActivityStarted(Activity activity) {}
+
+    @Override
+    public void onActivityStopped(Activity activity) {}
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {}
+
+    private void setBackgrounded(final boolean inBackground) {
+      mainHandler.post(
+          new Runnable() {
+            @Override
+            public void run() {
+              backgrounded = inBackground;
+              updateIdle();
+            }
+          });
+    }
+  }
+
+  /** Forwards the errors of a tile renderer to the player. */
+  private class TileRendererListener implements MediaCodecVideoTrackRenderer.EventListener {
+
+    @Override
+    public void onDroppedFrames(int count, long elapsed) {
+      Log.d(TAG, "tile onDroppedFrames");
+      QualityGovernor.getInstance().onDroppedFrames(count, SystemClock.elapsedRealtime());
+    }
+
+    @Override
+    public void onVideoSizeChanged(
+        int width, int height, int unappliedRotationDegrees, float pixelWidthHeightRatio) {
+      // The size of the video is the size of the composited frame.
+    }
+
+    @Override
+    public void onDrawnToSurface(Surface surface) {
+      // Do nothing.
+    }
+
+    @Override
+    public void onDecoderInitializationError(
+        MediaCodecTrackRenderer.DecoderInitializationException e) {
+      VideoExoPlayer.this.onDecoderInitializationError(e);
+    }
+
+    @Override
+    public void onCryptoError(MediaCodec.CryptoException e) {
+      VideoExoPlayer.this.onCryptoError(e);
+    }
+
+    @Override
+    public void onDecoderInitialized(
+        String decoderName, long elapsedRealtimeMs, long initializationDurationMs) {
+      Log.d(TAG, "tile decoder initialized: " + decoderName);
+    }
+  }
+
   /**
    * Private looper thread if need when playing back video. Depending on the playback application
    * the "main" thread may not be a looper thread.
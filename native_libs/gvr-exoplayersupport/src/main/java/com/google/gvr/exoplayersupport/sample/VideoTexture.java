@@ -17,36 +17,81 @@ package com.google.gvr.exoplayersupport.sample;
 
 import android.graphics.SurfaceTexture;
 import android.opengl.GLES20;
+import android.opengl.Matrix;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
 import android.os.Handler;
 import android.util.Log;
+import com.google.gvr.exoplayersupport.DefaultVideoSupport;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** GL texture that holds a video frame. */
+/**
+ * GL texture that holds a video frame. Frames are latched at the cadence of the video, paced by a
+ * {@link FramePacer}, rather than as soon as they are available.
+ *
+ * <p>The render path, {@link #updateTexture} and the getters the renderer calls every frame, takes
+ * no lock and allocates nothing. The decoder thread only bumps a sequence number when a frame is
+ * available, and the GL thread compares it with the number of frames it has latched.
+ *
+ * <p>When {@link DefaultVideoSupport#setFrameChainSlots} is set, the frames are moved into a {@link
+ * FrameChain} once the size of the video is known, so the GL thread never latches the
+ * SurfaceTexture and picks the copied frame due on each display frame. The video texture is then a
+ * 2D texture, as given by {@link #getVideoTextureTarget}.
+ */
 public class VideoTexture implements SurfaceTexture.OnFrameAvailableListener {
 
   private static final String TAG = "VideoTexture";
 
   private SurfaceTexture surfaceTexture;
-  private boolean surfaceNeedsUpdate = false;
-  private boolean haveFirstFrame = false;
+  private final AtomicLong frameAvailableSequence = new AtomicLong();
+  private long latchedSequence = 0;
+  private volatile long movieStartSequence = 0;
+  private volatile boolean pacerResetPending = false;
+  private final FramePacer framePacer = new FramePacer();
 
   private final float[] videoSTMatrix = new float[16];
   private int[] textureIds;
   private int videoTextureId;
   private long videoTimestampNs = -1;
+  private TextureHandle textureHandle;
+  private TextureHandle identityTextureHandle;
+  private Handler handler;
+  private final VideoExoPlayer player;
+  private final int frameChainSlots;
+  private boolean frameChainUnsupported;
+  private FrameChain frameChain;
+  // Also read by the renderer on other threads, with the texture ID.
+  private volatile TextureHandle chainedTextureHandle;
+  private long chainedFrameNumber = -1;
+  private final RenderPathBenchmark renderPathBenchmark;
 
   /** Creates a VideoTexture. Must be called from the opengl thread. */
   public VideoTexture(VideoExoPlayer player) {
-    // Create the external texture used for video playback.
+    this.player = player;
+    frameChainSlots = DefaultVideoSupport.getFrameChainSlots();
+    int benchmarkFrames = DefaultVideoSupport.getRenderPathBenchmarkFrames();
+    renderPathBenchmark = benchmarkFrames > 0 ? new RenderPathBenchmark(benchmarkFrames) : null;
     textureIds = new int[1];
-    GLES20.glGenTextures(1, textureIds, 0);
+    createSurfaceTexture(player.getMainHandler());
+  }
+
+  private void createSurfaceTexture(Handler handler) {
+    this.handler = handler;
+    createExternalTexture();
+    surfaceTexture = new SurfaceTexture(videoTextureId);
+    setFrameAvailableListener();
+
+    Log.i(TAG, "Video Texture created! " + videoTextureId);
+  }
 
-    createSurfaceTexture(textureIds[0], player.getMainHandler());
+  /** Creates the external texture used for video playback, under a new name. */
+  private void createExternalTexture() {
+    GLES20.glGenTextures(1, textureIds, 0);
+    videoTextureId = textureIds[0];
+    setTextureParameters();
   }
 
-  private void createSurfaceTexture(int videoTextureId, Handler handler) {
-    this.videoTextureId = videoTextureId;
+  private void setTextureParameters() {
     GLES20.glBindTexture(TextureHandle.GL_TEXTURE_EXTERNAL_OES, videoTextureId);
     GLUtil.checkGlError(TAG, "glBindTexture videoTextureId");
 
@@ -59,14 +104,17 @@ public class VideoTexture implements SurfaceTexture.OnFrameAvailableListener {
     GLES20.glTexParameterf(
         TextureHandle.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
 
-    surfaceTexture = new SurfaceTexture(videoTextureId);
+    textureHandle = new TextureHandle(videoTextureId, TextureHandle.TextureType.TEXTURE_EXTERNAL);
+    identityTextureHandle =
+        new TextureHandle(videoTextureId, TextureHandle.TextureType.TEXTURE_EXTERNAL);
+  }
+
+  private void setFrameAvailableListener() {
     if (VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP && handler != null) {
       surfaceTexture.setOnFrameAvailableListener(this, handler);
     } else {
       surfaceTexture.setOnFrameAvailableListener(this);
     }
-
-    Log.i(TAG, "Video Texture created! " + videoTextureId);
   }
 
   /**
@@ -80,10 +128,16 @@ public class VideoTexture implements SurfaceTexture.OnFrameAvailableListener {
 
   /** Releases the video texture, deleting it's GL ID. */
   public void release() {
+    logFramePacing();
+    if (frameChain != null) {
+      frameChain.release();
+      frameChain = null;
+    }
     if (surfaceTexture != null) {
       surfaceTexture.release();
     }
-    if (textureIds != null) {
+    // While frames are chained, the texture was deleted when the SurfaceTexture was detached.
+    if (textureIds != null && textureIds[0] != 0) {
       GLES20.glDeleteTextures(textureIds.length, textureIds, 0);
       textureIds[0] = 0;
     }
@@ -94,34 +148,182 @@ public class VideoTexture implements SurfaceTexture.OnFrameAvailableListener {
    *
    * @return Whether playback has started.
    */
-  public synchronized boolean isPlaybackStarted() {
-    return haveFirstFrame;
+  public boolean isPlaybackStarted() {
+    return frameAvailableSequence.get() > movieStartSequence;
   }
 
-  /** Resets playback state. */
-  public synchronized void prepareForNewMovie() {
-    haveFirstFrame = false;
+  /**
+   * Resets playback state. The frame pacing of the previous movie is logged and the frame pacer is
+   * reset on the next update, on the GL thread.
+   */
+  public void prepareForNewMovie() {
+    movieStartSequence = frameAvailableSequence.get();
+    pacerResetPending = true;
   }
 
   /**
-   * Retrieves the latest video frame and stores it in a SurfaceTexture.
+   * Retrieves the video frame due on this display frame and stores it in a SurfaceTexture. Called
+   * once per display frame from the GL thread, where it takes no lock and allocates nothing.
    *
    * @return whether the SurfaceTexture was updated.
    */
-  public synchronized boolean updateTexture() {
-    if (surfaceNeedsUpdate) {
+  public boolean updateTexture() {
+    RenderPathBenchmark benchmark = renderPathBenchmark;
+    if (benchmark == null || benchmark.isDone() || !isPlaybackStarted()) {
+      return update();
+    }
+    benchmark.beginFrame();
+    boolean updated = update();
+    benchmark.endFrame(updated);
+    return updated;
+  }
+
+  private boolean update() {
+    if (pacerResetPending) {
+      pacerResetPending = false;
+      logFramePacing();
+      framePacer.reset();
+    }
+    if (frameChainSlots > 0 && !frameChainUnsupported) {
+      updateFrameChain();
+    }
+    long nowNs = System.nanoTime();
+    if (frameChain != null) {
+      return updateFromFrameChain(nowNs);
+    }
+    int availableFrames = (int) (frameAvailableSequence.get() - latchedSequence);
+    int framesToLatch = framePacer.getFramesToLatch(nowNs, availableFrames);
+    if (framesToLatch == 0) {
+      return false;
+    }
+    for (int i = 0; i < framesToLatch; i++) {
       surfaceTexture.updateTexImage();
-      surfaceTexture.getTransformMatrix(videoSTMatrix);
-      videoTimestampNs = surfaceTexture.getTimestamp();
-      surfaceNeedsUpdate = false;
+    }
+    latchedSequence += framesToLatch;
+    surfaceTexture.getTransformMatrix(videoSTMatrix);
+    textureHandle.setTextureMatrix(videoSTMatrix);
+    videoTimestampNs = surfaceTexture.getTimestamp();
+    framePacer.onFrameLatched(nowNs, videoTimestampNs);
+    return true;
+  }
+
+  /** Logs the judder statistics of the frames shown since the last time, if any. */
+  private void logFramePacing() {
+    if (framePacer.getLatchedFrames() > 0) {
+      Log.i(TAG, "Frame pacing: " + framePacer);
+      framePacer.resetStatistics();
+    }
+  }
+
+  /** Chains the frames once the size of the video is known, and again when it changes. */
+  private void updateFrameChain() {
+    int width = player.getWidth();
+    int height = player.getHeight();
+    if (width <= 0 || height <= 0) {
+      return;
+    }
+    if (frameChain != null && frameChain.getWidth() == width && frameChain.getHeight() == height) {
+      return;
+    }
+    detachFrameChain();
+    frameChainUnsupported = !attachFrameChain(frameChainSlots, width, height);
+  }
+
+  private boolean updateFromFrameChain(long nowNs) {
+    framePacer.onDisplayFrame(nowNs);
+    // When the next display frame is shown, in the timebase of the frame timestamps.
+    long displayTimeNs = nowNs + framePacer.getDisplayPeriodNs() - framePacer.getClockOffsetNs();
+    FrameChain.Slot slot = frameChain.acquireFrame(displayTimeNs);
+    if (slot == null || slot.getFrameNumber() == chainedFrameNumber) {
+      return false;
+    }
+    chainedFrameNumber = slot.getFrameNumber();
+    chainedTextureHandle = slot.getTextureHandle();
+    videoTimestampNs = slot.getTimestampNs();
+    framePacer.onFrameLatched(nowNs, videoTimestampNs);
+    return true;
+  }
+
+  /**
+   * Moves the frames into a {@link FrameChain}. While the frames are chained, {@link
+   * #getVideoTextureId}, {@link #getTextureHandle} and {@link #getTextureHandleWithIdentity} give
+   * the 2D texture of the frame to show, sampled with the identity matrix. Must be called from the
+   * GL thread.
+   *
+   * @param slots - the number of frames in the chain.
+   * @param width - the width of the video, in pixels.
+   * @param height - the height of the video, in pixels.
+   * @return whether the frames are chained, which needs an OpenGL ES 3 context.
+   */
+  public boolean attachFrameChain(int slots, int width, int height) {
+    if (frameChain != null) {
       return true;
     }
-    return false;
+    frameChain = FrameChain.create(surfaceTexture, this, slots, width, height);
+    if (frameChain == null) {
+      return false;
+    }
+    // Detaching the SurfaceTexture deleted the external texture, and its name may be reused.
+    textureIds[0] = 0;
+    videoTextureId = 0;
+    Matrix.setIdentityM(videoSTMatrix, 0);
+    chainedFrameNumber = -1;
+    return true;
+  }
+
+  /** Stops chaining frames and latches them on the GL thread again. Must be called from it. */
+  public void detachFrameChain() {
+    if (frameChain == null) {
+      return;
+    }
+    frameChain.release();
+    frameChain = null;
+    chainedTextureHandle = null;
+    // The external texture was deleted when the SurfaceTexture was detached. The new name must
+    // be unused when attaching, so its parameters are set afterwards.
+    GLES20.glGenTextures(1, textureIds, 0);
+    videoTextureId = textureIds[0];
+    surfaceTexture.attachToGLContext(videoTextureId);
+    setTextureParameters();
+    setFrameAvailableListener();
+    latchedSequence = frameAvailableSequence.get();
+  }
+
+  /** Enables the pacing of frames, which is enabled by default. Can be called from any thread. */
+  public void setFramePacingEnabled(boolean enabled) {
+    framePacer.setEnabled(enabled);
+  }
+
+  /**
+   * Returns the benchmark of the render path enabled by {@link
+   * DefaultVideoSupport#setRenderPathBenchmarkFrames}, or null if it is not enabled.
+   */
+  public RenderPathBenchmark getRenderPathBenchmark() {
+    return renderPathBenchmark;
   }
 
-  /** Returns the texture ID for the video texture. */
+  /** Returns the frame pacer, which holds the judder statistics. Read it on the GL thread. */
+  public FramePacer getFramePacer() {
+    return framePacer;
+  }
+
+  /**
+   * Returns the texture ID for the video texture. While frames are chained, it is the texture of
+   * the frame to show, which changes with every frame, or 0 before the first frame.
+   */
   public int getVideoTextureId() {
-    return videoTextureId;
+    TextureHandle handle = chainedTextureHandle;
+    return handle != null ? handle.getId() : videoTextureId;
+  }
+
+  /**
+   * Returns the target of the video texture: GL_TEXTURE_EXTERNAL_OES, or GL_TEXTURE_2D while
+   * frames are chained.
+   */
+  public int getVideoTextureTarget() {
+    return chainedTextureHandle != null
+        ? GLES20.GL_TEXTURE_2D
+        : TextureHandle.GL_TEXTURE_EXTERNAL_OES;
   }
 
   public int getVideoTextureWidth() { return 0; }
@@ -136,27 +338,30 @@ public class VideoTexture implements SurfaceTexture.OnFrameAvailableListener {
   }
 
   /**
-   * Gets a TextureHandle wrapping the video frame.
+   * Gets a TextureHandle wrapping the video frame. The same handle is returned on every call and
+   * its matrix follows the latched frame, so it must only be used on the GL thread. While frames
+   * are chained, it is the handle of the chain texture holding the frame.
    *
    * @return A TextureHandle wrapping the video frame with the current transform matrix.
    */
-  public synchronized TextureHandle getTextureHandle() {
-    return new TextureHandle(
-        videoTextureId, TextureHandle.TextureType.TEXTURE_EXTERNAL, videoSTMatrix);
+  public TextureHandle getTextureHandle() {
+    return chainedTextureHandle != null ? chainedTextureHandle : textureHandle;
   }
 
   /**
-   * Gets a TextureHandle wrapping the video frame.
+   * Gets a TextureHandle wrapping the video frame. The same handle is returned on every call. While
+   * frames are chained, it is the handle of the chain texture holding the frame, which is already
+   * sampled with the identity matrix.
    *
    * @return A TextureHandle wrapping the video frame with the no transformation.
    */
-  public synchronized TextureHandle getTextureHandleWithIdentity() {
-    return new TextureHandle(videoTextureId, TextureHandle.TextureType.TEXTURE_EXTERNAL);
+  public TextureHandle getTextureHandleWithIdentity() {
+    TextureHandle handle = chainedTextureHandle;
+    return handle != null ? handle : identityTextureHandle;
   }
 
   @Override
-  public synchronized void onFrameAvailable(SurfaceTexture surface) {
-    surfaceNeedsUpdate = true;
-    haveFirstFrame = true;
+  public void onFrameAvailable(SurfaceTexture surface) {
+    frameAvailableSequence.incrementAndGet();
   }
 }
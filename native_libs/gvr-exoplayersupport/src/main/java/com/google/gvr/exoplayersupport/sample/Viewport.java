@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+/**
+ * The direction a viewport dependent representation of a 360 video emphasises, such as the front
+ * face of a face-emphasised cubemap or the offset of an offset projection. Directions are in
+ * degrees: yaw 0 is the center of the equirectangular frame and grows to the right, pitch 0 is the
+ * horizon and grows upwards.
+ */
+public final class Viewport {
+
+  public final float yawDegrees;
+  public final float pitchDegrees;
+
+  public Viewport(float yawDegrees, float pitchDegrees) {
+    this.yawDegrees = wrapYaw(yawDegrees);
+    this.pitchDegrees = Math.max(-90, Math.min(90, pitchDegrees));
+  }
+
+  /**
+   * Returns the viewport at the center of a spatial relationship description region, or null if
+   * the value is malformed or covers the whole frame.
+   *
+   * @param value - the value of an SRD property: "source_id,x,y,w,h[,W,H]".
+   */
+  static Viewport fromSpatialRelationship(String value) {
+    int[] fields = parseInts(value, 5);
+    if (fields == null || fields.length < 7) {
+      // Without the total size the region cannot be placed on the sphere.
+      return null;
+    }
+    float x = fields[1];
+    float y = fields[2];
+    float width = fields[3];
+    float height = fields[4];
+    float totalWidth = fields[5];
+    float totalHeight = fields[6];
+    if (totalWidth <= 0 || totalHeight <= 0 || (width >= totalWidth && height >= totalHeight)) {
+      return null;
+    }
+    return new Viewport(
+        (x + width / 2) / totalWidth * 360 - 180, 90 - (y + height / 2) / totalHeight * 180);
+  }
+
+  /**
+   * Returns the viewport of a center direction, or null if the value is malformed.
+   *
+   * @param value - "yaw,pitch" in degrees.
+   */
+  static Viewport fromDirection(String value) {
+    if (value == null) {
+      return null;
+    }
+    String[] fields = value.split(",");
+    if (fields.length != 2) {
+      return null;
+    }
+    try {
+      return new Viewport(Float.parseFloat(fields[0].trim()), Float.parseFloat(fields[1].trim()));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** Returns the angle between this viewport and the given direction, in degrees. */
+  public float getAngularDistance(float yawDegrees, float pitchDegrees) {
+    double pitch1 = Math.toRadians(this.pitchDegrees);
+    double pitch2 = Math.toRadians(pitchDegrees);
+    double deltaYaw = Math.toRadians(yawDegrees - this.yawDegrees);
+    double cosine =
+        Math.sin(pitch1) * Math.sin(pitch2)
+            + Math.cos(pitch1) * Math.cos(pitch2) * Math.cos(deltaYaw);
+    return (float) Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, cosine))));
+  }
+
+  /** Wraps a yaw angle into [-180, 180). */
+  static float wrapYaw(float yawDegrees) {
+    float wrapped = (yawDegrees + 180) % 360;
+    if (wrapped < 0) {
+      wrapped += 360;
+    }
+    return wrapped - 180;
+  }
+
+  static int[] parseInts(String value, int minCount) {
+    if (value == null) {
+      return null;
+    }
+    String[] fields = value.split(",");
+    if (fields.length < minCount) {
+      return null;
+    }
+    int[] values = new int[fields.length];
+    try {
+      for (int i = 0; i < fields.length; i++) {
+        values[i] = Integer.parseInt(fields[i].trim());
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    return values;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof Viewport)) {
+      return false;
+    }
+    Viewport other = (Viewport) obj;
+    return yawDegrees == other.yawDegrees && pitchDegrees == other.pitchDegrees;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Float.floatToIntBits(yawDegrees) + Float.floatToIntBits(pitchDegrees);
+  }
+
+  @Override
+  public String toString() {
+    return "Viewport[yaw=" + yawDegrees + ", pitch=" + pitchDegrees + "]";
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.ContentProtection;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Video adaptation set whose representations emphasise different viewports of a 360 video. The
+ * viewport of each representation is looked up by the id of its format.
+ */
+public final class ViewportAdaptationSet extends AdaptationSet {
+
+  /** The viewport of each representation, keyed by format id. */
+  public final Map<String, Viewport> viewports;
+
+  public ViewportAdaptationSet(
+      int id,
+      List<Representation> representations,
+      List<ContentProtection> contentProtections,
+      Map<String, Viewport> viewports) {
+    super(id, TYPE_VIDEO, representations, contentProtections);
+    this.viewports = Collections.unmodifiableMap(viewports);
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the viewport of the next chunk from where the viewer is predicted to look when the chunk
+ * plays, then lets another evaluator pick the bitrate among the representations of that viewport.
+ * The prediction looks as far ahead as the buffer, so a head turn is anticipated rather than
+ * followed. A viewport is only replaced by one that is closer to the predicted direction by a
+ * margin, so small head movements do not cause switches.
+ */
+public final class ViewportEvaluator implements FormatEvaluator {
+  private static final String TAG = "ViewportEvaluator";
+
+  public static final float DEFAULT_SWITCH_MARGIN_DEGREES = 15;
+
+  private final FormatEvaluator bitrateEvaluator;
+  private final Map<String, Viewport> viewports;
+  private final ViewportPredictor predictor;
+  private final float switchMarginDegrees;
+
+  private Format[] lastFormats;
+  private Map<Viewport, Format[]> formatsByViewport;
+  private Viewport currentViewport;
+
+  /**
+   * @param bitrateEvaluator - picks the bitrate among the representations of a viewport.
+   * @param viewports - the viewport of each format, keyed by format id.
+   * @param predictor - predicts the direction of the viewer.
+   * @param switchMarginDegrees - how much closer a viewport must be to replace the current one.
+   */
+  public ViewportEvaluator(
+      FormatEvaluator bitrateEvaluator,
+      Map<String, Viewport> viewports,
+      ViewportPredictor predictor,
+      float switchMarginDegrees) {
+    this.bitrateEvaluator = bitrateEvaluator;
+    this.viewports = viewports;
+    this.predictor = predictor;
+    this.switchMarginDegrees = switchMarginDegrees;
+  }
+
+  @Override
+  public void enable() {
+    bitrateEvaluator.enable();
+    currentViewport = null;
+  }
+
+  @Override
+  public void disable() {
+    bitrateEvaluator.disable();
+  }
+
+  @Override
+  public void evaluate(
+      List<? extends MediaChunk> queue,
+      long playbackPositionUs,
+      Format[] formats,
+      Evaluation evaluation) {
+    if (formats != lastFormats) {
+      lastFormats = formats;
+      formatsByViewport = groupByViewport(formats);
+    }
+    if (formatsByViewport.isEmpty()) {
+      bitrateEvaluator.evaluate(queue, playbackPositionUs, formats, evaluation);
+      return;
+    }
+
+    // Predict the direction for when the next chunk starts playing.
+    long bufferedUs =
+        queue.isEmpty() ? 0 : queue.get(queue.size() - 1).endTimeUs - playbackPositionUs;
+    Viewport predicted = predictor.predict(SystemClock.elapsedRealtime(), bufferedUs / 1000);
+    Viewport viewport = selectViewport(predicted);
+    if (viewport != currentViewport) {
+      Log.d(TAG, "Switching to " + viewport + " for predicted " + predicted);
+      currentViewport = viewport;
+    }
+
+    // Carry the bitrate of the current format over to the new viewport, so the bitrate
+    // evaluator's damping applies to the bitrate only.
+    Format[] viewportFormats = formatsByViewport.get(viewport);
+    Format current = evaluation.format;
+    if (current != null && !viewport.equals(viewports.get(current.id))) {
+      evaluation.format = getClosestBitrate(viewportFormats, current.bitrate);
+    }
+    bitrateEvaluator.evaluate(queue, playbackPositionUs, viewportFormats, evaluation);
+    if (current != null && evaluation.format != current) {
+      evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+    }
+  }
+
+  private Viewport selectViewport(Viewport predicted) {
+    Viewport closest = null;
+    float closestDistance = Float.MAX_VALUE;
+    for (Viewport viewport : formatsByViewport.keySet()) {
+      float distance =
+          viewport.getAngularDistance(predicted.yawDegrees, predicted.pitchDegrees);
+      if (distance < closestDistance) {
+        closest = viewport;
+        closestDistance = distance;
+      }
+    }
+    if (currentViewport != null && formatsByViewport.containsKey(currentViewport)) {
+      float currentDistance =
+          currentViewport.getAngularDistance(predicted.yawDegrees, predicted.pitchDegrees);
+      if (currentDistance - closestDistance < switchMarginDegrees) {
+        return currentViewport;
+      }
+    }
+    return closest;
+  }
+
+  /** Groups the formats by viewport, keeping the order they are given in. */
+  private Map<Viewport, Format[]> groupByViewport(Format[] formats) {
+    Map<Viewport, List<Format>> lists = new HashMap<>();
+    for (Format format : formats) {
+      Viewport viewport = viewports.get(format.id);
+      if (viewport == null) {
+        continue;
+      }
+      List<Format> list = lists.get(viewport);
+      if (list == null) {
+        list = new ArrayList<>();
+        lists.put(viewport, list);
+      }
+      list.add(format);
+    }
+    Map<Viewport, Format[]> grouped = new HashMap<>();
+    for (Map.Entry<Viewport, List<Format>> entry : lists.entrySet()) {
+      grouped.put(entry.getKey(), entry.getValue().toArray(new Format[entry.getValue().size()]));
+    }
+    return grouped;
+  }
+
+  private static Format getClosestBitrate(Format[] formats, int bitrate) {
+    Format closest = formats[0];
+    for (Format format : formats) {
+      if (Math.abs(format.bitrate - bitrate) < Math.abs(closest.bitrate - bitrate)) {
+        closest = format;
+      }
+    }
+    return closest;
+  }
+}
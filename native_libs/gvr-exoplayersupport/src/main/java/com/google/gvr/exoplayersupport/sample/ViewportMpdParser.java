@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import android.util.Log;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.ContentProtection;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.dash.mpd.SegmentBase;
+import com.google.android.exoplayer.util.ParserUtil;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Parses DASH manifests like {@link MediaPresentationDescriptionParser}, and also reads the
+ * viewport of video adaptation sets that emphasise part of a 360 video. The viewport comes from a
+ * SupplementalProperty or EssentialProperty, either a spatial relationship description or a
+ * "yaw,pitch" direction.
+ *
+ * <p>All the viewport adaptation sets of a period are merged into a single {@link
+ * ViewportAdaptationSet}, so the chunk source can switch between viewports at segment boundaries
+ * the same way it switches between bitrates, without rebuffering.
+ *
+ * <p>In tiled mode the spatial relationship descriptions are read as the tiles of a tiled video
+ * instead. Each tile stays in its own {@link TileAdaptationSet}, and the tiles are placed after the
+ * other adaptation sets, so a full frame video set is still the first one found.
+ *
+ * <p>Tiles are kept out of the viewports in the other modes too. A region is a tile rather than a
+ * viewport when its description is an EssentialProperty, which marks a set that cannot be played
+ * on its own, or when the period also has the full frame of the same source. Such sets are read as
+ * {@link TileAdaptationSet} and placed last, so they are never switched to or played.
+ *
+ * <p>Thumbnail image adaptation sets and trick play video adaptation sets, marked by the DASH-IF
+ * thumbnail tile and trick mode properties, are read as {@link ThumbnailAdaptationSet} and {@link
+ * TrickPlayAdaptationSet}. Both are of unknown type, so they are only used for scrubbing previews
+ * and never played.
+ *
+ * <p>The availabilityTimeOffset of segment templates is kept too. Low latency live streams use it
+ * to announce segments before they are complete, so they can be loaded while they are encoded.
+ */
+public class ViewportMpdParser extends MediaPresentationDescriptionParser {
+  private static final String TAG = "ViewportMpdParser";
+
+  /** Spatial relationship description: "source_id,x,y,w,h,W,H". */
+  public static final String SCHEME_SRD = "urn:mpeg:dash:srd:2014";
+  /** Center of the emphasised viewport: "yaw,pitch" in degrees. */
+  public static final String SCHEME_VIEWPORT = "urn:google:dash:viewport:2016";
+  /** Grid of the thumbnails of an image adaptation set: "columnsxrows". */
+  public static final String SCHEME_THUMBNAIL_TILE = "http://dashif.org/guidelines/thumbnail_tile";
+  /** Trick play adaptation set: the id of the adaptation set it belongs to. */
+  public static final String SCHEME_TRICK_MODE = "http://dashif.org/guidelines/trickmode";
+
+  private final boolean tiled;
+  private Viewport pendingViewport;
+  private Tile pendingTile;
+  private int pendingTileSource;
+  private boolean pendingTileEssential;
+  private String pendingThumbnailGrid;
+  private boolean pendingTrickMode;
+  private int pendingTrickModeMainId;
+  private int tileCount;
+  private final Map<ViewportAdaptationSet, Tile> regionTiles = new HashMap<>();
+  private final Map<ViewportAdaptationSet, Integer> regionSources = new HashMap<>();
+  private final Set<Integer> fullFrameSources = new HashSet<>();
+  private long minAvailabilityTimeOffsetMs;
+  private volatile long availabilityTimeOffsetMs;
+
+  public ViewportMpdParser() {
+    this(false);
+  }
+
+  /** @param tiled - true to read spatial relationship descriptions as tiles. */
+  public ViewportMpdParser(boolean tiled) {
+    this.tiled = tiled;
+  }
+
+  /**
+   * Returns how early the segments of the last manifest parsed are available, from the smallest
+   * availabilityTimeOffset of its segment templates. Templates without one count as 0.
+   */
+  public long getAvailabilityTimeOffsetMs() {
+    return availabilityTimeOffsetMs;
+  }
+
+  @Override
+  protected MediaPresentationDescription parseMediaPresentationDescription(
+      XmlPullParser xpp, String baseUrl)
+      throws XmlPullParserException, IOException, ParseException {
+    minAvailabilityTimeOffsetMs = -1;
+    MediaPresentationDescription manifest = super.parseMediaPresentationDescription(xpp, baseUrl);
+    availabilityTimeOffsetMs = Math.max(0, minAvailabilityTimeOffsetMs);
+    return manifest;
+  }
+
+  @Override
+  protected SegmentBase.SegmentTemplate parseSegmentTemplate(
+      XmlPullParser xpp, String baseUrl, SegmentBase.SegmentTemplate parent)
+      throws XmlPullParserException, IOException {
+    long offsetMs = 0;
+    String value = xpp.getAttributeValue(null, "availabilityTimeOffset");
+    if (value != null) {
+      try {
+        double offsetSeconds = Double.parseDouble(value);
+        if (offsetSeconds > 0 && !Double.isInfinite(offsetSeconds)) {
+          offsetMs = (long) (offsetSeconds * 1000);
+        }
+      } catch (NumberFormatException e) {
+        // "INF" and malformed values are treated as absent.
+        Log.w(TAG, "Ignoring availabilityTimeOffset " + value);
+      }
+    }
+    if (minAvailabilityTimeOffsetMs == -1 || offsetMs < minAvailabilityTimeOffsetMs) {
+      minAvailabilityTimeOffsetMs = offsetMs;
+    }
+    return super.parseSegmentTemplate(xpp, baseUrl, parent);
+  }
+
+  @Override
+  protected AdaptationSet parseAdaptationSet(
+      XmlPullParser xpp, String baseUrl, SegmentBase segmentBase)
+      throws XmlPullParserException, IOException {
+    pendingViewport = null;
+    pendingTile = null;
+    pendingTileEssential = false;
+    pendingThumbnailGrid = null;
+    pendingTrickMode = false;
+    return super.parseAdaptationSet(xpp, baseUrl, segmentBase);
+  }
+
+  @Override
+  protected void parseAdaptationSetChild(XmlPullParser xpp)
+      throws XmlPullParserException, IOException {
+    if (!ParserUtil.isStartTag(xpp, "SupplementalProperty")
+        && !ParserUtil.isStartTag(xpp, "EssentialProperty")) {
+      super.parseAdaptationSetChild(xpp);
+      return;
+    }
+    String schemeIdUri = xpp.getAttributeValue(null, "schemeIdUri");
+    String value = xpp.getAttributeValue(null, "value");
+    Viewport viewport = null;
+    if (SCHEME_SRD.equals(schemeIdUri)) {
+      int[] fields = Viewport.parseInts(value, 7);
+      pendingTile = Tile.fromSpatialRelationship(tileCount, value);
+      if (pendingTile != null) {
+        pendingTileSource = fields[0];
+        pendingTileEssential = ParserUtil.isStartTag(xpp, "EssentialProperty");
+        if (!tiled && !pendingTileEssential) {
+          viewport = Viewport.fromSpatialRelationship(value);
+        }
+      } else if (fields != null) {
+        fullFrameSources.add(fields[0]);
+      }
+    } else if (SCHEME_VIEWPORT.equals(schemeIdUri)) {
+      viewport = Viewport.fromDirection(value);
+    } else if (SCHEME_THUMBNAIL_TILE.equals(schemeIdUri)) {
+      pendingThumbnailGrid = value;
+    } else if (SCHEME_TRICK_MODE.equals(schemeIdUri)) {
+      pendingTrickMode = true;
+      pendingTrickModeMainId = parseAdaptationSetId(value);
+    }
+    if (viewport != null) {
+      pendingViewport = viewport;
+    }
+  }
+
+  @Override
+  protected AdaptationSet buildAdaptationSet(
+      int id,
+      int contentType,
+      List<Representation> representations,
+      List<ContentProtection> contentProtections) {
+    if (pendingThumbnailGrid != null) {
+      ThumbnailAdaptationSet thumbnailSet =
+          ThumbnailAdaptationSet.fromGrid(
+              id, representations, contentProtections, pendingThumbnailGrid);
+      if (thumbnailSet != null) {
+        return thumbnailSet;
+      }
+      Log.w(TAG, "Ignoring thumbnail grid " + pendingThumbnailGrid);
+    }
+    if (pendingTrickMode && contentType == AdaptationSet.TYPE_VIDEO) {
+      return new TrickPlayAdaptationSet(
+          id, representations, contentProtections, pendingTrickModeMainId);
+    }
+    if (pendingTile != null
+        && contentType == AdaptationSet.TYPE_VIDEO
+        && (tiled || pendingTileEssential)) {
+      tileCount++;
+      return new TileAdaptationSet(id, representations, contentProtections, pendingTile);
+    }
+    if (pendingViewport == null || contentType != AdaptationSet.TYPE_VIDEO) {
+      return super.buildAdaptationSet(id, contentType, representations, contentProtections);
+    }
+    Map<String, Viewport> viewports = new HashMap<>();
+    for (Representation representation : representations) {
+      viewports.put(representation.format.id, pendingViewport);
+    }
+    ViewportAdaptationSet viewportSet =
+        new ViewportAdaptationSet(id, representations, contentProtections, viewports);
+    if (pendingTile != null) {
+      // Whether the region is a tile is only known once the whole period is read.
+      regionTiles.put(viewportSet, pendingTile);
+      regionSources.put(viewportSet, pendingTileSource);
+    }
+    return viewportSet;
+  }
+
+  @Override
+  protected Period buildPeriod(String id, long startMs, List<AdaptationSet> adaptationSets) {
+    adaptationSets = moveTilesLast(toTiles(adaptationSets));
+    tileCount = 0;
+    regionTiles.clear();
+    regionSources.clear();
+    fullFrameSources.clear();
+    List<ViewportAdaptationSet> viewportSets = new ArrayList<>();
+    for (AdaptationSet adaptationSet : adaptationSets) {
+      if (adaptationSet instanceof ViewportAdaptationSet) {
+        viewportSets.add((ViewportAdaptationSet) adaptationSet);
+      }
+    }
+    if (viewportSets.size() < 2) {
+      return super.buildPeriod(id, startMs, adaptationSets);
+    }
+
+    List<Representation> representations = new ArrayList<>();
+    List<ContentProtection> contentProtections = new ArrayList<>();
+    Map<String, Viewport> viewports = new HashMap<>();
+    for (ViewportAdaptationSet viewportSet : viewportSets) {
+      representations.addAll(viewportSet.representations);
+      viewports.putAll(viewportSet.viewports);
+      for (ContentProtection contentProtection : viewportSet.contentProtections) {
+        if (!contentProtections.contains(contentProtection)) {
+          contentProtections.add(contentProtection);
+        }
+      }
+    }
+    ViewportAdaptationSet merged =
+        new ViewportAdaptationSet(
+            viewportSets.get(0).id, representations, contentProtections, viewports);
+    Log.d(TAG, "Merged " + viewportSets.size() + " viewport adaptation sets in period " + id);
+
+    // The merged set takes the place of the first viewport set.
+    List<AdaptationSet> mergedSets = new ArrayList<>();
+    for (AdaptationSet adaptationSet : adaptationSets) {
+      if (adaptationSet == viewportSets.get(0)) {
+        mergedSets.add(merged);
+      } else if (!(adaptationSet instanceof ViewportAdaptationSet)) {
+        mergedSets.add(adaptationSet);
+      }
+    }
+    return super.buildPeriod(id, startMs, mergedSets);
+  }
+
+  private static int parseAdaptationSetId(String value) {
+    try {
+      // The value may list several ids, the first is the one played normally.
+      return value != null ? Integer.parseInt(value.trim().split("\\s+")[0]) : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /** Replaces the viewport sets of a region of a source that the period has in full by tiles. */
+  private List<AdaptationSet> toTiles(List<AdaptationSet> adaptationSets) {
+    List<AdaptationSet> converted = new ArrayList<>();
+    for (AdaptationSet adaptationSet : adaptationSets) {
+      Integer source = regionSources.get(adaptationSet);
+      if (source == null || !fullFrameSources.contains(source)) {
+        converted.add(adaptationSet);
+        continue;
+      }
+      Tile region = regionTiles.get(adaptationSet);
+      Tile tile =
+          new Tile(
+              tileCount++,
+              region.x,
+              region.y,
+              region.width,
+              region.height,
+              region.totalWidth,
+              region.totalHeight);
+      converted.add(
+          new TileAdaptationSet(
+              adaptationSet.id,
+              adaptationSet.representations,
+              adaptationSet.contentProtections,
+              tile));
+    }
+    return converted;
+  }
+
+  private static List<AdaptationSet> moveTilesLast(List<AdaptationSet> adaptationSets) {
+    List<AdaptationSet> ordered = new ArrayList<>();
+    List<AdaptationSet> tiles = new ArrayList<>();
+    for (AdaptationSet adaptationSet : adaptationSets) {
+      if (adaptationSet instanceof TileAdaptationSet) {
+        tiles.add(adaptationSet);
+      } else {
+        ordered.add(adaptationSet);
+      }
+    }
+    ordered.addAll(tiles);
+    return ordered;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+/**
+ * Predicts where the viewer will be looking from the recent head orientation samples. The angular
+ * velocity is smoothed over the samples and extrapolated linearly, over a horizon that is capped
+ * because head motion is only predictable for a short while. Orientations are pushed from the
+ * render thread and read from the playback thread, so all methods are synchronized.
+ */
+public final class ViewportPredictor {
+
+  /** Predictions never look further ahead than this. */
+  public static final long DEFAULT_MAX_HORIZON_MS = 1500;
+
+  /** Samples older than this carry no velocity; the head is assumed to have stopped. */
+  private static final long STALE_SAMPLE_MS = 500;
+
+  /** Weight of each new velocity sample in the smoothed velocity. */
+  private static final float VELOCITY_SMOOTHING = 0.3f;
+
+  private final long maxHorizonMs;
+  private boolean hasSample;
+  private float yawDegrees;
+  private float pitchDegrees;
+  private long sampleTimeMs;
+  private float yawVelocity;
+  private float pitchVelocity;
+
+  public ViewportPredictor() {
+    this(DEFAULT_MAX_HORIZON_MS);
+  }
+
+  /** @param maxHorizonMs - how far ahead predictions may look. */
+  public ViewportPredictor(long maxHorizonMs) {
+    this.maxHorizonMs = maxHorizonMs;
+  }
+
+  /**
+   * Records the current orientation.
+   *
+   * @param yawDegrees - the yaw, 0 at the center of the video and growing to the right.
+   * @param pitchDegrees - the pitch, 0 at the horizon and growing upwards.
+   * @param timeMs - when the orientation was sampled, on a monotonic clock.
+   */
+  public synchronized void addSample(float yawDegrees, float pitchDegrees, long timeMs) {
+    if (hasSample && timeMs > sampleTimeMs) {
+      float elapsedSecs = (timeMs - sampleTimeMs) / 1000f;
+      if (timeMs - sampleTimeMs > STALE_SAMPLE_MS) {
+        yawVelocity = 0;
+        pitchVelocity = 0;
+      } else {
+        float yawRate = Viewport.wrapYaw(yawDegrees - this.yawDegrees) / elapsedSecs;
+        float pitchRate = (pitchDegrees - this.pitchDegrees) / elapsedSecs;
+        yawVelocity += VELOCITY_SMOOTHING * (yawRate - yawVelocity);
+        pitchVelocity += VELOCITY_SMOOTHING * (pitchRate - pitchVelocity);
+      }
+    }
+    this.yawDegrees = yawDegrees;
+    this.pitchDegrees = pitchDegrees;
+    this.sampleTimeMs = timeMs;
+    hasSample = true;
+  }
+
+  /** Returns true once an orientation has been recorded. */
+  public synchronized boolean hasSample() {
+    return hasSample;
+  }
+
+  /**
+   * Predicts the orientation at a time in the future.
+   *
+   * @param nowMs - the current time, on the same clock as the samples.
+   * @param horizonMs - how far past nowMs to predict. Capped at the maximum horizon.
+   * @return the predicted viewport, or a viewport looking straight ahead if nothing has been
+   *     recorded.
+   */
+  public synchronized Viewport predict(long nowMs, long horizonMs) {
+    if (!hasSample) {
+      return new Viewport(0, 0);
+    }
+    long sinceSampleMs = Math.max(0, nowMs - sampleTimeMs);
+    if (sinceSampleMs > STALE_SAMPLE_MS) {
+      return new Viewport(yawDegrees, pitchDegrees);
+    }
+    float aheadSecs = (sinceSampleMs + Math.min(Math.max(horizonMs, 0), maxHorizonMs)) / 1000f;
+    return new Viewport(
+        yawDegrees + yawVelocity * aheadSecs, pitchDegrees + pitchVelocity * aheadSecs);
+  }
+}
@@ -36,8 +36,20 @@ public class WidevineTestMediaDrmCallback implements MediaDrmCallback {
   private final String defaultUri;
 
   public WidevineTestMediaDrmCallback(String contentId, String provider) {
+    this(WIDEVINE_GTS_DEFAULT_BASE_URI, contentId, provider);
+  }
+
+  /**
+   * Creates a callback that sends key requests to the given license server, for example a local
+   * stand-in server when testing license caching.
+   *
+   * @param licenseServerUri - the base URI of the license server.
+   * @param contentId - the content id of the video.
+   * @param provider - the provider id of the video.
+   */
+  public WidevineTestMediaDrmCallback(String licenseServerUri, String contentId, String provider) {
     String params = "?video_id=" + contentId + "&provider=" + provider;
-    defaultUri = WIDEVINE_GTS_DEFAULT_BASE_URI + params;
+    defaultUri = licenseServerUri + params;
   }
 
   @Override
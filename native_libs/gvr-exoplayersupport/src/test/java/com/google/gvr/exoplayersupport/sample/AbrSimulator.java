@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.util.SlidingPercentile;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays a recorded throughput trace against a {@link FormatEvaluator}, without a network or a
+ * player, to compare adaptation algorithms. The simulation is deterministic: the same trace, ladder
+ * and evaluator always give the same result.
+ *
+ * <p>Segments are downloaded one after the other at the throughput of the trace, while playback
+ * drains the buffer in real time. Loading pauses when the buffer is full, like the default load
+ * control, and the bandwidth estimate is built the same way as in DefaultBandwidthMeter.
+ *
+ * <p>Only plain Java types are used, so the simulator runs in JVM unit tests, as in {@link
+ * AbrSimulatorTest}.
+ */
+public final class AbrSimulator {
+
+  /** Creates the evaluator under test. */
+  public interface EvaluatorFactory {
+    FormatEvaluator createEvaluator(BandwidthMeter bandwidthMeter);
+  }
+
+  /** Throughput over time, as a list of (duration, bitrate) steps. Replays from the start. */
+  public static final class ThroughputTrace {
+    private final List<long[]> steps;
+
+    public ThroughputTrace() {
+      steps = new ArrayList<>();
+    }
+
+    /**
+     * Appends a step to the trace.
+     *
+     * @param durationMs - how long the throughput lasts.
+     * @param bitrate - the throughput, in bits per second.
+     */
+    public ThroughputTrace addStep(long durationMs, long bitrate) {
+      steps.add(new long[] {durationMs, bitrate});
+      return this;
+    }
+
+    /**
+     * Reads a trace with one step per line, as "durationMs bitrate" separated by whitespace or a
+     * comma. Blank lines and lines starting with '#' are ignored.
+     */
+    public static ThroughputTrace parse(Reader reader) throws IOException {
+      ThroughputTrace trace = new ThroughputTrace();
+      BufferedReader lines = new BufferedReader(reader);
+      String line;
+      while ((line = lines.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("[\\s,]+");
+        if (fields.length < 2) {
+          throw new IOException("Malformed trace line: " + line);
+        }
+        try {
+          trace.addStep(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+        } catch (NumberFormatException e) {
+          throw new IOException("Malformed trace line: " + line, e);
+        }
+      }
+      return trace;
+    }
+
+    /** Returns how long it takes to transfer the bytes from the given time, in milliseconds. */
+    long getTransferTimeMs(long startTimeMs, long bytes) {
+      long totalDurationMs = 0;
+      long maxBitrate = 0;
+      for (long[] step : steps) {
+        totalDurationMs += step[0];
+        maxBitrate = Math.max(maxBitrate, step[1]);
+      }
+      if (totalDurationMs == 0 || maxBitrate == 0) {
+        throw new IllegalStateException("Throughput trace transfers no data");
+      }
+      double bitsRemaining = bytes * 8.0;
+      long timeMs = startTimeMs;
+      while (true) {
+        long traceTimeMs = timeMs % totalDurationMs;
+        for (long[] step : steps) {
+          if (traceTimeMs >= step[0]) {
+            traceTimeMs -= step[0];
+            continue;
+          }
+          long stepRemainingMs = step[0] - traceTimeMs;
+          double stepBits = step[1] * stepRemainingMs / 1000.0;
+          if (stepBits >= bitsRemaining) {
+            return timeMs - startTimeMs + (long) Math.ceil(bitsRemaining * 1000.0 / step[1]);
+          }
+          bitsRemaining -= stepBits;
+          timeMs += stepRemainingMs;
+          traceTimeMs = 0;
+        }
+      }
+    }
+  }
+
+  /** The outcome of a simulation. */
+  public static final class Result {
+    /** The average bitrate of the downloaded segments, in bits per second. */
+    public final long averageBitrate;
+    /** The time spent stalled after startup, divided by the playback duration. */
+    public final double rebufferRatio;
+    /** The number of format switches. */
+    public final int switchCount;
+    /** The time until playback started, in milliseconds. */
+    public final long startupTimeMs;
+
+    Result(long averageBitrate, double rebufferRatio, int switchCount, long startupTimeMs) {
+      this.averageBitrate = averageBitrate;
+      this.rebufferRatio = rebufferRatio;
+      this.switchCount = switchCount;
+      this.startupTimeMs = startupTimeMs;
+    }
+
+    @Override
+    public String toString() {
+      return "averageBitrate="
+          + averageBitrate
+          + ", rebufferRatio="
+          + String.format("%.4f", rebufferRatio)
+          + ", switches="
+          + switchCount
+          + ", startupMs="
+          + startupTimeMs;
+    }
+  }
+
+  private static final int BANDWIDTH_SLIDING_WINDOW = 2000;
+  private static final float BANDWIDTH_PERCENTILE = 0.5f;
+
+  private final Format[] formats;
+  private final long segmentDurationMs;
+  private final long contentDurationMs;
+  private final long maxBufferMs;
+  private final long startBufferMs;
+
+  /**
+   * @param formats - the bitrate ladder.
+   * @param segmentDurationMs - the duration of each segment.
+   * @param contentDurationMs - the duration of the content to play.
+   * @param maxBufferMs - the buffer level at which loading pauses.
+   * @param startBufferMs - the buffer level at which playback starts or resumes after a stall.
+   */
+  public AbrSimulator(
+      Format[] formats,
+      long segmentDurationMs,
+      long contentDurationMs,
+      long maxBufferMs,
+      long startBufferMs) {
+    this.formats = formats;
+    this.segmentDurationMs = segmentDurationMs;
+    this.contentDurationMs = contentDurationMs;
+    this.maxBufferMs = maxBufferMs;
+    this.startBufferMs = startBufferMs;
+  }
+
+  /**
+   * Creates a ladder of video formats with the given bitrates, in bits per second. The formats are
+   * sorted by decreasing bitrate, which is the order the chunk sources pass them to evaluators in.
+   */
+  public static Format[] createLadder(int... bitrates) {
+    Format[] formats = new Format[bitrates.length];
+    for (int i = 0; i < bitrates.length; i++) {
+      formats[i] = new Format(Integer.toString(i), "video/mp4", -1, -1, -1, -1, -1, bitrates[i]);
+    }
+    Arrays.sort(formats, new Format.DecreasingBandwidthComparator());
+    return formats;
+  }
+
+  /** Plays the whole content over the trace with a new evaluator, and returns the outcome. */
+  public Result run(ThroughputTrace trace, EvaluatorFactory evaluatorFactory) {
+    SimulatedBandwidthMeter bandwidthMeter = new SimulatedBandwidthMeter();
+    FormatEvaluator evaluator = evaluatorFactory.createEvaluator(bandwidthMeter);
+    FormatEvaluator.Evaluation evaluation = new FormatEvaluator.Evaluation();
+    List<SimulatedChunk> queue = new ArrayList<>();
+    evaluator.enable();
+
+    long timeMs = 0;
+    long playbackPositionMs = 0;
+    long bufferedEndMs = 0;
+    boolean playing = false;
+    long startupTimeMs = -1;
+    long stallMs = 0;
+    long totalBitrate = 0;
+    int segmentCount = 0;
+    int switchCount = 0;
+    Format previous = null;
+
+    while (bufferedEndMs < contentDurationMs) {
+      // Wait for room in the buffer.
+      if (bufferedEndMs - playbackPositionMs >= maxBufferMs) {
+        long waitMs = bufferedEndMs - playbackPositionMs - maxBufferMs + 1;
+        timeMs += waitMs;
+        playbackPositionMs += waitMs;
+      }
+      while (!queue.isEmpty() && queue.get(0).endTimeUs <= playbackPositionMs * 1000) {
+        queue.remove(0);
+      }
+
+      evaluator.evaluate(queue, playbackPositionMs * 1000, formats, evaluation);
+      Format format = evaluation.format;
+      if (previous != null && format != previous) {
+        switchCount++;
+      }
+      previous = format;
+
+      long durationMs = Math.min(segmentDurationMs, contentDurationMs - bufferedEndMs);
+      long bytes = format.bitrate * durationMs / 8000;
+      long downloadMs = trace.getTransferTimeMs(timeMs, bytes);
+      bandwidthMeter.onTransfer(bytes, downloadMs);
+
+      // Playback continues while the segment downloads, stalling if the buffer runs out.
+      if (playing) {
+        long bufferedMs = bufferedEndMs - playbackPositionMs;
+        if (downloadMs > bufferedMs) {
+          stallMs += downloadMs - bufferedMs;
+          playbackPositionMs = bufferedEndMs;
+          playing = false;
+        } else {
+          playbackPositionMs += downloadMs;
+        }
+      }
+      timeMs += downloadMs;
+
+      queue.add(
+          new SimulatedChunk(
+              format, bufferedEndMs * 1000, (bufferedEndMs + durationMs) * 1000, segmentCount));
+      bufferedEndMs += durationMs;
+      totalBitrate += format.bitrate;
+      segmentCount++;
+
+      if (!playing
+          && (bufferedEndMs - playbackPositionMs >= startBufferMs
+              || bufferedEndMs >= contentDurationMs)) {
+        playing = true;
+        if (startupTimeMs < 0) {
+          startupTimeMs = timeMs;
+        }
+      }
+    }
+    evaluator.disable();
+
+    return new Result(
+        segmentCount > 0 ? totalBitrate / segmentCount : 0,
+        contentDurationMs > 0 ? (double) stallMs / contentDurationMs : 0,
+        switchCount,
+        startupTimeMs);
+  }
+
+  /** Estimates the bandwidth from the simulated transfers, like DefaultBandwidthMeter. */
+  private static final class SimulatedBandwidthMeter implements BandwidthMeter {
+    private final SlidingPercentile slidingPercentile;
+    private long bitrateEstimate;
+
+    SimulatedBandwidthMeter() {
+      slidingPercentile = new SlidingPercentile(BANDWIDTH_SLIDING_WINDOW);
+      bitrateEstimate = NO_ESTIMATE;
+    }
+
+    void onTransfer(long bytes, long durationMs) {
+      if (durationMs <= 0) {
+        return;
+      }
+      float bitsPerSecond = bytes * 8000f / durationMs;
+      slidingPercentile.addSample((int) Math.sqrt(bytes), bitsPerSecond);
+      float estimate = slidingPercentile.getPercentile(BANDWIDTH_PERCENTILE);
+      bitrateEstimate = Float.isNaN(estimate) ? NO_ESTIMATE : (long) estimate;
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+      return bitrateEstimate;
+    }
+
+    @Override
+    public void onTransferStart() {
+      // Transfers are reported whole through onTransfer.
+    }
+
+    @Override
+    public void onBytesTransferred(int bytes) {
+      // Transfers are reported whole through onTransfer.
+    }
+
+    @Override
+    public void onTransferEnd() {
+      // Transfers are reported whole through onTransfer.
+    }
+  }
+
+  /** A downloaded segment, as seen by the evaluator. It is never loaded. */
+  private static final class SimulatedChunk extends MediaChunk {
+    // There is no uri to load, which keeps android.net.Uri out of the simulation.
+    private static final DataSpec NO_DATA_SPEC = new DataSpec(null, 0, C.LENGTH_UNBOUNDED, null);
+    private static final DataSource NO_DATA_SOURCE =
+        new DataSource() {
+          @Override
+          public long open(DataSpec dataSpec) throws IOException {
+            throw new IOException("Simulated chunks are not loaded");
+          }
+
+          @Override
+          public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            throw new IOException("Simulated chunks are not loaded");
+          }
+
+          @Override
+          public void close() {
+            // Never opened.
+          }
+        };
+
+    SimulatedChunk(Format format, long startTimeUs, long endTimeUs, int chunkIndex) {
+      super(
+          NO_DATA_SOURCE,
+          NO_DATA_SPEC,
+          TRIGGER_UNSPECIFIED,
+          format,
+          startTimeUs,
+          endTimeUs,
+          chunkIndex);
+    }
+
+    @Override
+    public long bytesLoaded() {
+      return 0;
+    }
+
+    @Override
+    public void cancelLoad() {
+      // Never loaded.
+    }
+
+    @Override
+    public boolean isLoadCanceled() {
+      return false;
+    }
+
+    @Override
+    public void load() {
+      // Never loaded.
+    }
+  }
+}
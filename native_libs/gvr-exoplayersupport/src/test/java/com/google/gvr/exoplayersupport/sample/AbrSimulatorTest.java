@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Test;
+
+/**
+ * Compares {@link BufferBasedEvaluator} with the throughput based {@link
+ * FormatEvaluator.AdaptiveEvaluator} on the {@link AbrSimulator}, over a high bitrate ladder like
+ * the ones of 4K 360 videos.
+ */
+public final class AbrSimulatorTest {
+  private static final Format[] LADDER =
+      AbrSimulator.createLadder(2000000, 5000000, 10000000, 20000000, 40000000);
+  private static final long SEGMENT_MS = 2000;
+  private static final long CONTENT_MS = 600000;
+
+  private static final AbrSimulator.EvaluatorFactory THROUGHPUT =
+      new AbrSimulator.EvaluatorFactory() {
+        @Override
+        public FormatEvaluator createEvaluator(BandwidthMeter bandwidthMeter) {
+          return new FormatEvaluator.AdaptiveEvaluator(bandwidthMeter);
+        }
+      };
+
+  private static final AbrSimulator.EvaluatorFactory BUFFER =
+      new AbrSimulator.EvaluatorFactory() {
+        @Override
+        public FormatEvaluator createEvaluator(BandwidthMeter bandwidthMeter) {
+          return new BufferBasedEvaluator(bandwidthMeter);
+        }
+      };
+
+  private final AbrSimulator simulator =
+      new AbrSimulator(LADDER, SEGMENT_MS, CONTENT_MS, 30000, 2500);
+
+  @Test
+  public void switchesLessOnAFluctuatingNetwork() {
+    // The throughput swings around the middle of the ladder every few seconds.
+    AbrSimulator.ThroughputTrace trace =
+        new AbrSimulator.ThroughputTrace()
+            .addStep(3000, 30000000)
+            .addStep(2000, 9000000)
+            .addStep(4000, 25000000)
+            .addStep(3000, 12000000);
+    AbrSimulator.Result throughput = simulator.run(trace, THROUGHPUT);
+    AbrSimulator.Result buffer = simulator.run(trace, BUFFER);
+
+    assertTrue(buffer + " vs " + throughput, buffer.switchCount < throughput.switchCount);
+    assertTrue(buffer.rebufferRatio <= throughput.rebufferRatio);
+    // Without giving up quality for it.
+    assertTrue(buffer.averageBitrate >= throughput.averageBitrate * 9 / 10);
+  }
+
+  @Test
+  public void reachesTheTopOfTheLadderOnAFastNetwork() {
+    AbrSimulator.ThroughputTrace trace =
+        new AbrSimulator.ThroughputTrace().addStep(1000, 100000000);
+
+    AbrSimulator.Result throughput = simulator.run(trace, THROUGHPUT);
+    AbrSimulator.Result buffer = simulator.run(trace, BUFFER);
+
+    assertEquals(0, throughput.rebufferRatio, 0);
+    assertEquals(0, buffer.rebufferRatio, 0);
+    assertTrue(throughput.averageBitrate > LADDER[1].bitrate);
+    assertTrue(buffer.averageBitrate > LADDER[1].bitrate);
+  }
+
+  @Test
+  public void recoversFromAThroughputDrop() {
+    AbrSimulator.ThroughputTrace trace =
+        new AbrSimulator.ThroughputTrace().addStep(60000, 50000000).addStep(30000, 3000000);
+
+    AbrSimulator.Result buffer = simulator.run(trace, BUFFER);
+
+    assertTrue(buffer.toString(), buffer.rebufferRatio < 0.05);
+  }
+
+  @Test
+  public void isDeterministic() {
+    AbrSimulator.ThroughputTrace trace =
+        new AbrSimulator.ThroughputTrace().addStep(5000, 8000000).addStep(5000, 30000000);
+
+    assertEquals(simulator.run(trace, BUFFER).toString(), simulator.run(trace, BUFFER).toString());
+    assertEquals(
+        simulator.run(trace, THROUGHPUT).toString(), simulator.run(trace, THROUGHPUT).toString());
+  }
+
+  @Test
+  public void parsesRecordedTraces() throws IOException {
+    AbrSimulator.ThroughputTrace trace =
+        AbrSimulator.ThroughputTrace.parse(
+            new StringReader("# durationMs bitrate\n1000 8000000\n\n1000,16000000\n"));
+
+    // 1MB at 8Mbps, then the rest at 16Mbps.
+    assertEquals(1000, trace.getTransferTimeMs(0, 1000000));
+    assertEquals(1500, trace.getTransferTimeMs(0, 2000000));
+    // The trace replays from the start once it ends.
+    assertEquals(1000, trace.getTransferTimeMs(2000, 1000000));
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsMalformedTraces() throws IOException {
+    AbrSimulator.ThroughputTrace.parse(new StringReader("1000\n"));
+  }
+}
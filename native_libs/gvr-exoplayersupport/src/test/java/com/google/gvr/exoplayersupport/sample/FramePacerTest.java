@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gvr.exoplayersupport.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Drives the {@link FramePacer} with synthetic timings: a render loop at a fixed display rate, and
+ * a decoder that releases each frame up to 30ms before it is due.
+ */
+public final class FramePacerTest {
+  private static final long SECOND_NS = 1000000000L;
+  private static final long MAX_EARLY_NS = 30000000L;
+  private static final long DURATION_NS = 30 * SECOND_NS;
+
+  @Test
+  public void pacesFilmOnSixtyHertz() {
+    FramePacer paced = play(24, 60, true);
+    FramePacer unpaced = play(24, 60, false);
+
+    assertEquals(0, paced.getJudderFrames());
+    assertTrue(paced.getHeldDisplayFrames() > 0);
+    assertTrue(unpaced.getJudderFrames() > 100);
+    assertEquals(0, unpaced.getHeldDisplayFrames());
+    assertEquals(unpaced.getLatchedFrames(), paced.getLatchedFrames());
+  }
+
+  @Test
+  public void pacesThirtyFramesOnNinetyHertz() {
+    FramePacer paced = play(30, 90, true);
+
+    assertTrue(paced.getJudderFrames() <= 2);
+    assertTrue(play(30, 90, false).getJudderFrames() > 100);
+  }
+
+  @Test
+  public void measuresThePeriods() {
+    FramePacer pacer = play(24, 60, true);
+
+    assertEquals(SECOND_NS / 60, pacer.getDisplayPeriodNs(), 100000);
+    assertEquals(SECOND_NS / 24, pacer.getFramePeriodNs(), 100000);
+  }
+
+  @Test
+  public void doesNotHoldFramesCloseToTheDisplayRate() {
+    FramePacer pacer = play(50, 72, true);
+
+    assertEquals(0, pacer.getHeldDisplayFrames());
+  }
+
+  @Test
+  public void dropsAllButTheNewestFrame() {
+    FramePacer pacer = new FramePacer();
+
+    assertEquals(3, pacer.getFramesToLatch(0, 3));
+    pacer.onFrameLatched(0, 100);
+    assertEquals(2, pacer.getDroppedFrames());
+    assertEquals(1, pacer.getLatchedFrames());
+  }
+
+  @Test
+  public void latchesEveryFrameWhenDisabled() {
+    FramePacer pacer = new FramePacer();
+    pacer.setEnabled(false);
+    long displayPeriodNs = SECOND_NS / 60;
+    long framePeriodNs = SECOND_NS / 24;
+    long timestampNs = 0;
+    for (int i = 0; i < 100; i++) {
+      long nowNs = i * displayPeriodNs;
+      assertEquals(1, pacer.getFramesToLatch(nowNs, 1));
+      pacer.onFrameLatched(nowNs, timestampNs);
+      timestampNs += framePeriodNs;
+    }
+    assertEquals(0, pacer.getHeldDisplayFrames());
+  }
+
+  @Test
+  public void measuresTheClockOffsetAgainAfterASeek() {
+    FramePacer pacer = new FramePacer();
+    long displayPeriodNs = SECOND_NS / 60;
+    pacer.getFramesToLatch(0, 1);
+    pacer.onFrameLatched(0, 5 * SECOND_NS);
+    assertEquals(-5 * SECOND_NS, pacer.getClockOffsetNs());
+
+    // A jump back in the timestamps is a seek.
+    pacer.getFramesToLatch(displayPeriodNs, 1);
+    pacer.onFrameLatched(displayPeriodNs, SECOND_NS);
+    assertEquals(displayPeriodNs - SECOND_NS, pacer.getClockOffsetNs());
+  }
+
+  @Test
+  public void ignoresPausesOfTheRenderLoop() {
+    FramePacer pacer = new FramePacer();
+    long displayPeriodNs = SECOND_NS / 90;
+    long nowNs = 0;
+    for (int i = 0; i < 200; i++) {
+      pacer.onDisplayFrame(nowNs);
+      nowNs += displayPeriodNs;
+    }
+    pacer.onDisplayFrame(nowNs + SECOND_NS);
+
+    assertEquals(displayPeriodNs, pacer.getDisplayPeriodNs(), 100000);
+  }
+
+  @Test
+  public void resetKeepsTheDisplayPeriod() {
+    FramePacer pacer = play(24, 90, true);
+    long displayPeriodNs = pacer.getDisplayPeriodNs();
+
+    pacer.reset();
+    pacer.resetStatistics();
+    assertEquals(displayPeriodNs, pacer.getDisplayPeriodNs());
+    assertEquals(0, pacer.getFramePeriodNs());
+    assertEquals(0, pacer.getLatchedFrames());
+    assertEquals(0, pacer.getJudderFrames());
+  }
+
+  /** Plays video of a frame rate on a display of a refresh rate, and returns the pacer. */
+  private static FramePacer play(int frameRate, int refreshRate, boolean enabled) {
+    FramePacer pacer = new FramePacer();
+    pacer.setEnabled(enabled);
+    Random random = new Random(1);
+    long displayPeriodNs = SECOND_NS / refreshRate;
+    long framePeriodNs = SECOND_NS / frameRate;
+    ArrayDeque<Long> available = new ArrayDeque<>();
+    int nextFrame = 0;
+    long nextFrameAvailableNs = 0;
+    for (long nowNs = 0; nowNs < DURATION_NS; nowNs += displayPeriodNs) {
+      while (nextFrameAvailableNs <= nowNs) {
+        available.add(nextFrame * framePeriodNs);
+        nextFrame++;
+        long earlyNs = (long) (random.nextDouble() * MAX_EARLY_NS);
+        nextFrameAvailableNs = Math.max(0, nextFrame * framePeriodNs - earlyNs);
+      }
+      int framesToLatch = pacer.getFramesToLatch(nowNs, available.size());
+      long timestampNs = 0;
+      for (int i = 0; i < framesToLatch; i++) {
+        timestampNs = available.poll();
+      }
+      if (framesToLatch > 0) {
+        pacer.onFrameLatched(nowNs, timestampNs);
+      }
+    }
+    return pacer;
+  }
+}
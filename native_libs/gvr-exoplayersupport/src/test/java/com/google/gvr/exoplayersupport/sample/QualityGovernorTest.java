@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Drives the {@link QualityGovernor} with synthetic battery and dropped frame traces, updated every
+ * 5 seconds like the players do.
+ */
+public final class QualityGovernorTest {
+  private static final long UPDATE_INTERVAL_MS = 5000;
+
+  private final QualityGovernor governor = new QualityGovernor();
+  private long nowMs;
+
+  @Test
+  public void doesNotLimitACoolDevice() {
+    governor.onBatteryChanged(32, 80, false);
+    play(600000);
+
+    assertEquals(0, governor.getLevel());
+    assertEquals(QualityGovernor.NO_LIMIT, governor.getMaxHeight());
+    assertEquals(QualityGovernor.NO_LIMIT, governor.getMaxFrameRate());
+    assertEquals(0, governor.getChangeCount());
+  }
+
+  @Test
+  public void stepsUpAsTheDeviceHeats() {
+    int lastLevel = 0;
+    long lastChangeMs = -1;
+    // The battery heats from 36 to 46 degrees over 5 minutes.
+    for (int i = 0; i <= 60; i++) {
+      governor.onBatteryChanged(36 + i / 6f, 80, false);
+      play(UPDATE_INTERVAL_MS);
+      int level = governor.getLevel();
+      assertTrue(level - lastLevel <= 1);
+      if (level != lastLevel) {
+        assertTrue(lastChangeMs == -1 || nowMs - lastChangeMs >= 10000);
+        lastChangeMs = nowMs;
+      }
+      lastLevel = level;
+    }
+
+    assertEquals(QualityGovernor.MAX_LEVEL, governor.getLevel());
+    assertEquals(720, governor.getMaxHeight());
+    assertEquals(30, governor.getMaxFrameRate());
+  }
+
+  @Test
+  public void needsTheDeviceToCoolBelowAThresholdToStepDown() {
+    governor.onBatteryChanged(40.5f, 80, false);
+    play(60000);
+    assertEquals(2, governor.getLevel());
+
+    // Within a degree of the threshold, the level is kept.
+    governor.onBatteryChanged(39.5f, 80, false);
+    play(300000);
+    assertEquals(2, governor.getLevel());
+
+    governor.onBatteryChanged(38.5f, 80, false);
+    play(UPDATE_INTERVAL_MS);
+    assertEquals(1, governor.getLevel());
+    play(300000);
+    assertEquals(1, governor.getLevel());
+
+    governor.onBatteryChanged(36.5f, 80, false);
+    play(UPDATE_INTERVAL_MS);
+    assertEquals(0, governor.getLevel());
+  }
+
+  @Test
+  public void limitsALowBatteryUnlessCharging() {
+    governor.onBatteryChanged(30, 15, false);
+    play(60000);
+    assertEquals(1080, governor.getMaxHeight());
+    assertEquals(60, governor.getMaxFrameRate());
+
+    governor.onBatteryChanged(30, 8, false);
+    play(10000);
+    assertEquals(1080, governor.getMaxHeight());
+    assertEquals(30, governor.getMaxFrameRate());
+
+    governor.onBatteryChanged(30, 8, true);
+    play(600000);
+    assertEquals(0, governor.getLevel());
+  }
+
+  @Test
+  public void stepsUpOnDroppedFramesAndRecoversWithoutThem() {
+    governor.onBatteryChanged(30, 80, false);
+    for (long t = 0; t < UPDATE_INTERVAL_MS; t += 1000) {
+      governor.onDroppedFrames(20, nowMs + t);
+    }
+    play(UPDATE_INTERVAL_MS);
+    assertEquals(1, governor.getLevel());
+
+    play(50000);
+    assertEquals(1, governor.getLevel());
+    play(20000);
+    assertEquals(0, governor.getLevel());
+  }
+
+  @Test
+  public void ignoresAFewDroppedFrames() {
+    governor.onBatteryChanged(30, 80, false);
+    governor.onDroppedFrames(5, nowMs);
+    play(60000);
+
+    assertEquals(0, governor.getLevel());
+  }
+
+  @Test
+  public void movesDownAtMostEveryMinute() {
+    governor.onBatteryChanged(45, 80, false);
+    play(120000);
+    assertEquals(QualityGovernor.MAX_LEVEL, governor.getLevel());
+
+    // The last move was long ago, so the first step down is immediate.
+    governor.onBatteryChanged(30, 80, false);
+    play(UPDATE_INTERVAL_MS);
+    assertEquals(QualityGovernor.MAX_LEVEL - 1, governor.getLevel());
+    play(55000);
+    assertEquals(QualityGovernor.MAX_LEVEL - 1, governor.getLevel());
+    play(UPDATE_INTERVAL_MS);
+    assertEquals(QualityGovernor.MAX_LEVEL - 2, governor.getLevel());
+  }
+
+  @Test
+  public void removesTheLimitsWhenDisabled() {
+    governor.onBatteryChanged(45, 80, false);
+    play(120000);
+    governor.setEnabled(false);
+
+    assertFalse(governor.isEnabled());
+    assertEquals(QualityGovernor.MAX_LEVEL, governor.getLevel());
+    assertEquals(QualityGovernor.NO_LIMIT, governor.getMaxHeight());
+    assertEquals(QualityGovernor.NO_LIMIT, governor.getMaxFrameRate());
+  }
+
+  /** Updates the governor every 5 seconds over a duration. */
+  private void play(long durationMs) {
+    for (long endMs = nowMs + durationMs; nowMs < endMs; ) {
+      nowMs += UPDATE_INTERVAL_MS;
+      governor.update(nowMs);
+    }
+  }
+}
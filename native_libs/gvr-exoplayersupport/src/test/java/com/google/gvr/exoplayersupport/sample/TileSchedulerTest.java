@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gvr.exoplayersupport.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Drives the {@link TileScheduler} with synthetic pose traces over an 8x4 grid of tiles, each
+ * available at four bitrates.
+ */
+public final class TileSchedulerTest {
+  private static final int COLUMNS = 8;
+  private static final int ROWS = 4;
+  private static final int TILE_SIZE = 480;
+  private static final int[] TILE_BITRATES = {250000, 500000, 1000000, 2000000};
+  private static final long LOWEST_TOTAL_BPS = COLUMNS * ROWS * TILE_BITRATES[0];
+
+  @Test
+  public void ranksTilesByTheirDistanceToTheGaze() {
+    TileScheduler scheduler = newScheduler();
+    scheduler.update(new Viewport(20, 0), LOWEST_TOTAL_BPS);
+
+    assertEquals(TileScheduler.PRIORITY_VISIBLE, scheduler.getPriority(tileAt(20, 0)));
+    assertEquals(TileScheduler.PRIORITY_VISIBLE, scheduler.getPriority(tileAt(-40, -10)));
+    assertEquals(TileScheduler.PRIORITY_ADJACENT, scheduler.getPriority(tileAt(100, 0)));
+    assertEquals(TileScheduler.PRIORITY_ADJACENT, scheduler.getPriority(tileAt(-60, 0)));
+    assertEquals(TileScheduler.PRIORITY_HIDDEN, scheduler.getPriority(tileAt(170, 0)));
+    assertEquals(TileScheduler.PRIORITY_HIDDEN, scheduler.getPriority(tileAt(-170, 0)));
+  }
+
+  @Test
+  public void ranksTilesAcrossTheSeam() {
+    TileScheduler scheduler = newScheduler();
+    scheduler.update(new Viewport(179, 0), LOWEST_TOTAL_BPS);
+
+    assertEquals(TileScheduler.PRIORITY_VISIBLE, scheduler.getPriority(tileAt(-170, 0)));
+    assertEquals(TileScheduler.PRIORITY_VISIBLE, scheduler.getPriority(tileAt(170, 0)));
+    assertEquals(TileScheduler.PRIORITY_HIDDEN, scheduler.getPriority(tileAt(0, 0)));
+  }
+
+  @Test
+  public void streamsEveryTileAtTheLowestBitrateWhenShort() {
+    TileScheduler scheduler = newScheduler();
+    scheduler.update(new Viewport(0, 0), LOWEST_TOTAL_BPS / 2);
+
+    for (int tile = 0; tile < scheduler.getTileCount(); tile++) {
+      assertEquals(TILE_BITRATES[0], scheduler.getSelectedBitrate(tile));
+    }
+  }
+
+  @Test
+  public void spendsTheBandwidthLeftOnVisibleTilesFirst() {
+    TileScheduler scheduler = newScheduler();
+    long bandwidthBps = LOWEST_TOTAL_BPS * 2;
+    scheduler.update(new Viewport(0, 0), bandwidthBps);
+
+    long total = 0;
+    int lowestVisible = Integer.MAX_VALUE;
+    int highestAdjacent = 0;
+    for (int tile = 0; tile < scheduler.getTileCount(); tile++) {
+      int bitrate = scheduler.getSelectedBitrate(tile);
+      total += bitrate;
+      switch (scheduler.getPriority(tile)) {
+        case TileScheduler.PRIORITY_VISIBLE:
+          lowestVisible = Math.min(lowestVisible, bitrate);
+          break;
+        case TileScheduler.PRIORITY_ADJACENT:
+          highestAdjacent = Math.max(highestAdjacent, bitrate);
+          break;
+        default:
+          assertEquals(TILE_BITRATES[0], bitrate);
+          break;
+      }
+    }
+    assertTrue(total <= bandwidthBps);
+    assertTrue(lowestVisible > TILE_BITRATES[0]);
+    assertTrue(lowestVisible >= highestAdjacent);
+  }
+
+  @Test
+  public void defersLoadsBehindTilesOfAHigherPriority() {
+    TileScheduler scheduler = newScheduler();
+    scheduler.update(new Viewport(0, 0), LOWEST_TOTAL_BPS);
+    int visible = tileAt(0, 0);
+    int hidden = tileAt(170, 0);
+    long[] nextLoadPositionsUs = new long[scheduler.getTileCount()];
+    Arrays.fill(nextLoadPositionsUs, 5000000);
+
+    nextLoadPositionsUs[visible] = 2000000;
+    nextLoadPositionsUs[hidden] = 4000000;
+    assertTrue(scheduler.shouldDeferLoad(hidden, nextLoadPositionsUs));
+    assertFalse(scheduler.shouldDeferLoad(visible, nextLoadPositionsUs));
+
+    // Tiles with nothing to load do not hold the others back.
+    Arrays.fill(nextLoadPositionsUs, -1);
+    nextLoadPositionsUs[hidden] = 4000000;
+    assertFalse(scheduler.shouldDeferLoad(hidden, nextLoadPositionsUs));
+  }
+
+  @Test
+  public void upgradesTheTilesAheadOfAHeadTurn() {
+    // The head turns right at 90 degrees per second for half a second.
+    ViewportPredictor predictor = new ViewportPredictor();
+    long nowMs = 0;
+    for (; nowMs <= 500; nowMs += 16) {
+      predictor.addSample(nowMs * 90 / 1000f, 0, nowMs);
+    }
+    nowMs -= 16;
+    int ahead = tileAt(140, 0);
+
+    TileScheduler current = newScheduler();
+    current.update(predictor.predict(nowMs, 0), LOWEST_TOTAL_BPS * 2);
+    TileScheduler predicted = newScheduler();
+    predicted.update(predictor.predict(nowMs, 1000), LOWEST_TOTAL_BPS * 2);
+
+    assertEquals(TileScheduler.PRIORITY_HIDDEN, current.getPriority(ahead));
+    assertEquals(TILE_BITRATES[0], current.getSelectedBitrate(ahead));
+    assertEquals(TileScheduler.PRIORITY_VISIBLE, predicted.getPriority(ahead));
+    assertTrue(predicted.getSelectedBitrate(ahead) > TILE_BITRATES[0]);
+  }
+
+  @Test
+  public void keepsThePrioritiesOfAStillHead() {
+    ViewportPredictor predictor = new ViewportPredictor();
+    for (long timeMs = 0; timeMs <= 500; timeMs += 16) {
+      predictor.addSample(-90, 10, timeMs);
+    }
+    TileScheduler scheduler = newScheduler();
+    scheduler.update(predictor.predict(500, 1000), LOWEST_TOTAL_BPS * 2);
+
+    assertEquals(TileScheduler.PRIORITY_VISIBLE, scheduler.getPriority(tileAt(-90, 10)));
+    assertEquals(TileScheduler.PRIORITY_HIDDEN, scheduler.getPriority(tileAt(90, 10)));
+  }
+
+  private static TileScheduler newScheduler() {
+    List<Tile> tiles = new ArrayList<>();
+    int[][] bitrates = new int[COLUMNS * ROWS][];
+    for (int row = 0; row < ROWS; row++) {
+      for (int column = 0; column < COLUMNS; column++) {
+        int index = row * COLUMNS + column;
+        tiles.add(
+            new Tile(
+                index,
+                column * TILE_SIZE,
+                row * TILE_SIZE,
+                TILE_SIZE,
+                TILE_SIZE,
+                COLUMNS * TILE_SIZE,
+                ROWS * TILE_SIZE));
+        bitrates[index] = TILE_BITRATES;
+      }
+    }
+    return new TileScheduler(
+        tiles,
+        bitrates,
+        TileScheduler.DEFAULT_FIELD_OF_VIEW_DEGREES,
+        TileScheduler.DEFAULT_MARGIN_DEGREES);
+  }
+
+  /** Returns the index of the tile a direction falls in. */
+  private static int tileAt(float yawDegrees, float pitchDegrees) {
+    int column = Math.min(COLUMNS - 1, (int) ((yawDegrees + 180) / 360 * COLUMNS));
+    int row = Math.min(ROWS - 1, (int) ((90 - pitchDegrees) / 180 * ROWS));
+    return row * COLUMNS + column;
+  }
+}